@@ -0,0 +1,283 @@
+package CommunicatorP2P;
+
+import CommunicatorP2P.store.AsyncHistoryStore;
+import CommunicatorP2P.store.ChatMessage;
+import CommunicatorP2P.store.HistoryStore;
+import CommunicatorP2P.store.MessageLog;
+import CommunicatorP2P.store.MessageRing;
+import CommunicatorP2P.store.SearchIndex;
+import CommunicatorP2P.store.SearchQuery;
+import CommunicatorP2P.store.TranscriptFile;
+import javafx.collections.ObservableListBase;
+import javafx.geometry.Orientation;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.ScrollBar;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * This class is a list of messages shown in the readArea.
+ * Whole history is written to HistoryStore, in memory there is only a window of it kept in bounded MessageRing.
+ * When user scrolls to the top or to the bottom of the list, next page is read from the store
+ * and the same number of messages is dropped from the other end, so memory and render cost are constant.
+ * When history is opened, only the last page is read, older pages are read while scrolling.
+ * History is indexed by SearchIndex, results of search are shown in the same view instead of history,
+ * double click on result shows history around it.
+ * It has to be used only from FX thread.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see MessageDelivery
+ * @see MessageCell
+ * @see SearchResults
+ */
+class ChatHistory extends ObservableListBase<ChatMessage> {
+
+    /** Max number of messages kept in memory */
+    static final int WINDOW_SIZE = 500;
+
+    /** Number of messages read from the store on one scroll */
+    static final int PAGE_SIZE = 100;
+
+    /** Messages visible in the list */
+    private final MessageRing window = new MessageRing(WINDOW_SIZE);
+
+    /** Place of whole history */
+    private final HistoryStore store;
+
+    /** Full-text index of the store */
+    private final SearchIndex index;
+
+    /** Results shown in the view instead of history, null if history is shown */
+    private SearchResults results;
+
+    /** Index in the store of the first message in window */
+    private long firstIndex;
+
+    /** View showing this list, null if it is not attached */
+    private ListView<ChatMessage> view;
+
+    ChatHistory(HistoryStore store, String kind) {
+        this.store = store;
+        this.index = new SearchIndex(store, kind);
+        this.firstIndex = store.size();
+        pageOlder();
+    }
+
+    /**
+     * Method opens persistent history of given window kind in user home directory.
+     * When it is used by other window, temporary history is created.
+     * Messages are written by background thread, so they never wait for the disk.
+     */
+    static ChatHistory open(String kind) {
+        Path directory = Paths.get(System.getProperty("user.home"), ".communicatorP2P", "history", kind);
+        HistoryStore store;
+        try {
+            store = MessageLog.open(directory);
+        } catch (IOException e) {
+            System.out.println("Persistent history unavailable, temporary one is used: " + e);
+            try {
+                store = TranscriptFile.createTemporary();
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Can't create history file", ex);
+            }
+        }
+        return new ChatHistory(new AsyncHistoryStore(store, kind), kind);
+    }
+
+    @Override
+    public ChatMessage get(int index) {
+        return window.get(index);
+    }
+
+    @Override
+    public int size() {
+        return window.size();
+    }
+
+    /** Method returns true if the newest message of the store is in window */
+    private boolean isAtTail() {
+        return firstIndex + window.size() >= store.size();
+    }
+
+    /**
+     * Method appends messages to the store. If user sees the newest messages,
+     * they are also added to window, with removing the oldest ones when window is full.
+     */
+    void appendAll(List<ChatMessage> messages) {
+        boolean live = isAtTail();
+        for (ChatMessage message : messages) {
+            try {
+                store.append(message);
+            } catch (IOException e) {
+                System.out.println("History writing error: " + e);
+            }
+        }
+        index.update();
+        if (!live) { return; }
+        beginChange();
+        for (ChatMessage message : messages) {
+            if (window.isFull()) {
+                nextRemove(0, window.removeFirst());
+                firstIndex++;
+            }
+            window.addLast(message);
+            nextAdd(window.size() - 1, window.size());
+        }
+        endChange();
+        if (view != null && results == null) { view.scrollTo(window.size() - 1); }
+    }
+
+    /** Method reads page of older messages and puts them at the beginning. It returns number of read messages. */
+    int pageOlder() {
+        long oldest = store.firstIndex();
+        if (firstIndex <= oldest) { return 0; }
+        int count = (int) Math.min(PAGE_SIZE, firstIndex - oldest);
+        List<ChatMessage> page = readPage(firstIndex - count, count);
+        if (page.isEmpty()) { return 0; }
+        beginChange();
+        while (window.size() + page.size() > window.capacity()) {
+            nextRemove(window.size() - 1, window.removeLast());
+        }
+        for (int i = page.size() - 1; i >= 0; i--) {
+            window.addFirst(page.get(i));
+        }
+        nextAdd(0, page.size());
+        firstIndex -= page.size();
+        endChange();
+        return page.size();
+    }
+
+    /** Method reads page of newer messages and puts them at the end. It returns number of read messages. */
+    int pageNewer() {
+        long next = firstIndex + window.size();
+        if (next >= store.size()) { return 0; }
+        List<ChatMessage> page = readPage(next, PAGE_SIZE);
+        if (page.isEmpty()) { return 0; }
+        beginChange();
+        for (ChatMessage message : page) {
+            if (window.isFull()) {
+                nextRemove(0, window.removeFirst());
+                firstIndex++;
+            }
+            window.addLast(message);
+            nextAdd(window.size() - 1, window.size());
+        }
+        endChange();
+        return page.size();
+    }
+
+    /**
+     * Method shows in the view messages matching query typed by user, see SearchQuery.
+     * Empty query shows history again. It returns true if results are shown.
+     */
+    boolean search(String text) {
+        SearchQuery query = SearchQuery.parse(text);
+        if (query.isEmpty()) {
+            showHistory();
+            return false;
+        }
+        results = new SearchResults(store, index.search(query));
+        if (view != null) {
+            view.setPlaceholder(new Label(index.isUpToDate() ? "No messages found" : "No messages found yet, history is indexed"));
+            view.setItems(results);
+        }
+        return true;
+    }
+
+    /** Method shows history instead of search results */
+    void showHistory() {
+        results = null;
+        if (view == null) { return; }
+        view.setPlaceholder(null);
+        view.setItems(this);
+        if (isAtTail()) { view.scrollTo(window.size() - 1); }
+    }
+
+    /** Method shows history with page of messages around message of given index in the store */
+    void showAround(long storeIndex) {
+        long from = Math.max(store.firstIndex(), storeIndex - PAGE_SIZE / 2);
+        List<ChatMessage> page = readPage(from, PAGE_SIZE);
+        if (page.isEmpty()) { return; }
+        beginChange();
+        while (window.size() > 0) {
+            nextRemove(window.size() - 1, window.removeLast());
+        }
+        for (ChatMessage message : page) {
+            window.addLast(message);
+        }
+        nextAdd(0, page.size());
+        firstIndex = from;
+        endChange();
+        results = null;
+        if (view == null) { return; }
+        view.setPlaceholder(null);
+        view.setItems(this);
+        view.scrollTo((int) (storeIndex - from));
+    }
+
+    /** Method reads page from the store, on error it returns empty list */
+    private List<ChatMessage> readPage(long from, int count) {
+        try {
+            return store.read(from, count);
+        } catch (IOException e) {
+            System.out.println("History reading error: " + e);
+            return List.of();
+        }
+    }
+
+    /**
+     * Method shows this list in the view with recycled MessageCells
+     * and starts paging when vertical scroll bar reaches top or bottom.
+     */
+    void attach(ListView<ChatMessage> view) {
+        this.view = view;
+        view.setItems(this);
+        view.setCellFactory(list -> new MessageCell());
+        view.setOnMouseClicked(event -> {
+            int selected = view.getSelectionModel().getSelectedIndex();
+            if (results != null && event.getClickCount() == 2 && selected >= 0) {
+                showAround(results.storeIndexOf(selected));
+            }
+        });
+        view.skinProperty().addListener((observable, oldSkin, newSkin) -> {
+            for (Node node : view.lookupAll(".scroll-bar")) {
+                if (node instanceof ScrollBar && ((ScrollBar) node).getOrientation() == Orientation.VERTICAL) {
+                    watchScrollBar((ScrollBar) node);
+                }
+            }
+        });
+    }
+
+    /** Method pages history when scroll bar is at the end of its range */
+    private void watchScrollBar(ScrollBar scrollBar) {
+        scrollBar.valueProperty().addListener((observable, oldValue, newValue) -> {
+            double value = newValue.doubleValue();
+            if (results != null) {
+                if (value >= scrollBar.getMax()) { results.pageMore(); }
+            } else if (value <= scrollBar.getMin()) {
+                int read = pageOlder();
+                if (read > 0) { view.scrollTo(read); }
+            } else if (value >= scrollBar.getMax()) {
+                int read = pageNewer();
+                if (read > 0) { view.scrollTo(window.size() - read - 1); }
+            }
+        });
+    }
+
+    /** Method closes the index and the store, list can't be used later */
+    void close() {
+        index.close();
+        try {
+            store.close();
+        } catch (IOException e) {
+            System.out.println("History closing error: " + e);
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package CommunicatorP2P;
 
 import javafx.fxml.FXML;
-import javafx.fxml.FXMLLoader;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 
@@ -32,7 +31,7 @@ public class Controller {
 
     /**
      * Method which open new window with Guest Communicator and closing this one.
-     * GUI for guest in guest.fxml
+     * GUI for guest in guest.fxml, it is usually already loaded by SceneCache
      */
     @FXML public void guestButtonPressed() {
         try {
@@ -43,14 +42,18 @@ public class Controller {
             System.out.println("Exception: " + e);
         }
         try {
-            FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("guest.fxml"));
+            SceneCache.Loaded loaded = SceneCache.take("guest.fxml");
+            SceneCache.discard();
             Stage stage = new Stage();
             stage.setTitle("Guest Communicator");
-            stage.setScene(new Scene(fxmlLoader.load()));
+            stage.setScene(new Scene(loaded.getRoot()));
             stage.setResizable(false);
             stage.show();
-            Guest guest = fxmlLoader.getController();
-            stage.setOnCloseRequest(e -> guest.disconnect());
+            Guest guest = loaded.getController();
+            stage.setOnCloseRequest(e -> guest.close());
+            stage.focusedProperty().addListener((observable, wasFocused, focused) -> {
+                if (focused) { guest.markRead(); }
+            });
         } catch (Exception e) {
             System.out.println("Exception: " + e);
         }
@@ -58,7 +61,7 @@ public class Controller {
 
     /**
      * Method which open new window with Host Communicator and closing this one.
-     * GUI for host in host.fxml
+     * GUI for host in host.fxml, it is usually already loaded by SceneCache
      */
     @FXML public void hostButtonPressed() {
         try {
@@ -69,15 +72,19 @@ public class Controller {
             System.out.println("Exception: " + e);
         }
         try {
-            FXMLLoader fxmlLoader = new FXMLLoader(getClass().getResource("host.fxml"));
+            SceneCache.Loaded loaded = SceneCache.take("host.fxml");
+            SceneCache.discard();
             Stage stage = new Stage();
             stage.setTitle("Host Communicator");
-            stage.setScene(new Scene(fxmlLoader.load()));
+            stage.setScene(new Scene(loaded.getRoot()));
             stage.setResizable(false);
             stage.show();
-            Host host =  fxmlLoader.getController();
+            Host host = loaded.getController();
             stage.setOnCloseRequest(e -> {
-                host.disconnect();
+                host.close();
+            });
+            stage.focusedProperty().addListener((observable, wasFocused, focused) -> {
+                if (focused) { host.markRead(); }
             });
         } catch (Exception e) {
             System.out.println("Exception: " + e);
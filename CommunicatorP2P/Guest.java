@@ -1,15 +1,24 @@
 package CommunicatorP2P;
 
+import CommunicatorP2P.store.ChatMessage;
 import javafx.fxml.FXML;
 import javafx.scene.input.KeyCode;
 import javafx.scene.paint.Color;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
-import java.util.regex.Pattern;
+import javafx.stage.FileChooser;
+
+import java.io.File;
+import java.nio.file.Path;
+
+import CommunicatorP2P.core.ChatClient;
+import CommunicatorP2P.core.MessageListener;
+import CommunicatorP2P.net.ConnectionEngine;
+import CommunicatorP2P.net.DiscoveredPeer;
+import CommunicatorP2P.net.DiscoveryListener;
+import CommunicatorP2P.net.HostResolver;
+import CommunicatorP2P.net.OutboundQueue;
+import CommunicatorP2P.net.PeerDiscovery;
+import CommunicatorP2P.net.TlsContext;
+import CommunicatorP2P.protocol.Validation;
 
 /**
  * This class is a controller class for Host application
@@ -22,7 +31,7 @@ import java.util.regex.Pattern;
  * @see Guest
  */
 
-public class Guest {
+public class Guest implements AutoCloseable {
 	
 	/**
      * When is clicked connection starts - connect method.
@@ -39,13 +48,19 @@ public class Guest {
     /**When it is clicked, program sends message.*/
     @FXML private javafx.scene.control.Button send;
 
-    /**Area where received and sent text is shown.*/
-    @FXML private javafx.scene.control.TextArea readArea;
+    /**When it is clicked, user chooses file which is sent to the Host.*/
+    @FXML private javafx.scene.control.Button sendFile;
+
+    /**List where received and sent messages are shown, only visible part of history is kept in memory.*/
+    @FXML private javafx.scene.control.ListView<ChatMessage> readArea;
+
+    /**Field where user types query to search the history, see SearchQuery*/
+    @FXML private javafx.scene.control.TextField search;
 
     /**Area where user writes text to send.*/
     @FXML private javafx.scene.control.TextArea writeArea;
 
-    /**Editable area with where user have to write host IP address.*/
+    /**Editable area with where user have to write host IP address or host name.*/
     @FXML private javafx.scene.control.TextField ip;
 
     /** Editable area before connection, it gets PortNumber from User. As Default is set to port: 5000.*/
@@ -60,6 +75,12 @@ public class Guest {
     /** Uneditable area, it inform user if something in input data is wrong. */
     @FXML private javafx.scene.control.Label infoLabel;
 
+    /** Uneditable area under the readArea, it shows if host is typing or if the last message was read. */
+    @FXML private javafx.scene.control.Label statusLabel;
+
+    /** Picker of hosts found in LAN, selected host fills ip and port. */
+    @FXML private javafx.scene.control.ListView<DiscoveredPeer> peers;
+
     /** User writes friend's ipAddress, however it is controlled by checkCorrectness method. */
     private String ipAddress;
 
@@ -69,17 +90,27 @@ public class Guest {
     /** User nickName, it can only contain letters and digits, max 10. */
     private String nickName;
 
-    /** User friend's nickName, chars are controlled by friend's application. */
-    private String friendName;
+    /** Engine which runs connection of this window, apart from GUI threads. */
+    private final ConnectionEngine engine = new ConnectionEngine("guest");
 
-    /** Connection socket, null if disconnected. */
-    private Socket guestSocket;
+    /** Headless client of current connection, null if it was never connected. */
+    private ChatClient client;
 
-    /** Guest Socket input, null if socket is disconnected. */
-    private BufferedReader input;
+    /** Delivery stage which moves messages and screen changes from connection thread to the readArea. */
+    private MessageDelivery delivery;
 
-    /** Guest Socket output, null if socket is disconnected. */
-    private PrintWriter output;
+    /** History of this window, shown in the readArea */
+    private ChatHistory history;
+
+    /** State of the last sent message shown when host is not typing, used only by GUI thread */
+    private String receiptStatus = "";
+
+    /** Discovery which fills the picker, null if it is not available */
+    private PeerDiscovery discovery;
+
+    /** Listener of discovery which moves found hosts to the picker */
+    private final DiscoveryListener discoveryListener =
+            found -> this.delivery.runOnFx(() -> this.peers.getItems().setAll(found));
 
 
 
@@ -88,70 +119,83 @@ public class Guest {
      * It establish event handler on enter button to send message.
      */
     public void initialize() {
+        this.history = ChatHistory.open("guest");
+        this.history.attach(this.readArea);
+        this.delivery = new MessageDelivery(this.history);
         this.writeArea.setOnKeyPressed(event -> {
-            if(event.getCode() == KeyCode.ENTER){
-                sendMessage();
+            if (event.getCode() == KeyCode.ENTER) {
+                event.consume();
+                if (event.isShiftDown()) {
+                    this.writeArea.replaceSelection("\n");
+                } else {
+                    sendMessage();
+                }
             }
         });
-
+        this.writeArea.setOnKeyTyped(event -> {
+            ChatClient current = this.client;
+            if (current != null) { current.typing(); }
+        });
+        this.peers.getSelectionModel().selectedItemProperty().addListener((observable, previous, peer) -> {
+            if (peer == null) { return; }
+            this.ip.setText(peer.getAddress().getHostAddress());
+            this.port.setText(Integer.toString(peer.getPort()));
+        });
+        // hosts in LAN are looked for apart from GUI thread, window works also without them
+        try {
+            this.discovery = PeerDiscovery.shared();
+            this.discovery.addListener(this.discoveryListener);
+            this.discovery.query();
+        } catch (Exception e) {
+            System.out.println("Discovery problem: " + e);
+        }
     }
 
     /**
      * This method is called when connectButton is pressed.
-     * It creates new Thread, which runs Socket. This new Thread after communication is established,
-     * is listening for new messages coming from Guest and showing these messages in the readArea.
+     * Host name is resolved by HostResolver apart from GUI thread, then headless ChatClient is started,
+     * which connects to the Host in the engine, and after communication is established,
+     * passes messages coming from Host to the delivery stage by HostListener.
      */
     @FXML public void connect() {
         if (!checkCorrectness()) { return; }
         this.connectButton.setDisable(true);
-        infoLabel.setText("Write IP of your friend");
+        infoLabel.setText("Looking for " + this.ipAddress);
         infoLabel.setTextFill(Color.BLACK);
-        Thread connector = new Thread(() -> {
-            try (Socket socket = new Socket(ipAddress, portAddress)) {
-                // setup streams
-                this.guestSocket = socket;
-                System.out.println("Connection successful");
+        HostResolver.SHARED.resolve(this.ipAddress).whenComplete((address, failure) -> this.delivery.runOnFx(() -> {
+            if (failure != null) {
+                infoLabel.setText("Unknown host");
+                infoLabel.setTextFill(Color.RED);
                 this.connectButton.setDisable(false);
-                this.input = new BufferedReader(new InputStreamReader(guestSocket.getInputStream()));
-                this.output = new PrintWriter(guestSocket.getOutputStream(), true);
-                // send my nickName and obtain friend's one
-                this.output.println(nickName);
-                while (!this.guestSocket.isClosed()) {
-                    this.friendName = this.input.readLine();
-                    if (this.friendName == null) {throw new IOException("Can't obtain friend's Name"); }
-                    if (!this.friendName.equals("")) { break; }
-                }
-                this.readArea.appendText("Connected to " + this.friendName + "\n");
-                successConnectionScreen();
-                // intercepting
-                while (!this.guestSocket.isClosed()) {
-                    String text = this.input.readLine();
-                    if (text == null) {break;}
-                    if (!text.equals("")) { this.readArea.appendText(this.friendName + ": " + text + "\n"); }
-                }
-            } catch (Exception e) {
-                System.out.println("Connection error: " + e);
+            } else {
+                startClient();
             }
-            finally {
-                try {
-                    this.readArea.appendText("Disconnected\n\n");
-                } catch (Exception e) {
-                    System.out.println("Text addition error: " + e);
-                }
-                restartScreen();
-                System.out.println("Session restarted");
-            }
-        });
-        connector.start();
+        }));
+    }
+
+    /** Method starts client of resolved host, it is called in GUI thread. */
+    private void startClient() {
+        infoLabel.setText("Write IP of your friend");
+        infoLabel.setTextFill(Color.BLACK);
+        this.client = new ChatClient(this.nickName, this.engine, ChatClient.DEFAULT_OUTBOUND_CAPACITY,
+                OutboundQueue.OverflowPolicy.DROP, new HostListener());
+        try {
+            this.client.setTls(TlsContext.configured());
+        } catch (Exception e) {
+            System.out.println("TLS configuration problem: " + e);
+            infoLabel.setText("TLS configuration error");
+            infoLabel.setTextFill(Color.RED);
+            this.connectButton.setDisable(false);
+            return;
+        }
+        this.client.connect(this.ipAddress, this.portAddress);
     }
 
     /** Method which checks correctness of ip, port and nickName entered by user. */
     private boolean checkCorrectness() {
-        // check IP
-        String ipString = ip.getCharacters().toString();
-        java.util.regex.Pattern patternIP = Pattern.compile("^(([01]?\\d\\d?|2[0-4]\\d|25[0-5]).){3}([01]?\\d\\d?|2[0-4]\\d|25[0-5])$");
-        java.util.regex.Matcher checkIP = patternIP.matcher(ipString);
-        if ((!checkIP.matches()) && (!ipString.equals("localhost"))) {
+        // check IP or host name
+        String ipString = ip.getCharacters().toString().trim();
+        if (!Validation.isValidHost(ipString)) {
             infoLabel.setText("Incorrect IP");
             infoLabel.setTextFill(Color.RED);
             return false;
@@ -159,26 +203,22 @@ public class Guest {
         this.ipAddress = ipString;
 
         // check port
-        String portString = port.getCharacters().toString();
-        java.util.regex.Pattern patternPort = Pattern.compile("^\\d{4}+$");
-        java.util.regex.Matcher checkPort = patternPort.matcher(portString);
-        if (!checkPort.matches()) {
+        int portNumber = Validation.parsePort(port.getCharacters());
+        if (portNumber < 0) {
             infoLabel.setText("Incorrect port");
             infoLabel.setTextFill(Color.RED);
             return false;
         }
-        this.portAddress = Integer.parseInt(portString);
+        this.portAddress = portNumber;
 
         // check nickName
-        String nickString = nick.getCharacters().toString();
-        java.util.regex.Pattern patternNick = Pattern.compile("^(\\d|\\w){1,10}$");
-        java.util.regex.Matcher checkNick = patternNick.matcher(nickString);
-        if (!checkNick.matches()) {
+        CharSequence nickText = nick.getCharacters();
+        if (!Validation.isValidNick(nickText)) {
             infoLabel.setText("Incorrect nick");
             infoLabel.setTextFill(Color.RED);
             return false;
         }
-        this.nickName = nickString;
+        this.nickName = nickText.toString();
 
         // all tests are passed
         return true;
@@ -192,6 +232,7 @@ public class Guest {
         port.setDisable(true);
         nick.setDisable(true);
         send.setDisable(false);
+        sendFile.setDisable(false);
         connectButton.setVisible(false);
         disconnectButton.setVisible(true);
     }
@@ -204,39 +245,175 @@ public class Guest {
         port.setDisable(false);
         nick.setDisable(false);
         send.setDisable(true);
+        sendFile.setDisable(true);
         connectButton.setVisible(true);
         disconnectButton.setVisible(false);
+        receiptStatus = "";
+        statusLabel.setText(receiptStatus);
         connectButton.setDisable(false);
     }
 
-    /** Method realized when send button is clicked or when enter key is pressed. */
+    /**
+     * Method realized when send button is clicked or when enter key is pressed.
+     * Message may contain many lines, only line breaks at the end are removed.
+     */
     @FXML public void sendMessage() {
-        String message = this.writeArea.getText();
-        message = message.replaceAll("\n","");
+        String message = trimLineBreaks(this.writeArea.getText());
         this.writeArea.clear();
         if (!message.equals("")) {
             try {
-                this.output.println(message);
-                this.readArea.appendText(this.nickName + ": " + message + "\n");
+                if (this.client.send(message)) {
+                    this.delivery.show(this.nickName, message);
+                    this.receiptStatus = "Sent";
+                    this.statusLabel.setText(this.receiptStatus);
+                }
             } catch (Exception e) {
                 System.out.println("Error with sending message: " + e);
             }
         }
     }
 
-    /** Method realized when disconnect button is pressed. It executes closeSocket method.*/
+    /**
+     * Method realized when file button is clicked. Chosen file is sent in chunks between messages,
+     * Host saves it in its downloads directory.
+     */
+    @FXML public void sendFile() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Send file");
+        File file = chooser.showOpenDialog(this.sendFile.getScene().getWindow());
+        if (file == null) { return; }
+        try {
+            this.client.sendFile(file.toPath());
+            this.delivery.show("Sending file " + file.getName());
+        } catch (Exception e) {
+            System.out.println("Error with sending file: " + e);
+            this.delivery.show("File " + file.getName() + " can't be sent");
+        }
+    }
+
+    /** Method removes line breaks from the end of the text. */
+    static String trimLineBreaks(String text) {
+        int end = text.length();
+        while (end > 0 && (text.charAt(end - 1) == '\n' || text.charAt(end - 1) == '\r')) { end--; }
+        return text.substring(0, end);
+    }
+
+    /**
+     * Method realized when enter is pressed in the search field. Found messages are shown in the readArea,
+     * also when guest is not connected, empty query shows history again.
+     */
+    @FXML public void search() {
+        this.history.search(this.search.getText());
+        this.readArea.setDisable(false);
+    }
+
+    /**
+     * Method realized when disconnect button is pressed. It cancels the session and waits
+     * until connecting, reading and writing tasks are finished.
+     */
     @FXML public void disconnect() {
-        closeSocket();
+        if (this.client != null) { this.client.disconnect(); }
     }
 
-    /** Method closes the Socket*/
-    private void closeSocket() {
-        try {
-            if (this.output != null) { this.output.close(); this.output = null;}
-            if (this.input != null) { this.input.close(); this.input = null;}
-            if (this.guestSocket != null) { this.guestSocket.close();; this.guestSocket = null;}
-        } catch (IOException e){
-            System.out.println("Socket closing error:  " + e);
+    /**
+     * Method realized when window gets focus or message comes to focused window.
+     * Host gets receipt that its messages were read.
+     */
+    public void markRead() {
+        if (this.client != null) { this.client.markRead(); }
+    }
+
+    /**
+     * Method realized when window is closed or when it was preloaded and not chosen.
+     * It disconnects, stops the engine and closes history of this window.
+     */
+    @Override
+    public void close() {
+        disconnect();
+        if (this.discovery != null) { this.discovery.removeListener(this.discoveryListener); }
+        this.engine.close();
+        this.history.close();
+    }
+
+    /** Listener of client events, it passes messages and connection state to the delivery stage. */
+    private class HostListener implements MessageListener {
+
+        @Override
+        public void onConnected(String friendName) {
+            System.out.println("Connection successful");
+            delivery.show("Connected to " + friendName);
+            delivery.runOnFx(() -> {
+                infoLabel.setText("Write IP of your friend");
+                infoLabel.setTextFill(Color.BLACK);
+                connectButton.setDisable(false);
+                successConnectionScreen();
+            });
+        }
+
+        @Override
+        public void onMessage(String friendName, String text) {
+            delivery.show(friendName, text);
+            delivery.runOnFx(() -> {
+                if (readArea.getScene() != null && readArea.getScene().getWindow().isFocused()) { markRead(); }
+            });
+        }
+
+        @Override
+        public void onTyping(String friendName, boolean typing) {
+            delivery.runOnFx(() -> statusLabel.setText(typing ? friendName + " is typing..." : receiptStatus));
+        }
+
+        @Override
+        public void onReceipt(String friendName, boolean read) {
+            delivery.runOnFx(() -> {
+                receiptStatus = read ? "Read" : "Delivered";
+                statusLabel.setText(receiptStatus);
+            });
+        }
+
+        @Override
+        public void onDisconnected(String friendName, Throwable cause) {
+            if (cause != null) { System.out.println("Connection error: " + cause); }
+            delivery.show("Disconnected");
+            delivery.runOnFx(Guest.this::restartScreen);
+            System.out.println("Session restarted");
+        }
+
+        @Override
+        public void onReconnecting(String friendName, int attempt, long delayMillis) {
+            if (attempt == 1) { delivery.show("Connection lost, reconnecting"); }
+            delivery.runOnFx(() -> {
+                infoLabel.setText("Reconnecting to " + friendName + ", attempt " + attempt);
+                infoLabel.setTextFill(Color.RED);
+            });
+        }
+
+        @Override
+        public void onFileReceived(String friendName, Path file) {
+            delivery.show("File from " + friendName + " saved as " + file);
+        }
+
+        @Override
+        public void onFileSent(String friendName, String fileName) {
+            delivery.show("File " + fileName + " delivered to " + friendName);
+        }
+
+        @Override
+        public void onFileFailed(String friendName, String fileName, String reason) {
+            delivery.show("File " + fileName + " not transferred: " + reason);
+        }
+
+        @Override
+        public void onCongestion(String friendName, int depth, int capacity, boolean congested) {
+            delivery.runOnFx(() -> {
+                infoLabel.setText(congested ? "Slow connection: " + depth + "/" + capacity : "Write IP of your friend");
+                infoLabel.setTextFill(congested ? Color.RED : Color.BLACK);
+            });
+        }
+
+        @Override
+        public void onDrop(String friendName, long dropped) {
+            delivery.show("Message not sent, connection is congested");
         }
     }
 }
@@ -1,17 +1,24 @@
 package CommunicatorP2P;
 
+import CommunicatorP2P.store.ChatMessage;
 import javafx.fxml.FXML;
 import javafx.scene.input.KeyCode;
 import javafx.scene.paint.Color;
 
-import java.io.BufferedReader;
+import CommunicatorP2P.core.ChatServer;
+import CommunicatorP2P.core.MessageListener;
+import CommunicatorP2P.net.PeerDiscovery;
+import CommunicatorP2P.net.TlsContext;
+import CommunicatorP2P.protocol.Validation;
+import CommunicatorP2P.store.Outbox;
+
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.regex.Pattern;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * This class is a controller class for Guest application
@@ -23,7 +30,7 @@ import java.util.regex.Pattern;
  * @see Controller
  * @see Host
  */
-public class Host {
+public class Host implements AutoCloseable {
 	
 	/**
      * When is clicked connection starts - connect method.
@@ -40,8 +47,11 @@ public class Host {
 	/**When it is clicked, program sends message*/
     @FXML private javafx.scene.control.Button send;
 	
-	/**Area where received and sent text is shown*/
-    @FXML private javafx.scene.control.TextArea readArea;
+	/**List where received and sent messages are shown, only visible part of history is kept in memory*/
+    @FXML private javafx.scene.control.ListView<ChatMessage> readArea;
+
+    /**Field where user types query to search the history, see SearchQuery*/
+    @FXML private javafx.scene.control.TextField search;
 	
 	/**Area where user writes text to send*/
     @FXML private javafx.scene.control.TextArea writeArea;
@@ -64,26 +74,38 @@ public class Host {
 	/** Uneditable area, it inform user if something in input data is wrong */
     @FXML private javafx.scene.control.Label infoLabel;
 
-	/** Connection socket, null if disconnected*/
-    private Socket hostSocket;
-	
-	/** Host Socket input, null if socket is disconnected*/
-    private BufferedReader input;
-	
-	/** Host Socket output, null if socket is disconnected*/
-    private PrintWriter output;
-	
+	/** Uneditable area under the readArea, it shows who is typing or who got the last message */
+    @FXML private javafx.scene.control.Label statusLabel;
+
 	/** User nickName, it can only contain letters and digits, max 10*/
     private String nickName;
 	
-	/** User friend's nickName, chars are controlled by friend's application*/
-    private String friendName;
-	
 	/** User defines portNumber, however it is controlled by checkCorrectness method*/
     private int portNumber;
 	
-	/** Server socket, null if disconnected*/
-    private ServerSocket serverSocket;
+	/** Headless server serving all guests, null if disconnected*/
+    private ChatServer server;
+
+    /** Outbox of messages for guests who are not connected, null if relay mode is off or disconnected */
+    private Outbox outbox;
+
+	/** Delivery stage which moves messages and screen changes from I/O threads to the readArea*/
+    private MessageDelivery delivery;
+
+    /** History of this window, shown in the readArea */
+    private ChatHistory history;
+
+    /** Guests who are typing now, used only by GUI thread */
+    private final Set<String> typingGuests = new LinkedHashSet<>();
+
+    /** Guests who got the last message, used only by GUI thread */
+    private final Set<String> deliveredTo = new HashSet<>();
+
+    /** Guests who read the last message, used only by GUI thread */
+    private final Set<String> readBy = new HashSet<>();
+
+    /** Number of guests connected when the last message was sent, 0 before the first one */
+    private int lastRecipients;
 
 
 
@@ -93,6 +115,9 @@ public class Host {
      */
     public void initialize() {
         System.out.println("Host GUI starts");
+        this.history = ChatHistory.open("host");
+        this.history.attach(this.readArea);
+        this.delivery = new MessageDelivery(this.history);
         try {
             InetAddress inetAddress = InetAddress.getLocalHost();
             this.ip.setText(inetAddress.getHostAddress());
@@ -104,17 +129,25 @@ public class Host {
             this.pcName.setText("Unknown");
         }
         this.writeArea.setOnKeyPressed(event -> {
-            if(event.getCode() == KeyCode.ENTER){
-                sendMessage();
+            if (event.getCode() == KeyCode.ENTER) {
+                event.consume();
+                if (event.isShiftDown()) {
+                    this.writeArea.replaceSelection("\n");
+                } else {
+                    sendMessage();
+                }
             }
         });
+        this.writeArea.setOnKeyTyped(event -> {
+            ChatServer current = this.server;
+            if (current != null) { current.typing(); }
+        });
     }
 
 	/**
      * This method is called when connectButton is pressed.
-     * It creates new Thread, which runs Server Socket and Socket.
-     * This new Thread after communication is established, is listening
-     * for new messages coming from Guest and showing these messages in the readArea.
+     * It starts headless ChatServer, which accepts many guests on few I/O threads.
+     * Messages coming from guests are shown in the readArea by GuestListener.
      */
     @FXML public void connect() {
         // check port and nickName
@@ -122,56 +155,58 @@ public class Host {
         this.connectButton.setDisable(true);
         infoLabel.setText("Your address");
         infoLabel.setTextFill(Color.BLACK);
-        // try to connect
+        // try to start server
         System.out.println("I'm waiting for connection: ");
-        Thread connector = new Thread(() -> {
-            successConnectionScreen();
-            this.writeArea.setDisable(true);
-            this.send.setDisable(true);
-            try (ServerSocket serverSocket = new ServerSocket(this.portNumber)) {
-                this.readArea.appendText("I'm waiting for yours friend connection\n");
-                this.serverSocket = serverSocket;
-                try (Socket check = serverSocket.accept()) {
-                    // setup streams
-                    this.hostSocket = check;
-                    this.input = new BufferedReader(new InputStreamReader(this.hostSocket.getInputStream()));
-                    this.output = new PrintWriter(this.hostSocket.getOutputStream(), true);
-                    System.out.println("Connection successful");
-                    // send and get nickName
-                    this.output.println(this.nickName);
-                    while (!this.hostSocket.isClosed()) {
-                        this.friendName = this.input.readLine();
-                        if (this.friendName == null) { throw new IOException("Can't obtain friend's Name"); }
-                        if (!this.friendName.equals("")) { break; }
-                    }
-                    this.readArea.appendText("Connected to " + this.friendName + "\n");
-                    this.writeArea.setDisable(false);
-                    this.send.setDisable(false);
-                    // listening
-                    while (!this.hostSocket.isClosed()) {
-                        String text = this.input.readLine();
-                        if (text == null) {break;}
-                        if (!text.equals(""))  {this.readArea.appendText(this.friendName + ": " + text + "\n"); }
-                    }
-                } catch (Exception e) {
-                    System.out.println("Socket closed");
-                }
-            } catch (Exception e) {
-                System.out.println("Server Socket problem: " + e);
-            }
-            finally {
-                try {
-                    this.readArea.appendText("Disconnected\n\n");
-                } catch (Exception e) {
-                    System.out.println("Text addition error: " + e);
-                }
-                restartScreen();
-                this.hostSocket = null;
-                this.serverSocket = null;
-                System.out.println("Session restarted");
-            }
-        });
-        connector.start();
+        try {
+            this.server = new ChatServer(this.portNumber, this.nickName, new GuestListener());
+            this.server.setTls(TlsContext.configured());
+            this.server.setOutbox(openOutbox());
+            this.server.start();
+        } catch (Exception e) {
+            System.out.println("Server Socket problem: " + e);
+            this.server = null;
+            closeOutbox();
+            restartScreen();
+            return;
+        }
+        // guests in LAN find the host in their picker, host works also without it
+        try {
+            this.server.announce(PeerDiscovery.shared());
+        } catch (Exception e) {
+            System.out.println("Discovery problem: " + e);
+        }
+        successConnectionScreen();
+        // in relay mode host can write to known guests before they connect
+        boolean noRecipients = this.outbox == null || this.outbox.getRecipients().isEmpty();
+        this.writeArea.setDisable(noRecipients);
+        this.send.setDisable(noRecipients);
+        this.delivery.show("I'm waiting for yours friends connection");
+    }
+
+    /**
+     * Method opens outbox of this port, messages for guests who are not connected are kept there.
+     * It returns null if relay mode is turned off by -DcommunicatorP2P.relay=false or outbox can't be opened.
+     */
+    private Outbox openOutbox() {
+        if ("false".equals(System.getProperty("communicatorP2P.relay"))) { return null; }
+        Path directory = Paths.get(System.getProperty("user.home"), ".communicatorP2P", "outbox", Integer.toString(this.portNumber));
+        try {
+            this.outbox = Outbox.open(directory);
+        } catch (IOException e) {
+            System.out.println("Outbox problem: " + e);
+            this.outbox = null;
+        }
+        return this.outbox;
+    }
+
+    private void closeOutbox() {
+        if (this.outbox == null) { return; }
+        try {
+            this.outbox.close();
+        } catch (IOException e) {
+            System.out.println("Outbox closing error: " + e);
+        }
+        this.outbox = null;
     }
 
 	/** Method which set up screen - enable/disable buttons and textAreas */
@@ -195,25 +230,40 @@ public class Host {
         connectButton.setVisible(true);
         disconnectButton.setVisible(false);
         connectButton.setDisable(false);
+        typingGuests.clear();
+        lastRecipients = 0;
+        showStatus();
+    }
+
+	/** Method shows in statusLabel who is typing, otherwise how many guests got and read the last message */
+    private void showStatus() {
+        if (!typingGuests.isEmpty()) {
+            statusLabel.setText(String.join(", ", typingGuests) + (typingGuests.size() == 1 ? " is" : " are") + " typing...");
+        } else if (lastRecipients > 0) {
+            statusLabel.setText("Delivered to " + deliveredTo.size() + " of " + lastRecipients + ", read by " + readBy.size());
+        } else {
+            statusLabel.setText("");
+        }
+    }
+
+	/** Method returns true if window of the host has focus, so user sees new messages */
+    private boolean isFocused() {
+        return readArea.getScene() != null && readArea.getScene().getWindow().isFocused();
     }
 
 	/** Method which checks correctness of port and nickName entered by user. */
     private boolean checkCorrectness () {
         // check port
-        String portString = port.getCharacters().toString();
-        java.util.regex.Pattern patternPort = Pattern.compile("^\\d{4}+$");
-        java.util.regex.Matcher checkPort = patternPort.matcher(portString);
-        portNumber = Integer.parseInt(portString);
-        if (!checkPort.matches() || portNumber > 65535 || portNumber < 1024) {
+        CharSequence portText = port.getCharacters();
+        if (!Validation.isValidServerPort(portText)) {
             infoLabel.setText("Incorrect port");
             infoLabel.setTextFill(Color.RED);
             return false;
         }
+        this.portNumber = Validation.parsePort(portText);
         // check nickName
         String nickString = nick.getCharacters().toString();
-        java.util.regex.Pattern patternNick = Pattern.compile("^(\\d|\\w){1,10}$");
-        java.util.regex.Matcher checkNick = patternNick.matcher(nickString);
-        if (!checkNick.matches()) {
+        if (!Validation.isValidNick(nickString)) {
             infoLabel.setText("Incorrect nick");
             infoLabel.setTextFill(Color.RED);
             return false;
@@ -222,45 +272,146 @@ public class Host {
         return true;
     }
 
-	/** Method realized when send button is clicked or when enter key is pressed*/
+	/**
+     * Method realized when send button is clicked or when enter key is pressed.
+     * Message may contain many lines, only line breaks at the end are removed.
+     */
     @FXML public void sendMessage() {
-        String message = this.writeArea.getText();
+        String message = Guest.trimLineBreaks(this.writeArea.getText());
         this.writeArea.clear();
-        message = message.replaceAll("\n","");
         if (!message.equals("")) {
             try {
-                this.output.println(message);
-                this.readArea.appendText(this.nickName + ": " + message + "\n");
+                int queued = this.server.broadcast(message);
+                this.delivery.show(this.nickName, message);
+                this.lastRecipients = this.server.getGuests().size();
+                this.deliveredTo.clear();
+                this.readBy.clear();
+                showStatus();
+                if (queued > 0) { this.delivery.show("Message kept for " + queued + " guests who are not connected"); }
             } catch (Exception e) {
                 System.out.println("Error with sending message: " + e);
             }
         }
     }
 	
-	/** Method realized when disconnect button is pressed. It executes closeSocket and closeServer methods*/
-    @FXML public void disconnect() {
-        closeSocket();
-        closeServer();
+	/**
+     * Method realized when enter is pressed in the search field. Found messages are shown in the readArea,
+     * also when host is not connected, empty query shows history again.
+     */
+    @FXML public void search() {
+        this.history.search(this.search.getText());
+        this.readArea.setDisable(false);
     }
 
-	/** Method closes the Socket*/
-    private void closeSocket() {
-        try {
-            if (this.output != null) { this.output.close(); this.output = null;}
-            if (this.input != null) { this.input.close(); this.input = null;}
-            if (this.hostSocket != null) { this.hostSocket.close(); this.hostSocket = null;}
-        } catch (Exception e) {
-            System.out.println("Socket closing error:  " + e);
-        }
+	/**
+     * Method realized when window gets focus or message comes to focused window.
+     * Guests get receipt that their messages were read.
+     */
+    public void markRead() {
+        ChatServer current = this.server;
+        if (current != null) { current.markRead(); }
     }
 
-	/** Method closes the ServerSocket*/
-    private void closeServer() {
+	/** Method realized when disconnect button is pressed. It stops the server and all guests connections*/
+    @FXML public void disconnect() {
+        if (this.server == null) { return; }
         try {
-            if (this.serverSocket != null) { this.serverSocket.close(); this.hostSocket = null;}
+            this.server.close();
         } catch (Exception e) {
             System.out.println("Server socket closing error:  " + e);
         }
+        this.server = null;
+        closeOutbox();
+        this.delivery.show("Disconnected");
+        this.delivery.runOnFx(this::restartScreen);
+        System.out.println("Session restarted");
+    }
+
+    /**
+     * Method realized when window is closed or when it was preloaded and not chosen.
+     * It disconnects and removes history of this window.
+     */
+    @Override
+    public void close() {
+        disconnect();
+        this.history.close();
+    }
+
+	/** Listener of server events, it passes guests and their messages to the delivery stage */
+    private class GuestListener implements MessageListener {
+
+        @Override
+        public void onConnected(String guestName) {
+            System.out.println("Connection successful: " + guestName);
+            delivery.show("Connected to " + guestName);
+            delivery.runOnFx(() -> {
+                writeArea.setDisable(false);
+                send.setDisable(false);
+            });
+        }
+
+        @Override
+        public void onMessage(String guestName, String text) {
+            delivery.show(guestName, text);
+            delivery.runOnFx(() -> {
+                if (isFocused()) { markRead(); }
+            });
+        }
+
+        @Override
+        public void onTyping(String guestName, boolean typing) {
+            delivery.runOnFx(() -> {
+                if (typing) { typingGuests.add(guestName); } else { typingGuests.remove(guestName); }
+                showStatus();
+            });
+        }
+
+        @Override
+        public void onReceipt(String guestName, boolean read) {
+            delivery.runOnFx(() -> {
+                deliveredTo.add(guestName);
+                if (read) { readBy.add(guestName); }
+                showStatus();
+            });
+        }
+
+        @Override
+        public void onDisconnected(String guestName, Throwable cause) {
+            delivery.show(guestName + " disconnected");
+            delivery.runOnFx(() -> {
+                ChatServer current = server;
+                boolean noRecipients = outbox == null || outbox.getRecipients().isEmpty();
+                if (current != null && current.getGuests().isEmpty() && noRecipients) {
+                    writeArea.setDisable(true);
+                    send.setDisable(true);
+                }
+            });
+        }
+
+        @Override
+        public void onFileReceived(String guestName, Path file) {
+            delivery.show("File from " + guestName + " saved as " + file);
+        }
+
+        @Override
+        public void onFileFailed(String guestName, String fileName, String reason) {
+            delivery.show("File " + fileName + " from " + guestName + " not transferred: " + reason);
+        }
+
+        @Override
+        public void onCongestion(String guestName, int depth, int capacity, boolean congested) {
+            delivery.runOnFx(() -> {
+                infoLabel.setText(congested ? guestName + " is slow" : "Your address");
+                infoLabel.setTextFill(congested ? Color.RED : Color.BLACK);
+            });
+        }
+
+        @Override
+        public void onDrop(String guestName, long dropped) {
+            if (Long.bitCount(dropped) == 1) {
+                delivery.show(dropped + " messages to " + guestName + " dropped, connection is congested");
+            }
+        }
     }
 
 }
@@ -1,5 +1,6 @@
 package CommunicatorP2P;
 
+import CommunicatorP2P.metrics.Metrics;
 import javafx.application.Application;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
@@ -8,17 +9,21 @@ import javafx.stage.Stage;
 
 /**
  * This class is a main class in P2P application.
- * It starts the application.
+ * It starts the application. Communicator without GUI is started by CliMain.
  * <p>
  * @author Piotr Klukowski
  * @version 1.0
  * @see Controller
  * @see Host
  * @see Guest
+ * @see CommunicatorP2P.cli.CliMain
  */
 public class Main extends Application {
 
-    /**Method which starts GUI. It opens sample.fxml*/
+    /**
+     * Method which starts GUI. It opens sample.fxml, windows of Host and Guest are loaded
+     * in background while user chooses one of them.
+     */
     @Override
     public void start(Stage primaryStage) throws Exception{
         Parent root = FXMLLoader.load(getClass().getResource("sample.fxml"));
@@ -26,11 +31,13 @@ public class Main extends Application {
         primaryStage.setResizable(false);
         primaryStage.setScene(new Scene(root));
         primaryStage.show();
+        SceneCache.preload("guest.fxml", "host.fxml");
     }
 
     /** Main method of the application */
     public static void main(String[] args) {
         System.out.println("Start application");
+        Metrics.install();
         launch();
         System.out.println("Stop application");
     }
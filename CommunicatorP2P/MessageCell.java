@@ -0,0 +1,33 @@
+package CommunicatorP2P;
+
+import CommunicatorP2P.store.ChatMessage;
+import javafx.scene.control.ListCell;
+
+/**
+ * This class is a cell of the readArea list. ListView creates only as many cells
+ * as it can show and reuses them for other messages while scrolling.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see ChatHistory
+ */
+class MessageCell extends ListCell<ChatMessage> {
+
+    MessageCell() {
+        setWrapText(true);
+        setPrefWidth(0);
+    }
+
+    /** Method shows given message in reused cell */
+    @Override
+    protected void updateItem(ChatMessage message, boolean empty) {
+        super.updateItem(message, empty);
+        if (empty || message == null) {
+            setText(null);
+            setStyle(null);
+        } else {
+            setText(message.toString());
+            setStyle(message.isInfo() ? "-fx-font-style: italic;" : null);
+        }
+    }
+}
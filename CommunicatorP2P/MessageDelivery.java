@@ -0,0 +1,96 @@
+package CommunicatorP2P;
+
+import CommunicatorP2P.store.ChatMessage;
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class is a delivery stage between network threads and the readArea.
+ * Network threads only put messages and screen changes into a queue and never wait for GUI.
+ * All queued messages are added to the ChatHistory as one change in one Platform.runLater,
+ * so burst of messages costs one relayout, not one per message.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see Host
+ * @see Guest
+ * @see ChatHistory
+ */
+class MessageDelivery {
+
+    /** List of the readArea where delivered messages are shown */
+    private final ChatHistory history;
+
+    /** Queued messages (ChatMessage) and screen changes (Runnable), in order of arrival */
+    private final Queue<Object> pending = new ConcurrentLinkedQueue<>();
+
+    /** Flag set when flush is already scheduled on FX thread */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /** Messages of current batch, used only by FX thread */
+    private final List<ChatMessage> batch = new ArrayList<>();
+
+    MessageDelivery(ChatHistory history) {
+        this.history = history;
+    }
+
+    /** Method queues information of the program. It can be called from any thread. */
+    void show(String info) {
+        show(ChatMessage.info(info));
+    }
+
+    /** Method queues message of given user. It can be called from any thread. */
+    void show(String sender, String text) {
+        show(ChatMessage.of(sender, text));
+    }
+
+    /** Method queues message for the readArea. It can be called from any thread. */
+    void show(ChatMessage message) {
+        pending.add(message);
+        schedule();
+    }
+
+    /** Method queues change of the screen, it is run after messages queued before it. */
+    void runOnFx(Runnable change) {
+        pending.add(change);
+        schedule();
+    }
+
+    /** Method schedules flush, only one flush is waiting at the same time */
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            Platform.runLater(this::flush);
+        }
+    }
+
+    /** Method adds all queued messages at once, it is run on FX thread */
+    private void flush() {
+        scheduled.set(false);
+        Object item;
+        while ((item = pending.poll()) != null) {
+            if (item instanceof ChatMessage) {
+                batch.add((ChatMessage) item);
+            } else {
+                appendBatch();
+                try {
+                    ((Runnable) item).run();
+                } catch (Exception e) {
+                    System.out.println("Screen change error: " + e);
+                }
+            }
+        }
+        appendBatch();
+    }
+
+    /** Method moves batch messages into the history */
+    private void appendBatch() {
+        if (batch.isEmpty()) { return; }
+        history.appendAll(batch);
+        batch.clear();
+    }
+}
@@ -0,0 +1,126 @@
+package CommunicatorP2P;
+
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * This class loads windows of Host and Guest apart from GUI thread while user looks at the first window,
+ * so chosen window opens at once. Loading of FXML creates only nodes which are not shown yet,
+ * it doesn't need GUI thread. Window which is taken before its loading started is loaded by the taking thread,
+ * window which is not taken is closed, because its controller already opened its history.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see Main
+ * @see Controller
+ */
+class SceneCache {
+
+    /** Loadings of windows by FXML name, in order of preloading */
+    private static final Map<String, FutureTask<Loaded>> loadings = new LinkedHashMap<>();
+
+    /** True after discard, windows which were not loaded yet are skipped */
+    private static volatile boolean discarded;
+
+    private SceneCache() {
+    }
+
+    /** Method starts loading of given FXML files in one background thread */
+    static synchronized void preload(String... names) {
+        discarded = false;
+        for (String name : names) {
+            loadings.computeIfAbsent(name, key -> new FutureTask<>(() -> discarded ? null : load(key)));
+        }
+        FutureTask<?>[] tasks = loadings.values().toArray(new FutureTask<?>[0]);
+        Thread preloader = new Thread(() -> {
+            // task which was already run by taking thread does nothing
+            for (FutureTask<?> task : tasks) { task.run(); }
+        }, "scene-preloader");
+        preloader.setDaemon(true);
+        preloader.start();
+    }
+
+    /**
+     * Method returns loaded window and its controller, it waits if window is being loaded now.
+     * Window which wasn't preloaded is loaded by calling thread. Every window can be taken once, before discard.
+     */
+    static Loaded take(String name) throws IOException {
+        FutureTask<Loaded> task;
+        synchronized (SceneCache.class) {
+            task = loadings.remove(name);
+        }
+        if (task == null) { return load(name); }
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Loading of " + name + " interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Loading of " + name + " failed", e.getCause());
+        }
+    }
+
+    /** Method closes controllers of windows which were not taken, in background thread */
+    static void discard() {
+        FutureTask<?>[] tasks;
+        synchronized (SceneCache.class) {
+            tasks = loadings.values().toArray(new FutureTask<?>[0]);
+            loadings.clear();
+        }
+        discarded = true;
+        if (tasks.length == 0) { return; }
+        Thread closer = new Thread(() -> {
+            for (FutureTask<?> task : tasks) {
+                // task which didn't start yet returns null, task which is running is awaited
+                task.run();
+                try {
+                    Loaded loaded = (Loaded) task.get();
+                    Object controller = loaded != null ? loaded.getController() : null;
+                    if (controller instanceof AutoCloseable) { ((AutoCloseable) controller).close(); }
+                } catch (Exception e) {
+                    System.out.println("Window closing error: " + e);
+                }
+            }
+        }, "scene-discard");
+        closer.setDaemon(true);
+        closer.start();
+    }
+
+    /** Method loads FXML file next to this class */
+    private static Loaded load(String name) throws IOException {
+        FXMLLoader fxmlLoader = new FXMLLoader(SceneCache.class.getResource(name));
+        Parent root = fxmlLoader.load();
+        return new Loaded(root, fxmlLoader.getController());
+    }
+
+    /** Loaded window: root node and controller created by FXMLLoader */
+    static final class Loaded {
+
+        /** Root node of the window */
+        private final Parent root;
+
+        /** Controller of the window */
+        private final Object controller;
+
+        Loaded(Parent root, Object controller) {
+            this.root = root;
+            this.controller = controller;
+        }
+
+        Parent getRoot() {
+            return root;
+        }
+
+        @SuppressWarnings("unchecked")
+        <T> T getController() {
+            return (T) controller;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package CommunicatorP2P;
+
+import CommunicatorP2P.store.ChatMessage;
+import CommunicatorP2P.store.HistoryStore;
+import CommunicatorP2P.store.SearchIndex;
+import javafx.collections.ObservableListBase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a list of messages found by SearchIndex, shown in the readArea instead of ChatHistory.
+ * Only the first page of results is read when query is started, next pages are read
+ * when user scrolls to the bottom of the list, so query of common word costs as much as rare one.
+ * It has to be used only from FX thread.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see ChatHistory
+ * @see SearchIndex
+ */
+class SearchResults extends ObservableListBase<ChatMessage> {
+
+    /** Number of results read on one scroll */
+    static final int PAGE_SIZE = 50;
+
+    /** Store where found messages are read */
+    private final HistoryStore store;
+
+    /** Running query */
+    private final SearchIndex.Hits hits;
+
+    /** Read results, the newest first */
+    private final List<ChatMessage> messages = new ArrayList<>();
+
+    /** Indexes in the store of read results */
+    private final List<Long> indexes = new ArrayList<>();
+
+    SearchResults(HistoryStore store, SearchIndex.Hits hits) {
+        this.store = store;
+        this.hits = hits;
+        pageMore();
+    }
+
+    @Override
+    public ChatMessage get(int index) {
+        return messages.get(index);
+    }
+
+    @Override
+    public int size() {
+        return messages.size();
+    }
+
+    /** Method returns index in the store of result at given position */
+    long storeIndexOf(int position) {
+        return indexes.get(position);
+    }
+
+    /** Method reads next page of results and puts them at the end. It returns number of read messages. */
+    int pageMore() {
+        if (hits.isFinished()) { return 0; }
+        long[] found = hits.next(PAGE_SIZE);
+        int start = messages.size();
+        for (long index : found) {
+            try {
+                List<ChatMessage> read = store.read(index, 1);
+                if (read.isEmpty()) { continue; }
+                messages.add(read.get(0));
+                indexes.add(index);
+            } catch (IOException e) {
+                System.out.println("History reading error: " + e);
+            }
+        }
+        if (messages.size() == start) { return 0; }
+        beginChange();
+        nextAdd(start, messages.size());
+        endChange();
+        return messages.size() - start;
+    }
+}
@@ -0,0 +1,46 @@
+package CommunicatorP2P.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * This class measures bytes allocated by threads, it is used to count allocation per message.
+ * It works on HotSpot, on other JVMs methods return -1.
+ * Virtual threads are not counted.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see BenchMain
+ */
+final class Allocations {
+
+    /** Bean with allocation counters, null if JVM doesn't have them */
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    private Allocations() {
+    }
+
+    /** Method returns bytes allocated by current thread since its start, or -1 */
+    static long currentThread() {
+        return THREADS == null ? -1 : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** Method returns bytes allocated by all live platform threads, or -1 */
+    static long allThreads() {
+        if (THREADS == null) { return -1; }
+        long total = 0;
+        for (long allocated : THREADS.getThreadAllocatedBytes(THREADS.getAllThreadIds())) {
+            if (allocated > 0) { total += allocated; }
+        }
+        return total;
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) { return null; }
+        com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) bean;
+        if (!hotspotBean.isThreadAllocatedMemorySupported()) { return null; }
+        hotspotBean.setThreadAllocatedMemoryEnabled(true);
+        return hotspotBean;
+    }
+}
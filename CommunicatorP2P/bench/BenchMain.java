@@ -0,0 +1,137 @@
+package CommunicatorP2P.bench;
+
+import CommunicatorP2P.core.ChatServer;
+import CommunicatorP2P.core.MessageListener;
+import CommunicatorP2P.metrics.Metrics;
+import CommunicatorP2P.net.LoopBalancer;
+import CommunicatorP2P.net.SelectorServer;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class starts load runs of the communicator. Everything runs locally on 127.0.0.1.
+ * <pre>
+ * java CommunicatorP2P.bench.BenchMain [loopback] [--seconds N] [--port P] [--pairs 1,100,1000]
+ * java CommunicatorP2P.bench.BenchMain soak [--seconds N] [--port P] [--hosts H] [--guests G] [--rate R]
+ *                                      [--report S] [--churn PERCENT] [--script FILE] [--seed S]
+ * java CommunicatorP2P.bench.BenchMain storm fanout [--seconds N] [--port P] [--clients C] [--guests G]
+ *                                      [--loops L] [--balancer NAME] [--reuse-port]
+ * </pre>
+ * Without names loopback is run, soak test is run only by name, for multi-hour run
+ * give for example --seconds 14400. Storm and fanout compare server modes on connect storm of --clients threads
+ * and on broadcasts to --guests guests, --loops, --balancer and --reuse-port set the properties read by ChatServer,
+ * see LoopBalancer and SelectorServer. Hosts of soak test listen on following ports from --port,
+ * --guests is number of guests of every host and --rate messages per second of every guest.
+ * Loopback with many pairs needs high limit of open files, every pair has two sockets in this program,
+ * so for example --pairs 10000 needs more than 20000 open files.
+ * Loopback prints bytes allocated per message, the bound of steady state is checked by MessageAllocationTest.
+ * Metrics of the run can be watched over JMX or text endpoint, see Metrics.
+ * <p>
+ * Microbenchmarks of framing, handshake and round trip are measured by JMH, they are in the jar built
+ * by the bench module, with allocation per operation:
+ * <pre>
+ * java -jar modules/bench/target/communicator-bench-1.0-jmh.jar -prof gc
+ * </pre>
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see LoopbackBenchmark
+ * @see FramingBenchmark
+ * @see HandshakeBenchmark
+ * @see RoundTripBenchmark
+ * @see SoakTest
+ * @see StormBenchmark
+ * @see FanoutBenchmark
+ */
+public final class BenchMain {
+
+    /** Address used by all benchmarks */
+    static final String LOOPBACK = "127.0.0.1";
+
+    /** Listener which ignores all events */
+    static final MessageListener SILENT = new MessageListener() {
+        @Override
+        public void onConnected(String nickName) {
+        }
+
+        @Override
+        public void onMessage(String nickName, String text) {
+        }
+
+        @Override
+        public void onDisconnected(String nickName, Throwable cause) {
+        }
+    };
+
+    private BenchMain() {
+    }
+
+    /** Main method of benchmarks */
+    public static void main(String[] args) throws Exception {
+        int seconds = 5;
+        int portNumber = 6000;
+        int[] pairs = {1, 100, 1000};
+        int hosts = 2;
+        int guests = 50;
+        double rate = 10;
+        int report = 10;
+        double churn = 1;
+        Path script = null;
+        long seed = 1;
+        int clients = 16;
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--seconds": seconds = Integer.parseInt(args[++i]); break;
+                case "--port": portNumber = Integer.parseInt(args[++i]); break;
+                case "--pairs": pairs = parseList(args[++i]); break;
+                case "--hosts": hosts = Integer.parseInt(args[++i]); break;
+                case "--guests": guests = Integer.parseInt(args[++i]); break;
+                case "--rate": rate = Double.parseDouble(args[++i]); break;
+                case "--report": report = Integer.parseInt(args[++i]); break;
+                case "--churn": churn = Double.parseDouble(args[++i]); break;
+                case "--script": script = Paths.get(args[++i]); break;
+                case "--seed": seed = Long.parseLong(args[++i]); break;
+                case "--clients": clients = Integer.parseInt(args[++i]); break;
+                case "--loops": System.setProperty(ChatServer.IO_THREADS_PROPERTY, args[++i]); break;
+                case "--balancer": System.setProperty(LoopBalancer.PROPERTY, args[++i]); break;
+                case "--reuse-port": System.setProperty(SelectorServer.REUSE_PORT_PROPERTY, "true"); break;
+                default: names.add(args[i]);
+            }
+        }
+        if (names.isEmpty()) { names = List.of("loopback"); }
+        Metrics.install();
+        for (String name : names) {
+            System.out.println(name + ":");
+            switch (name) {
+                case "loopback":
+                    for (int count : pairs) {
+                        new LoopbackBenchmark().run(portNumber, count, seconds);
+                    }
+                    break;
+                case "storm":
+                    new StormBenchmark().run(portNumber, clients, seconds);
+                    break;
+                case "fanout":
+                    new FanoutBenchmark().run(portNumber, guests, seconds);
+                    break;
+                case "soak":
+                    new SoakTest(hosts, guests, rate, report, churn, script, seed).run(portNumber, seconds);
+                    break;
+                default:
+                    System.out.println("  unknown benchmark");
+            }
+        }
+    }
+
+    /** Method parses list of numbers like "1,100,1000" */
+    private static int[] parseList(String text) {
+        String[] parts = text.split(",");
+        int[] numbers = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) { numbers[i] = Integer.parseInt(parts[i].trim()); }
+        return numbers;
+    }
+}
@@ -0,0 +1,71 @@
+package CommunicatorP2P.bench;
+
+import CommunicatorP2P.core.ChatClient;
+import CommunicatorP2P.core.ChatServer;
+import CommunicatorP2P.core.MessageListener;
+import CommunicatorP2P.metrics.Metrics;
+import CommunicatorP2P.net.ConnectionEngine;
+import CommunicatorP2P.net.OutboundQueue;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class measures broadcast-heavy load: host broadcasts as fast as it can to many guests
+ * and guests count delivered messages. Frames of every guest are written by its I/O loop,
+ * so delivery rate shows how writing is spread over loops. Messages which don't fit in window
+ * of a slow guest are dropped by the host and reported separately.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see BenchMain
+ */
+final class FanoutBenchmark {
+
+    /** Number of delivered messages */
+    private final LongAdder delivered = new LongAdder();
+
+    /** Method connects given number of guests and broadcasts to them for given number of seconds */
+    void run(int portNumber, int guests, int seconds) throws Exception {
+        try (ChatServer server = new ChatServer(portNumber, "fanout", BenchMain.SILENT);
+             ConnectionEngine engine = new ConnectionEngine("bench")) {
+            server.start();
+            ChatClient[] clients = new ChatClient[guests];
+            for (int i = 0; i < guests; i++) {
+                clients[i] = new ChatClient("f" + i, engine, 4, OutboundQueue.OverflowPolicy.BLOCK, new CountingListener());
+                clients[i].connect(BenchMain.LOOPBACK, portNumber);
+            }
+            for (ChatClient client : clients) {
+                if (!client.awaitConnected(30_000)) { throw new IllegalStateException("Connection failed"); }
+            }
+            long dropped = Metrics.MESSAGES_DROPPED.sum();
+            long broadcasts = 0;
+            long start = System.nanoTime();
+            long deadline = start + seconds * 1_000_000_000L;
+            while (System.nanoTime() < deadline) {
+                server.broadcast("fanout " + broadcasts++);
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            Thread.sleep(500);
+            System.out.printf("  %d guests: %.0f broadcasts/s, %.0f delivered/s, dropped %d%n", guests,
+                    broadcasts / elapsed, delivered.sum() / elapsed, Metrics.MESSAGES_DROPPED.sum() - dropped);
+            for (ChatClient client : clients) { client.close(); }
+        }
+    }
+
+    /** Listener of guests which counts messages */
+    private class CountingListener implements MessageListener {
+
+        @Override
+        public void onConnected(String nickName) {
+        }
+
+        @Override
+        public void onMessage(String nickName, String text) {
+            delivered.increment();
+        }
+
+        @Override
+        public void onDisconnected(String nickName, Throwable cause) {
+        }
+    }
+}
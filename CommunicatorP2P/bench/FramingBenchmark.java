@@ -0,0 +1,137 @@
+package CommunicatorP2P.bench;
+
+import CommunicatorP2P.protocol.FrameDecoder;
+import CommunicatorP2P.protocol.FrameEncoder;
+import CommunicatorP2P.protocol.FrameType;
+import CommunicatorP2P.protocol.MessageCodec;
+import CommunicatorP2P.protocol.MessageText;
+import CommunicatorP2P.protocol.PooledFrame;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures encoding and decoding of message frames on one thread.
+ * Bytes allocated per operation are shown by JMH with -prof gc, as gc.alloc.rate.norm.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see BenchMain
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FramingBenchmark {
+
+    /** Typical chat message */
+    static final String MESSAGE = "Hi, are you coming to the lab today? I have the new logs from the server.";
+
+    /** Number of frames in decoded buffer */
+    private static final int FRAMES = 1024;
+
+    /** Buffer with encoded frames, in read mode */
+    private ByteBuffer frames;
+
+    /** Decoder reused for every frame */
+    private final FrameDecoder decoder = new FrameDecoder();
+
+    /** Text of decoded message, reused */
+    private final MessageText text = new MessageText();
+
+    /** Long text, like logs pasted into chat */
+    private String pasted;
+
+    /** Codec which compresses long texts */
+    private MessageCodec deflate;
+
+    /** Sequence number of encoded frames */
+    private int sequence;
+
+    @Setup
+    public void setUp() {
+        ByteBuffer sample = FrameEncoder.encode(FrameType.MESSAGE, 1, MESSAGE);
+        frames = ByteBuffer.allocate(sample.remaining() * FRAMES);
+        for (int i = 0; i < FRAMES; i++) {
+            frames.put(sample.duplicate());
+        }
+        frames.flip();
+        pasted = pastedText();
+        deflate = MessageCodec.negotiate(MessageCodec.DEFLATE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        deflate.close();
+    }
+
+    @Benchmark
+    public int encode() {
+        return FrameEncoder.encode(FrameType.MESSAGE, sequence++, MESSAGE).remaining();
+    }
+
+    @Benchmark
+    public int encodePooled() {
+        PooledFrame frame = MessageCodec.RAW.encodeMessage(sequence++, MESSAGE);
+        int length = frame.buffer().remaining();
+        frame.release();
+        return length;
+    }
+
+    @Benchmark
+    public int deflatePasted() {
+        PooledFrame frame = deflate.encodeMessage(sequence++, pasted);
+        int length = frame.buffer().remaining();
+        frame.release();
+        return length;
+    }
+
+    @Benchmark
+    public int decodeHeader() throws IOException {
+        nextFrame();
+        return decoder.payloadLength();
+    }
+
+    @Benchmark
+    public int decodeText() throws IOException {
+        nextFrame();
+        return decoder.payloadText().length();
+    }
+
+    @Benchmark
+    public int decodeView() throws IOException {
+        nextFrame();
+        return MessageCodec.RAW.decodeText(decoder, text).length();
+    }
+
+    /** Method moves decoder to next frame, after the last one it starts again */
+    private void nextFrame() throws IOException {
+        if (!decoder.next(frames)) {
+            frames.rewind();
+            decoder.next(frames);
+        }
+    }
+
+    /** Method returns long text, like logs pasted into chat */
+    private static String pastedText() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 4096; i++) {
+            text.append("INFO connection ").append(i).append(" accepted from 10.0.0.").append(i % 256).append('\n');
+        }
+        return text.toString();
+    }
+}
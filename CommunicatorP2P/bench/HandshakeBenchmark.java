@@ -0,0 +1,66 @@
+package CommunicatorP2P.bench;
+
+import CommunicatorP2P.core.ChatClient;
+import CommunicatorP2P.core.ChatServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class measures connection setup latency over loopback:
+ * time from connect call until HELLO frames are exchanged with ChatServer.
+ * Iterations are short, because every closed connection keeps local port in TIME_WAIT for a while.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see BenchMain
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class HandshakeBenchmark {
+
+    /** Port of the server */
+    @Param("6100")
+    public int portNumber;
+
+    /** Server which accepts measured connections */
+    private ChatServer server;
+
+    /** Number of connected clients, it makes their nickNames different */
+    private int clients;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = new ChatServer(portNumber, "bench", BenchMain.SILENT);
+        server.start();
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public boolean connect() throws Exception {
+        try (ChatClient client = new ChatClient("c" + clients++, BenchMain.SILENT)) {
+            client.connect(BenchMain.LOOPBACK, portNumber);
+            if (!client.awaitConnected(5000)) { throw new IllegalStateException("Connection failed"); }
+            return client.isConnected();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package CommunicatorP2P.bench;
+
+import CommunicatorP2P.core.ChatClient;
+import CommunicatorP2P.core.ChatServer;
+import CommunicatorP2P.core.MessageListener;
+import CommunicatorP2P.metrics.LatencyHistogram;
+import CommunicatorP2P.metrics.Metrics;
+import CommunicatorP2P.net.ConnectionEngine;
+import CommunicatorP2P.net.OutboundQueue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class measures sustained throughput and round trip latency over loopback.
+ * One ChatServer echoes every message back to its author, every guest keeps one message in flight,
+ * so each host/guest pair is a closed loop. Message carries send time, so guest records round trip.
+ * Both sides use texts of messages without copying them, so allocation per message shows garbage
+ * of the network path itself.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see BenchMain
+ */
+final class LoopbackBenchmark {
+
+    /** Time of connecting of all guests, in milliseconds */
+    private static final long CONNECT_TIMEOUT = 30_000;
+
+    /** Round trip latencies in microseconds */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /** Number of finished round trips */
+    private final LongAdder roundTrips = new LongAdder();
+
+    /** Number of errors: failed connections and disconnections */
+    private final LongAdder errors = new LongAdder();
+
+    /** True while latencies are recorded */
+    private final AtomicBoolean measuring = new AtomicBoolean();
+
+    /** Server of current run */
+    private final AtomicReference<ChatServer> server = new AtomicReference<>();
+
+    /**
+     * Method runs the benchmark for given number of pairs.
+     * It returns bytes allocated per message in steady state, or -1 if they can't be measured.
+     */
+    double run(int portNumber, int pairs, int seconds) throws Exception {
+        try (ChatServer echo = new ChatServer(portNumber, "echo", new EchoListener());
+             ConnectionEngine engine = new ConnectionEngine("bench")) {
+            server.set(echo);
+            echo.start();
+            ChatClient[] clients = new ChatClient[pairs];
+            for (int i = 0; i < pairs; i++) {
+                clients[i] = new ChatClient("g" + i, engine, 4, OutboundQueue.OverflowPolicy.BLOCK, new GuestListener(clients, i));
+                clients[i].connect(BenchMain.LOOPBACK, portNumber);
+            }
+            // one deadline for all, so run which can't open sockets ends instead of waiting for every client
+            long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+            int connected = 0;
+            for (ChatClient client : clients) {
+                if (client.awaitConnected(Math.max(1, deadline - System.currentTimeMillis()))) { connected++; } else { errors.increment(); }
+            }
+            if (connected < pairs) {
+                System.out.printf("  pairs=%d connected=%d, run skipped, raise limit of open files or use less pairs%n", pairs, connected);
+                for (ChatClient client : clients) { client.disconnect(); }
+                return -1;
+            }
+            for (ChatClient client : clients) {
+                if (client.isConnected()) { client.send(Long.toString(System.nanoTime())); }
+            }
+            // warm up for a quarter of the time, then measure
+            Thread.sleep(seconds * 250L);
+            latency.reset();
+            roundTrips.reset();
+            long allocatedBefore = Allocations.allThreads();
+            long start = System.nanoTime();
+            measuring.set(true);
+            Thread.sleep(seconds * 1000L);
+            measuring.set(false);
+            long elapsed = System.nanoTime() - start;
+            long allocated = Allocations.allThreads() - allocatedBefore;
+            long trips = roundTrips.sum();
+            System.out.printf("  pairs=%d connected=%d round trips/s=%,.0f messages/s=%,.0f errors=%d%n",
+                    pairs, connected, trips * 1e9 / elapsed, 2 * trips * 1e9 / elapsed, errors.sum());
+            System.out.println("  round trip [us]: " + latency.summary());
+            double perMessage = -1;
+            if (allocatedBefore >= 0 && trips > 0 && !engine.usesVirtualThreads()) {
+                perMessage = (double) allocated / (2 * trips);
+                System.out.printf("  allocation: %.0f B per message, frames allocated: %d%n",
+                        perMessage, Metrics.FRAMES_ALLOCATED.sum());
+            }
+            for (ChatClient client : clients) { client.disconnect(); }
+            return perMessage;
+        }
+    }
+
+    /** Method parses decimal number, like Long.parseLong, but without copying text */
+    private static long parseLong(CharSequence text) {
+        boolean negative = text.length() > 0 && text.charAt(0) == '-';
+        long value = 0;
+        for (int i = negative ? 1 : 0; i < text.length(); i++) {
+            value = value * 10 + (text.charAt(i) - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /** Server listener which sends every message back to its author */
+    private class EchoListener implements MessageListener {
+
+        @Override
+        public void onConnected(String nickName) {
+        }
+
+        @Override
+        public void onMessage(String nickName, String text) {
+            server.get().send(nickName, text);
+        }
+
+        @Override
+        public void onMessageText(String nickName, CharSequence text) {
+            server.get().send(nickName, text);
+        }
+
+        @Override
+        public void onDisconnected(String nickName, Throwable cause) {
+        }
+    }
+
+    /** Guest listener which records round trip and sends next message */
+    private class GuestListener implements MessageListener {
+
+        /** All clients of the run */
+        private final ChatClient[] clients;
+
+        /** Index of client of this listener */
+        private final int index;
+
+        /** Text of next message, reused by the reading thread of the client */
+        private final StringBuilder next = new StringBuilder();
+
+        GuestListener(ChatClient[] clients, int index) {
+            this.clients = clients;
+            this.index = index;
+        }
+
+        @Override
+        public void onConnected(String nickName) {
+        }
+
+        @Override
+        public void onMessage(String nickName, String text) {
+            onMessageText(nickName, text);
+        }
+
+        @Override
+        public void onMessageText(String nickName, CharSequence text) {
+            long now = System.nanoTime();
+            if (measuring.get()) {
+                latency.record((now - parseLong(text)) / 1000);
+            }
+            roundTrips.increment();
+            next.setLength(0);
+            clients[index].send(next.append(System.nanoTime()));
+        }
+
+        @Override
+        public void onDisconnected(String nickName, Throwable cause) {
+            if (cause != null) { errors.increment(); }
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package CommunicatorP2P.bench;
+
+import CommunicatorP2P.core.ChatClient;
+import CommunicatorP2P.core.ChatServer;
+import CommunicatorP2P.core.MessageListener;
+import CommunicatorP2P.net.ConnectionEngine;
+import CommunicatorP2P.net.OutboundQueue;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class measures round trip of a message over loopback while other host/guest pairs load the same server.
+ * One ChatServer echoes every message back to its author. Measured guest sends message and waits for echo,
+ * every other guest keeps one message in flight all the time. Throughput shows round trips of measured guest
+ * and all messages of the server as "messages", both per second, latency shows percentiles of round trip.
+ * Bytes allocated per round trip are shown by JMH with -prof gc. Many pairs need high limit of open files,
+ * for thousands of pairs there is loopback run of BenchMain.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see BenchMain
+ * @see LoopbackBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+
+    /** Text of every message */
+    private static final String TEXT = FramingBenchmark.MESSAGE;
+
+    /** Time of waiting for connection or echo, in milliseconds */
+    private static final long TIMEOUT = 30_000;
+
+    /** Number of host/guest pairs, with the measured one */
+    @Param({"1", "100"})
+    public int pairs;
+
+    /** Port of the server */
+    @Param("6200")
+    public int portNumber;
+
+    /** Messages received by host and by guests */
+    private final LongAdder messages = new LongAdder();
+
+    /** Echoes of measured guest, one permit for every echo */
+    private final Semaphore echoes = new Semaphore(0);
+
+    /** Server which echoes messages */
+    private final AtomicReference<ChatServer> server = new AtomicReference<>();
+
+    /** Engine of all guests */
+    private ConnectionEngine engine;
+
+    /** Guests, measured one is the first */
+    private ChatClient[] clients;
+
+    @Setup
+    public void setUp() throws Exception {
+        ChatServer echo = new ChatServer(portNumber, "echo", new EchoListener());
+        server.set(echo);
+        echo.start();
+        engine = new ConnectionEngine("bench");
+        clients = new ChatClient[pairs];
+        clients[0] = new ChatClient("measured", new MeasuredListener());
+        clients[0].connect(BenchMain.LOOPBACK, portNumber);
+        for (int i = 1; i < pairs; i++) {
+            clients[i] = new ChatClient("g" + i, engine, 4, OutboundQueue.OverflowPolicy.BLOCK, new LoadListener(i));
+            clients[i].connect(BenchMain.LOOPBACK, portNumber);
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        for (ChatClient client : clients) {
+            if (!client.awaitConnected(Math.max(1, deadline - System.currentTimeMillis()))) {
+                throw new IllegalStateException("Guest not connected");
+            }
+        }
+        for (int i = 1; i < pairs; i++) { clients[i].send(TEXT); }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (ChatClient client : clients) {
+            if (client != null) { client.disconnect(); }
+        }
+        engine.close();
+        server.get().close();
+    }
+
+    @Benchmark
+    public void latency() throws Exception {
+        roundTrip();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void throughput(ServerMessages counter) throws Exception {
+        roundTrip();
+    }
+
+    /** Method sends message by measured guest and waits for its echo */
+    private void roundTrip() throws Exception {
+        if (!clients[0].send(TEXT)) { throw new IllegalStateException("Message not sent"); }
+        if (!echoes.tryAcquire(TIMEOUT, TimeUnit.MILLISECONDS)) { throw new IllegalStateException("No echo"); }
+    }
+
+    /** Counter of all messages of the server during iteration, shown next to round trips */
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class ServerMessages {
+
+        /** Benchmark of which messages are counted */
+        private RoundTripBenchmark benchmark;
+
+        /** Number of messages at the start of iteration */
+        private long start;
+
+        @Setup(Level.Iteration)
+        public void start(RoundTripBenchmark benchmark) {
+            this.benchmark = benchmark;
+            this.start = benchmark.messages.sum();
+        }
+
+        /** Method returns messages received by host and guests since the start of iteration */
+        public long messages() {
+            return benchmark.messages.sum() - start;
+        }
+    }
+
+    /** Server listener which sends every message back to its author */
+    private class EchoListener implements MessageListener {
+
+        @Override
+        public void onConnected(String nickName) {
+        }
+
+        @Override
+        public void onMessage(String nickName, String text) {
+            onMessageText(nickName, text);
+        }
+
+        @Override
+        public void onMessageText(String nickName, CharSequence text) {
+            messages.increment();
+            server.get().send(nickName, text);
+        }
+
+        @Override
+        public void onDisconnected(String nickName, Throwable cause) {
+        }
+    }
+
+    /** Listener of measured guest, which lets waiting benchmark go */
+    private class MeasuredListener implements MessageListener {
+
+        @Override
+        public void onConnected(String nickName) {
+        }
+
+        @Override
+        public void onMessage(String nickName, String text) {
+            onMessageText(nickName, text);
+        }
+
+        @Override
+        public void onMessageText(String nickName, CharSequence text) {
+            messages.increment();
+            echoes.release();
+        }
+
+        @Override
+        public void onDisconnected(String nickName, Throwable cause) {
+        }
+    }
+
+    /** Listener of loading guest, which sends next message when echo comes */
+    private class LoadListener implements MessageListener {
+
+        /** Index of client of this listener */
+        private final int index;
+
+        LoadListener(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void onConnected(String nickName) {
+        }
+
+        @Override
+        public void onMessage(String nickName, String text) {
+            onMessageText(nickName, text);
+        }
+
+        @Override
+        public void onMessageText(String nickName, CharSequence text) {
+            messages.increment();
+            clients[index].send(TEXT);
+        }
+
+        @Override
+        public void onDisconnected(String nickName, Throwable cause) {
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package CommunicatorP2P.bench;
+
+import CommunicatorP2P.core.ChatClient;
+import CommunicatorP2P.core.ChatServer;
+import CommunicatorP2P.core.MessageListener;
+import CommunicatorP2P.metrics.LatencyHistogram;
+import CommunicatorP2P.metrics.Metrics;
+import CommunicatorP2P.net.ConnectionEngine;
+import CommunicatorP2P.net.OutboundQueue;
+import CommunicatorP2P.protocol.FramePool;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a load generator for long soak runs. It starts simulated hosts, headless ChatServers
+ * which echo every message to its author, and simulated guests, headless ChatClients in one shared engine,
+ * all on loopback. Guests send at fixed rate, open loop: pacer thread sends every message at its planned time,
+ * whether answers came or not, and latency is counted from the planned time, so stalls of the host
+ * are not hidden by the generator waiting for them.
+ * <p>
+ * Texts are lines of a script, replayed in a loop, or random texts of random length.
+ * Part of guests is disconnected and connected again at every report, so connection lifecycle
+ * is exercised all the time, not only at start. Every report shows throughput, latency of the interval,
+ * errors, reconnections, open connections and memory: heap left after the last GC, direct buffers and threads.
+ * Growth of these between first and last report is shown at the end, leaks show up there.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see BenchMain
+ */
+final class SoakTest {
+
+    /** How often pacer wakes up, in milliseconds */
+    private static final long TICK = 5;
+
+    /** Number of random texts generated when there is no script */
+    private static final int RANDOM_TEXTS = 1024;
+
+    /** The longest random text */
+    private static final int MAX_RANDOM_LENGTH = 200;
+
+    /** Number of simulated hosts */
+    private final int hosts;
+
+    /** Number of guests of every host */
+    private final int guestsPerHost;
+
+    /** Messages per second sent by every guest */
+    private final double rate;
+
+    /** Seconds between reports */
+    private final int reportSeconds;
+
+    /** Percent of guests reconnected at every report */
+    private final double churnPercent;
+
+    /** Texts of messages, sent in a loop */
+    private final String[] texts;
+
+    /** Random of churn, seeded so runs can be repeated */
+    private final Random random;
+
+    /** Latencies of current interval in microseconds */
+    private final LatencyHistogram intervalLatency = new LatencyHistogram();
+
+    /** Latencies of whole run in microseconds */
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+
+    /** Number of messages given to clients */
+    private final LongAdder sent = new LongAdder();
+
+    /** Number of echoes received by guests */
+    private final LongAdder received = new LongAdder();
+
+    /** Number of messages dropped by full queue of guest or not sent as guest was not connected */
+    private final LongAdder skipped = new LongAdder();
+
+    /** Number of errors: failed connections and disconnections with cause */
+    private final LongAdder errors = new LongAdder();
+
+    /** Number of automatic reconnections */
+    private final LongAdder reconnects = new LongAdder();
+
+    /** Number of reconnections done by churn */
+    private final LongAdder churned = new LongAdder();
+
+    /** Servers of the run, echo listeners find them here */
+    private AtomicReferenceArray<ChatServer> servers;
+
+    /**
+     * Constructor of the soak test.
+     * @param hosts number of simulated hosts
+     * @param guestsPerHost number of guests of every host
+     * @param rate messages per second sent by every guest
+     * @param reportSeconds seconds between reports
+     * @param churnPercent percent of guests reconnected at every report
+     * @param script file with texts of messages, one per line, null for random texts
+     * @param seed seed of random texts and churn
+     */
+    SoakTest(int hosts, int guestsPerHost, double rate, int reportSeconds, double churnPercent, Path script, long seed)
+            throws IOException {
+        this.hosts = hosts;
+        this.guestsPerHost = guestsPerHost;
+        this.rate = rate;
+        this.reportSeconds = reportSeconds;
+        this.churnPercent = churnPercent;
+        this.random = new Random(seed);
+        this.texts = script != null ? readScript(script) : randomTexts(random);
+    }
+
+    /** Method reads not empty lines of the script */
+    private static String[] readScript(Path script) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(script, StandardCharsets.UTF_8)) {
+            if (!line.isEmpty()) { lines.add(line); }
+        }
+        if (lines.isEmpty()) { throw new IOException("Script has no messages: " + script); }
+        return lines.toArray(new String[0]);
+    }
+
+    /** Method generates random texts of letters and spaces */
+    private static String[] randomTexts(Random random) {
+        String[] result = new String[RANDOM_TEXTS];
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < result.length; i++) {
+            text.setLength(0);
+            int length = 1 + random.nextInt(MAX_RANDOM_LENGTH);
+            for (int j = 0; j < length; j++) {
+                text.append(random.nextInt(6) == 0 ? ' ' : (char) ('a' + random.nextInt(26)));
+            }
+            result[i] = text.toString();
+        }
+        return result;
+    }
+
+    /** Method runs the soak test for given time, hosts listen on following ports from given one */
+    void run(int portNumber, int seconds) throws Exception {
+        int guests = hosts * guestsPerHost;
+        servers = new AtomicReferenceArray<>(hosts);
+        ChatClient[] clients = new ChatClient[guests];
+        try (ConnectionEngine engine = new ConnectionEngine("soak")) {
+            try {
+                runGuests(engine, clients, portNumber, seconds);
+            } finally {
+                for (ChatClient client : clients) {
+                    if (client != null) { client.disconnect(); }
+                }
+                for (int h = 0; h < hosts; h++) {
+                    ChatServer server = servers.get(h);
+                    if (server != null) { server.close(); }
+                }
+            }
+        }
+    }
+
+    /** Method starts hosts and guests and prints reports until the end of the run */
+    private void runGuests(ConnectionEngine engine, ChatClient[] clients, int portNumber, int seconds) throws Exception {
+        int guests = clients.length;
+        for (int h = 0; h < hosts; h++) {
+            ChatServer server = new ChatServer(portNumber + h, "host" + h, 2, new EchoListener(h));
+            servers.set(h, server);
+            server.start();
+        }
+        for (int i = 0; i < guests; i++) {
+            clients[i] = new ChatClient("g" + i, engine, ChatClient.DEFAULT_OUTBOUND_CAPACITY,
+                    OutboundQueue.OverflowPolicy.DROP, new GuestListener());
+            clients[i].connect(BenchMain.LOOPBACK, portNumber + i % hosts);
+        }
+        for (ChatClient client : clients) {
+            if (!client.awaitConnected(30_000)) { errors.increment(); }
+        }
+        System.out.printf("  hosts=%d guests=%d rate=%.1f/s per guest, texts=%d, churn=%.1f%% per %d s%n",
+                hosts, guests, rate, texts.length, churnPercent, reportSeconds);
+        Pacer pacer = new Pacer(clients);
+        Thread pacerThread = new Thread(pacer, "soak-pacer");
+        pacerThread.setDaemon(true);
+        pacerThread.start();
+        Report first = null;
+        Report previous = new Report(0);
+        long start = System.nanoTime();
+        long end = start + seconds * 1_000_000_000L;
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(reportSeconds * 1000L, Math.max(1, (end - System.nanoTime()) / 1_000_000)));
+            Report report = new Report(System.nanoTime() - start);
+            report.print(previous);
+            if (first == null) { first = report; }
+            previous = report;
+            churn(clients, portNumber);
+        }
+        pacer.running = false;
+        pacerThread.join();
+        System.out.println("  round trip [us]: " + totalLatency.summary());
+        if (first != null && previous != first) { previous.printGrowth(first); }
+    }
+
+    /** Method disconnects random part of guests and connects them again */
+    private void churn(ChatClient[] clients, int portNumber) throws InterruptedException {
+        int count = (int) Math.round(clients.length * churnPercent / 100);
+        List<ChatClient> reconnected = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int index = random.nextInt(clients.length);
+            ChatClient client = clients[index];
+            client.disconnect();
+            try {
+                client.connect(BenchMain.LOOPBACK, portNumber + index % hosts);
+                reconnected.add(client);
+            } catch (IllegalStateException e) {
+                // the same guest drawn twice, it is already connecting
+            }
+        }
+        for (ChatClient client : reconnected) {
+            if (client.awaitConnected(30_000)) { churned.increment(); } else { errors.increment(); }
+        }
+    }
+
+    /** Method parses send time at start of the text, like Long.parseLong, but without copying text */
+    private static long parseTime(CharSequence text) {
+        long value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') { break; }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /** Thread which sends messages of all guests at their planned times */
+    private class Pacer implements Runnable {
+
+        /** All guests */
+        private final ChatClient[] clients;
+
+        /** Number of messages planned so far for every guest */
+        private final long[] planned;
+
+        /** Text of next message, reused */
+        private final StringBuilder next = new StringBuilder();
+
+        /** Flag which stops the pacer */
+        private volatile boolean running = true;
+
+        Pacer(ChatClient[] clients) {
+            this.clients = clients;
+            this.planned = new long[clients.length];
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            double interval = 1e9 / rate;
+            int textIndex = 0;
+            while (running) {
+                long now = System.nanoTime();
+                for (int i = 0; i < clients.length; i++) {
+                    // guests are shifted within one interval, so they don't send all at once
+                    long offset = (long) (interval * i / clients.length);
+                    long due = (long) ((now - start - offset) / interval) + 1;
+                    while (planned[i] < due) {
+                        long plannedTime = start + offset + (long) (planned[i] * interval);
+                        planned[i]++;
+                        next.setLength(0);
+                        next.append(plannedTime).append(' ').append(texts[textIndex]);
+                        textIndex = (textIndex + 1) % texts.length;
+                        if (clients[i].isConnected() && clients[i].send(next)) { sent.increment(); } else { skipped.increment(); }
+                    }
+                }
+                try {
+                    Thread.sleep(TICK);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Host listener which sends every message back to its author */
+    private class EchoListener implements MessageListener {
+
+        /** Index of the host */
+        private final int host;
+
+        EchoListener(int host) {
+            this.host = host;
+        }
+
+        @Override
+        public void onConnected(String nickName) {
+        }
+
+        @Override
+        public void onMessage(String nickName, String text) {
+            servers.get(host).send(nickName, text);
+        }
+
+        @Override
+        public void onMessageText(String nickName, CharSequence text) {
+            servers.get(host).send(nickName, text);
+        }
+
+        @Override
+        public void onDisconnected(String nickName, Throwable cause) {
+        }
+    }
+
+    /** Guest listener which records latency of echoes */
+    private class GuestListener implements MessageListener {
+
+        @Override
+        public void onConnected(String nickName) {
+        }
+
+        @Override
+        public void onMessage(String nickName, String text) {
+            onMessageText(nickName, text);
+        }
+
+        @Override
+        public void onMessageText(String nickName, CharSequence text) {
+            long micros = (System.nanoTime() - parseTime(text)) / 1000;
+            intervalLatency.record(micros);
+            totalLatency.record(micros);
+            received.increment();
+        }
+
+        @Override
+        public void onDisconnected(String nickName, Throwable cause) {
+            if (cause != null) { errors.increment(); }
+        }
+
+        @Override
+        public void onReconnecting(String nickName, int attempt, long delayMillis) {
+            reconnects.increment();
+        }
+    }
+
+    /** State of the run at one report */
+    private class Report {
+
+        /** Time since start, in nanoseconds */
+        private final long elapsed;
+
+        private final long sentCount = sent.sum();
+        private final long receivedCount = received.sum();
+
+        /** Heap used after the last GC, it grows only when objects leak */
+        private final long heapAfterGc = heapAfterGc();
+
+        /** Memory of direct buffers, pooled frames are there */
+        private final long directMemory = directMemory();
+
+        private final int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        private final int connections = openConnections();
+
+        Report(long elapsed) {
+            this.elapsed = elapsed;
+        }
+
+        /** Method prints the report with rates counted since previous one and resets interval latency */
+        void print(Report previous) {
+            double seconds = (elapsed - previous.elapsed) / 1e9;
+            System.out.printf("  [%6.0f s] sent/s=%,.0f received/s=%,.0f skipped=%d errors=%d reconnects=%d churned=%d%n",
+                    elapsed / 1e9, (sentCount - previous.sentCount) / seconds, (receivedCount - previous.receivedCount) / seconds,
+                    skipped.sum(), errors.sum(), reconnects.sum(), churned.sum());
+            System.out.printf("            round trip [us]: %s%n", intervalLatency.summary());
+            System.out.printf("            connections=%d heap after GC=%.1f MB direct=%.1f MB threads=%d free frames=%d dropped=%d%n",
+                    connections, heapAfterGc / 1e6, directMemory / 1e6, threads, FramePool.SHARED.getFreeCount(),
+                    Metrics.MESSAGES_DROPPED.sum());
+            intervalLatency.reset();
+        }
+
+        /** Method prints growth of memory and threads since the first report */
+        void printGrowth(Report first) {
+            double hours = (elapsed - first.elapsed) / 3.6e12;
+            System.out.printf("  growth since first report: heap after GC %+.1f MB (%+.1f MB/h), direct %+.1f MB, threads %+d, connections %+d%n",
+                    (heapAfterGc - first.heapAfterGc) / 1e6, (heapAfterGc - first.heapAfterGc) / 1e6 / hours,
+                    (directMemory - first.directMemory) / 1e6, threads - first.threads, connections - first.connections);
+        }
+    }
+
+    /** Method returns sum of open connections of all hosts */
+    private int openConnections() {
+        int total = 0;
+        for (int h = 0; h < hosts; h++) {
+            ChatServer server = servers.get(h);
+            if (server != null) { total += server.getOpenConnectionCount(); }
+        }
+        return total;
+    }
+
+    /** Method returns heap used after the last collection of every heap pool */
+    private static long heapAfterGc() {
+        long total = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (pool.getType() == MemoryType.HEAP && usage != null) { total += usage.getUsed(); }
+        }
+        return total;
+    }
+
+    /** Method returns memory used by direct buffers */
+    private static long directMemory() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if ("direct".equals(pool.getName())) { return pool.getMemoryUsed(); }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,62 @@
+package CommunicatorP2P.bench;
+
+import CommunicatorP2P.core.ChatServer;
+import CommunicatorP2P.metrics.LatencyHistogram;
+import CommunicatorP2P.protocol.Handshake;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class measures how many connections per second ChatServer accepts during connect storm.
+ * Many client threads connect at once, send HELLO, wait for the first byte of host HELLO and close.
+ * Clients are raw blocking channels, so they cost less than the server and don't hide its limit.
+ * Run it with different -DcommunicatorP2P.ioThreads, -DcommunicatorP2P.balancer
+ * and -DcommunicatorP2P.reusePort to compare server modes, see BenchMain.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see BenchMain
+ */
+final class StormBenchmark {
+
+    /** Method runs given number of client threads for given number of seconds */
+    void run(int portNumber, int clients, int seconds) throws Exception {
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder handshakes = new LongAdder();
+        LongAdder errors = new LongAdder();
+        try (ChatServer server = new ChatServer(portNumber, "storm", BenchMain.SILENT)) {
+            server.start();
+            long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+            List<Thread> threads = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                String nickName = "s" + c;
+                Thread thread = new Thread(() -> {
+                    ByteBuffer reply = ByteBuffer.allocate(1);
+                    while (System.nanoTime() < deadline) {
+                        long start = System.nanoTime();
+                        try (SocketChannel channel = SocketChannel.open(new InetSocketAddress(BenchMain.LOOPBACK, portNumber))) {
+                            ByteBuffer hello = Handshake.hello(nickName);
+                            while (hello.hasRemaining()) { channel.write(hello); }
+                            reply.clear();
+                            if (channel.read(reply) <= 0) { throw new IllegalStateException("Host closed connection"); }
+                            latency.record((System.nanoTime() - start) / 1000);
+                            handshakes.increment();
+                        } catch (Exception e) {
+                            errors.increment();
+                        }
+                    }
+                }, "storm-" + c);
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) { thread.join(); }
+        }
+        System.out.printf("  %d clients: %.0f connections/s, errors %d, connect + HELLO [us]: %s%n",
+                clients, handshakes.sum() / (double) seconds, errors.sum(), latency.summary());
+    }
+}
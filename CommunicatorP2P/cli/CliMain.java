@@ -0,0 +1,251 @@
+package CommunicatorP2P.cli;
+
+import CommunicatorP2P.core.ChatClient;
+import CommunicatorP2P.core.ChatServer;
+import CommunicatorP2P.core.MessageListener;
+import CommunicatorP2P.metrics.Metrics;
+import CommunicatorP2P.net.PeerDiscovery;
+import CommunicatorP2P.net.TlsContext;
+import CommunicatorP2P.protocol.Validation;
+import CommunicatorP2P.store.Outbox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class starts the communicator without GUI, JavaFX is not loaded at all, so it starts fast
+ * also on servers and in containers without display.
+ * <pre>
+ * java CommunicatorP2P.cli.CliMain --host [--port P] [--nick N]
+ * java CommunicatorP2P.cli.CliMain --guest ADDRESS[:PORT] [--nick N]
+ * java CommunicatorP2P.cli.CliMain --loopback [--port P]
+ * </pre>
+ * Lines of standard input are sent as messages, host sends them to all guests. Messages of others are printed
+ * as "nick: text", events start with "* ". Line /quit ends the program. End of input ends guest, while host
+ * serves guests until it is stopped, so it can run in background as relay. TLS, relay mode and LAN announcement
+ * are configured by the same properties as in GUI, host also installs Metrics.
+ * Loopback starts host and guest in one program, prints time from start to the first message and exits,
+ * it is also a training run for class data sharing archive, see README.
+ * Main class of GUI extends Application and java launcher starts JavaFX for such class before its main method,
+ * that's why this is a separate class.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see ChatServer
+ * @see ChatClient
+ */
+public final class CliMain {
+
+    /** Port used when it is not given, the same as in GUI */
+    private static final int DEFAULT_PORT = 5000;
+
+    /** Line which ends the program */
+    private static final String QUIT = "/quit";
+
+    /** Address used by loopback run */
+    private static final String LOOPBACK = "127.0.0.1";
+
+    /** Time of connecting and of waiting for the first message, in milliseconds */
+    private static final long CONNECT_TIMEOUT = 10_000;
+
+    /** Max time of sending queued messages when guest ends, in milliseconds */
+    private static final long FLUSH_TIMEOUT = 2000;
+
+    private CliMain() {
+    }
+
+    /** Main method of headless communicator */
+    public static void main(String[] args) throws Exception {
+        long started = System.nanoTime();
+        String mode = null;
+        String address = null;
+        String portText = Integer.toString(DEFAULT_PORT);
+        String nickName = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--host": mode = "host"; break;
+                    case "--guest": mode = "guest"; address = args[++i]; break;
+                    case "--loopback": mode = "loopback"; break;
+                    case "--port": portText = args[++i]; break;
+                    case "--nick": nickName = args[++i]; break;
+                    default: usage("Unknown option: " + args[i]); return;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            usage("Missing value of " + args[args.length - 1]);
+            return;
+        }
+        if (mode == null) { usage("Choose --host, --guest or --loopback"); return; }
+        if (nickName == null) { nickName = mode.equals("guest") ? "Guest" : "Host"; }
+        if (!Validation.isValidNick(nickName)) { usage("Incorrect nick: " + nickName); return; }
+        switch (mode) {
+            case "host":
+                if (!Validation.isValidServerPort(portText)) { usage("Incorrect port: " + portText); return; }
+                host(Validation.parsePort(portText), nickName);
+                break;
+            case "guest":
+                guest(address, nickName);
+                break;
+            default:
+                if (!Validation.isValidServerPort(portText)) { usage("Incorrect port: " + portText); return; }
+                loopback(Validation.parsePort(portText), started);
+        }
+    }
+
+    /** Method starts server and sends lines of input to all guests until /quit or until program is stopped */
+    private static void host(int portNumber, String nickName) throws Exception {
+        Metrics.install();
+        Outbox outbox = openOutbox(portNumber);
+        ChatServer server = new ChatServer(portNumber, nickName, new Printer());
+        server.setTls(TlsContext.configured());
+        server.setOutbox(outbox);
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> stop(server, outbox), "host-shutdown"));
+        // guests in LAN find the host in their picker, host works also without it
+        try {
+            server.announce(PeerDiscovery.shared());
+        } catch (Exception e) {
+            System.out.println("Discovery problem: " + e);
+        }
+        System.out.println("* " + nickName + " is waiting for guests on port " + portNumber);
+        BufferedReader input = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = input.readLine()) != null && !line.equals(QUIT)) {
+            if (line.isEmpty()) { continue; }
+            int queued = server.broadcast(line);
+            if (queued > 0) { System.out.println("* Message kept for " + queued + " guests who are not connected"); }
+        }
+        // without input host only serves guests, shutdown hook closes it
+        if (line == null) { new CountDownLatch(1).await(); }
+        System.exit(0);
+    }
+
+    /** Method connects to the host and sends lines of input until /quit or end of input */
+    private static void guest(String address, String nickName) throws Exception {
+        int colon = address.lastIndexOf(':');
+        boolean hasPort = colon > 0 && address.indexOf(':') == colon;
+        String ipAddress = hasPort ? address.substring(0, colon) : address;
+        int portNumber = hasPort ? Validation.parsePort(address.substring(colon + 1)) : DEFAULT_PORT;
+        if (!Validation.isValidHost(ipAddress) || portNumber < 0) { usage("Incorrect address: " + address); return; }
+        ChatClient client = new ChatClient(nickName, new Printer());
+        client.setTls(TlsContext.configured());
+        client.connect(ipAddress, portNumber);
+        if (!client.awaitConnected(CONNECT_TIMEOUT)) {
+            System.out.println("* Can't connect to " + address);
+            client.close();
+            System.exit(1);
+        }
+        BufferedReader input = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = input.readLine()) != null && !line.equals(QUIT)) {
+            if (!line.isEmpty() && !client.send(line)) { System.out.println("* Message not sent"); }
+        }
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT;
+        while (client.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) { Thread.sleep(10); }
+        client.close();
+    }
+
+    /**
+     * Method starts host and guest on loopback, guest sends one message and method prints time
+     * from start of the program until the message came to the host. Program ends with status 1 if it didn't come.
+     */
+    private static void loopback(int portNumber, long started) throws Exception {
+        CountDownLatch arrived = new CountDownLatch(1);
+        ChatServer server = new ChatServer(portNumber, "Host", new Printer() {
+            @Override
+            public void onMessage(String nickName, String text) {
+                super.onMessage(nickName, text);
+                arrived.countDown();
+            }
+        });
+        TlsContext tls = TlsContext.configured();
+        server.setTls(tls);
+        server.start();
+        ChatClient client = new ChatClient("Guest", new Printer());
+        client.setTls(tls);
+        client.connect(LOOPBACK, portNumber);
+        if (client.awaitConnected(CONNECT_TIMEOUT)) { client.send("hello"); }
+        boolean delivered = arrived.await(CONNECT_TIMEOUT, TimeUnit.MILLISECONDS);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        System.out.println(delivered ? "* First message after " + millis + " ms" : "* No message after " + millis + " ms");
+        client.close();
+        server.close();
+        System.exit(delivered ? 0 : 1);
+    }
+
+    /**
+     * Method opens outbox of this port, messages for guests who are not connected are kept there.
+     * It returns null if relay mode is turned off by -DcommunicatorP2P.relay=false or outbox can't be opened.
+     */
+    private static Outbox openOutbox(int portNumber) {
+        if ("false".equals(System.getProperty("communicatorP2P.relay"))) { return null; }
+        Path directory = Paths.get(System.getProperty("user.home"), ".communicatorP2P", "outbox", Integer.toString(portNumber));
+        try {
+            return Outbox.open(directory);
+        } catch (IOException e) {
+            System.out.println("Outbox problem: " + e);
+            return null;
+        }
+    }
+
+    /** Method stops server and closes its outbox, it is called when program ends */
+    private static void stop(ChatServer server, Outbox outbox) {
+        server.close();
+        if (outbox == null) { return; }
+        try {
+            outbox.close();
+        } catch (IOException e) {
+            System.out.println("Outbox closing error: " + e);
+        }
+    }
+
+    /** Method prints error and usage, program ends with status 2 */
+    private static void usage(String error) {
+        System.out.println(error);
+        System.out.println("Usage: CliMain --host [--port P] [--nick N]");
+        System.out.println("       CliMain --guest ADDRESS[:PORT] [--nick N]");
+        System.out.println("       CliMain --loopback [--port P]");
+        System.exit(2);
+    }
+
+    /** Listener which prints messages and events on standard output */
+    private static class Printer implements MessageListener {
+
+        @Override
+        public void onConnected(String nickName) {
+            System.out.println("* Connected to " + nickName);
+        }
+
+        @Override
+        public void onMessage(String nickName, String text) {
+            System.out.println(nickName + ": " + text);
+        }
+
+        @Override
+        public void onRelayedMessage(String nickName, String text, long timestamp) {
+            System.out.println(nickName + " (while you were away): " + text);
+        }
+
+        @Override
+        public void onDisconnected(String nickName, Throwable cause) {
+            System.out.println("* " + nickName + " disconnected" + (cause != null ? ": " + cause : ""));
+        }
+
+        @Override
+        public void onReconnecting(String nickName, int attempt, long delayMillis) {
+            if (attempt == 1) { System.out.println("* Connection lost, reconnecting"); }
+        }
+
+        @Override
+        public void onFileReceived(String nickName, Path file) {
+            System.out.println("* File from " + nickName + " saved as " + file);
+        }
+    }
+}
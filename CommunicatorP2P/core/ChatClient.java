@@ -0,0 +1,528 @@
+package CommunicatorP2P.core;
+
+import CommunicatorP2P.metrics.Metrics;
+import CommunicatorP2P.net.Backoff;
+import CommunicatorP2P.net.BackpressureListener;
+import CommunicatorP2P.net.ConnectionEngine;
+import CommunicatorP2P.net.FileTransferListener;
+import CommunicatorP2P.net.FileTransfers;
+import CommunicatorP2P.net.HashedWheelTimer;
+import CommunicatorP2P.net.Heartbeat;
+import CommunicatorP2P.net.HostResolver;
+import CommunicatorP2P.net.IdleMonitor;
+import CommunicatorP2P.net.OutboundQueue;
+import CommunicatorP2P.net.OutboundWriter;
+import CommunicatorP2P.net.PlainTransport;
+import CommunicatorP2P.net.Session;
+import CommunicatorP2P.net.TlsChannel;
+import CommunicatorP2P.net.TlsContext;
+import CommunicatorP2P.net.Transport;
+import CommunicatorP2P.protocol.FrameChannel;
+import CommunicatorP2P.protocol.FrameDecoder;
+import CommunicatorP2P.protocol.FrameType;
+import CommunicatorP2P.protocol.Handshake;
+import CommunicatorP2P.protocol.MessageCodec;
+import CommunicatorP2P.protocol.PeerSession;
+import CommunicatorP2P.protocol.Ping;
+import CommunicatorP2P.protocol.PooledFrame;
+import CommunicatorP2P.protocol.RelayFrame;
+import CommunicatorP2P.protocol.RelayReceiver;
+import CommunicatorP2P.protocol.RoomFrame;
+import CommunicatorP2P.protocol.SignalFrame;
+import CommunicatorP2P.protocol.Validation;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * This class is a headless chat client, it is used by Guest and can be embedded in other programs.
+ * Connection is run as a Session of ConnectionEngine: main task connects, exchanges nickNames and reads,
+ * forked task writes messages from bounded OutboundQueue.
+ * <p>
+ * Conversation is kept in PeerSession. When established connection breaks, client connects again after
+ * jittered exponential backoff and resumes the session, so only messages which were not acknowledged
+ * are sent again. Messages sent during reconnection wait in the session.
+ * Silent host is pinged and dead one is found by IdleMonitor on the timer of the engine.
+ * Files are sent by the writer in lower priority than messages and continue after reconnection.
+ * Messages which host kept in his outbox come as relayed ones, these delivered again are ignored.
+ * Receipts of delivered and read messages are coalesced and sent after a short delay or with the next message.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see ChatServer
+ * @see MessageListener
+ * @see ConnectionEngine
+ */
+public class ChatClient implements AutoCloseable {
+
+    /** Default max number of messages waiting for sending */
+    public static final int DEFAULT_OUTBOUND_CAPACITY = 256;
+
+    /** How long disconnect waits for session tasks, in milliseconds */
+    private static final long DISCONNECT_TIMEOUT = 1000;
+
+    /** Max number of reconnection attempts in a row */
+    public static final int MAX_RECONNECT_ATTEMPTS = 10;
+
+    /** Delays between reconnection attempts, from 100 ms to 10 s */
+    private static final Backoff BACKOFF = new Backoff(100, 10_000);
+
+    /** User nickName */
+    private final String nickName;
+
+    /** Listener of the user of this client */
+    private final MessageListener listener;
+
+    /** Engine which runs sessions */
+    private final ConnectionEngine engine;
+
+    /** True if engine was created by this client and should be closed with it */
+    private final boolean ownEngine;
+
+    /** Max number of messages waiting for sending */
+    private final int outboundCapacity;
+
+    /** Policy used when outbound queue is full */
+    private final OutboundQueue.OverflowPolicy overflowPolicy;
+
+    /** Times of heartbeat and timeouts */
+    private volatile Heartbeat heartbeat = Heartbeat.DEFAULT;
+
+    /** TLS configuration, null if connection is not encrypted */
+    private volatile TlsContext tls;
+
+    /** Current session, null if client was never connected */
+    private volatile Session session;
+
+    /** Frames of current connection, null if disconnected */
+    private volatile FrameChannel frames;
+
+    /** Messages waiting for sending, null if disconnected */
+    private volatile OutboundQueue outbound;
+
+    /** Host nickName, null until handshake is finished */
+    private volatile String friendName;
+
+    /** Conversation with host, null if client is not connected and not reconnecting */
+    private volatile PeerSession peer;
+
+    /** File transfers of current conversation, null if client is not connected and not reconnecting */
+    private volatile FileTransfers transfers;
+
+    /** Host nickName of current conversation, null until first handshake */
+    private volatile String lastFriendName;
+
+    /** True if broken connection should be established again */
+    private volatile boolean autoReconnect = true;
+
+    /** True after disconnect was called, it stops reconnecting */
+    private volatile boolean disconnectRequested;
+
+    /** Receivers of relayed messages by host nickName, they live as long as the client */
+    private final Map<String, RelayReceiver> relayReceivers = new ConcurrentHashMap<>();
+
+    /** Shows whether host is typing, it ends on timer of the engine */
+    private final TypingIndicator indicator;
+
+    /** Released when handshake of current session is finished or session ends */
+    private volatile CountDownLatch handshakeDone = new CountDownLatch(0);
+
+    /** Constructor of client with own engine, it drops messages when connection is congested */
+    public ChatClient(String nickName, MessageListener listener) {
+        this(nickName, new ConnectionEngine("client"), true, DEFAULT_OUTBOUND_CAPACITY, OutboundQueue.OverflowPolicy.DROP, listener);
+    }
+
+    /**
+     * Constructor of client which runs in shared engine, for example many clients of load test.
+     * @param nickName user nickName
+     * @param engine engine running sessions, it is not closed with client
+     * @param outboundCapacity max number of messages waiting for sending
+     * @param overflowPolicy what to do when outbound queue is full
+     * @param listener listener informed about connection and messages
+     */
+    public ChatClient(String nickName, ConnectionEngine engine, int outboundCapacity,
+                      OutboundQueue.OverflowPolicy overflowPolicy, MessageListener listener) {
+        this(nickName, engine, false, outboundCapacity, overflowPolicy, listener);
+    }
+
+    private ChatClient(String nickName, ConnectionEngine engine, boolean ownEngine, int outboundCapacity,
+                       OutboundQueue.OverflowPolicy overflowPolicy, MessageListener listener) {
+        this.nickName = nickName;
+        this.engine = engine;
+        this.ownEngine = ownEngine;
+        this.outboundCapacity = outboundCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.listener = listener;
+        this.indicator = new TypingIndicator(engine.getTimer(), listener);
+    }
+
+    public String getNickName() {
+        return nickName;
+    }
+
+    /**
+     * Method turns TLS on for next connections, null turns it off.
+     * Context should be shared by clients, so reconnection resumes TLS session.
+     */
+    public void setTls(TlsContext tls) {
+        this.tls = tls;
+    }
+
+    /** Method sets times of heartbeat and timeouts of next connections */
+    public void setHeartbeat(Heartbeat heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    /** Method turns automatic reconnection on or off, it is on by default */
+    public void setAutoReconnect(boolean autoReconnect) {
+        this.autoReconnect = autoReconnect;
+    }
+
+    /** Method returns host nickName, null if handshake is not finished */
+    public String getFriendName() {
+        return friendName;
+    }
+
+    /** Method returns true if handshake is finished and connection is open */
+    public boolean isConnected() {
+        Session current = session;
+        return current != null && !current.isCancelled() && outbound != null;
+    }
+
+    /**
+     * Method starts connecting to the host and returns at once. Host may be IP address or host name,
+     * which is resolved by HostResolver in the session, so it is not resolved again after reconnection.
+     * Result is reported to the listener, awaitConnected may be used to wait for it.
+     * @throws IllegalArgumentException if host or port is incorrect
+     */
+    public synchronized void connect(String ipAddress, int portNumber) {
+        if (!Validation.isValidHost(ipAddress)) { throw new IllegalArgumentException("Incorrect host: " + ipAddress); }
+        if (portNumber < 1 || portNumber > 65535) { throw new IllegalArgumentException("Incorrect port: " + portNumber); }
+        Session current = session;
+        if (current != null && !current.isCancelled()) { throw new IllegalStateException("Already connected"); }
+        this.disconnectRequested = false;
+        this.lastFriendName = null;
+        this.peer = new PeerSession(0, nickName);
+        this.transfers = new FileTransfers(FileTransfers.DOWNLOADS);
+        startSession(ipAddress, portNumber, 0, 0);
+    }
+
+    /** Method starts session of one connection attempt, which waits given time before connecting */
+    private synchronized boolean startSession(String ipAddress, int portNumber, int attempt, long delay) {
+        if (disconnectRequested) { return false; }
+        CountDownLatch latch = new CountDownLatch(1);
+        this.handshakeDone = latch;
+        Session started = engine.start(nickName, newSession -> runSession(newSession, ipAddress, portNumber, latch, delay));
+        this.session = started;
+        started.onTermination(() -> sessionEnded(started, ipAddress, portNumber, attempt, latch));
+        return true;
+    }
+
+    /**
+     * Method is called when session of one connection ends. It starts next attempt
+     * if conversation was established and user didn't disconnect, otherwise it reports disconnection.
+     */
+    private void sessionEnded(Session ended, String ipAddress, int portNumber, int attempt, CountDownLatch latch) {
+        String name = friendName;
+        FrameChannel endedFrames = frames;
+        if (endedFrames != null) { endedFrames.getCodec().close(); }
+        // writer is finished, so frames left in the queue can go back to the pool
+        OutboundQueue endedQueue = outbound;
+        if (endedQueue != null) { endedQueue.clear(); }
+        outbound = null;
+        frames = null;
+        friendName = null;
+        latch.countDown();
+        Throwable failure = ended.getFailure();
+        if (failure != null) { Metrics.ERRORS.increment(); }
+        // successful handshake starts counting of attempts again
+        int nextAttempt = name != null ? 1 : attempt + 1;
+        String friend = lastFriendName;
+        if (autoReconnect && !disconnectRequested && friend != null && nextAttempt <= MAX_RECONNECT_ATTEMPTS
+                && !(failure instanceof ProtocolException)) {
+            long delay = BACKOFF.delay(nextAttempt);
+            listener.onReconnecting(friend, nextAttempt, delay);
+            if (startSession(ipAddress, portNumber, nextAttempt, delay)) { return; }
+        }
+        PeerSession endedPeer = peer;
+        peer = null;
+        if (endedPeer != null) { endedPeer.close(); }
+        FileTransfers endedTransfers = transfers;
+        transfers = null;
+        if (endedTransfers != null) { endedTransfers.close(); }
+        listener.onDisconnected(friend, failure);
+    }
+
+    /** Method waits until handshake is finished. It returns false if connection failed or time passed. */
+    public boolean awaitConnected(long millis) throws InterruptedException {
+        return handshakeDone.await(millis, TimeUnit.MILLISECONDS) && isConnected();
+    }
+
+    /**
+     * Method queues message for sending, it never waits when policy is DROP.
+     * During reconnection message waits in the session and is sent after it.
+     * It returns false if client is not connected or message was dropped.
+     */
+    public boolean send(CharSequence text) {
+        PeerSession conversation = peer;
+        indicator.sent();
+        return conversation != null && lastFriendName != null && conversation.send(text);
+    }
+
+    /**
+     * Method tells host that user is typing. It should be called on every key,
+     * TYPING frame is sent at most once per few seconds and never waits for the queue.
+     */
+    public void typing() {
+        OutboundQueue queue = outbound;
+        if (queue != null && indicator.shouldSend()) { queue.tryOffer(SignalFrame.typing()); }
+    }
+
+    /** Method marks messages of host as read by user, host gets receipt after a short delay */
+    public void markRead() {
+        PeerSession conversation = peer;
+        if (conversation != null && conversation.markRead()) { scheduleReceipt(conversation); }
+    }
+
+    /** Method subscribes to room on the host. It returns false if client is not connected or frame was dropped. */
+    public boolean join(String room) {
+        OutboundQueue queue = outbound;
+        return queue != null && queue.offer(RoomFrame.join(room));
+    }
+
+    /** Method unsubscribes from room. It returns false if client is not connected or frame was dropped. */
+    public boolean leave(String room) {
+        OutboundQueue queue = outbound;
+        return queue != null && queue.offer(RoomFrame.leave(room));
+    }
+
+    /**
+     * Method publishes message in room, host passes it to all other subscribers.
+     * It returns false if client is not connected or message was dropped.
+     */
+    public boolean publish(String room, String text) {
+        OutboundQueue queue = outbound;
+        if (queue == null) { return false; }
+        if (!queue.offer(RoomFrame.message(room, "", text))) {
+            Metrics.MESSAGES_DROPPED.increment();
+            return false;
+        }
+        Metrics.MESSAGES_OUT.increment();
+        return true;
+    }
+
+    /** Method returns number of messages waiting for sending */
+    public int getQueueDepth() {
+        OutboundQueue queue = outbound;
+        return queue == null ? 0 : queue.depth();
+    }
+
+    /**
+     * Method offers file to the host, chunks are sent when no message is waiting.
+     * It returns id of the transfer, which continues after reconnection.
+     * @throws IllegalStateException if client is not connected
+     */
+    public long sendFile(Path file) throws IOException {
+        FileTransfers current = transfers;
+        if (current == null || lastFriendName == null) { throw new IllegalStateException("Not connected"); }
+        return current.send(file);
+    }
+
+    /** Method cancels current session, stops reconnecting and waits until session tasks are finished */
+    public void disconnect() {
+        Session current;
+        synchronized (this) {
+            disconnectRequested = true;
+            current = session;
+        }
+        if (current != null && !current.cancelAndAwait(DISCONNECT_TIMEOUT)) {
+            System.out.println("Session not finished: " + current.getName());
+        }
+    }
+
+    /** Method disconnects and stops own engine */
+    @Override
+    public void close() {
+        disconnect();
+        if (ownEngine) { engine.close(); }
+    }
+
+    /**
+     * Main task of the session: it connects, exchanges nickNames, forks the writer, replays not acknowledged
+     * messages and reads. Socket is a resource of the session, so disconnect stops all these steps at once.
+     */
+    private void runSession(Session session, String ipAddress, int portNumber, CountDownLatch latch, long delay) throws Exception {
+        if (delay > 0) { Thread.sleep(delay); }
+        Heartbeat currentHeartbeat = heartbeat;
+        HashedWheelTimer timer = engine.getTimer();
+        HashedWheelTimer.Timeout handshakeTimeout = timer.schedule(
+                () -> timedOut(session, "Handshake timed out"), currentHeartbeat.getHandshakeTimeout());
+        long start = System.nanoTime();
+        SocketChannel socket = SocketChannel.open();
+        session.addResource(socket);
+        // small frames like messages, ACK and PONG can't wait for Nagle and delayed ACK of the host
+        socket.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        socket.connect(new InetSocketAddress(HostResolver.SHARED.resolveNow(ipAddress), portNumber));
+        Transport transport = new PlainTransport(socket);
+        TlsContext currentTls = tls;
+        if (currentTls != null) {
+            TlsChannel tlsChannel = currentTls.clientChannel(socket, ipAddress, portNumber);
+            session.addResource(tlsChannel);
+            tlsChannel.handshake();
+            transport = tlsChannel;
+        }
+        FrameChannel channel = new FrameChannel(transport);
+        // send my nickName and session, obtain friend's ones
+        PeerSession conversation = peer;
+        channel.write(Handshake.hello(nickName, conversation.getToken(), conversation.getLastReceived()));
+        FrameDecoder hello = channel.readFrame();
+        handshakeTimeout.cancel();
+        String friend = Handshake.readHello(hello);
+        MessageCodec codec = MessageCodec.negotiate(Handshake.readCodecs(hello));
+        channel.setCodec(codec);
+        long token = Handshake.readToken(hello);
+        // host which doesn't know the session starts new one
+        if (token != conversation.getToken()) { conversation.restart(token); }
+        Metrics.HANDSHAKE_MICROS.record(Metrics.microsSince(start));
+        OutboundQueue queue = createOutbound(friend);
+        Transport writerChannel = transport;
+        FileTransfers files = transfers;
+        session.fork("writer", writerSession -> new OutboundWriter(queue, writerChannel, files).run());
+        Predicate<PooledFrame> output = queue::offer;
+        Predicate<ByteBuffer> controlOutput = queue::offer;
+        conversation.attach(output, codec, Handshake.readLastReceived(hello));
+        files.attach(controlOutput, queue::wakeUp, new HostFileListener(friend));
+        IdleMonitor idleMonitor = new IdleMonitor(timer, currentHeartbeat, () -> queue.tryOffer(Ping.ping()),
+                () -> timedOut(session, "Host is not responding"));
+        idleMonitor.start();
+        try {
+            this.friendName = friend;
+            this.lastFriendName = friend;
+            this.frames = channel;
+            this.outbound = queue;
+            latch.countDown();
+            listener.onConnected(friend);
+            intercept(session, channel, conversation, files, queue, idleMonitor, friend);
+        } finally {
+            idleMonitor.stop();
+            indicator.stopped(friend);
+            conversation.detach(output);
+            files.detach(controlOutput);
+        }
+    }
+
+    /** Timer task which ends session with timeout, then client may reconnect */
+    private void timedOut(Session session, String reason) {
+        if (session.isCancelled()) { return; }
+        Metrics.TIMEOUTS.increment();
+        session.fail(new SocketTimeoutException(reason));
+    }
+
+    /** Method reads frames until session is cancelled, control frames of types added by newer versions are skipped */
+    private void intercept(Session session, FrameChannel channel, PeerSession conversation, FileTransfers files,
+                           OutboundQueue queue, IdleMonitor idleMonitor, String friend) throws Exception {
+        while (!session.isCancelled()) {
+            FrameDecoder frame = channel.readFrame();
+            idleMonitor.touch();
+            if (frame.type() == FrameType.MESSAGE) {
+                if (conversation.accept(frame.sequence())) {
+                    Metrics.MESSAGES_IN.increment();
+                    listener.onMessageText(friend, channel.messageText(frame));
+                }
+                PooledFrame ack = conversation.ackIfNeeded();
+                if (ack != null) { queue.offer(ack); }
+                if (conversation.needsReceipt()) { scheduleReceipt(conversation); }
+                indicator.stopped(friend);
+            } else if (frame.type() == FrameType.ACK) {
+                conversation.acknowledged(frame);
+            } else if (frame.type() == FrameType.RECEIPT) {
+                if (conversation.receipt(frame)) { listener.onReceipt(friend, conversation.isLastSentRead()); }
+            } else if (frame.type() == FrameType.TYPING) {
+                indicator.typing(friend);
+            } else if (frame.type() == FrameType.ROOM_MESSAGE) {
+                Metrics.MESSAGES_IN.increment();
+                listener.onRoomMessage(RoomFrame.readRoom(frame), RoomFrame.readSender(frame), RoomFrame.readText(frame));
+            } else if (frame.type() == FrameType.PING) {
+                queue.offer(Ping.pong(frame));
+            } else if (frame.type() == FrameType.PONG) {
+                Metrics.ROUND_TRIP_MICROS.record(Metrics.microsSince(Ping.readTimestamp(frame)));
+            } else if (FrameType.isFileTransfer(frame.type())) {
+                files.handle(frame);
+            } else if (frame.type() == FrameType.RELAY) {
+                relayed(frame, queue, friend);
+            } else if (!FrameType.isUnknownControl(frame.type(), frame.sequence())) {
+                throw new ProtocolException("Unexpected frame: " + FrameType.name(frame.type()));
+            }
+        }
+    }
+
+    /** Method sends receipt of the conversation after a short delay, receipts of next messages are sent with it */
+    private void scheduleReceipt(PeerSession conversation) {
+        engine.getTimer().schedule(conversation::flushReceipt, PeerSession.RECEIPT_DELAY);
+    }
+
+    /** Method passes new relayed message to the listener, confirmation is sent after the last frame of the window */
+    private void relayed(FrameDecoder frame, OutboundQueue queue, String friend) throws ProtocolException {
+        RelayReceiver receiver = relayReceivers.computeIfAbsent(friend, name -> new RelayReceiver());
+        byte flags = RelayFrame.readFlags(frame);
+        if (receiver.accept(RelayFrame.readId(frame), RelayFrame.readPreviousId(frame), flags)) {
+            Metrics.MESSAGES_IN.increment();
+            listener.onRelayedMessage(friend, RelayFrame.readText(frame), RelayFrame.readTimestamp(frame));
+        }
+        if ((flags & RelayFrame.LAST) != 0) { queue.offer(RelayFrame.ack(receiver.getAcknowledged())); }
+    }
+
+    /** Method creates outbound queue of the connection, which reports backpressure to the listener */
+    private OutboundQueue createOutbound(String friend) {
+        OutboundQueue queue = new OutboundQueue(outboundCapacity, overflowPolicy);
+        queue.setListener(new BackpressureListener() {
+            @Override
+            public void onCongestion(int depth, int capacity, boolean congested) {
+                listener.onCongestion(friend, depth, capacity, congested);
+            }
+
+            @Override
+            public void onDrop(long dropped) {
+                listener.onDrop(friend, dropped);
+            }
+        });
+        return queue;
+    }
+
+    /** Listener of file transfers which passes their ends to client listener */
+    private class HostFileListener implements FileTransferListener {
+
+        /** Host nickName */
+        private final String friend;
+
+        HostFileListener(String friend) {
+            this.friend = friend;
+        }
+
+        @Override
+        public void onFileReceived(Path file) {
+            listener.onFileReceived(friend, file);
+        }
+
+        @Override
+        public void onFileSent(String fileName) {
+            listener.onFileSent(friend, fileName);
+        }
+
+        @Override
+        public void onFileFailed(String fileName, String reason) {
+            listener.onFileFailed(friend, fileName, reason);
+        }
+    }
+}
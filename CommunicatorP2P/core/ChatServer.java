@@ -0,0 +1,339 @@
+package CommunicatorP2P.core;
+
+import CommunicatorP2P.net.Connection;
+import CommunicatorP2P.net.Heartbeat;
+import CommunicatorP2P.net.LoopBalancer;
+import CommunicatorP2P.net.PeerDiscovery;
+import CommunicatorP2P.net.SelectorServer;
+import CommunicatorP2P.net.ServerListener;
+import CommunicatorP2P.net.TlsContext;
+import CommunicatorP2P.protocol.DiscoveryFrame;
+import CommunicatorP2P.protocol.MessageCodec;
+import CommunicatorP2P.protocol.SignalFrame;
+import CommunicatorP2P.store.Outbox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is a headless chat server, it is used by Host and can be embedded in other programs.
+ * Guests are served by non-blocking SelectorServer and are identified by their nickNames.
+ * In relay mode messages for guests who are not connected wait in the outbox, see OutboxRelay.
+ * Host and guests tell each other when their users are typing and confirm delivered and read messages.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see ChatClient
+ * @see MessageListener
+ * @see SelectorServer
+ * @see OutboxRelay
+ */
+public class ChatServer implements AutoCloseable {
+
+    /** Name of property with number of I/O threads, for example one per core */
+    public static final String IO_THREADS_PROPERTY = "communicatorP2P.ioThreads";
+
+    /** Default number of I/O threads, it can be set by property */
+    public static final int DEFAULT_IO_THREADS = Math.max(1, Integer.getInteger(IO_THREADS_PROPERTY,
+            Math.min(4, Runtime.getRuntime().availableProcessors())));
+
+    /** Server serving connections */
+    private final SelectorServer server;
+
+    /** Listener of the user of this server */
+    private final MessageListener listener;
+
+    /** Host nickName, author of messages published by host */
+    private final String nickName;
+
+    /** Port on which server listens */
+    private final int portNumber;
+
+    /** True if guests are served with TLS */
+    private volatile boolean tlsEnabled;
+
+    /** Discovery which announces this server, null if server is not announced */
+    private volatile PeerDiscovery discovery;
+
+    /** Entry of this server in announcements */
+    private volatile DiscoveryFrame.Entry announcement;
+
+    /** Relay of messages for guests who are not connected, null if relay mode is off */
+    private volatile OutboxRelay relay;
+
+    /** Rooms and their subscribers */
+    private final RoomBroker rooms = new RoomBroker();
+
+    /** Connected guests by nickName */
+    private final Map<String, Connection> guests = new ConcurrentHashMap<>();
+
+    /** Guests who are typing now */
+    private final TypingIndicator indicator;
+
+    /** Constructor of the server with default number of I/O threads */
+    public ChatServer(int portNumber, String nickName, MessageListener listener) throws IOException {
+        this(portNumber, nickName, DEFAULT_IO_THREADS, listener);
+    }
+
+    /**
+     * Constructor of the server.
+     * @param portNumber port on which server listens
+     * @param nickName host nickName sent to guests
+     * @param ioThreads number of I/O threads
+     * @param listener listener informed about guests and their messages
+     */
+    public ChatServer(int portNumber, String nickName, int ioThreads, MessageListener listener) throws IOException {
+        this.listener = listener;
+        this.nickName = nickName;
+        this.portNumber = portNumber;
+        this.server = new SelectorServer(portNumber, nickName, ioThreads, new GuestListener());
+        this.indicator = new TypingIndicator(server.getTimer(), listener);
+    }
+
+    /** Method turns TLS on, it has to be called before start. Null turns TLS off. */
+    public void setTls(TlsContext tls) {
+        server.setTls(tls);
+        this.tlsEnabled = tls != null;
+    }
+
+    /** Method sets balancer which spreads guests over I/O threads, by default it is chosen by property */
+    public void setBalancer(LoopBalancer balancer) {
+        server.setBalancer(balancer);
+    }
+
+    /**
+     * Method turns reuse port mode on or off, it has to be called before start.
+     * In this mode every I/O thread accepts guests from its own channel, see SelectorServer.
+     */
+    public void setReusePort(boolean reusePort) {
+        server.setReusePort(reusePort);
+    }
+
+    /** Method sets times of heartbeat and timeouts, it should be called before start */
+    public void setHeartbeat(Heartbeat heartbeat) {
+        server.setHeartbeat(heartbeat);
+    }
+
+    /**
+     * Method turns relay mode on, it has to be called before start. Messages for known guests who are not connected
+     * are kept in the outbox and delivered when they connect. Outbox is not closed with the server.
+     */
+    public void setOutbox(Outbox outbox) {
+        this.relay = outbox != null ? new OutboxRelay(outbox) : null;
+    }
+
+    /** Method binds the port and starts accepting guests */
+    public void start() throws IOException {
+        server.start();
+    }
+
+    /**
+     * Method announces started server in LAN, so guests find it without typing its address.
+     * Announcement stops when server is closed.
+     */
+    public void announce(PeerDiscovery discovery) {
+        int capabilities = DiscoveryFrame.FILES;
+        if (tlsEnabled) { capabilities |= DiscoveryFrame.TLS; }
+        if (MessageCodec.SUPPORTED != 0) { capabilities |= DiscoveryFrame.COMPRESSION; }
+        this.announcement = discovery.announce(nickName, portNumber, capabilities);
+        this.discovery = discovery;
+    }
+
+    /**
+     * Method sends message to all connected guests. In relay mode it is also queued for known guests
+     * who are not connected. It returns number of guests for whom message was queued.
+     */
+    public int broadcast(String text) {
+        server.broadcast(text);
+        indicator.sent();
+        OutboxRelay current = relay;
+        if (current == null) { return 0; }
+        return current.enqueue(current.recipientsWithout(server.getSessionNickNames()), text);
+    }
+
+    /**
+     * Method sends message to one guest. In relay mode message for known guest who is not connected is queued.
+     * It returns false if guest is not connected and message was not queued, or message was dropped.
+     */
+    public boolean send(String nickName, CharSequence text) {
+        Connection connection = guests.get(nickName);
+        indicator.sent();
+        if (connection != null) { return connection.send(text); }
+        OutboxRelay current = relay;
+        return current != null && current.getOutbox().isRecipient(nickName)
+                && !server.getSessionNickNames().contains(nickName)
+                && current.enqueue(Collections.singletonList(nickName), text.toString()) > 0;
+    }
+
+    /**
+     * Method tells connected guests that host user is typing. It should be called on every key,
+     * TYPING frame is sent at most once per few seconds.
+     */
+    public void typing() {
+        if (!indicator.shouldSend()) { return; }
+        ByteBuffer frame = SignalFrame.typing();
+        for (Connection connection : guests.values()) { connection.sendFrame(frame.duplicate()); }
+    }
+
+    /** Method marks messages of all guests as read by host user, guests get receipts after a short delay */
+    public void markRead() {
+        for (Connection connection : guests.values()) { connection.markRead(); }
+    }
+
+    /** Method returns number of messages waiting in the outbox for guest, 0 if relay mode is off */
+    public int getPendingCount(String nickName) {
+        OutboxRelay current = relay;
+        return current == null ? 0 : current.getOutbox().pendingCount(nickName);
+    }
+
+    /**
+     * Method sends file to one guest, chunks are interleaved with messages in lower priority.
+     * It returns id of the transfer.
+     * @throws IllegalStateException if guest is not connected
+     */
+    public long sendFile(String nickName, Path file) throws IOException {
+        Connection connection = guests.get(nickName);
+        if (connection == null) { throw new IllegalStateException("Guest is not connected: " + nickName); }
+        return connection.sendFile(file);
+    }
+
+    /**
+     * Method publishes host message in room, it is encoded once for all subscribers.
+     * It returns number of subscribers which got the message.
+     */
+    public int publish(String room, String text) {
+        return rooms.publish(room, nickName, text, null);
+    }
+
+    /** Method returns names of rooms which have subscribers */
+    public Set<String> getRooms() {
+        return rooms.getRooms();
+    }
+
+    /** Method returns nickNames of connected guests */
+    public Set<String> getGuests() {
+        return Collections.unmodifiableSet(guests.keySet());
+    }
+
+    /** Method returns number of open connections, also these without finished handshake */
+    public int getOpenConnectionCount() {
+        return server.getOpenConnectionCount();
+    }
+
+    /** Method disconnects all guests and stops the server */
+    @Override
+    public void close() {
+        PeerDiscovery current = discovery;
+        if (current != null) { current.withdraw(announcement); }
+        server.stop();
+    }
+
+    /** Listener of SelectorServer which translates connections into nickNames */
+    private class GuestListener implements ServerListener {
+
+        @Override
+        public void onConnected(Connection connection) {
+            Connection previous = guests.putIfAbsent(connection.getNickName(), connection);
+            if (previous != null) {
+                // only reconnected guest with the same session replaces its old connection,
+                // other guest with the same nickName came during handshake of the first one
+                if (previous.getSessionToken() != connection.getSessionToken()
+                        || !guests.replace(connection.getNickName(), previous, connection)) {
+                    connection.close();
+                    return;
+                }
+                previous.close();
+            }
+            listener.onConnected(connection.getNickName());
+            OutboxRelay current = relay;
+            if (current != null) { current.connected(connection); }
+        }
+
+        @Override
+        public void onMessage(Connection connection, String text) {
+            indicator.stopped(connection.getNickName());
+            listener.onMessage(connection.getNickName(), text);
+        }
+
+        @Override
+        public void onMessageText(Connection connection, CharSequence text) {
+            indicator.stopped(connection.getNickName());
+            listener.onMessageText(connection.getNickName(), text);
+        }
+
+        @Override
+        public void onRelayAcknowledged(Connection connection, long id) {
+            OutboxRelay current = relay;
+            if (current != null) { current.acknowledged(connection, id); }
+        }
+
+        @Override
+        public void onTyping(Connection connection) {
+            indicator.typing(connection.getNickName());
+        }
+
+        @Override
+        public void onReceipt(Connection connection, boolean read) {
+            listener.onReceipt(connection.getNickName(), read);
+        }
+
+        @Override
+        public void onJoin(Connection connection, String room) {
+            rooms.join(connection, room);
+        }
+
+        @Override
+        public void onLeave(Connection connection, String room) {
+            rooms.leave(connection, room);
+        }
+
+        @Override
+        public void onRoomMessage(Connection connection, String room, String text) {
+            rooms.publish(room, connection.getNickName(), text, connection);
+            listener.onRoomMessage(room, connection.getNickName(), text);
+        }
+
+        @Override
+        public void onDisconnected(Connection connection) {
+            rooms.leaveAll(connection);
+            OutboxRelay current = relay;
+            if (current != null) { current.disconnected(connection); }
+            // replaced or rejected connection, the guest is still connected
+            if (!guests.remove(connection.getNickName(), connection)) { return; }
+            indicator.stopped(connection.getNickName());
+            listener.onDisconnected(connection.getNickName(), null);
+        }
+
+        @Override
+        public void onFileReceived(Connection connection, Path file) {
+            listener.onFileReceived(connection.getNickName(), file);
+        }
+
+        @Override
+        public void onFileSent(Connection connection, String fileName) {
+            listener.onFileSent(connection.getNickName(), fileName);
+        }
+
+        @Override
+        public void onFileFailed(Connection connection, String fileName, String reason) {
+            listener.onFileFailed(connection.getNickName(), fileName, reason);
+        }
+
+        @Override
+        public void onCongestion(Connection connection, int depth, int capacity, boolean congested) {
+            OutboxRelay current = relay;
+            if (current != null && !congested) { current.resume(connection); }
+            listener.onCongestion(connection.getNickName(), depth, capacity, congested);
+        }
+
+        @Override
+        public void onDrop(Connection connection, long dropped) {
+            listener.onDrop(connection.getNickName(), dropped);
+        }
+    }
+}
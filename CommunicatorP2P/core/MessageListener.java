@@ -0,0 +1,93 @@
+package CommunicatorP2P.core;
+
+import java.nio.file.Path;
+
+/**
+ * This interface is implemented by users of ChatServer and ChatClient, for example GUI controllers,
+ * services or benchmarks. Methods are called from network threads, so they should be short
+ * and must not touch GUI directly.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see ChatServer
+ * @see ChatClient
+ */
+public interface MessageListener {
+
+    /** Method called when handshake with peer is finished */
+    void onConnected(String nickName);
+
+    /** Method called for every message received from peer */
+    void onMessage(String nickName, String text);
+
+    /**
+     * Method called for every message received from peer, with text which is reused for next message
+     * of the connection, so it is valid only during the call. Listeners which only pass text on
+     * may override it to avoid copy. By default it calls onMessage with copy of the text.
+     */
+    default void onMessageText(String nickName, CharSequence text) {
+        onMessage(nickName, text.toString());
+    }
+
+    /**
+     * Method called for message which host queued in his outbox while client was not connected.
+     * Message delivered again is not passed. By default it calls onMessage.
+     * @param timestamp time when host queued the message, in milliseconds since epoch
+     */
+    default void onRelayedMessage(String nickName, String text, long timestamp) {
+        onMessage(nickName, text);
+    }
+
+    /**
+     * Method called when peer starts or stops typing. Typing stops with message of the peer,
+     * disconnection or few seconds after the last key. By default it does nothing.
+     */
+    default void onTyping(String nickName, boolean typing) {
+    }
+
+    /**
+     * Method called when peer confirmed that it got all messages sent to it so far, and again
+     * when its user saw them. By default it does nothing.
+     * @param read true if user of the peer saw the last message
+     */
+    default void onReceipt(String nickName, boolean read) {
+    }
+
+    /**
+     * Method called when connection is closed.
+     * @param nickName peer nickName, null if handshake was not finished
+     * @param cause reason of closing, null if connection was closed normally
+     */
+    void onDisconnected(String nickName, Throwable cause);
+
+    /**
+     * Method called when connection with peer broke and client will connect again after delay.
+     * When all attempts fail, onDisconnected is called. By default it does nothing.
+     */
+    default void onReconnecting(String nickName, int attempt, long delayMillis) {
+    }
+
+    /** Method called for every message published in room by other user, by default it does nothing */
+    default void onRoomMessage(String room, String nickName, String text) {
+    }
+
+    /** Method called when file from peer was received and saved, by default it does nothing */
+    default void onFileReceived(String nickName, Path file) {
+    }
+
+    /** Method called when peer confirmed that it received whole file, by default it does nothing */
+    default void onFileSent(String nickName, String fileName) {
+    }
+
+    /** Method called when file transfer was cancelled by any side, by default it does nothing */
+    default void onFileFailed(String nickName, String fileName, String reason) {
+    }
+
+    /** Method called when queue of messages for peer crosses its water marks, by default it does nothing */
+    default void onCongestion(String nickName, int depth, int capacity, boolean congested) {
+    }
+
+    /** Method called when message for peer was dropped because its queue was full, by default it does nothing */
+    default void onDrop(String nickName, long dropped) {
+    }
+}
@@ -0,0 +1,178 @@
+package CommunicatorP2P.core;
+
+import CommunicatorP2P.net.Connection;
+import CommunicatorP2P.protocol.FrameEncoder;
+import CommunicatorP2P.protocol.RelayFrame;
+import CommunicatorP2P.store.Outbox;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is relay mode of ChatServer: messages for guests who are not connected are kept in the Outbox
+ * and streamed to the guest when he finishes handshake. Stream is sent in windows of RELAY frames,
+ * next window is sent when guest confirmed the previous one, so long outbox doesn't fill the outbound queue.
+ * Messages are removed from the outbox only after confirmation, so messages of broken connection or crashed
+ * host are delivered again and guest ignores the ones he already has.
+ * <p>
+ * When a frame of the window is dropped, guest confirms only messages up to the gap and stream starts again
+ * after them. Window dropped as a whole is sent again when outbound queue of the guest gets empty.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see ChatServer
+ * @see Outbox
+ * @see RelayFrame
+ */
+public class OutboxRelay {
+
+    /** Max number of messages in one window */
+    static final int WINDOW = 32;
+
+    /** Durable outbox of the host */
+    private final Outbox outbox;
+
+    /** Streams of connected guests by nickName */
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+
+    public OutboxRelay(Outbox outbox) {
+        this.outbox = outbox;
+    }
+
+    public Outbox getOutbox() {
+        return outbox;
+    }
+
+    /** Method called when guest finished handshake: messages for him are kept from now on and waiting ones are sent */
+    public void connected(Connection connection) {
+        try {
+            outbox.addRecipient(connection.getNickName());
+        } catch (IOException e) {
+            System.out.println("Outbox recipient not saved: " + e);
+        }
+        Stream stream = new Stream(connection);
+        streams.put(connection.getNickName(), stream);
+        sendWindow(stream);
+    }
+
+    /** Method called when connection of guest is closed */
+    public void disconnected(Connection connection) {
+        streams.computeIfPresent(connection.getNickName(), (name, stream) -> stream.connection == connection ? null : stream);
+    }
+
+    /**
+     * Method queues message for given guests who are not connected. Guests who connected meanwhile get it at once.
+     * It returns number of guests for whom message was queued.
+     */
+    public int enqueue(Collection<String> nickNames, String text) {
+        if (nickNames.isEmpty() || FrameEncoder.utf8Length(text) > RelayFrame.MAX_TEXT_SIZE) { return 0; }
+        int queued;
+        try {
+            queued = outbox.enqueue(nickNames, text);
+        } catch (IOException e) {
+            System.out.println("Message not queued: " + e);
+            return 0;
+        }
+        for (String nickName : nickNames) {
+            Stream stream = streams.get(nickName);
+            if (stream != null) { sendWindow(stream); }
+        }
+        return queued;
+    }
+
+    /** Method returns guests who are known, but have no session on the server, from given ones */
+    public List<String> recipientsWithout(Collection<String> online) {
+        List<String> offline = new ArrayList<>(outbox.getRecipients());
+        offline.removeAll(online);
+        return offline;
+    }
+
+    /**
+     * Method called when guest confirmed relayed messages up to given id. It removes them from the outbox
+     * and sends next window, or the same stream again from the first not confirmed message after gap.
+     */
+    public void acknowledged(Connection connection, long id) {
+        Stream stream = streams.get(connection.getNickName());
+        if (stream == null || stream.connection != connection) { return; }
+        try {
+            outbox.delivered(connection.getNickName(), id);
+        } catch (IOException e) {
+            System.out.println("Outbox confirmation not saved: " + e);
+        }
+        synchronized (stream) {
+            if (!stream.inFlight) { return; }
+            stream.inFlight = false;
+            stream.acknowledged = Math.max(stream.acknowledged, id);
+            // confirmation of less than the whole window means a gap
+            if (id != stream.sentUpTo) { stream.restart = true; }
+        }
+        sendWindow(stream);
+    }
+
+    /** Method called when outbound queue of guest got empty, window dropped as a whole is sent again */
+    public void resume(Connection connection) {
+        Stream stream = streams.get(connection.getNickName());
+        if (stream != null && stream.connection == connection) { sendWindow(stream); }
+    }
+
+    /** Method sends next window of waiting messages, unless previous one is not confirmed yet */
+    private void sendWindow(Stream stream) {
+        Connection connection = stream.connection;
+        synchronized (stream) {
+            if (stream.inFlight) { return; }
+            long afterId = stream.restart ? stream.acknowledged : stream.sentUpTo;
+            List<Outbox.Message> messages;
+            try {
+                messages = outbox.pending(connection.getNickName(), afterId, WINDOW);
+            } catch (IOException e) {
+                System.out.println("Outbox not read: " + e);
+                return;
+            }
+            if (messages.isEmpty()) { return; }
+            boolean first = stream.restart;
+            long previousId = first ? 0 : afterId;
+            for (int i = 0; i < messages.size(); i++) {
+                Outbox.Message message = messages.get(i);
+                byte flags = 0;
+                if (i == 0 && first) { flags |= RelayFrame.FIRST; }
+                if (i == messages.size() - 1) { flags |= RelayFrame.LAST; }
+                if (!connection.sendFrame(RelayFrame.message(message.id, previousId, message.timestamp, flags, message.text))) {
+                    // guest is too slow, stream starts again after confirmed messages
+                    stream.restart = true;
+                    return;
+                }
+                previousId = message.id;
+            }
+            stream.restart = false;
+            stream.sentUpTo = previousId;
+            stream.inFlight = true;
+        }
+    }
+
+    /** Stream of waiting messages to one connection, guarded by its own lock */
+    private static final class Stream {
+
+        /** Connection of the guest */
+        private final Connection connection;
+
+        /** Id of the last message sent in the stream */
+        private long sentUpTo;
+
+        /** Id of the last message confirmed by guest in this connection */
+        private long acknowledged;
+
+        /** True while window is waiting for confirmation */
+        private boolean inFlight;
+
+        /** True if next window has to start new stream, after confirmed messages */
+        private boolean restart = true;
+
+        Stream(Connection connection) {
+            this.connection = connection;
+        }
+    }
+}
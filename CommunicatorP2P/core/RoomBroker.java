@@ -0,0 +1,102 @@
+package CommunicatorP2P.core;
+
+import CommunicatorP2P.metrics.Metrics;
+import CommunicatorP2P.net.Connection;
+import CommunicatorP2P.protocol.RoomFrame;
+import CommunicatorP2P.protocol.Validation;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * This class keeps named rooms of ChatServer and fans messages out to their subscribers.
+ * Message is encoded once, every subscriber gets only read-only view of the same bytes,
+ * so publishing costs bytes written to sockets, not copies per subscriber.
+ * Subscribers of the room are kept in copy-on-write set, because rooms are joined rarely
+ * and published to often.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see ChatServer
+ * @see RoomFrame
+ */
+public class RoomBroker {
+
+    /** Subscribers by room name, empty rooms are removed */
+    private final Map<String, Set<Connection>> rooms = new ConcurrentHashMap<>();
+
+    /** Rooms of every subscriber, used when connection is closed */
+    private final Map<Connection, Set<String>> memberships = new ConcurrentHashMap<>();
+
+    /** Method subscribes connection to the room. It returns false if room name is not valid. */
+    public boolean join(Connection connection, String room) {
+        if (!Validation.isValidRoom(room)) { return false; }
+        rooms.compute(room, (name, members) -> {
+            Set<Connection> result = members == null ? new CopyOnWriteArraySet<>() : members;
+            result.add(connection);
+            return result;
+        });
+        memberships.computeIfAbsent(connection, key -> ConcurrentHashMap.newKeySet()).add(room);
+        return true;
+    }
+
+    /** Method unsubscribes connection from the room */
+    public void leave(Connection connection, String room) {
+        rooms.computeIfPresent(room, (name, members) -> {
+            members.remove(connection);
+            return members.isEmpty() ? null : members;
+        });
+        Set<String> joined = memberships.get(connection);
+        if (joined != null) { joined.remove(room); }
+    }
+
+    /** Method unsubscribes connection from all its rooms */
+    public void leaveAll(Connection connection) {
+        Set<String> joined = memberships.remove(connection);
+        if (joined == null) { return; }
+        for (String room : joined) {
+            leave(connection, room);
+        }
+    }
+
+    /**
+     * Method sends message to all subscribers of the room except its author.
+     * @param room name of the room
+     * @param sender nickName of the author
+     * @param text message
+     * @param author connection of the author, null if message comes from host
+     * @return number of subscribers which got the message
+     */
+    public int publish(String room, String sender, String text, Connection author) {
+        Set<Connection> members = rooms.get(room);
+        if (members == null) { return 0; }
+        ByteBuffer frame = RoomFrame.message(room, sender, text).asReadOnlyBuffer();
+        int delivered = 0;
+        for (Connection member : members) {
+            // every view has own position, bytes are shared
+            if (member != author && member.sendFrame(frame.duplicate())) { delivered++; }
+        }
+        Metrics.MESSAGES_OUT.add(delivered);
+        return delivered;
+    }
+
+    /** Method returns names of rooms which have subscribers */
+    public Set<String> getRooms() {
+        return Collections.unmodifiableSet(rooms.keySet());
+    }
+
+    /** Method returns nickNames of room subscribers */
+    public List<String> getMembers(String room) {
+        List<String> nickNames = new ArrayList<>();
+        for (Connection member : rooms.getOrDefault(room, Collections.emptySet())) {
+            nickNames.add(member.getNickName());
+        }
+        return nickNames;
+    }
+}
@@ -0,0 +1,70 @@
+package CommunicatorP2P.core;
+
+import CommunicatorP2P.net.HashedWheelTimer;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class keeps who is typing from TYPING frames of peers and tells the MessageListener about changes.
+ * Peer sends TYPING at most once per SEND_INTERVAL while its user is typing, so indicator ends
+ * TIMEOUT after the last frame, or at once when message of the peer arrives.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see CommunicatorP2P.protocol.SignalFrame
+ * @see ChatServer
+ * @see ChatClient
+ */
+class TypingIndicator {
+
+    /** Min time between TYPING frames sent to the same peer, in milliseconds */
+    static final long SEND_INTERVAL = 3000;
+
+    /** Time after the last TYPING frame when indicator ends, in milliseconds */
+    static final long TIMEOUT = 5000;
+
+    /** Timer which ends indicators */
+    private final HashedWheelTimer timer;
+
+    /** Listener informed about changes */
+    private final MessageListener listener;
+
+    /** Marker of the last TYPING frame of every typing peer */
+    private final Map<String, Object> typing = new ConcurrentHashMap<>();
+
+    /** Time when own TYPING frame was sent, 0 after own message */
+    private volatile long lastSent;
+
+    TypingIndicator(HashedWheelTimer timer, MessageListener listener) {
+        this.timer = timer;
+        this.listener = listener;
+    }
+
+    /** Method is called when TYPING frame of peer arrives */
+    void typing(String nickName) {
+        Object marker = new Object();
+        if (typing.put(nickName, marker) == null) { listener.onTyping(nickName, true); }
+        timer.schedule(() -> {
+            if (typing.remove(nickName, marker)) { listener.onTyping(nickName, false); }
+        }, TIMEOUT);
+    }
+
+    /** Method is called when message or disconnection of peer ends its typing */
+    void stopped(String nickName) {
+        if (typing.remove(nickName) != null) { listener.onTyping(nickName, false); }
+    }
+
+    /** Method is called on key typed by own user, it returns true if TYPING frame should be sent now */
+    boolean shouldSend() {
+        long now = System.currentTimeMillis();
+        if (now - lastSent < SEND_INTERVAL) { return false; }
+        lastSent = now;
+        return true;
+    }
+
+    /** Method is called after own message was sent, it ended typing on the other side */
+    void sent() {
+        lastSent = 0;
+    }
+}
@@ -0,0 +1,117 @@
+package CommunicatorP2P.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class is a lock-free histogram of latencies with log-linear buckets, like HdrHistogram.
+ * Every power of two range is split into 32 buckets, so reported percentiles have
+ * relative error below 3% for any value, from nanoseconds to hours. Recording is one
+ * atomic increment and never allocates, so it can be used on hot paths by many threads.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ */
+public class LatencyHistogram {
+
+    /** Number of buckets in one power of two range */
+    private static final int SUB_BUCKETS = 32;
+
+    /** Values below this have own bucket */
+    private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+    /** Number of buckets needed for all positive long values */
+    private static final int BUCKETS = (63 - 5) * SUB_BUCKETS + SUB_BUCKETS;
+
+    /** Number of values in every bucket */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /** Number of recorded values */
+    private final LongAdder count = new LongAdder();
+
+    /** Sum of recorded values */
+    private final LongAdder sum = new LongAdder();
+
+    /** The biggest recorded value */
+    private final AtomicLong max = new AtomicLong();
+
+    /** Method records one value, negative values are recorded as 0 */
+    public void record(long value) {
+        if (value < 0) { value = 0; }
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /** Method returns number of recorded values */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /** Method returns the biggest recorded value */
+    public long getMax() {
+        return max.get();
+    }
+
+    /** Method returns mean of recorded values, 0 if there are none */
+    public double getMean() {
+        long total = count.sum();
+        return total == 0 ? 0 : (double) sum.sum() / total;
+    }
+
+    /**
+     * Method returns value below which given percent of recorded values are.
+     * It is the highest value of the bucket, so it is never lower than the real one.
+     */
+    public long getPercentile(double percent) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) { return 0; }
+        long wanted = Math.max(1, (long) Math.ceil(total * percent / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= wanted) { return Math.min(highestValueOf(i), getMax()); }
+        }
+        return getMax();
+    }
+
+    /** Method removes all recorded values */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) { counts.set(i, 0); }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    /** Method returns summary like "n=100 mean=12 p50=10 p99=40 p999=41 max=41" */
+    public String summary() {
+        return String.format("n=%d mean=%.0f p50=%d p99=%d p999=%d max=%d",
+                getCount(), getMean(), getPercentile(50), getPercentile(99), getPercentile(99.9), getMax());
+    }
+
+    /** Method returns index of bucket of given value */
+    static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT) { return (int) value; }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - 5;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /** Method returns the highest value which belongs to given bucket */
+    static long highestValueOf(int bucket) {
+        if (bucket < LINEAR_LIMIT) { return bucket; }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,96 @@
+package CommunicatorP2P.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class contains metrics of the communicator, shared by all connections of the process.
+ * Latencies are recorded in microseconds. Metrics are exposed over JMX as CommunicatorP2P:type=Metrics
+ * and, when system property communicatorP2P.metrics.port is set, as text on http://127.0.0.1:port/metrics
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see MetricsRegistry
+ * @see MetricsEndpoint
+ */
+public final class Metrics {
+
+    /** Registry with all metrics of the process */
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    /** Connections accepted by servers */
+    public static final LongAdder CONNECTIONS_ACCEPTED = REGISTRY.counter("connections.accepted");
+
+    /** Time from connecting until HELLO of the other side is read */
+    public static final LatencyHistogram HANDSHAKE_MICROS = REGISTRY.histogram("handshake.micros");
+
+    /** Time of TLS handshake, shorter when session is resumed */
+    public static final LatencyHistogram TLS_HANDSHAKE_MICROS = REGISTRY.histogram("tls.handshake.micros");
+
+    /** Received chat messages */
+    public static final LongAdder MESSAGES_IN = REGISTRY.counter("messages.in");
+
+    /** Chat messages queued for sending */
+    public static final LongAdder MESSAGES_OUT = REGISTRY.counter("messages.out");
+
+    /** Chat messages dropped, because connection was too slow */
+    public static final LongAdder MESSAGES_DROPPED = REGISTRY.counter("messages.dropped");
+
+    /** Bytes read from sockets */
+    public static final LongAdder BYTES_IN = REGISTRY.counter("bytes.in");
+
+    /** Bytes written to sockets */
+    public static final LongAdder BYTES_OUT = REGISTRY.counter("bytes.out");
+
+    /** Frames waiting in all outbound queues */
+    public static final LongAdder QUEUED_FRAMES = REGISTRY.counter("queue.frames");
+
+    /** Direct buffers created by FramePool, it stops growing when the pool is warm */
+    public static final LongAdder FRAMES_ALLOCATED = REGISTRY.counter("frames.allocated");
+
+    /** Time from sending PING until its PONG is read, it includes time spent in queues */
+    public static final LatencyHistogram ROUND_TRIP_MICROS = REGISTRY.histogram("roundtrip.micros");
+
+    /** Connections closed because peer was silent too long or didn't finish handshake in time */
+    public static final LongAdder TIMEOUTS = REGISTRY.counter("timeouts");
+
+    /** I/O and protocol errors which closed connections */
+    public static final LongAdder ERRORS = REGISTRY.counter("errors");
+
+    /** System property with port of text endpoint */
+    public static final String PORT_PROPERTY = "communicatorP2P.metrics.port";
+
+    /** Flag which protects from installing twice */
+    private static final AtomicBoolean installed = new AtomicBoolean();
+
+    private Metrics() {
+    }
+
+    /** Method returns microseconds which passed since given System.nanoTime value */
+    public static long microsSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    /**
+     * Method registers metrics in JMX and starts text endpoint if its port is set.
+     * It is called once at start of the application, next calls do nothing.
+     */
+    public static void install() {
+        if (!installed.compareAndSet(false, true)) { return; }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(REGISTRY), MetricsMBean.NAME);
+        } catch (Exception e) {
+            System.out.println("Metrics JMX registration error: " + e);
+        }
+        Integer port = Integer.getInteger(PORT_PROPERTY);
+        if (port != null) {
+            try {
+                MetricsEndpoint.start(REGISTRY, port);
+                System.out.println("Metrics on http://127.0.0.1:" + port + MetricsEndpoint.PATH);
+            } catch (Exception e) {
+                System.out.println("Metrics endpoint error: " + e);
+            }
+        }
+    }
+}
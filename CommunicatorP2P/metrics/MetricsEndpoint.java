@@ -0,0 +1,62 @@
+package CommunicatorP2P.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class serves metrics as plain text over HTTP, for example for curl or scraper.
+ * It listens only on loopback address, so metrics are not visible from the network.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see Metrics
+ */
+public class MetricsEndpoint implements AutoCloseable {
+
+    /** Path of the metrics page */
+    public static final String PATH = "/metrics";
+
+    /** HTTP server of the endpoint */
+    private final HttpServer server;
+
+    private MetricsEndpoint(HttpServer server) {
+        this.server = server;
+    }
+
+    /** Method starts endpoint with given registry on 127.0.0.1 and given port */
+    public static MetricsEndpoint start(MetricsRegistry registry, int portNumber) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), portNumber), 0);
+        server.createContext(PATH, exchange -> respond(exchange, registry));
+        server.start();
+        return new MetricsEndpoint(server);
+    }
+
+    /** Method returns port on which endpoint listens */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /** Method sends all metrics as one text response */
+    private static void respond(HttpExchange exchange, MetricsRegistry registry) throws IOException {
+        StringBuilder text = new StringBuilder();
+        registry.writeText(text);
+        byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /** Method stops the endpoint */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
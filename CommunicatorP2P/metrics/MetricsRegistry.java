@@ -0,0 +1,76 @@
+package CommunicatorP2P.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * This class keeps named metrics: counters, gauges and latency histograms.
+ * Counters are LongAdders, so threads updating them don't fight for one cache line.
+ * Metrics are looked up by name only when they are created, hot paths keep references to them.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see Metrics
+ * @see LatencyHistogram
+ */
+public class MetricsRegistry {
+
+    /** Counters by name */
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    /** Gauges by name, their value is read only when metrics are reported */
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    /** Histograms by name */
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    /** Method returns counter with given name, it is created if needed */
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /** Method returns histogram with given name, it is created if needed */
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+    }
+
+    /** Method registers gauge, previous gauge with the same name is replaced */
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /** Method removes gauge, it is used when its owner is closed */
+    public void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * Method returns current values of all metrics, sorted by name.
+     * Every histogram gives count, mean, p50, p99, p999 and max values.
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> values = new ConcurrentSkipListMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        histograms.forEach((name, histogram) -> {
+            values.put(name + ".count", histogram.getCount());
+            values.put(name + ".mean", Math.round(histogram.getMean()));
+            values.put(name + ".p50", histogram.getPercentile(50));
+            values.put(name + ".p99", histogram.getPercentile(99));
+            values.put(name + ".p999", histogram.getPercentile(99.9));
+            values.put(name + ".max", histogram.getMax());
+        });
+        return values;
+    }
+
+    /** Method writes all metrics as text, one "name value" line for every metric */
+    public void writeText(Appendable out) throws IOException {
+        for (Map.Entry<String, Long> entry : snapshot().entrySet()) {
+            out.append(entry.getKey()).append(' ').append(Long.toString(entry.getValue())).append('\n');
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package CommunicatorP2P.net;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This class computes delays of reconnection: exponential backoff with jitter.
+ * Delay doubles with every attempt up to the limit and random half of it is taken away,
+ * so many guests of restarted host don't come back in the same moment.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ */
+public class Backoff {
+
+    /** Delay of the first attempt before jitter, in milliseconds */
+    private final long initialDelay;
+
+    /** Max delay before jitter, in milliseconds */
+    private final long maxDelay;
+
+    public Backoff(long initialDelay, long maxDelay) {
+        this.initialDelay = initialDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /** Method returns delay before given attempt, counted from 1, in milliseconds */
+    public long delay(int attempt) {
+        long exponential = initialDelay << Math.min(Math.max(attempt - 1, 0), 30);
+        long capped = exponential <= 0 ? maxDelay : Math.min(maxDelay, exponential);
+        long half = capped / 2;
+        return half + ThreadLocalRandom.current().nextLong(capped - half + 1);
+    }
+}
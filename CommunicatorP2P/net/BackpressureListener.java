@@ -0,0 +1,21 @@
+package CommunicatorP2P.net;
+
+/**
+ * This interface is implemented by classes which want to know that outbound queue is filling up.
+ * Methods are called from the thread which changed the queue, they should be short.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see OutboundQueue
+ */
+public interface BackpressureListener {
+
+    /**
+     * Method called when queue depth crosses high water mark (congested is true)
+     * or drops back under low water mark (congested is false).
+     */
+    void onCongestion(int depth, int capacity, boolean congested);
+
+    /** Method called when frame was dropped because queue was full, dropped is total number of drops */
+    void onDrop(long dropped);
+}
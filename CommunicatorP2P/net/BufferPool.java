@@ -0,0 +1,75 @@
+package CommunicatorP2P.net;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is a pool of direct buffers of one size, shared by connections.
+ * Direct buffers are expensive to allocate and are freed only by GC, so buffers of closed
+ * connections are kept for new ones. Pool keeps at most maxPooled free buffers, buffers above
+ * that are left for GC.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see TlsChannel
+ */
+public class BufferPool {
+
+    /** Capacity of every buffer */
+    private final int bufferSize;
+
+    /** Max number of free buffers kept in the pool */
+    private final int maxPooled;
+
+    /** Free buffers */
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+    /** Number of free buffers, ConcurrentLinkedQueue counts them slowly */
+    private final AtomicInteger freeCount = new AtomicInteger();
+
+    /** Number of buffers taken from the pool and not given back, it shows leaks of closed channels */
+    private final AtomicInteger inUseCount = new AtomicInteger();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /** Method returns number of free buffers in the pool */
+    public int getFreeCount() {
+        return freeCount.get();
+    }
+
+    /** Method returns number of buffers which were acquired and not released yet */
+    public int getInUseCount() {
+        return inUseCount.get();
+    }
+
+    /** Method returns cleared buffer from the pool or new one if pool is empty */
+    public ByteBuffer acquire() {
+        inUseCount.incrementAndGet();
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) { return ByteBuffer.allocateDirect(bufferSize); }
+        freeCount.decrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    /** Method gives buffer back, it must not be used by caller any more */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize || !buffer.isDirect()) { return; }
+        inUseCount.decrementAndGet();
+        if (freeCount.incrementAndGet() > maxPooled) {
+            freeCount.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        free.offer(buffer);
+    }
+}
@@ -0,0 +1,513 @@
+package CommunicatorP2P.net;
+
+import CommunicatorP2P.metrics.Metrics;
+import CommunicatorP2P.protocol.FrameDecoder;
+import CommunicatorP2P.protocol.FrameEncoder;
+import CommunicatorP2P.protocol.FrameType;
+import CommunicatorP2P.protocol.Handshake;
+import CommunicatorP2P.protocol.MessageCodec;
+import CommunicatorP2P.protocol.MessageText;
+import CommunicatorP2P.protocol.PeerSession;
+import CommunicatorP2P.protocol.Ping;
+import CommunicatorP2P.protocol.PooledFrame;
+import CommunicatorP2P.protocol.RelayFrame;
+import CommunicatorP2P.protocol.RoomFrame;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * This class represents one guest connected to the SelectorServer.
+ * It owns bounded OutboundQueue and reads into buffer of its IoLoop, only bytes of frame
+ * which is not fully read yet are kept by connection until next read. Reading and writing is done
+ * only by the IoLoop to which connection is assigned, sending can be requested from any thread.
+ * Waiting frames are written by one gathering write. When guest doesn't read and queue is full,
+ * new frames are dropped, so slow guest never blocks the host. Bytes go through Transport,
+ * which may encrypt them. Messages are numbered and kept by PeerSession of the guest, which survives
+ * reconnection, so guest which comes back gets messages it missed.
+ * Silent guest is pinged and dead one is closed by IdleMonitor on the timer shared by all connections.
+ * File chunks are written after all waiting frames, a few per write readiness, so files don't stop messages.
+ * Received messages are decoded into reusable MessageText and sent ones are pooled frames,
+ * released after writing, so relaying message allocates nothing.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see SelectorServer
+ * @see IoLoop
+ */
+public class Connection {
+
+    /** Read buffer of IoLoop has place for the biggest frame */
+    static final int READ_BUFFER_SIZE = FrameEncoder.MAX_FRAME_SIZE;
+
+    /** Size of own buffer for rest of small frame, bigger rest is kept in buffer lent by IoLoop */
+    static final int REST_BUFFER_SIZE = 512;
+
+    /** Max number of frames waiting for one guest */
+    static final int OUTBOUND_CAPACITY = 1024;
+
+    /** Max number of file chunks written at once, so other connections of the loop are not delayed */
+    private static final int MAX_CHUNKS_PER_WRITE = 4;
+
+    /** Non-blocking channel of the guest */
+    private final SocketChannel channel;
+
+    /** Transport of the channel, plain or TLS */
+    private final Transport transport;
+
+    /** Loop which serves this connection */
+    private final IoLoop loop;
+
+    /** Listener informed about guest events */
+    private final ServerListener listener;
+
+    /** Sessions of all guests, guest HELLO chooses one of them */
+    private final PeerSessions sessions;
+
+    /** Host nickName, sent in HELLO */
+    private final String hostNickName;
+
+    /** Output given to PeerSession, the same object is needed to detach it */
+    private final Predicate<PooledFrame> output = this::send;
+
+    /** Output of control frames given to FileTransfers, the same object is needed to detach it */
+    private final Predicate<ByteBuffer> controlOutput = this::send;
+
+    /** Task which sets write interest, created once */
+    private final Runnable enableWriteTask = this::enableWrite;
+
+    /** Bytes of small frame which is not fully read yet, created with the first such frame */
+    private ByteBuffer rest;
+
+    /** Bytes of big frame which is not fully read yet, lent by IoLoop until the frame is read */
+    private ByteBuffer bigRest;
+
+    /** Decoder reused for every frame of this connection */
+    private final FrameDecoder decoder = new FrameDecoder();
+
+    /** Text of received message, reused for every message */
+    private final MessageText messageText = new MessageText();
+
+    /** Encoded frames waiting for writing, filled from any thread */
+    private final OutboundQueue outbound = new OutboundQueue(OUTBOUND_CAPACITY, OutboundQueue.OverflowPolicy.DROP);
+
+    /** Frames taken from outbound queue for gathering write, used only by IoLoop */
+    private final PooledFrame[] writeBatch = new PooledFrame[OutboundWriter.MAX_BATCH];
+
+    /** Buffers of frames in writeBatch, for gathering write */
+    private final ByteBuffer[] writeBuffers = new ByteBuffer[OutboundWriter.MAX_BATCH];
+
+    /** Index of the first not fully written frame in writeBatch */
+    private int batchStart;
+
+    /** Number of frames in writeBatch */
+    private int batchEnd;
+
+    /** Flag which protects from scheduling write interest many times */
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+
+    /** Flag set when connection is closed */
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /** Selection key, set by IoLoop after registration */
+    private SelectionKey key;
+
+    /** Guest nickName, null until handshake is finished */
+    private volatile String nickName;
+
+    /** Codec of messages, chosen when guest HELLO is read */
+    private volatile MessageCodec codec = MessageCodec.RAW;
+
+    /** Session of the guest, null until handshake is finished */
+    private volatile PeerSession peer;
+
+    /** File transfers of the guest session, null until handshake is finished */
+    private volatile FileTransfers transfers;
+
+    /** Time of accepting, used to measure handshake */
+    private final long acceptedNanos = System.nanoTime();
+
+    /** Times of heartbeat and handshake timeout */
+    private final Heartbeat heartbeat;
+
+    /** Monitor which pings silent guest and closes dead one, started after handshake */
+    private final IdleMonitor idleMonitor;
+
+    /** Task which closes connection without finished handshake, null before registration */
+    private volatile HashedWheelTimer.Timeout handshakeTimeout;
+
+    Connection(SocketChannel channel, Transport transport, IoLoop loop, ServerListener listener,
+               PeerSessions sessions, String hostNickName, Heartbeat heartbeat) {
+        this.channel = channel;
+        this.transport = transport;
+        this.loop = loop;
+        this.listener = listener;
+        this.sessions = sessions;
+        this.hostNickName = hostNickName;
+        this.heartbeat = heartbeat;
+        this.idleMonitor = new IdleMonitor(loop.getTimer(), heartbeat, () -> send(Ping.ping()), this::idleTimedOut);
+        this.outbound.setListener(new BackpressureListener() {
+            @Override
+            public void onCongestion(int depth, int capacity, boolean congested) {
+                listener.onCongestion(Connection.this, depth, capacity, congested);
+            }
+
+            @Override
+            public void onDrop(long dropped) {
+                listener.onDrop(Connection.this, dropped);
+            }
+        });
+    }
+
+    /** Method returns guest nickName or null if handshake is not finished */
+    public String getNickName() {
+        return nickName;
+    }
+
+    /** Method returns token of guest session or 0 if handshake is not finished */
+    public long getSessionToken() {
+        PeerSession current = peer;
+        return current != null ? current.getToken() : 0;
+    }
+
+    /** Method returns remote address of the guest, or "Unknown" */
+    public String getRemoteAddress() {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "Unknown";
+        }
+    }
+
+    /** Method returns true if connection is still open */
+    public boolean isOpen() {
+        return !closed.get();
+    }
+
+    /**
+     * Method queues message frame for sending. It can be called from any thread.
+     * When connection is already closed, message waits in session of the guest for reconnection.
+     * It returns false if frame was dropped because guest is too slow or handshake is not finished.
+     */
+    public boolean send(CharSequence text) {
+        PeerSession current = peer;
+        return current != null && current.send(text);
+    }
+
+    /**
+     * Method queues already encoded frame, for example one frame fanned out to many guests.
+     * Writing moves position of the buffer, so every connection has to get its own view of shared bytes.
+     * It returns false if frame was dropped because guest is too slow or connection is closed.
+     */
+    public boolean sendFrame(ByteBuffer frame) {
+        return send(frame);
+    }
+
+    /** Method queues encoded frame for sending. It can be called from any thread. */
+    boolean send(ByteBuffer frame) {
+        return send(PooledFrame.wrap(frame));
+    }
+
+    /** Method queues frame for sending, it takes over reference of the frame. It can be called from any thread. */
+    boolean send(PooledFrame frame) {
+        if (closed.get()) {
+            frame.release();
+            return false;
+        }
+        if (!outbound.offer(frame)) { return false; }
+        scheduleWrite();
+        return true;
+    }
+
+    /**
+     * Method offers file to the guest, chunks are written when no frame is waiting.
+     * It returns id of the transfer, which continues after reconnection of the guest.
+     * @throws IllegalStateException if handshake is not finished
+     */
+    public long sendFile(Path file) throws IOException {
+        FileTransfers current = transfers;
+        if (current == null) { throw new IllegalStateException("Handshake is not finished"); }
+        return current.send(file);
+    }
+
+    /** Method sets write interest by loop thread, unless it is already set. It can be called from any thread. */
+    private void scheduleWrite() {
+        if (writeScheduled.compareAndSet(false, true)) {
+            if (loop.inLoop()) { enableWrite(); } else { loop.execute(enableWriteTask); }
+        }
+    }
+
+    /** Method marks messages of the guest as seen by user of the host, receipt is sent after a short delay */
+    public void markRead() {
+        PeerSession session = peer;
+        if (session != null && session.markRead()) { loop.getTimer().schedule(session::flushReceipt, PeerSession.RECEIPT_DELAY); }
+    }
+
+    /** Method schedules receipt of received messages, receipts of next messages are sent with it */
+    private void scheduleReceipt() {
+        PeerSession session = peer;
+        if (session.needsReceipt()) { loop.getTimer().schedule(session::flushReceipt, PeerSession.RECEIPT_DELAY); }
+    }
+
+    /** Method returns number of frames waiting for writing */
+    public int getQueueDepth() {
+        return outbound.depth();
+    }
+
+    /** Method closes connection. It can be called from any thread. */
+    public void close() {
+        loop.execute(this::closeNow);
+    }
+
+    /** Called by IoLoop after channel is registered in its selector */
+    void registered(SelectionKey key) {
+        this.key = key;
+        this.handshakeTimeout = loop.getTimer().schedule(this::handshakeTimedOut, heartbeat.getHandshakeTimeout());
+        if (!outbound.isEmpty()) { enableWrite(); }
+    }
+
+    /** Timer task which closes connection when guest didn't send HELLO in time */
+    private void handshakeTimedOut() {
+        if (nickName != null) { return; }
+        Metrics.TIMEOUTS.increment();
+        System.out.println("Handshake timed out: " + getRemoteAddress());
+        close();
+    }
+
+    /** Called by IdleMonitor when guest was silent for idle timeout */
+    private void idleTimedOut() {
+        Metrics.TIMEOUTS.increment();
+        System.out.println("Guest timed out: " + getRemoteAddress());
+        close();
+    }
+
+    /**
+     * Called by IoLoop when channel is readable. It handles every complete frame.
+     * Reading is repeated while buffer gets full, because transport may keep decrypted bytes
+     * and selector would not report them again.
+     */
+    void handleRead() throws IOException {
+        ByteBuffer readBuffer = loop.getReadBuffer();
+        boolean full;
+        do {
+            readBuffer.clear();
+            restoreRest(readBuffer);
+            int read = transport.read(readBuffer);
+            if (read < 0) {
+                closeNow();
+                return;
+            }
+            if (read > 0) { idleMonitor.touch(); }
+            full = !readBuffer.hasRemaining();
+            readBuffer.flip();
+            while (decoder.next(readBuffer)) {
+                handleFrame();
+                if (closed.get()) { return; }
+            }
+            keepRest(readBuffer);
+        } while (full);
+        // reading may produce handshake records or finish handshake, which lets waiting frames go
+        if (transport.hasPendingOutput()) { writeScheduled.set(true); }
+        if (writeScheduled.get() && !transport.awaitsPeer()) { enableWrite(); }
+    }
+
+    /** Method puts bytes of frame kept from previous read at the beginning of read buffer */
+    private void restoreRest(ByteBuffer readBuffer) {
+        ByteBuffer kept = bigRest != null ? bigRest : rest;
+        if (kept == null || kept.position() == 0) { return; }
+        kept.flip();
+        readBuffer.put(kept);
+        kept.clear();
+    }
+
+    /**
+     * Method keeps bytes of frame which is not fully read until next read. Buffer lent for big frame
+     * is given back to IoLoop as soon as the rest is small.
+     */
+    private void keepRest(ByteBuffer readBuffer) {
+        int remaining = readBuffer.remaining();
+        if (bigRest != null && remaining <= REST_BUFFER_SIZE) {
+            loop.returnFrameBuffer(bigRest);
+            bigRest = null;
+        }
+        if (remaining == 0) { return; }
+        if (remaining > REST_BUFFER_SIZE) {
+            if (bigRest == null) { bigRest = loop.lendFrameBuffer(); }
+            bigRest.put(readBuffer);
+        } else {
+            if (rest == null) { rest = ByteBuffer.allocate(REST_BUFFER_SIZE); }
+            rest.put(readBuffer);
+        }
+    }
+
+    /**
+     * First frame has to be HELLO with guest nickName, next frames are messages, acknowledgements, receipts,
+     * typing signals, room frames, latency probes, file transfer frames and confirmations of relayed messages.
+     * Control frames of types added by newer versions are skipped.
+     */
+    private void handleFrame() throws IOException {
+        if (nickName == null) {
+            handleHello();
+        } else if (decoder.type() == FrameType.MESSAGE) {
+            if (peer.accept(decoder.sequence())) {
+                Metrics.MESSAGES_IN.increment();
+                listener.onMessageText(this, codec.decodeText(decoder, messageText));
+            }
+            PooledFrame ack = peer.ackIfNeeded();
+            if (ack != null) { send(ack); }
+            scheduleReceipt();
+        } else if (decoder.type() == FrameType.ACK) {
+            peer.acknowledged(decoder);
+        } else if (decoder.type() == FrameType.RECEIPT) {
+            PeerSession session = peer;
+            if (session.receipt(decoder)) { listener.onReceipt(this, session.isLastSentRead()); }
+        } else if (decoder.type() == FrameType.TYPING) {
+            listener.onTyping(this);
+        } else if (decoder.type() == FrameType.ROOM_MESSAGE) {
+            RoomFrame.checkForwardSize(decoder, nickName);
+            Metrics.MESSAGES_IN.increment();
+            listener.onRoomMessage(this, RoomFrame.readRoom(decoder), RoomFrame.readText(decoder));
+        } else if (decoder.type() == FrameType.JOIN) {
+            listener.onJoin(this, RoomFrame.readRoom(decoder));
+        } else if (decoder.type() == FrameType.LEAVE) {
+            listener.onLeave(this, RoomFrame.readRoom(decoder));
+        } else if (decoder.type() == FrameType.PING) {
+            send(Ping.pong(decoder));
+        } else if (decoder.type() == FrameType.PONG) {
+            Metrics.ROUND_TRIP_MICROS.record(Metrics.microsSince(Ping.readTimestamp(decoder)));
+        } else if (FrameType.isFileTransfer(decoder.type())) {
+            transfers.handle(decoder);
+        } else if (decoder.type() == FrameType.RELAY_ACK) {
+            listener.onRelayAcknowledged(this, RelayFrame.readId(decoder));
+        } else if (!FrameType.isUnknownControl(decoder.type(), decoder.sequence())) {
+            throw new ProtocolException("Unexpected frame: " + FrameType.name(decoder.type()));
+        }
+    }
+
+    /**
+     * Method reads guest HELLO, resumes or creates its session, answers with host HELLO
+     * and replays messages which guest didn't receive.
+     */
+    private void handleHello() throws ProtocolException {
+        String guestNickName = Handshake.readHello(decoder);
+        handshakeTimeout.cancel();
+        codec = MessageCodec.negotiate(Handshake.readCodecs(decoder));
+        PeerSession session = sessions.resume(Handshake.readToken(decoder), guestNickName);
+        send(Handshake.hello(hostNickName, session.getToken(), session.getLastReceived()));
+        session.attach(output, codec, Handshake.readLastReceived(decoder));
+        FileTransfers sessionTransfers = sessions.transfers(session);
+        sessionTransfers.attach(controlOutput, this::scheduleWrite, new GuestFileListener());
+        peer = session;
+        transfers = sessionTransfers;
+        nickName = guestNickName;
+        Metrics.HANDSHAKE_MICROS.record(Metrics.microsSince(acceptedNanos));
+        idleMonitor.start();
+        listener.onConnected(this);
+    }
+
+    /**
+     * Called by IoLoop when channel is writable. It writes waiting frames by gathering writes,
+     * then chunks of files. Started chunk is finished before any frame.
+     */
+    void handleWrite() throws IOException {
+        if (!transport.flush()) { return; }
+        FileTransfers files = transfers;
+        if (files != null && files.inChunk() && !files.writeChunk(transport)) { return; }
+        while (true) {
+            if (batchStart == batchEnd) {
+                batchStart = 0;
+                batchEnd = outbound.drainTo(writeBatch, 0);
+                if (batchEnd == 0) { break; }
+                for (int i = 0; i < batchEnd; i++) { writeBuffers[i] = writeBatch[i].buffer(); }
+            }
+            transport.write(writeBuffers, batchStart, batchEnd - batchStart);
+            while (batchStart < batchEnd && !writeBuffers[batchStart].hasRemaining()) {
+                writeBatch[batchStart].release();
+                writeBatch[batchStart] = null;
+                writeBuffers[batchStart++] = null;
+            }
+            if (batchStart < batchEnd) {
+                // TLS handshake waits for peer, handleRead sets write interest again
+                if (transport.awaitsPeer()) { key.interestOps(SelectionKey.OP_READ); }
+                // otherwise socket buffer is full, selector tells when it can take more
+                return;
+            }
+        }
+        if (files != null && files.hasChunk()) {
+            // write interest stays, so next chunks go when socket can take them
+            for (int i = 0; i < MAX_CHUNKS_PER_WRITE; i++) {
+                if (!files.writeChunk(transport) || !files.hasChunk()) { return; }
+            }
+            return;
+        }
+        if (!transport.flush()) { return; }
+        key.interestOps(SelectionKey.OP_READ);
+        writeScheduled.set(false);
+        // frame could be added between last drain and flag reset
+        if (!outbound.isEmpty() && writeScheduled.compareAndSet(false, true)) {
+            enableWrite();
+        }
+    }
+
+    /** Method sets write interest, has to be called from IoLoop thread */
+    private void enableWrite() {
+        if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /** Method closes channel, has to be called from IoLoop thread */
+    void closeNow() {
+        if (!closed.compareAndSet(false, true)) { return; }
+        idleMonitor.stop();
+        HashedWheelTimer.Timeout timeout = handshakeTimeout;
+        if (timeout != null) { timeout.cancel(); }
+        try {
+            if (key != null) { key.cancel(); loop.connectionClosed(); }
+            transport.close();
+        } catch (IOException e) {
+            System.out.println("Connection closing error: " + e);
+        }
+        PeerSession session = peer;
+        if (session != null) { session.detach(output); }
+        FileTransfers files = transfers;
+        if (files != null) { files.detach(controlOutput); }
+        if (bigRest != null) {
+            loop.returnFrameBuffer(bigRest);
+            bigRest = null;
+        }
+        outbound.clear();
+        while (batchStart < batchEnd) {
+            writeBatch[batchStart].release();
+            writeBatch[batchStart] = null;
+            writeBuffers[batchStart++] = null;
+        }
+        codec.close();
+        listener.onDisconnected(this);
+    }
+
+    /** Listener of file transfers which passes their ends to server listener */
+    private class GuestFileListener implements FileTransferListener {
+
+        @Override
+        public void onFileReceived(Path file) {
+            listener.onFileReceived(Connection.this, file);
+        }
+
+        @Override
+        public void onFileSent(String fileName) {
+            listener.onFileSent(Connection.this, fileName);
+        }
+
+        @Override
+        public void onFileFailed(String fileName, String reason) {
+            listener.onFileFailed(Connection.this, fileName, reason);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package CommunicatorP2P.net;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs connections as Sessions, independently from GUI controllers.
+ * Every task of a session gets its own thread. On Java with virtual threads these are virtual,
+ * so many thousands of blocking-style sessions are cheap; on older Java named daemon threads are used.
+ * Closing the engine cancels all sessions and waits for them, so no thread is leaked.
+ * Heartbeats and timeouts of all sessions are run by one HashedWheelTimer of the engine.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see Session
+ * @see SessionTask
+ */
+public final class ConnectionEngine implements AutoCloseable {
+
+    /** How long close method waits for one session */
+    private static final long CLOSE_TIMEOUT = 2000;
+
+    /** Name of the engine, used as prefix of sessions names */
+    private final String name;
+
+    /** Factory of task threads */
+    private final ThreadFactory threadFactory;
+
+    /** True if threadFactory creates virtual threads */
+    private final boolean virtual;
+
+    /** Sessions which are not terminated yet */
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+
+    /** Number used in names of sessions */
+    private final AtomicInteger sessionNumber = new AtomicInteger();
+
+    /** Timer of heartbeats and timeouts of all sessions */
+    private final HashedWheelTimer timer;
+
+    /** Flag set when engine is closed */
+    private volatile boolean closed;
+
+    public ConnectionEngine(String name) {
+        this.name = name;
+        ThreadFactory virtualFactory = virtualThreadFactory();
+        this.virtual = virtualFactory != null;
+        this.threadFactory = virtual ? virtualFactory : platformThreadFactory();
+        this.timer = new HashedWheelTimer(name + "-timer");
+    }
+
+    /** Method returns timer shared by sessions of the engine */
+    public HashedWheelTimer getTimer() {
+        return timer;
+    }
+
+    /** Method returns true if sessions run on virtual threads */
+    public boolean usesVirtualThreads() {
+        return virtual;
+    }
+
+    /** Method returns number of sessions which are not terminated yet */
+    public int activeSessions() {
+        return sessions.size();
+    }
+
+    /** Method starts new session with given main task, main task may fork other ones */
+    public Session start(String sessionName, SessionTask main) {
+        if (closed) { throw new IllegalStateException("Engine is closed"); }
+        Session session = new Session(name + "-" + sessionName + "-" + sessionNumber.incrementAndGet(), threadFactory, this);
+        sessions.add(session);
+        session.fork("main", main);
+        return session;
+    }
+
+    /** Called by session when its last task is finished */
+    void sessionTerminated(Session session) {
+        sessions.remove(session);
+    }
+
+    /** Method cancels all sessions and waits until they are finished */
+    @Override
+    public void close() {
+        closed = true;
+        for (Session session : sessions) { session.cancel(); }
+        for (Session session : sessions) {
+            if (!session.cancelAndAwait(CLOSE_TIMEOUT)) {
+                System.out.println("Session not finished: " + session.getName());
+            }
+        }
+        timer.close();
+    }
+
+    /** Method returns factory of virtual threads, or null if Java doesn't have them */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** Method returns factory of daemon platform threads */
+    private static ThreadFactory platformThreadFactory() {
+        return task -> {
+            Thread thread = new Thread(task);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,71 @@
+package CommunicatorP2P.net;
+
+import CommunicatorP2P.protocol.DiscoveryFrame;
+
+import java.net.InetAddress;
+
+/**
+ * This class is a host found in LAN by PeerDiscovery. It is immutable, newer announcement
+ * of the same host replaces it in the table.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see PeerDiscovery
+ */
+public final class DiscoveredPeer {
+
+    /** Host nickName */
+    private final String nickName;
+
+    /** Address from which host announced itself */
+    private final InetAddress address;
+
+    /** Port on which host listens */
+    private final int port;
+
+    /** Bit mask of DiscoveryFrame capabilities */
+    private final int capabilities;
+
+    /** Time of the last announcement, in milliseconds */
+    private final long lastSeen;
+
+    DiscoveredPeer(String nickName, InetAddress address, int port, int capabilities, long lastSeen) {
+        this.nickName = nickName;
+        this.address = address;
+        this.port = port;
+        this.capabilities = capabilities;
+        this.lastSeen = lastSeen;
+    }
+
+    public String getNickName() {
+        return nickName;
+    }
+
+    public InetAddress getAddress() {
+        return address;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    /** Method returns true if host uses TLS */
+    public boolean usesTls() {
+        return (capabilities & DiscoveryFrame.TLS) != 0;
+    }
+
+    /** Method returns key of the host in the table: address and port */
+    String key() {
+        return address.getHostAddress() + ":" + port;
+    }
+
+    /** Method returns text shown in the picker */
+    @Override
+    public String toString() {
+        return nickName + "  " + address.getHostAddress() + ":" + port + (usesTls() ? "  TLS" : "");
+    }
+}
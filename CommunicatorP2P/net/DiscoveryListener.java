@@ -0,0 +1,17 @@
+package CommunicatorP2P.net;
+
+import java.util.List;
+
+/**
+ * This interface is informed about changes of the table of hosts found in LAN.
+ * Method is called by discovery thread, it should not block it.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see PeerDiscovery
+ */
+public interface DiscoveryListener {
+
+    /** Method called when host appeared, changed or expired, it gets all known hosts sorted by nickName */
+    void onPeersChanged(List<DiscoveredPeer> peers);
+}
@@ -0,0 +1,170 @@
+package CommunicatorP2P.net;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * This class receives one file. File is created with its full size as .part file in downloads directory,
+ * chunk data is written from read buffer straight to its offset and renamed when the last byte arrives.
+ * Chunks have to come in order, so offset of the first missing byte is always known and sent to sender
+ * after reconnection or broken checksum.
+ * <p>
+ * Sizes of all files received at once by the program are reserved on the disk of downloads, file which
+ * doesn't fit together with them and MIN_FREE_SPACE is refused, so peers can't fill the disk.
+ * Part files are sparse on many file systems, so free space alone doesn't show how much they still need.
+ * <p>
+ * It is used only by thread which reads the connection.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FileTransfers
+ */
+class FileReceiver {
+
+    /** Space which has to stay free on disk of downloads after all received files are written */
+    static final long MIN_FREE_SPACE = 64L * 1024 * 1024;
+
+    /** Sum of sizes of files which are being received by all connections */
+    private static final AtomicLong reserved = new AtomicLong();
+
+    /** Id of the transfer */
+    private final long transferId;
+
+    /** Safe name of the file */
+    private final String name;
+
+    /** Size of the file */
+    private final long size;
+
+    /** Directory of received files */
+    private final Path directory;
+
+    /** File which is written */
+    private final Path part;
+
+    /** Channel of part file */
+    private final FileChannel file;
+
+    /** Checksum of chunks */
+    private final CRC32 checksum = new CRC32();
+
+    /** Number of received bytes, offset of the first missing one */
+    private long received;
+
+    /** True until reserved space of the file is given back */
+    private boolean reserving;
+
+    FileReceiver(Path directory, long transferId, String offeredName, long size) throws IOException {
+        this.transferId = transferId;
+        this.name = safeName(offeredName);
+        this.size = size;
+        this.directory = directory;
+        Files.createDirectories(directory);
+        reserve(directory, size);
+        this.reserving = true;
+        this.part = directory.resolve(name + "." + Long.toHexString(transferId) + ".part");
+        FileChannel opened;
+        try {
+            try (RandomAccessFile allocated = new RandomAccessFile(part.toFile(), "rw")) {
+                allocated.setLength(size);
+            }
+            opened = FileChannel.open(part, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            release();
+            Files.deleteIfExists(part);
+            throw e;
+        }
+        this.file = opened;
+    }
+
+    long getTransferId() {
+        return transferId;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /** Method returns offset of the first missing byte */
+    long getReceived() {
+        return received;
+    }
+
+    boolean isComplete() {
+        return received == size;
+    }
+
+    /**
+     * Method writes data of chunk at given offset. Chunk which doesn't continue received bytes is ignored,
+     * it was sent before sender got request for other offset. It returns false if checksum is broken.
+     */
+    boolean write(long offset, int expectedChecksum, ByteBuffer data) throws IOException {
+        if (offset != received) { return true; }
+        if (data.remaining() > size - received) { throw new IOException("Chunk after end of file " + name); }
+        checksum.reset();
+        checksum.update(data.duplicate());
+        if ((int) checksum.getValue() != expectedChecksum) { return false; }
+        long position = offset;
+        while (data.hasRemaining()) {
+            position += file.write(data, position);
+        }
+        received = position;
+        return true;
+    }
+
+    /** Method saves received file under its name, or name with number if it is taken, and returns it */
+    Path finish() throws IOException {
+        release();
+        file.force(false);
+        file.close();
+        Path target = directory.resolve(name);
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        for (int number = 1; Files.exists(target); number++) {
+            target = directory.resolve(base + " (" + number + ")" + extension);
+        }
+        return Files.move(part, target);
+    }
+
+    /** Method closes and deletes part file */
+    void cancel() {
+        release();
+        try {
+            file.close();
+            Files.deleteIfExists(part);
+        } catch (IOException e) {
+            System.out.println("File deleting error: " + e);
+        }
+    }
+
+    /** Method reserves space of file, it throws IOException if file doesn't fit on disk with files being received */
+    private static void reserve(Path directory, long size) throws IOException {
+        long usable = Files.getFileStore(directory).getUsableSpace();
+        if (reserved.addAndGet(size) + MIN_FREE_SPACE > usable) {
+            reserved.addAndGet(-size);
+            throw new IOException("Not enough disk space");
+        }
+    }
+
+    /** Method gives back reserved space of the file, next calls do nothing */
+    private void release() {
+        if (!reserving) { return; }
+        reserving = false;
+        reserved.addAndGet(-size);
+    }
+
+    /** Method removes directories and characters which are not safe in file names */
+    private static String safeName(String offeredName) {
+        String fileName = offeredName.substring(Math.max(offeredName.lastIndexOf('/'), offeredName.lastIndexOf('\\')) + 1);
+        String safe = fileName.replaceAll("[^\\w.\\- ]", "_").trim();
+        return safe.isEmpty() || safe.startsWith(".") ? "file" + safe : safe;
+    }
+}
@@ -0,0 +1,181 @@
+package CommunicatorP2P.net;
+
+import CommunicatorP2P.protocol.FileFrame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * This class sends one file as FILE_CHUNK frames. Checksum of a chunk is computed over memory mapped file,
+ * then header is written and data goes by Transport.transferFrom, so file bytes are never copied into the heap.
+ * Chunks are sent from offset requested by receiver, so after reconnection transfer continues
+ * where receiver stopped. Chunk which was started has to be written to the end before any other frame.
+ * <p>
+ * Offsets are changed by reader thread, chunks are written by one writer thread.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FileTransfers
+ * @see FileFrame
+ */
+class FileSender {
+
+    /** Size of mapped part of the file */
+    private static final long WINDOW_SIZE = 4 * 1024 * 1024;
+
+    /** Id of the transfer, the same after reconnection */
+    private final long transferId;
+
+    /** Name sent to receiver, without directories */
+    private final String name;
+
+    /** Opened file */
+    private final FileChannel file;
+
+    /** Size of the file when it was offered */
+    private final long size;
+
+    /** Checksum of chunks, used only by writer */
+    private final CRC32 checksum = new CRC32();
+
+    /** Offset of next chunk */
+    private long position;
+
+    /** True after receiver asked for bytes */
+    private boolean accepted;
+
+    /** Mapped part of the file, used only by writer */
+    private MappedByteBuffer window;
+
+    /** Offset of mapped part */
+    private long windowStart;
+
+    /** True if file should be closed when current chunk is written */
+    private boolean closeRequested;
+
+    /** Header of current chunk, null if no chunk is started */
+    private ByteBuffer header;
+
+    /** Offset of not written data of current chunk */
+    private long dataPosition;
+
+    /** Number of not written data bytes of current chunk */
+    private long dataRemaining;
+
+    FileSender(long transferId, Path path) throws IOException {
+        this.transferId = transferId;
+        this.name = path.getFileName().toString();
+        this.file = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = file.size();
+    }
+
+    long getTransferId() {
+        return transferId;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    /** Method encodes FILE_OFFER frame of this file */
+    ByteBuffer offer() {
+        return FileFrame.offer(transferId, size, name);
+    }
+
+    /** Method sets offset of next chunk requested by receiver */
+    synchronized void accept(long offset) {
+        position = Math.min(offset, size);
+        accepted = true;
+    }
+
+    /** Method stops sending until receiver asks again, it is used when connection is lost */
+    synchronized void suspend() {
+        accepted = false;
+        header = null;
+    }
+
+    /** Method returns true if next chunk can be written */
+    synchronized boolean hasChunk() {
+        return header != null || (accepted && position < size);
+    }
+
+    /** Method returns true if chunk is started and not finished */
+    synchronized boolean inChunk() {
+        return header != null;
+    }
+
+    /**
+     * Method writes current chunk, starting new one if needed. It returns true if whole chunk was written,
+     * false if non-blocking transport can't take more bytes now.
+     */
+    boolean writeChunk(Transport transport) throws IOException {
+        if (header == null && !startChunk()) { return true; }
+        if (header.hasRemaining()) {
+            transport.write(header);
+            if (header.hasRemaining()) { return false; }
+        }
+        while (dataRemaining > 0) {
+            long written = transport.transferFrom(file, dataPosition, dataRemaining);
+            if (written <= 0) { return false; }
+            dataPosition += written;
+            dataRemaining -= written;
+        }
+        synchronized (this) {
+            header = null;
+            if (closeRequested) { closeFile(); }
+        }
+        return true;
+    }
+
+    /** Method computes checksum of next chunk and encodes its header, it returns false if there is nothing to send */
+    private boolean startChunk() throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            if (!accepted || position >= size) { return false; }
+            offset = position;
+            length = (int) Math.min(FileFrame.CHUNK_SIZE, size - offset);
+            position += length;
+        }
+        if (window == null || offset < windowStart || offset + length > windowStart + window.capacity()) {
+            windowStart = offset;
+            window = file.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, size - offset));
+        }
+        ByteBuffer data = window.duplicate();
+        data.position((int) (offset - windowStart)).limit((int) (offset - windowStart) + length);
+        checksum.reset();
+        checksum.update(data);
+        synchronized (this) {
+            header = FileFrame.chunkHeader(transferId, offset, (int) checksum.getValue(), length);
+        }
+        dataPosition = offset;
+        dataRemaining = length;
+        return true;
+    }
+
+    /** Method closes the file, started chunk is written to the end before */
+    synchronized void close() {
+        if (header != null) {
+            closeRequested = true;
+            return;
+        }
+        closeFile();
+    }
+
+    private void closeFile() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            System.out.println("File closing error: " + e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package CommunicatorP2P.net;
+
+import java.nio.file.Path;
+
+/**
+ * This interface is informed about ends of file transfers with one peer.
+ * Methods are called by thread which reads the connection, they should not block it.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FileTransfers
+ */
+public interface FileTransferListener {
+
+    /** Method called when whole file was received and saved */
+    void onFileReceived(Path file);
+
+    /** Method called when peer confirmed that it received whole file */
+    void onFileSent(String fileName);
+
+    /** Method called when transfer was cancelled by any side */
+    void onFileFailed(String fileName, String reason);
+}
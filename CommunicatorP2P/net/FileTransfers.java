@@ -0,0 +1,296 @@
+package CommunicatorP2P.net;
+
+import CommunicatorP2P.protocol.FileFrame;
+import CommunicatorP2P.protocol.FrameDecoder;
+import CommunicatorP2P.protocol.FrameType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * This class runs file transfers with one peer in both directions.
+ * Outgoing files form low priority lane: writer sends one chunk of one file at a time, round robin,
+ * and only when no chat frame is waiting, so big transfer delays text messages by at most one chunk.
+ * Transfers survive reconnection: new connection offers unfinished files again and receiver
+ * answers with offset of its first missing byte.
+ * <p>
+ * Received files are saved in directory from system property communicatorP2P.downloads,
+ * by default CommunicatorP2P in user home. Offers of files bigger than MAX_FILE_SIZE, or files which
+ * don't fit on the disk, are refused with FILE_CANCEL.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FileSender
+ * @see FileReceiver
+ * @see FileFrame
+ */
+public class FileTransfers {
+
+    /** Default directory of received files */
+    public static final Path DOWNLOADS = Paths.get(System.getProperty("communicatorP2P.downloads",
+            Paths.get(System.getProperty("user.home"), "CommunicatorP2P").toString()));
+
+    /** Max number of files received at once from one peer */
+    public static final int MAX_INCOMING = 16;
+
+    /** Max size of received file, from system property communicatorP2P.maxFileSize, by default 1 GiB */
+    public static final long MAX_FILE_SIZE = Long.getLong("communicatorP2P.maxFileSize", 1L << 30);
+
+    /** Listener used when connection didn't set any */
+    private static final FileTransferListener NO_LISTENER = new FileTransferListener() {
+        @Override
+        public void onFileReceived(Path file) {
+        }
+
+        @Override
+        public void onFileSent(String fileName) {
+        }
+
+        @Override
+        public void onFileFailed(String fileName, String reason) {
+        }
+    };
+
+    /** Directory of received files */
+    private final Path directory;
+
+    /** Outgoing files by transfer id */
+    private final Map<Long, FileSender> senders = new HashMap<>();
+
+    /** Outgoing files in round robin order */
+    private final ArrayDeque<FileSender> lane = new ArrayDeque<>();
+
+    /** Incoming files by transfer id */
+    private final Map<Long, FileReceiver> receivers = new HashMap<>();
+
+    /** Ids of received files, so repeated offer after reconnection is only confirmed */
+    private final Set<Long> completed = new HashSet<>();
+
+    /** Output of control frames of current connection, null when there is no connection */
+    private Predicate<ByteBuffer> output;
+
+    /** Action which wakes writer of current connection up */
+    private Runnable wakeUp;
+
+    /** Listener of current connection */
+    private FileTransferListener listener = NO_LISTENER;
+
+    /** File whose chunk is written now, used by writer */
+    private FileSender current;
+
+    public FileTransfers(Path directory) {
+        this.directory = directory;
+    }
+
+    /** Method offers file to the peer and returns id of the transfer. Without connection offer is sent after reconnection. */
+    public synchronized long send(Path path) throws IOException {
+        long transferId;
+        do {
+            transferId = ThreadLocalRandom.current().nextLong();
+        } while (transferId == 0 || senders.containsKey(transferId));
+        FileSender sender = new FileSender(transferId, path);
+        senders.put(transferId, sender);
+        lane.add(sender);
+        if (output != null) { output.test(sender.offer()); }
+        return transferId;
+    }
+
+    /**
+     * Method connects transfers to new connection and offers unfinished files again.
+     * @param output queue of control frames of the connection
+     * @param wakeUp action which makes writer ask for chunks
+     * @param listener listener informed about finished transfers
+     */
+    public synchronized void attach(Predicate<ByteBuffer> output, Runnable wakeUp, FileTransferListener listener) {
+        this.output = output;
+        this.wakeUp = wakeUp;
+        this.listener = listener;
+        this.current = null;
+        for (FileSender sender : lane) {
+            sender.suspend();
+            output.test(sender.offer());
+        }
+    }
+
+    /** Method disconnects transfers from output, if it is still the current one */
+    public synchronized void detach(Predicate<ByteBuffer> oldOutput) {
+        if (output != oldOutput) { return; }
+        output = null;
+        wakeUp = null;
+        listener = NO_LISTENER;
+    }
+
+    /** Method handles file frame read from the connection */
+    public synchronized void handle(FrameDecoder decoder) throws IOException {
+        long transferId = FileFrame.readTransferId(decoder);
+        byte type = decoder.type();
+        if (type == FrameType.FILE_OFFER) {
+            offered(transferId, FileFrame.readOffset(decoder), FileFrame.readName(decoder));
+        } else if (type == FrameType.FILE_ACCEPT) {
+            accepted(transferId, FileFrame.readOffset(decoder));
+        } else if (type == FrameType.FILE_CHUNK) {
+            received(transferId, FileFrame.readOffset(decoder), FileFrame.readChecksum(decoder), FileFrame.readData(decoder));
+        } else if (type == FrameType.FILE_CANCEL) {
+            cancelled(transferId, FileFrame.readReason(decoder));
+        }
+    }
+
+    /** Method returns true if any chunk can be written */
+    public synchronized boolean hasChunk() {
+        if (lane.isEmpty()) { return false; }
+        for (FileSender sender : lane) {
+            if (sender.hasChunk()) { return true; }
+        }
+        return false;
+    }
+
+    /** Method returns true if chunk is started, then it has to be finished before any other frame */
+    public synchronized boolean inChunk() {
+        return current != null && current.inChunk();
+    }
+
+    /**
+     * Method writes one chunk, continuing started one or taking next file in round robin order.
+     * It returns true if chunk was written or there was nothing to write, false if transport is full.
+     * It is called only by writer of the connection.
+     */
+    public boolean writeChunk(Transport transport) throws IOException {
+        FileSender sender;
+        synchronized (this) {
+            if (current == null || !current.inChunk()) { current = nextSender(); }
+            sender = current;
+        }
+        return sender == null || sender.writeChunk(transport);
+    }
+
+    /** Method closes all files, unfinished received files are deleted */
+    public synchronized void close() {
+        for (FileSender sender : lane) { sender.close(); }
+        for (FileReceiver receiver : receivers.values()) { receiver.cancel(); }
+        senders.clear();
+        lane.clear();
+        receivers.clear();
+    }
+
+    /** Method returns next file with chunk to send and moves it to the end of the lane */
+    private FileSender nextSender() {
+        for (int i = 0; i < lane.size(); i++) {
+            FileSender sender = lane.poll();
+            lane.add(sender);
+            if (sender.hasChunk()) { return sender; }
+        }
+        return null;
+    }
+
+    private void offered(long transferId, long size, String name) {
+        if (completed.contains(transferId)) {
+            reply(FileFrame.accept(transferId, size));
+            return;
+        }
+        FileReceiver receiver = receivers.get(transferId);
+        if (receiver == null) {
+            if (receivers.size() >= MAX_INCOMING) {
+                reply(FileFrame.cancel(transferId, "Too many transfers"));
+                return;
+            }
+            if (size > MAX_FILE_SIZE) {
+                reply(FileFrame.cancel(transferId, "File too big, limit is " + MAX_FILE_SIZE + " bytes"));
+                listener.onFileFailed(name, "File too big: " + size + " bytes");
+                return;
+            }
+            try {
+                receiver = new FileReceiver(directory, transferId, name, size);
+            } catch (IOException e) {
+                reply(FileFrame.cancel(transferId, "File can't be saved: " + e.getMessage()));
+                listener.onFileFailed(name, String.valueOf(e));
+                return;
+            }
+            receivers.put(transferId, receiver);
+        }
+        if (receiver.isComplete()) {
+            complete(receiver);
+        } else {
+            reply(FileFrame.accept(transferId, receiver.getReceived()));
+        }
+    }
+
+    private void accepted(long transferId, long offset) {
+        FileSender sender = senders.get(transferId);
+        if (sender == null) { return; }
+        if (offset >= sender.getSize()) {
+            removeSender(sender);
+            listener.onFileSent(sender.getName());
+            return;
+        }
+        sender.accept(offset);
+        if (wakeUp != null) { wakeUp.run(); }
+    }
+
+    private void received(long transferId, long offset, int checksum, ByteBuffer data) {
+        FileReceiver receiver = receivers.get(transferId);
+        if (receiver == null) { return; }
+        try {
+            if (!receiver.write(offset, checksum, data)) {
+                // broken chunk is requested again, chunks already sent after it are ignored
+                reply(FileFrame.accept(transferId, receiver.getReceived()));
+            } else if (receiver.isComplete()) {
+                complete(receiver);
+            }
+        } catch (IOException e) {
+            receivers.remove(transferId);
+            receiver.cancel();
+            reply(FileFrame.cancel(transferId, "File can't be saved: " + e.getMessage()));
+            listener.onFileFailed(receiver.getName(), String.valueOf(e));
+        }
+    }
+
+    private void complete(FileReceiver receiver) {
+        receivers.remove(receiver.getTransferId());
+        Path file;
+        try {
+            file = receiver.finish();
+        } catch (IOException e) {
+            receiver.cancel();
+            reply(FileFrame.cancel(receiver.getTransferId(), "File can't be saved: " + e.getMessage()));
+            listener.onFileFailed(receiver.getName(), String.valueOf(e));
+            return;
+        }
+        completed.add(receiver.getTransferId());
+        reply(FileFrame.accept(receiver.getTransferId(), receiver.getReceived()));
+        listener.onFileReceived(file);
+    }
+
+    private void cancelled(long transferId, String reason) {
+        FileSender sender = senders.get(transferId);
+        if (sender != null) {
+            removeSender(sender);
+            listener.onFileFailed(sender.getName(), reason);
+        }
+        FileReceiver receiver = receivers.remove(transferId);
+        if (receiver != null) {
+            receiver.cancel();
+            listener.onFileFailed(receiver.getName(), reason);
+        }
+    }
+
+    private void removeSender(FileSender sender) {
+        senders.remove(sender.getTransferId());
+        lane.remove(sender);
+        // started chunk has to be finished, then writer takes next file
+        if (current == sender && !sender.inChunk()) { current = null; }
+        sender.close();
+    }
+
+    private void reply(ByteBuffer frame) {
+        if (output != null) { output.test(frame); }
+    }
+}
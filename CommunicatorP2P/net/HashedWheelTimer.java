@@ -0,0 +1,212 @@
+package CommunicatorP2P.net;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class runs delayed tasks of many connections by one thread.
+ * Time is divided into ticks and tasks are kept in a wheel of buckets: task which should run after n ticks
+ * goes to bucket (current + n) % wheel size, together with number of full turns of the wheel left.
+ * Every tick the thread visits only one bucket, so scheduling and cancelling is O(1) and thousands
+ * of connections with heartbeats and timeouts cost one thread and no polling of sockets.
+ * Tasks may run up to one tick late, they should be short, for example queueing a frame or closing.
+ * <p>
+ * Thread is started with the first scheduled task and stopped by close.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see Heartbeat
+ * @see IdleMonitor
+ */
+public final class HashedWheelTimer implements AutoCloseable {
+
+    /** Default length of one tick, in milliseconds */
+    public static final long DEFAULT_TICK = 100;
+
+    /** Default number of buckets, with default tick one turn of the wheel takes 51.2 s */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /** Max number of new tasks moved to the wheel in one tick, so scheduling storm doesn't stop ticking */
+    private static final int MAX_TRANSFER = 100_000;
+
+    /** Name of timer thread */
+    private final String name;
+
+    /** Length of one tick, in nanoseconds */
+    private final long tickNanos;
+
+    /** First task of every bucket, tasks of a bucket are linked */
+    private final Timeout[] wheel;
+
+    /** Tasks scheduled by other threads, moved to the wheel by timer thread */
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+
+    /** Flag set when thread is started */
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    /** Flag which stops the timer */
+    private volatile boolean running = true;
+
+    /** Time of creation, ticks are counted from it */
+    private final long startNanos = System.nanoTime();
+
+    /** Timer thread, null until first task */
+    private volatile Thread thread;
+
+    /** Number of the current tick, used only by timer thread */
+    private long tick;
+
+    /** Constructor of timer with default tick and wheel size */
+    public HashedWheelTimer(String name) {
+        this(name, DEFAULT_TICK, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Constructor of the timer.
+     * @param name name of timer thread
+     * @param tickMillis length of one tick, in milliseconds
+     * @param wheelSize number of buckets, power of two
+     */
+    public HashedWheelTimer(String name, long tickMillis, int wheelSize) {
+        if (tickMillis <= 0) { throw new IllegalArgumentException("Tick has to be positive"); }
+        if (wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("Wheel size has to be power of two: " + wheelSize);
+        }
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.wheel = new Timeout[wheelSize];
+    }
+
+    /**
+     * Method schedules task run once after given delay, it can be called from any thread.
+     * After close task is never run and returned Timeout is already cancelled.
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout timeout = new Timeout(task);
+        if (!running) {
+            timeout.cancel();
+            return timeout;
+        }
+        start();
+        timeout.deadline = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    /** Method stops timer thread, waiting tasks are never run */
+    @Override
+    public void close() {
+        running = false;
+        Thread current = thread;
+        if (current != null) { current.interrupt(); }
+    }
+
+    /** Method starts timer thread if it isn't started yet */
+    private void start() {
+        if (!started.compareAndSet(false, true)) { return; }
+        Thread newThread = new Thread(this::run, name);
+        newThread.setDaemon(true);
+        thread = newThread;
+        newThread.start();
+    }
+
+    /** Main loop of timer thread */
+    private void run() {
+        int mask = wheel.length - 1;
+        while (running) {
+            long sleepNanos = (tick + 1) * tickNanos - (System.nanoTime() - startNanos);
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (!running) { return; }
+                    continue;
+                }
+            }
+            transferScheduled(mask);
+            expire((int) (tick & mask));
+            tick++;
+        }
+    }
+
+    /** Method moves new tasks to their buckets */
+    private void transferScheduled(int mask) {
+        for (int i = 0; i < MAX_TRANSFER; i++) {
+            Timeout timeout = scheduled.poll();
+            if (timeout == null) { return; }
+            if (timeout.isCancelled()) { continue; }
+            long dueTick = Math.max(timeout.deadline / tickNanos, tick);
+            timeout.rounds = (dueTick - tick) / wheel.length;
+            int bucket = (int) (dueTick & mask);
+            timeout.next = wheel[bucket];
+            wheel[bucket] = timeout;
+        }
+    }
+
+    /** Method runs due tasks of the bucket, forgets cancelled ones and counts down turns of the rest */
+    private void expire(int bucket) {
+        Timeout previous = null;
+        Timeout timeout = wheel[bucket];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            boolean remove = timeout.isCancelled() || timeout.rounds-- <= 0;
+            if (remove) {
+                if (previous == null) { wheel[bucket] = next; } else { previous.next = next; }
+                timeout.next = null;
+                timeout.expire();
+            } else {
+                previous = timeout;
+            }
+            timeout = next;
+        }
+    }
+
+    /** This class is a scheduled task, it can be cancelled from any thread */
+    public static final class Timeout {
+
+        /** Task run when time passes */
+        private final Runnable task;
+
+        /** Flag set when task is cancelled or run */
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        /** Flag set when task is cancelled */
+        private volatile boolean cancelled;
+
+        /** Time of running counted from start of the timer, in nanoseconds */
+        private long deadline;
+
+        /** Number of full turns of the wheel left, used only by timer thread */
+        private long rounds;
+
+        /** Next task in the same bucket, used only by timer thread */
+        private Timeout next;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /** Method cancels the task, it returns false if task was already run or cancelled */
+        public boolean cancel() {
+            if (!done.compareAndSet(false, true)) { return false; }
+            cancelled = true;
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /** Method runs the task unless it was cancelled */
+        private void expire() {
+            if (!done.compareAndSet(false, true)) { return; }
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.out.println("Timer task error: " + e);
+            }
+        }
+    }
+}
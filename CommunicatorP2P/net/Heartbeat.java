@@ -0,0 +1,53 @@
+package CommunicatorP2P.net;
+
+/**
+ * This class keeps times of connection liveness checks. When connection received nothing for interval,
+ * PING is sent, so silent but living peer answers with PONG. When it received nothing for idle timeout,
+ * peer is treated as dead, for example half-open TCP connection, and connection is closed.
+ * Handshake has to be finished in handshake timeout.
+ * <p>
+ * Default times may be changed by system properties communicatorP2P.heartbeat.interval,
+ * communicatorP2P.heartbeat.idleTimeout and communicatorP2P.handshakeTimeout, in milliseconds.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see IdleMonitor
+ * @see HashedWheelTimer
+ */
+public final class Heartbeat {
+
+    /** Times from system properties, or 15 s interval, 45 s idle timeout and 10 s handshake timeout */
+    public static final Heartbeat DEFAULT = new Heartbeat(
+            Long.getLong("communicatorP2P.heartbeat.interval", 15_000),
+            Long.getLong("communicatorP2P.heartbeat.idleTimeout", 45_000),
+            Long.getLong("communicatorP2P.handshakeTimeout", 10_000));
+
+    /** Time without received bytes after which PING is sent, in milliseconds */
+    private final long interval;
+
+    /** Time without received bytes after which connection is closed, in milliseconds */
+    private final long idleTimeout;
+
+    /** Max time from connecting until HELLO of the other side, in milliseconds */
+    private final long handshakeTimeout;
+
+    public Heartbeat(long interval, long idleTimeout, long handshakeTimeout) {
+        if (interval <= 0 || handshakeTimeout <= 0) { throw new IllegalArgumentException("Times have to be positive"); }
+        if (idleTimeout <= interval) { throw new IllegalArgumentException("Idle timeout has to be longer than interval"); }
+        this.interval = interval;
+        this.idleTimeout = idleTimeout;
+        this.handshakeTimeout = handshakeTimeout;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public long getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+}
@@ -0,0 +1,117 @@
+package CommunicatorP2P.net;
+
+import CommunicatorP2P.protocol.Validation;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * This class resolves host names asynchronously and keeps results in cache, shared by all clients.
+ * Lookups run on own daemon threads, so GUI thread never waits for DNS. Lookups of the same name
+ * which run at the same time share one future, and reconnection after broken connection takes
+ * address from cache. Addresses are kept for CACHE_TIME, failures for FAILURE_CACHE_TIME,
+ * so mistyped name doesn't hit DNS at every click. IP addresses are parsed without lookup.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see Validation
+ * @see CommunicatorP2P.core.ChatClient
+ */
+public final class HostResolver {
+
+    /** Resolver used by clients of this program */
+    public static final HostResolver SHARED = new HostResolver(60_000, 5_000);
+
+    /** Number of lookup threads */
+    private static final int THREADS = 2;
+
+    /** How long resolved address is kept, in milliseconds */
+    private final long cacheTime;
+
+    /** How long failed lookup is kept, in milliseconds */
+    private final long failureCacheTime;
+
+    /** Lookups by host name, finished or running */
+    private final Map<String, Lookup> cache = new ConcurrentHashMap<>();
+
+    /** Threads of lookups */
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS, task -> {
+        Thread thread = new Thread(task, "resolver");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public HostResolver(long cacheTime, long failureCacheTime) {
+        this.cacheTime = cacheTime;
+        this.failureCacheTime = failureCacheTime;
+    }
+
+    /**
+     * Method returns future address of the host, it never waits for DNS.
+     * Future fails with UnknownHostException if host can't be resolved.
+     */
+    public CompletableFuture<InetAddress> resolve(String host) {
+        if (Validation.isValidIp(host)) {
+            return CompletableFuture.supplyAsync(() -> lookup(host), Runnable::run);
+        }
+        long now = System.currentTimeMillis();
+        Lookup lookup = cache.compute(host, (name, cached) -> cached != null && !cached.isExpired(now) ? cached : start(name));
+        return lookup.address;
+    }
+
+    /** Method waits for address of the host, it is used by connection threads */
+    public InetAddress resolveNow(String host) throws UnknownHostException, InterruptedException {
+        try {
+            return resolve(host).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnknownHostException) { throw (UnknownHostException) e.getCause(); }
+            throw new UnknownHostException(host + ": " + e.getCause());
+        }
+    }
+
+    /** Method forgets all cached addresses */
+    public void clear() {
+        cache.clear();
+    }
+
+    /** Method starts lookup on resolver thread */
+    private Lookup start(String host) {
+        Lookup lookup = new Lookup();
+        lookup.address = CompletableFuture.supplyAsync(() -> lookup(host), executor);
+        lookup.address.whenComplete((address, failure) ->
+                lookup.expiresAt = System.currentTimeMillis() + (failure == null ? cacheTime : failureCacheTime));
+        return lookup;
+    }
+
+    /** Method resolves host in current thread */
+    private static InetAddress lookup(String host) {
+        try {
+            // brackets of IPv6 address are not a part of it
+            String name = host.startsWith("[") && host.endsWith("]") ? host.substring(1, host.length() - 1) : host;
+            return InetAddress.getByName(name);
+        } catch (UnknownHostException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /** Lookup of one host name */
+    private static final class Lookup {
+
+        /** Future address */
+        private CompletableFuture<InetAddress> address;
+
+        /** Time when result stops being valid, Long.MAX_VALUE while lookup is running */
+        private volatile long expiresAt = Long.MAX_VALUE;
+
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package CommunicatorP2P.net;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class watches one connection with tasks of shared HashedWheelTimer.
+ * Reading only stores the time of last received bytes, so it costs nothing; the check is one timer task,
+ * which sends PING when connection is silent and closes it after idle timeout. Then it schedules itself
+ * for the moment when next decision may be needed.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see Heartbeat
+ * @see HashedWheelTimer
+ */
+public final class IdleMonitor implements Runnable {
+
+    /** Timer shared by many connections */
+    private final HashedWheelTimer timer;
+
+    /** Times of the checks */
+    private final Heartbeat heartbeat;
+
+    /** Action which queues PING, it must not wait */
+    private final Runnable ping;
+
+    /** Action which closes dead connection */
+    private final Runnable expire;
+
+    /** Time of last received bytes, System.nanoTime */
+    private volatile long lastReadNanos = System.nanoTime();
+
+    /** Scheduled check, null before start */
+    private volatile HashedWheelTimer.Timeout timeout;
+
+    /** Flag set when connection is closed */
+    private volatile boolean stopped;
+
+    /**
+     * Constructor of the monitor.
+     * @param timer timer shared by connections
+     * @param heartbeat times of the checks
+     * @param ping action which queues PING without waiting
+     * @param expire action which closes the connection
+     */
+    public IdleMonitor(HashedWheelTimer timer, Heartbeat heartbeat, Runnable ping, Runnable expire) {
+        this.timer = timer;
+        this.heartbeat = heartbeat;
+        this.ping = ping;
+        this.expire = expire;
+    }
+
+    /** Method schedules the first check */
+    public void start() {
+        touch();
+        schedule(heartbeat.getInterval());
+    }
+
+    /** Method is called when bytes were received */
+    public void touch() {
+        lastReadNanos = System.nanoTime();
+    }
+
+    /** Method cancels checks, it is called when connection is closed */
+    public void stop() {
+        stopped = true;
+        HashedWheelTimer.Timeout current = timeout;
+        if (current != null) { current.cancel(); }
+    }
+
+    /** Check run by the timer */
+    @Override
+    public void run() {
+        if (stopped) { return; }
+        long idle = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastReadNanos);
+        if (idle >= heartbeat.getIdleTimeout()) {
+            expire.run();
+            return;
+        }
+        if (idle < heartbeat.getInterval()) {
+            // something was received, next check when interval passes since then
+            schedule(heartbeat.getInterval() - idle);
+            return;
+        }
+        ping.run();
+        schedule(Math.min(heartbeat.getInterval(), heartbeat.getIdleTimeout() - idle));
+    }
+
+    private void schedule(long delay) {
+        timeout = timer.schedule(this, delay);
+        // stop could miss timeout set just now
+        if (stopped) { timeout.cancel(); }
+    }
+}
@@ -0,0 +1,313 @@
+package CommunicatorP2P.net;
+
+import CommunicatorP2P.metrics.Metrics;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * This class is one I/O thread of the SelectorServer.
+ * It has its own Selector and serves many connections. Other threads communicate with
+ * the loop only by tasks, so connection state is never touched by two threads at once.
+ * Tasks are handed over by lock-free MpscQueue and selector is woken up only when loop sleeps in select,
+ * so burst of tasks from many threads costs one wake up. In reuse port mode the loop also accepts
+ * connections from its own listening channel.
+ * All connections of the loop read into one buffer of the loop, connection keeps only bytes of frame
+ * which is not fully read yet, so idle guests don't hold big buffers.
+ * Since Java 11 ready keys are taken by Selector.select(Consumer), which doesn't fill selected key set,
+ * so waiting for next frames allocates nothing. In Java 10 selected key set is used.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see SelectorServer
+ * @see Connection
+ */
+class IoLoop implements Runnable {
+
+    /** Max number of free buffers for big frames kept by the loop */
+    private static final int MAX_FREE_FRAME_BUFFERS = 8;
+
+    /** Method Selector.select(Consumer) of Java 11, or null in older Java */
+    private static final MethodHandle SELECT = selectWithAction("select");
+
+    /** Method Selector.selectNow(Consumer) of Java 11, or null in older Java */
+    private static final MethodHandle SELECT_NOW = selectWithAction("selectNow");
+
+    /** Selector of this loop */
+    private final Selector selector;
+
+    /** Tasks from other threads, executed by the loop thread */
+    private final MpscQueue<Runnable> tasks = new MpscQueue<>();
+
+    /** False while loop may sleep in select, the first task sets it and wakes selector up */
+    private final AtomicBoolean awake = new AtomicBoolean(true);
+
+    /** Listener passed to new connections */
+    private final ServerListener listener;
+
+    /** Sessions of guests, passed to new connections */
+    private final PeerSessions sessions;
+
+    /** Timer of heartbeats and timeouts, shared with other loops of the server */
+    private final HashedWheelTimer timer;
+
+    /** Flag which stops the loop */
+    private volatile boolean running = true;
+
+    /** Number of connections served by this loop, also these which are being registered */
+    private final AtomicInteger connectionCount = new AtomicInteger();
+
+    /** Thread of the loop, null before it runs */
+    private volatile Thread thread;
+
+    /** Buffer into which connections read, it has place for the biggest frame */
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(Connection.READ_BUFFER_SIZE);
+
+    /** Free buffers for big frames which are not fully read yet, used only by loop thread */
+    private final ArrayDeque<ByteBuffer> freeFrameBuffers = new ArrayDeque<>();
+
+    /** Keys found ready by last select, handled after tasks */
+    private SelectionKey[] readyKeys = new SelectionKey[64];
+
+    /** Number of keys in readyKeys */
+    private int readyCount;
+
+    /** Action given to select, created once */
+    private final Consumer<SelectionKey> readyCollector = this::addReadyKey;
+
+    IoLoop(ServerListener listener, PeerSessions sessions, HashedWheelTimer timer) throws IOException {
+        this.selector = Selector.open();
+        this.listener = listener;
+        this.sessions = sessions;
+        this.timer = timer;
+    }
+
+    /** Method returns timer shared by connections */
+    HashedWheelTimer getTimer() {
+        return timer;
+    }
+
+    /** Method returns number of connections served by this loop */
+    int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /** Called by registered connection when it is closed, has to be called from loop thread */
+    void connectionClosed() {
+        connectionCount.decrementAndGet();
+    }
+
+    /** Method returns buffer for reading of connections, it has to be used only by loop thread */
+    ByteBuffer getReadBuffer() {
+        return readBuffer;
+    }
+
+    /** Method lends buffer for big frame which is not fully read yet, it has to be called from loop thread */
+    ByteBuffer lendFrameBuffer() {
+        ByteBuffer buffer = freeFrameBuffers.poll();
+        return buffer != null ? buffer : ByteBuffer.allocate(Connection.READ_BUFFER_SIZE);
+    }
+
+    /** Method takes back buffer lent by lendFrameBuffer, it has to be called from loop thread */
+    void returnFrameBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        if (freeFrameBuffers.size() < MAX_FREE_FRAME_BUFFERS) { freeFrameBuffers.push(buffer); }
+    }
+
+    /** Method returns true if it is called from the loop thread, which may touch connections directly */
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /** Method queues task for the loop thread and wakes selector up */
+    void execute(Runnable task) {
+        tasks.offer(task);
+        if (!awake.get() && awake.compareAndSet(false, true)) { selector.wakeup(); }
+    }
+
+    /**
+     * Method assigns accepted channel to this loop, host nickName is sent after guest HELLO.
+     * Called by loop thread, channel is registered at once, otherwise by task.
+     */
+    void register(SocketChannel channel, Transport transport, String nickName, Heartbeat heartbeat) {
+        Connection connection = new Connection(channel, transport, this, listener, sessions, nickName, heartbeat);
+        connectionCount.incrementAndGet();
+        Runnable registration = () -> {
+            try {
+                channel.configureBlocking(false);
+                connection.registered(channel.register(selector, SelectionKey.OP_READ, connection));
+            } catch (IOException e) {
+                System.out.println("Registration error: " + e);
+                connectionCount.decrementAndGet();
+                connection.closeNow();
+            }
+        };
+        if (inLoop()) { registration.run(); } else { execute(registration); }
+    }
+
+    /**
+     * Method starts accepting from listening channel of this loop, accepted channels are given to acceptor.
+     * Channel is closed when loop stops.
+     */
+    void listen(ServerSocketChannel serverChannel, Consumer<SocketChannel> acceptor) {
+        execute(() -> {
+            try {
+                serverChannel.configureBlocking(false);
+                serverChannel.register(selector, SelectionKey.OP_ACCEPT, acceptor);
+            } catch (IOException e) {
+                System.out.println("Server Socket problem: " + e);
+            }
+        });
+    }
+
+    /** Method stops the loop, all connections are closed by the loop thread */
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /** Main loop of I/O thread */
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        try {
+            while (running) {
+                awake.set(false);
+                select(!tasks.isEmpty());
+                awake.set(true);
+                runTasks();
+                for (int i = 0; i < readyCount; i++) {
+                    SelectionKey key = readyKeys[i];
+                    readyKeys[i] = null;
+                    handleKey(key);
+                }
+                readyCount = 0;
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.out.println("Selector problem: " + e);
+        } finally {
+            closeAll();
+        }
+    }
+
+    /**
+     * Method waits for ready keys, without waiting if now is true, and puts them into readyKeys.
+     * It returns number of ready keys.
+     */
+    private int select(boolean now) throws IOException {
+        if (SELECT == null) {
+            if (now) { selector.selectNow(); } else { selector.select(); }
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                addReadyKey(keys.next());
+                keys.remove();
+            }
+            return readyCount;
+        }
+        try {
+            return now ? (int) SELECT_NOW.invokeExact(selector, readyCollector)
+                    : (int) SELECT.invokeExact(selector, readyCollector);
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException(e);
+        }
+    }
+
+    /** Method adds key to readyKeys */
+    private void addReadyKey(SelectionKey key) {
+        if (readyCount == readyKeys.length) { readyKeys = Arrays.copyOf(readyKeys, readyCount * 2); }
+        readyKeys[readyCount++] = key;
+    }
+
+    /** Method returns select method of Java 11 which gives ready keys to an action, or null if Java doesn't have it */
+    private static MethodHandle selectWithAction(String name) {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Selector.class, name,
+                    MethodType.methodType(int.class, Consumer.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Method handles ready key of one connection. Error of one connection, also unexpected one of frame handler,
+     * closes only this connection, the loop keeps serving other ones.
+     */
+    private void handleKey(SelectionKey key) {
+        if (key.attachment() instanceof Consumer) {
+            accept(key);
+            return;
+        }
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isValid() && key.isReadable()) { connection.handleRead(); }
+            if (key.isValid() && key.isWritable()) { connection.handleWrite(); }
+        } catch (IOException e) {
+            Metrics.ERRORS.increment();
+            connection.closeNow();
+        } catch (RuntimeException e) {
+            Metrics.ERRORS.increment();
+            System.out.println("Connection error: " + e);
+            connection.closeNow();
+        }
+    }
+
+    /** Method accepts all pending connections of listening channel */
+    @SuppressWarnings("unchecked")
+    private void accept(SelectionKey key) {
+        Consumer<SocketChannel> acceptor = (Consumer<SocketChannel>) key.attachment();
+        try {
+            SocketChannel channel;
+            while ((channel = ((ServerSocketChannel) key.channel()).accept()) != null) {
+                acceptor.accept(channel);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (running) { System.out.println("Server Socket problem: " + e); }
+        }
+    }
+
+    /** Method executes all queued tasks */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (Exception e) {
+                System.out.println("Task error: " + e);
+            }
+        }
+    }
+
+    /** Method closes all connections and the selector */
+    private void closeAll() {
+        runTasks();
+        try {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    ((Connection) key.attachment()).closeNow();
+                } else {
+                    key.channel().close();
+                }
+            }
+            selector.close();
+        } catch (Exception e) {
+            System.out.println("Selector closing error: " + e);
+        }
+        connectionCount.set(0);
+    }
+}
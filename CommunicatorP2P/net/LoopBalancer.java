@@ -0,0 +1,78 @@
+package CommunicatorP2P.net;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This interface chooses I/O loop of SelectorServer for every accepted connection.
+ * Balancer is configured by property -DcommunicatorP2P.balancer:
+ * <pre>
+ * round-robin  - loops get connections in turn, it is default
+ * least-loaded - loop with the smallest number of connections
+ * local        - loop which accepted connection keeps it, for reuse port mode where kernel spreads connections
+ * </pre>
+ * Balancer is called by acceptor thread or, in reuse port mode, by many loops at once, so it has to be thread safe.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see SelectorServer
+ */
+public interface LoopBalancer {
+
+    /** Name of property with balancer name */
+    String PROPERTY = "communicatorP2P.balancer";
+
+    /**
+     * Method chooses loop for new connection.
+     * @param loads numbers of connections of loops, also these which are being registered
+     * @param acceptor index of loop which accepted connection, -1 if it was accepted by acceptor thread
+     * @return index of chosen loop
+     */
+    int select(int[] loads, int acceptor);
+
+    /** Method returns new balancer which gives connections to loops in turn */
+    static LoopBalancer roundRobin() {
+        AtomicInteger next = new AtomicInteger();
+        return (loads, acceptor) -> Math.floorMod(next.getAndIncrement(), loads.length);
+    }
+
+    /** Method returns balancer which chooses loop with the smallest number of connections, the first one on ties */
+    static LoopBalancer leastLoaded() {
+        return (loads, acceptor) -> {
+            int chosen = 0;
+            for (int i = 1; i < loads.length; i++) {
+                if (loads[i] < loads[chosen]) { chosen = i; }
+            }
+            return chosen;
+        };
+    }
+
+    /** Method returns balancer which keeps connection in accepting loop, connections of acceptor thread go in turn */
+    static LoopBalancer local() {
+        LoopBalancer fallback = roundRobin();
+        return (loads, acceptor) -> acceptor >= 0 ? acceptor : fallback.select(loads, acceptor);
+    }
+
+    /**
+     * Method returns new balancer of given name.
+     * @throws IllegalArgumentException if name is unknown
+     */
+    static LoopBalancer named(String name) {
+        switch (name) {
+            case "round-robin": return roundRobin();
+            case "least-loaded": return leastLoaded();
+            case "local": return local();
+            default: throw new IllegalArgumentException("Unknown balancer: " + name);
+        }
+    }
+
+    /** Method returns new balancer chosen by property, round robin if it is not set or unknown */
+    static LoopBalancer configured() {
+        String name = System.getProperty(PROPERTY, "round-robin");
+        try {
+            return named(name);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage() + ", round-robin is used");
+            return roundRobin();
+        }
+    }
+}
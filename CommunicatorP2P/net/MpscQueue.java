@@ -0,0 +1,66 @@
+package CommunicatorP2P.net;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class is an unbounded lock-free queue for many producers and one consumer.
+ * Producer swaps tail with one atomic operation and links previous node after it,
+ * consumer reads nodes from head without any atomic write, so threads handing tasks to an IoLoop
+ * never wait for each other nor for the loop. Node linked by producer which was paused between
+ * swap and link is seen by consumer a moment later, so poll may return null while queue is not empty.
+ * Only one thread may call poll and isEmpty.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see IoLoop
+ */
+final class MpscQueue<E> {
+
+    /** The last node, written by producers */
+    private final AtomicReference<Node<E>> tail;
+
+    /** Node before the first element, used only by consumer */
+    private Node<E> head;
+
+    MpscQueue() {
+        Node<E> empty = new Node<>(null);
+        this.head = empty;
+        this.tail = new AtomicReference<>(empty);
+    }
+
+    /** Method adds element at the end. It can be called from any thread. */
+    void offer(E element) {
+        Node<E> node = new Node<>(element);
+        Node<E> previous = tail.getAndSet(node);
+        previous.next = node;
+    }
+
+    /** Method removes and returns the first element, or returns null. Called only by consumer. */
+    E poll() {
+        Node<E> next = head.next;
+        if (next == null) { return null; }
+        E element = next.element;
+        next.element = null;
+        head = next;
+        return element;
+    }
+
+    /** Method returns true if no element was added after the last polled one. Called only by consumer. */
+    boolean isEmpty() {
+        return head == tail.get();
+    }
+
+    /** Node of the list */
+    private static final class Node<E> {
+
+        /** Element of the node, null after it is polled */
+        private E element;
+
+        /** Next node, written once by producer */
+        private volatile Node<E> next;
+
+        Node(E element) {
+            this.element = element;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package CommunicatorP2P.net;
+
+import CommunicatorP2P.metrics.Metrics;
+import CommunicatorP2P.protocol.PooledFrame;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a bounded queue of encoded frames waiting for writing to one connection.
+ * Frames can be added from many threads, only one writer takes them, usually many at once
+ * for one gathering write. When queue is full, frame is dropped or sender is blocked,
+ * depending on OverflowPolicy. Crossing of water marks is reported to BackpressureListener.
+ * Queue takes over one reference of every offered frame, dropped and cleared frames are released,
+ * taken frames are released by writer after they are written.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see OutboundWriter
+ * @see BackpressureListener
+ */
+public class OutboundQueue {
+
+    /** What to do when queue is full */
+    public enum OverflowPolicy {
+        /** New frame is dropped and listener is informed */
+        DROP,
+        /** Sender waits until there is place in the queue */
+        BLOCK
+    }
+
+    /** Listener which does nothing, used when nobody listens */
+    private static final BackpressureListener NO_LISTENER = new BackpressureListener() {
+        @Override
+        public void onCongestion(int depth, int capacity, boolean congested) {
+        }
+
+        @Override
+        public void onDrop(long dropped) {
+        }
+    };
+
+    /** Empty frame which only wakes blocking writer up, for example when file chunks are waiting */
+    private static final PooledFrame WAKE_UP = PooledFrame.wrap(ByteBuffer.allocate(0).asReadOnlyBuffer());
+
+    /** Frames waiting for writing */
+    private final ArrayBlockingQueue<PooledFrame> frames;
+
+    /** Policy used when queue is full */
+    private final OverflowPolicy policy;
+
+    /** Depth at which queue becomes congested */
+    private final int highWater;
+
+    /** Depth at which queue stops being congested */
+    private final int lowWater;
+
+    /** True between crossing of high water and low water marks */
+    private final AtomicBoolean congested = new AtomicBoolean();
+
+    /** Number of dropped frames */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Listener informed about congestion and drops */
+    private volatile BackpressureListener listener = NO_LISTENER;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.frames = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.highWater = Math.max(1, capacity * 3 / 4);
+        this.lowWater = capacity / 4;
+    }
+
+    /** Method sets listener informed about congestion and drops, null removes it */
+    public void setListener(BackpressureListener listener) {
+        this.listener = listener == null ? NO_LISTENER : listener;
+    }
+
+    /** Method adds frame which is not pooled, see offer(PooledFrame) */
+    public boolean offer(ByteBuffer frame) {
+        return offer(PooledFrame.wrap(frame));
+    }
+
+    /**
+     * Method adds frame to the queue. When queue is full, it drops the frame
+     * or waits, depending on policy. It returns false if frame was not added, then it is released.
+     */
+    public boolean offer(PooledFrame frame) {
+        boolean added;
+        if (policy == OverflowPolicy.BLOCK) {
+            try {
+                frames.put(frame);
+                added = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                added = false;
+            }
+        } else {
+            added = frames.offer(frame);
+        }
+        if (!added) {
+            frame.release();
+            listener.onDrop(dropped.incrementAndGet());
+            return false;
+        }
+        afterAddition();
+        return true;
+    }
+
+    /**
+     * Method adds frame without waiting, whatever the policy is. It is used by timers for control frames
+     * like heartbeat PING, which are skipped when queue is full. It returns false if frame was not added.
+     */
+    public boolean tryOffer(ByteBuffer frame) {
+        return tryOffer(PooledFrame.wrap(frame));
+    }
+
+    /** Method adds frame without waiting, see tryOffer(ByteBuffer). Frame which was not added is released. */
+    public boolean tryOffer(PooledFrame frame) {
+        if (!frames.offer(frame)) {
+            frame.release();
+            return false;
+        }
+        afterAddition();
+        return true;
+    }
+
+    /** Method checks high water mark after frame was added */
+    private void afterAddition() {
+        Metrics.QUEUED_FRAMES.increment();
+        int depth = frames.size();
+        if (depth >= highWater && congested.compareAndSet(false, true)) {
+            listener.onCongestion(depth, capacity(), true);
+        }
+    }
+
+    /** Method wakes blocking writer up, if queue is full writer is awake anyway */
+    public void wakeUp() {
+        tryOffer(WAKE_UP);
+    }
+
+    /** Method returns the first frame or null, it never waits */
+    public PooledFrame poll() {
+        PooledFrame frame = frames.poll();
+        if (frame != null) {
+            Metrics.QUEUED_FRAMES.decrement();
+            afterRemoval();
+        }
+        return frame;
+    }
+
+    /** Method waits for the first frame, it is used by blocking writer */
+    public PooledFrame take() throws InterruptedException {
+        PooledFrame frame = frames.take();
+        Metrics.QUEUED_FRAMES.decrement();
+        afterRemoval();
+        return frame;
+    }
+
+    /**
+     * Method moves waiting frames to the array, starting from given index, as many as array can take.
+     * It returns number of moved frames and never waits.
+     */
+    public int drainTo(PooledFrame[] target, int offset) {
+        int count = 0;
+        PooledFrame frame;
+        while (offset + count < target.length && (frame = frames.poll()) != null) {
+            target[offset + count] = frame;
+            count++;
+        }
+        if (count > 0) {
+            Metrics.QUEUED_FRAMES.add(-count);
+            afterRemoval();
+        }
+        return count;
+    }
+
+    /** Method checks low water mark after frames were taken */
+    private void afterRemoval() {
+        int depth = frames.size();
+        if (depth <= lowWater && congested.compareAndSet(true, false)) {
+            listener.onCongestion(depth, capacity(), false);
+        }
+    }
+
+    public boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    /** Method returns number of waiting frames */
+    public int depth() {
+        return frames.size();
+    }
+
+    public int capacity() {
+        return frames.size() + frames.remainingCapacity();
+    }
+
+    /** Method returns number of dropped frames */
+    public long droppedCount() {
+        return dropped.get();
+    }
+
+    /** Method removes and releases all waiting frames */
+    public void clear() {
+        int count = 0;
+        PooledFrame frame;
+        while ((frame = frames.poll()) != null) {
+            frame.release();
+            count++;
+        }
+        Metrics.QUEUED_FRAMES.add(-count);
+        congested.set(false);
+    }
+}
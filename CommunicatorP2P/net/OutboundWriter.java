@@ -0,0 +1,109 @@
+package CommunicatorP2P.net;
+
+import CommunicatorP2P.protocol.PooledFrame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.Arrays;
+
+/**
+ * This class is a dedicated writer of one blocking connection.
+ * It waits for frames in OutboundQueue and writes all frames waiting at that moment
+ * by one gathering write, so burst of messages costs one system call, not one per message.
+ * File chunks are written only when no frame is waiting, one chunk at a time, so they never delay messages much.
+ * Written frames are released, so pooled ones go back to FramePool. Writer stops when its thread is interrupted or channel is closed.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see OutboundQueue
+ */
+public class OutboundWriter implements Runnable {
+
+    /** Max number of frames written at once */
+    static final int MAX_BATCH = 64;
+
+    /** Queue of frames */
+    private final OutboundQueue queue;
+
+    /** Blocking channel of the connection */
+    private final GatheringByteChannel channel;
+
+    /** Transport of the connection, used for file chunks, null if writer doesn't send files */
+    private final Transport transport;
+
+    /** File transfers sent in lower priority than frames, null if writer doesn't send files */
+    private final FileTransfers files;
+
+    /** Frames of current batch */
+    private final PooledFrame[] batch = new PooledFrame[MAX_BATCH];
+
+    /** Buffers of frames of current batch, for gathering write */
+    private final ByteBuffer[] buffers = new ByteBuffer[MAX_BATCH];
+
+    /** Number of frames in current batch */
+    private int batchSize;
+
+    public OutboundWriter(OutboundQueue queue, GatheringByteChannel channel) {
+        this.queue = queue;
+        this.channel = channel;
+        this.transport = null;
+        this.files = null;
+    }
+
+    /** Constructor of writer which also sends chunks of files, queue should be woken up when chunks are waiting */
+    public OutboundWriter(OutboundQueue queue, Transport transport, FileTransfers files) {
+        this.queue = queue;
+        this.channel = transport;
+        this.transport = transport;
+        this.files = files;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                PooledFrame first = files != null && files.hasChunk() ? queue.poll() : queue.take();
+                if (first == null) {
+                    writeChunk();
+                    continue;
+                }
+                batch[0] = first;
+                batchSize = 1 + queue.drainTo(batch, 1);
+                for (int i = 0; i < batchSize; i++) { buffers[i] = batch[i].buffer(); }
+                writeFully(batchSize);
+                releaseBatch();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("Writer stopped: " + e);
+        } finally {
+            releaseBatch();
+        }
+    }
+
+    /** Method releases frames of current batch */
+    private void releaseBatch() {
+        for (int i = 0; i < batchSize; i++) { batch[i].release(); }
+        Arrays.fill(batch, 0, batchSize, null);
+        Arrays.fill(buffers, 0, batchSize, null);
+        batchSize = 0;
+    }
+
+    /** Method writes one file chunk, blocking channel takes it whole */
+    private void writeChunk() throws IOException {
+        while (!files.writeChunk(transport)) {
+            Thread.onSpinWait();
+        }
+    }
+
+    /** Method writes first count frames of the batch, blocking channel may need few writes */
+    private void writeFully(int count) throws IOException {
+        int first = 0;
+        while (first < count) {
+            channel.write(buffers, first, count - first);
+            while (first < count && !buffers[first].hasRemaining()) { first++; }
+        }
+    }
+}
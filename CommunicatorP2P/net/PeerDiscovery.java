@@ -0,0 +1,377 @@
+package CommunicatorP2P.net;
+
+import CommunicatorP2P.protocol.DiscoveryFrame;
+
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.ProtocolException;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class finds hosts in LAN by UDP multicast, so guest doesn't have to type IP address of the host.
+ * Hosts announce nickName, port and capabilities, guests keep table of announced hosts,
+ * which forgets hosts not heard for PEER_TIMEOUT. Table can be read from any thread.
+ * <p>
+ * One discovery is shared by all windows of the program: announcements of all its hosts go in one
+ * datagram, repeated every ANNOUNCE_INTERVAL with jitter. QUERY of a starting guest is answered at once,
+ * but no datagram of any kind is sent more often than MIN_SEND_GAP, so many guests cause one answer
+ * and discovery traffic stays small on busy subnets. Everything is done by one thread with a Selector.
+ * <p>
+ * Group, port and interface may be set by properties communicatorP2P.discovery.group, .port and .interface,
+ * -DcommunicatorP2P.discovery=false turns discovery off. Without interface the first multicast interface
+ * of LAN is used, or loopback if there is none, which is enough for tests on one computer.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see DiscoveryFrame
+ * @see DiscoveredPeer
+ */
+public final class PeerDiscovery implements AutoCloseable {
+
+    /** Default multicast group, from organization-local scope */
+    public static final String DEFAULT_GROUP = "239.255.67.80";
+
+    /** Default UDP port of discovery */
+    public static final int DEFAULT_PORT = 45600;
+
+    /** How often hosts announce themselves, in milliseconds */
+    static final long ANNOUNCE_INTERVAL = 5000;
+
+    /** Host not heard for this time is removed from the table, in milliseconds */
+    static final long PEER_TIMEOUT = 3 * ANNOUNCE_INTERVAL;
+
+    /** Min time between two datagrams of the same kind, in milliseconds */
+    static final long MIN_SEND_GAP = 1000;
+
+    /** Max number of hosts in the table, datagrams are not authenticated, so anybody in LAN can send many hosts */
+    static final int MAX_PEERS = 256;
+
+    /** How often the table is checked for expired hosts, in milliseconds */
+    private static final long EXPIRY_CHECK_INTERVAL = 1000;
+
+    /** Discovery shared by windows, null until first use */
+    private static PeerDiscovery shared;
+
+    /** Channel joined to the group */
+    private final DatagramChannel channel;
+
+    /** Selector which waits for datagrams and for time of next announcement */
+    private final Selector selector;
+
+    /** Address of the group */
+    private final InetSocketAddress group;
+
+    /** Hosts by address and port */
+    private final Map<String, DiscoveredPeer> peers = new ConcurrentHashMap<>();
+
+    /** Hosts of this program which are announced */
+    private final List<DiscoveryFrame.Entry> announced = new CopyOnWriteArrayList<>();
+
+    /** Listeners of the table */
+    private final List<DiscoveryListener> listeners = new CopyOnWriteArrayList<>();
+
+    /** Flag set when QUERY should be sent */
+    private final AtomicBoolean queryRequested = new AtomicBoolean();
+
+    /** Flag set when hosts should be announced before their time */
+    private final AtomicBoolean announceRequested = new AtomicBoolean();
+
+    /** Buffer of sent datagrams, used only by discovery thread */
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(DiscoveryFrame.MAX_DATAGRAM_SIZE);
+
+    /** Buffer of received datagrams, used only by discovery thread */
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(DiscoveryFrame.MAX_DATAGRAM_SIZE);
+
+    /** Entries of received ANNOUNCE, used only by discovery thread */
+    private final List<DiscoveryFrame.Entry> received = new ArrayList<>();
+
+    /** Thread of discovery */
+    private final Thread thread;
+
+    /** Flag which stops the thread */
+    private volatile boolean running = true;
+
+    /** Time of next periodic announcement, used only by discovery thread */
+    private long nextAnnounce;
+
+    /** Time of last ANNOUNCE, used only by discovery thread */
+    private long lastAnnounce;
+
+    /** Time of last QUERY, used only by discovery thread */
+    private long lastQuery;
+
+    /** Time of next check of expired hosts, used only by discovery thread */
+    private long nextExpiryCheck;
+
+    /**
+     * Constructor of discovery, it joins the group and starts its thread.
+     * @param groupAddress multicast group
+     * @param port UDP port of the group
+     * @param networkInterface interface on which group is joined
+     */
+    public PeerDiscovery(InetAddress groupAddress, int port, NetworkInterface networkInterface) throws IOException {
+        this.group = new InetSocketAddress(groupAddress, port);
+        this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        try {
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            channel.bind(new InetSocketAddress(port));
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 1);
+            channel.join(groupAddress, networkInterface);
+            channel.configureBlocking(false);
+            this.selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.thread = new Thread(this::run, "discovery");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Method returns discovery shared by windows of the program, configured by system properties.
+     * It is opened at first call and lives as long as the program.
+     * @throws IOException if discovery is turned off or group can't be joined
+     */
+    public static synchronized PeerDiscovery shared() throws IOException {
+        if (shared == null) {
+            if ("false".equals(System.getProperty("communicatorP2P.discovery"))) {
+                throw new IOException("Discovery is turned off");
+            }
+            InetAddress groupAddress = InetAddress.getByName(System.getProperty("communicatorP2P.discovery.group", DEFAULT_GROUP));
+            int port = Integer.getInteger("communicatorP2P.discovery.port", DEFAULT_PORT);
+            shared = new PeerDiscovery(groupAddress, port, defaultInterface());
+        }
+        return shared;
+    }
+
+    /** Method returns interface given by property, or the first LAN interface with multicast, or loopback */
+    private static NetworkInterface defaultInterface() throws SocketException {
+        String name = System.getProperty("communicatorP2P.discovery.interface");
+        if (name != null) {
+            NetworkInterface chosen = NetworkInterface.getByName(name);
+            if (chosen == null) { throw new SocketException("No network interface " + name); }
+            return chosen;
+        }
+        Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+        while (interfaces != null && interfaces.hasMoreElements()) {
+            NetworkInterface candidate = interfaces.nextElement();
+            if (candidate.isUp() && candidate.supportsMulticast() && !candidate.isLoopback() && !candidate.isVirtual()
+                    && hasIpv4Address(candidate)) {
+                return candidate;
+            }
+        }
+        return NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    }
+
+    private static boolean hasIpv4Address(NetworkInterface networkInterface) {
+        Enumeration<InetAddress> addresses = networkInterface.getInetAddresses();
+        while (addresses.hasMoreElements()) {
+            if (addresses.nextElement() instanceof Inet4Address) { return true; }
+        }
+        return false;
+    }
+
+    /**
+     * Method starts announcing host of this program, first announcement is sent at once.
+     * It returns entry which has to be given to withdraw when host stops.
+     */
+    public DiscoveryFrame.Entry announce(String nickName, int port, int capabilities) {
+        DiscoveryFrame.Entry entry = new DiscoveryFrame.Entry(nickName, port, capabilities);
+        announced.add(entry);
+        announceRequested.set(true);
+        selector.wakeup();
+        return entry;
+    }
+
+    /** Method stops announcing host, other guests forget it after PEER_TIMEOUT */
+    public void withdraw(DiscoveryFrame.Entry entry) {
+        announced.remove(entry);
+    }
+
+    /** Method asks hosts in LAN to announce themselves now, it is used when guest starts looking */
+    public void query() {
+        queryRequested.set(true);
+        selector.wakeup();
+    }
+
+    /** Method returns known hosts sorted by nickName, it can be called from any thread */
+    public List<DiscoveredPeer> getPeers() {
+        long now = System.currentTimeMillis();
+        List<DiscoveredPeer> result = new ArrayList<>();
+        for (DiscoveredPeer peer : peers.values()) {
+            if (now - peer.getLastSeen() <= PEER_TIMEOUT) { result.add(peer); }
+        }
+        result.sort(Comparator.comparing(DiscoveredPeer::getNickName).thenComparing(DiscoveredPeer::key));
+        return result;
+    }
+
+    /** Method adds listener of the table and gives it current hosts */
+    public void addListener(DiscoveryListener listener) {
+        listeners.add(listener);
+        listener.onPeersChanged(getPeers());
+    }
+
+    public void removeListener(DiscoveryListener listener) {
+        listeners.remove(listener);
+    }
+
+    /** Method stops discovery thread and leaves the group */
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Main loop of discovery thread */
+    private void run() {
+        try {
+            while (running) {
+                long now = System.currentTimeMillis();
+                sendDue(now);
+                if (now >= nextExpiryCheck) {
+                    removeExpired(now);
+                    nextExpiryCheck = now + EXPIRY_CHECK_INTERVAL;
+                }
+                selector.select(Math.max(1, nextWakeUp(now) - now));
+                selector.selectedKeys().clear();
+                receiveAll();
+            }
+        } catch (IOException e) {
+            System.out.println("Discovery stopped: " + e);
+        } finally {
+            try {
+                selector.close();
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Discovery closing error: " + e);
+            }
+        }
+    }
+
+    /** Method returns time when thread has something to do, if no datagram comes earlier */
+    private long nextWakeUp(long now) {
+        long wakeUp = nextExpiryCheck;
+        if (!announced.isEmpty()) { wakeUp = Math.min(wakeUp, nextAnnounce); }
+        // requested datagram waits only for end of the gap
+        if (announceRequested.get()) { wakeUp = Math.min(wakeUp, lastAnnounce + MIN_SEND_GAP); }
+        if (queryRequested.get()) { wakeUp = Math.min(wakeUp, lastQuery + MIN_SEND_GAP); }
+        return Math.max(wakeUp, now);
+    }
+
+    /** Method sends requested QUERY and due ANNOUNCE, if gap since last datagram of the same kind passed */
+    private void sendDue(long now) throws IOException {
+        if (queryRequested.get() && now - lastQuery >= MIN_SEND_GAP) {
+            queryRequested.set(false);
+            lastQuery = now;
+            DiscoveryFrame.query(sendBuffer);
+            channel.send(sendBuffer, group);
+        }
+        if (announced.isEmpty()) {
+            announceRequested.set(false);
+            return;
+        }
+        boolean due = now >= nextAnnounce || announceRequested.get();
+        if (!due || now - lastAnnounce < MIN_SEND_GAP) { return; }
+        announceRequested.set(false);
+        lastAnnounce = now;
+        long jitter = ThreadLocalRandom.current().nextLong(ANNOUNCE_INTERVAL / 5);
+        nextAnnounce = now + ANNOUNCE_INTERVAL - ANNOUNCE_INTERVAL / 10 + jitter;
+        List<DiscoveryFrame.Entry> entries = new ArrayList<>(announced);
+        int from = 0;
+        while (from < entries.size()) {
+            int next = DiscoveryFrame.announce(sendBuffer, entries, from);
+            if (next == from) { break; }
+            channel.send(sendBuffer, group);
+            from = next;
+        }
+    }
+
+    /** Method handles all waiting datagrams */
+    private void receiveAll() throws IOException {
+        SocketAddress source;
+        receiveBuffer.clear();
+        while ((source = channel.receive(receiveBuffer)) != null) {
+            receiveBuffer.flip();
+            byte kind = DiscoveryFrame.readKind(receiveBuffer);
+            if (kind == DiscoveryFrame.QUERY && !announced.isEmpty()) {
+                announceRequested.set(true);
+            } else if (kind == DiscoveryFrame.ANNOUNCE && source instanceof InetSocketAddress) {
+                handleAnnounce(((InetSocketAddress) source).getAddress());
+            }
+            receiveBuffer.clear();
+        }
+    }
+
+    /** Method puts hosts of received ANNOUNCE into the table, listeners are informed about new or changed hosts */
+    private void handleAnnounce(InetAddress address) {
+        received.clear();
+        try {
+            DiscoveryFrame.readEntries(receiveBuffer, received);
+        } catch (ProtocolException e) {
+            System.out.println("Incorrect announcement from " + address + ": " + e.getMessage());
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean changed = false;
+        for (DiscoveryFrame.Entry entry : received) {
+            DiscoveredPeer peer = new DiscoveredPeer(entry.nickName, address, entry.port, entry.capabilities, now);
+            if (peers.size() >= MAX_PEERS && !peers.containsKey(peer.key())) { makeRoom(now); }
+            DiscoveredPeer previous = peers.put(peer.key(), peer);
+            if (previous == null || !previous.getNickName().equals(peer.getNickName()) || previous.usesTls() != peer.usesTls()) {
+                changed = true;
+            }
+        }
+        if (changed) { notifyListeners(); }
+    }
+
+    /** Method removes hosts not heard for PEER_TIMEOUT */
+    private void removeExpired(long now) {
+        if (peers.values().removeIf(peer -> now - peer.getLastSeen() > PEER_TIMEOUT)) { notifyListeners(); }
+    }
+
+    /** Method removes expired hosts, or the host not heard for the longest time if none expired */
+    private void makeRoom(long now) {
+        if (peers.values().removeIf(peer -> now - peer.getLastSeen() > PEER_TIMEOUT)) { return; }
+        DiscoveredPeer oldest = null;
+        for (DiscoveredPeer peer : peers.values()) {
+            if (oldest == null || peer.getLastSeen() < oldest.getLastSeen()) { oldest = peer; }
+        }
+        if (oldest != null) { peers.remove(oldest.key()); }
+    }
+
+    private void notifyListeners() {
+        List<DiscoveredPeer> current = Collections.unmodifiableList(getPeers());
+        for (DiscoveryListener listener : listeners) {
+            listener.onPeersChanged(current);
+        }
+    }
+}
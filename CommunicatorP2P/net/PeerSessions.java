@@ -0,0 +1,94 @@
+package CommunicatorP2P.net;
+
+import CommunicatorP2P.protocol.PeerSession;
+
+import java.net.ProtocolException;
+import java.security.SecureRandom;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class keeps PeerSessions of guests by their tokens, so reconnected guest continues its conversation.
+ * Session which has no connection longer than RESUME_TIMEOUT is forgotten, together with its kept messages
+ * and file transfers.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see PeerSession
+ * @see SelectorServer
+ */
+class PeerSessions {
+
+    /** How long session without connection can be resumed, in milliseconds */
+    static final long RESUME_TIMEOUT = 2 * 60 * 1000;
+
+    /** How often expired sessions are looked for, in milliseconds */
+    private static final long CLEANUP_INTERVAL = 1000;
+
+    /** Sessions by token */
+    private final Map<Long, PeerSession> sessions = new ConcurrentHashMap<>();
+
+    /** File transfers of sessions by token */
+    private final Map<Long, FileTransfers> transfers = new ConcurrentHashMap<>();
+
+    /** Source of tokens, they must not be guessed by other guests */
+    private final SecureRandom random = new SecureRandom();
+
+    /** Time of last cleanup */
+    private final AtomicLong lastCleanup = new AtomicLong();
+
+    /**
+     * Method returns session with given token if it belongs to guest with given nickName,
+     * otherwise it creates new session with new token. Only the owner of the token can take over
+     * session which is still connected, so nobody can kick a guest by using his nickName.
+     * @throws ProtocolException if other session of this nickName is connected
+     */
+    PeerSession resume(long token, String nickName) throws ProtocolException {
+        removeExpired();
+        PeerSession session = token == 0 ? null : sessions.get(token);
+        if (session != null && session.getNickName().equals(nickName)) { return session; }
+        for (PeerSession other : sessions.values()) {
+            if (other.getDetachedAt() == 0 && other.getNickName().equals(nickName)) {
+                throw new ProtocolException("Nick " + nickName + " is already connected");
+            }
+        }
+        while (true) {
+            long newToken = random.nextLong();
+            if (newToken == 0) { continue; }
+            PeerSession created = new PeerSession(newToken, nickName);
+            if (sessions.putIfAbsent(newToken, created) == null) { return created; }
+        }
+    }
+
+    /** Method returns file transfers of the session, they are created with first call */
+    FileTransfers transfers(PeerSession session) {
+        return transfers.computeIfAbsent(session.getToken(), token -> new FileTransfers(FileTransfers.DOWNLOADS));
+    }
+
+    /** Method returns all sessions, also these waiting for reconnection */
+    Collection<PeerSession> all() {
+        return Collections.unmodifiableCollection(sessions.values());
+    }
+
+    /** Method forgets sessions without connection for longer than RESUME_TIMEOUT, at most once per CLEANUP_INTERVAL */
+    private void removeExpired() {
+        long now = System.currentTimeMillis();
+        long last = lastCleanup.get();
+        if (now - last < CLEANUP_INTERVAL || !lastCleanup.compareAndSet(last, now)) { return; }
+        Iterator<PeerSession> iterator = sessions.values().iterator();
+        while (iterator.hasNext()) {
+            PeerSession session = iterator.next();
+            long detachedAt = session.getDetachedAt();
+            if (detachedAt != 0 && now - detachedAt > RESUME_TIMEOUT) {
+                iterator.remove();
+                session.close();
+                FileTransfers expired = transfers.remove(session.getToken());
+                if (expired != null) { expired.close(); }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package CommunicatorP2P.net;
+
+import CommunicatorP2P.metrics.Metrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * This class is a transport without encryption, it passes everything to the socket
+ * and counts bytes which went through it. File bytes go from page cache to the socket
+ * by FileChannel.transferTo, without copying through the heap.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see Transport
+ */
+public class PlainTransport implements Transport {
+
+    /** Socket of the connection */
+    private final SocketChannel channel;
+
+    public PlainTransport(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public int read(ByteBuffer destination) throws IOException {
+        int read = channel.read(destination);
+        if (read > 0) { Metrics.BYTES_IN.add(read); }
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer source) throws IOException {
+        int written = channel.write(source);
+        Metrics.BYTES_OUT.add(written);
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+        long written = channel.write(sources, offset, length);
+        Metrics.BYTES_OUT.add(written);
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] sources) throws IOException {
+        return write(sources, 0, sources.length);
+    }
+
+    @Override
+    public long transferFrom(FileChannel file, long position, long count) throws IOException {
+        // socket channel itself is needed, so JDK can use sendfile
+        long written = file.transferTo(position, count, channel);
+        Metrics.BYTES_OUT.add(written);
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
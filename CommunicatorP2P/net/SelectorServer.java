@@ -0,0 +1,400 @@
+package CommunicatorP2P.net;
+
+import CommunicatorP2P.metrics.Metrics;
+import CommunicatorP2P.protocol.PeerSession;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class is a non-blocking server used by Host.
+ * One acceptor thread takes new guests from ServerSocketChannel and spreads them
+ * over small fixed set of IoLoop threads, so many guests are served without thread per guest.
+ * Loop of every connection is chosen by LoopBalancer. In reuse port mode there is no acceptor thread:
+ * every loop listens on its own channel bound to the same port with SO_REUSEPORT, kernel spreads
+ * connections between them, so connect storms are accepted by all loops at once.
+ * Reuse port mode is turned on by -DcommunicatorP2P.reusePort=true where the system supports it.
+ * It lets other server of the same user bind the same port, so it is not default.
+ * After connection both sides exchange HELLO frames with nickNames, then message frames follow.
+ * Conversations are kept in PeerSessions, so guests may reconnect without losing messages.
+ * When TlsContext is set, connections are encrypted by TlsChannel in the same I/O threads.
+ * Heartbeats and timeouts of all connections are run by one HashedWheelTimer.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see IoLoop
+ * @see Connection
+ * @see ServerListener
+ */
+public class SelectorServer {
+
+    /** Name of property which turns reuse port mode on */
+    public static final String REUSE_PORT_PROPERTY = "communicatorP2P.reusePort";
+
+    /** Port on which server listens */
+    private final int portNumber;
+
+    /** Host nickName, it is sent to every new guest */
+    private final String nickName;
+
+    /** Listener informed about guests events */
+    private final ServerListener listener;
+
+    /** I/O loops serving connections */
+    private final IoLoop[] loops;
+
+    /** How long stop method waits for every server thread, in milliseconds */
+    private static final long STOP_TIMEOUT = 2000;
+
+    /** Acceptor and I/O threads, joined when server is stopped */
+    private final List<Thread> threads = new ArrayList<>();
+
+    /** Sessions of guests, also these waiting for reconnection */
+    private final PeerSessions sessions = new PeerSessions();
+
+    /** Timer of heartbeats and timeouts of all connections */
+    private final HashedWheelTimer timer = new HashedWheelTimer("host-timer");
+
+    /** Times of heartbeat and timeouts of next connections */
+    private volatile Heartbeat heartbeat = Heartbeat.DEFAULT;
+
+    /** Guests which finished handshake */
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    /** TLS configuration, null if connections are not encrypted */
+    private volatile TlsContext tls;
+
+    /** Server channel, null if server is not started */
+    private ServerSocketChannel serverChannel;
+
+    /** Selector used only for accepting */
+    private Selector acceptSelector;
+
+    /** Listening channels of loops in reuse port mode, empty otherwise */
+    private final List<ServerSocketChannel> loopChannels = new ArrayList<>();
+
+    /** Balancer which chooses loop of every connection */
+    private volatile LoopBalancer balancer = LoopBalancer.configured();
+
+    /** True if every loop should listen on its own channel */
+    private volatile boolean reusePort = Boolean.getBoolean(REUSE_PORT_PROPERTY);
+
+    /** Flag which stops acceptor thread */
+    private volatile boolean running;
+
+    /**
+     * Constructor of the server.
+     * @param portNumber port on which server listens
+     * @param nickName host nickName sent to guests
+     * @param ioThreads number of I/O threads, at least 1
+     * @param listener listener informed about guests events
+     */
+    public SelectorServer(int portNumber, String nickName, int ioThreads, ServerListener listener) throws IOException {
+        if (ioThreads < 1) { throw new IllegalArgumentException("At least one I/O thread is needed"); }
+        this.portNumber = portNumber;
+        this.nickName = nickName;
+        this.listener = new TrackingListener(listener);
+        this.loops = new IoLoop[ioThreads];
+        for (int i = 0; i < ioThreads; i++) {
+            this.loops[i] = new IoLoop(this.listener, sessions, timer);
+        }
+    }
+
+    /** Method sets TLS configuration of next connections, null turns encryption off */
+    public void setTls(TlsContext tls) {
+        this.tls = tls;
+    }
+
+    /** Method sets balancer which chooses loops of next connections */
+    public void setBalancer(LoopBalancer balancer) {
+        this.balancer = balancer;
+    }
+
+    /**
+     * Method turns reuse port mode on or off, it has to be called before start.
+     * When system doesn't support SO_REUSEPORT, server uses acceptor thread.
+     */
+    public void setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
+    /** Method returns true if system supports SO_REUSEPORT for listening channels */
+    public static boolean isReusePortSupported() {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            return channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Method sets times of heartbeat and timeouts of next connections */
+    public void setHeartbeat(Heartbeat heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    /** Method binds the port and starts acceptor and I/O threads */
+    public void start() throws IOException {
+        if (reusePort && loops.length > 1 && isReusePortSupported()) {
+            startReusePort();
+            return;
+        }
+        serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(new InetSocketAddress(portNumber), 1024);
+            serverChannel.configureBlocking(false);
+            acceptSelector = Selector.open();
+            serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+        running = true;
+        for (int i = 0; i < loops.length; i++) {
+            startThread(loops[i], "host-io-" + (i + 1));
+        }
+        startThread(this::acceptLoop, "host-acceptor");
+    }
+
+    /** Method binds listening channel for every loop and starts loops, they accept connections themselves */
+    private void startReusePort() throws IOException {
+        try {
+            for (int i = 0; i < loops.length; i++) {
+                ServerSocketChannel channel = ServerSocketChannel.open();
+                loopChannels.add(channel);
+                channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                channel.bind(new InetSocketAddress(portNumber), 1024);
+            }
+        } catch (IOException e) {
+            closeLoopChannels();
+            throw e;
+        }
+        running = true;
+        for (int i = 0; i < loops.length; i++) {
+            int acceptor = i;
+            loops[i].listen(loopChannels.get(i), channel -> accepted(channel, acceptor));
+            startThread(loops[i], "host-io-" + (i + 1));
+        }
+    }
+
+    private void closeLoopChannels() {
+        for (ServerSocketChannel channel : loopChannels) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.out.println("Server socket closing error: " + e);
+            }
+        }
+        loopChannels.clear();
+    }
+
+    /** Method sends message to all guests, guests which are reconnecting get it after reconnection */
+    public void broadcast(String text) {
+        for (PeerSession session : sessions.all()) {
+            session.send(text);
+        }
+    }
+
+    /** Method returns nickNames of guests which have session, also these waiting for reconnection */
+    public Set<String> getSessionNickNames() {
+        Set<String> nickNames = new HashSet<>();
+        for (PeerSession session : sessions.all()) { nickNames.add(session.getNickName()); }
+        return nickNames;
+    }
+
+    /** Method returns timer of heartbeats, it can run other short tasks of the server */
+    public HashedWheelTimer getTimer() {
+        return timer;
+    }
+
+    /** Method returns guests which finished handshake */
+    public Set<Connection> getConnections() {
+        return Collections.unmodifiableSet(connections);
+    }
+
+    /** Method returns number of open connections, also these without finished handshake */
+    public int getOpenConnectionCount() {
+        int count = 0;
+        for (IoLoop loop : loops) { count += loop.getConnectionCount(); }
+        return count;
+    }
+
+    /** Method starts named server thread */
+    private void startThread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    /** Method stops accepting, closes all connections and waits until server threads are finished */
+    public void stop() {
+        running = false;
+        try {
+            if (acceptSelector != null) { acceptSelector.close(); }
+            if (serverChannel != null) { serverChannel.close(); }
+        } catch (IOException e) {
+            System.out.println("Server socket closing error: " + e);
+        }
+        closeLoopChannels();
+        for (IoLoop loop : loops) {
+            loop.stop();
+        }
+        timer.close();
+        for (Thread thread : threads) {
+            try {
+                thread.join(STOP_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        threads.clear();
+    }
+
+    /** Acceptor thread loop, it accepts all pending guests after every wake up */
+    private void acceptLoop() {
+        try {
+            while (running) {
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null) {
+                    accepted(channel, -1);
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) { System.out.println("Server Socket problem: " + e); }
+        }
+    }
+
+    /** Method prepares new channel and passes it to loop chosen by balancer, acceptor is index of accepting loop or -1 */
+    private void accepted(SocketChannel channel, int acceptor) {
+        Metrics.CONNECTIONS_ACCEPTED.increment();
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        } catch (IOException e) {
+            System.out.println("Socket option error: " + e);
+        }
+        Transport transport;
+        try {
+            TlsContext currentTls = tls;
+            transport = currentTls == null ? new PlainTransport(channel) : currentTls.serverChannel(channel);
+        } catch (IOException e) {
+            System.out.println("TLS error: " + e);
+            Metrics.ERRORS.increment();
+            try {
+                channel.close();
+            } catch (IOException closeError) {
+                System.out.println("Socket closing error: " + closeError);
+            }
+            return;
+        }
+        int[] loads = new int[loops.length];
+        for (int i = 0; i < loops.length; i++) { loads[i] = loops[i].getConnectionCount(); }
+        int chosen = balancer.select(loads, acceptor);
+        if (chosen < 0 || chosen >= loops.length) { chosen = Math.max(acceptor, 0); }
+        loops[chosen].register(channel, transport, nickName, heartbeat);
+    }
+
+    /** Listener which keeps set of connected guests before passing events further */
+    private class TrackingListener implements ServerListener {
+
+        /** Listener given by user of the server */
+        private final ServerListener delegate;
+
+        TrackingListener(ServerListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onConnected(Connection connection) {
+            connections.add(connection);
+            delegate.onConnected(connection);
+        }
+
+        @Override
+        public void onMessage(Connection connection, String text) {
+            delegate.onMessage(connection, text);
+        }
+
+        @Override
+        public void onMessageText(Connection connection, CharSequence text) {
+            delegate.onMessageText(connection, text);
+        }
+
+        @Override
+        public void onJoin(Connection connection, String room) {
+            delegate.onJoin(connection, room);
+        }
+
+        @Override
+        public void onLeave(Connection connection, String room) {
+            delegate.onLeave(connection, room);
+        }
+
+        @Override
+        public void onRelayAcknowledged(Connection connection, long id) {
+            delegate.onRelayAcknowledged(connection, id);
+        }
+
+        @Override
+        public void onTyping(Connection connection) {
+            delegate.onTyping(connection);
+        }
+
+        @Override
+        public void onReceipt(Connection connection, boolean read) {
+            delegate.onReceipt(connection, read);
+        }
+
+        @Override
+        public void onRoomMessage(Connection connection, String room, String text) {
+            delegate.onRoomMessage(connection, room, text);
+        }
+
+        @Override
+        public void onDisconnected(Connection connection) {
+            if (connections.remove(connection)) {
+                delegate.onDisconnected(connection);
+            }
+        }
+
+        @Override
+        public void onFileReceived(Connection connection, Path file) {
+            delegate.onFileReceived(connection, file);
+        }
+
+        @Override
+        public void onFileSent(Connection connection, String fileName) {
+            delegate.onFileSent(connection, fileName);
+        }
+
+        @Override
+        public void onFileFailed(Connection connection, String fileName, String reason) {
+            delegate.onFileFailed(connection, fileName, reason);
+        }
+
+        @Override
+        public void onCongestion(Connection connection, int depth, int capacity, boolean congested) {
+            delegate.onCongestion(connection, depth, capacity, congested);
+        }
+
+        @Override
+        public void onDrop(Connection connection, long dropped) {
+            delegate.onDrop(connection, dropped);
+        }
+    }
+}
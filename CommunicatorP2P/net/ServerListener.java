@@ -0,0 +1,79 @@
+package CommunicatorP2P.net;
+
+import java.nio.file.Path;
+
+/**
+ * This interface is implemented by classes which want to be informed about events
+ * coming from the SelectorServer. All methods are called from server I/O threads.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see SelectorServer
+ * @see Connection
+ */
+public interface ServerListener {
+
+    /** Method called when guest finished handshake and his nickName is known */
+    void onConnected(Connection connection);
+
+    /** Method called for every message frame received from guest */
+    void onMessage(Connection connection, String text);
+
+    /**
+     * Method called for every message frame received from guest, with text which is reused for next message
+     * of the connection, so it is valid only during the call. By default it calls onMessage with copy of the text.
+     */
+    default void onMessageText(Connection connection, CharSequence text) {
+        onMessage(connection, text.toString());
+    }
+
+    /** Method called when connection with guest, who finished handshake, is closed */
+    void onDisconnected(Connection connection);
+
+    /** Method called when guest confirmed messages relayed from outbox up to given id, by default it does nothing */
+    default void onRelayAcknowledged(Connection connection, long id) {
+    }
+
+    /** Method called when TYPING frame of guest arrives, by default it does nothing */
+    default void onTyping(Connection connection) {
+    }
+
+    /**
+     * Method called when guest confirmed for the first time that the last message sent to it was delivered or read,
+     * by default it does nothing.
+     */
+    default void onReceipt(Connection connection, boolean read) {
+    }
+
+    /** Method called when guest subscribes to room, by default it does nothing */
+    default void onJoin(Connection connection, String room) {
+    }
+
+    /** Method called when guest unsubscribes from room, by default it does nothing */
+    default void onLeave(Connection connection, String room) {
+    }
+
+    /** Method called for every message which guest published in room, by default it does nothing */
+    default void onRoomMessage(Connection connection, String room, String text) {
+    }
+
+    /** Method called when file from guest was received and saved, by default it does nothing */
+    default void onFileReceived(Connection connection, Path file) {
+    }
+
+    /** Method called when guest confirmed that it received whole file, by default it does nothing */
+    default void onFileSent(Connection connection, String fileName) {
+    }
+
+    /** Method called when file transfer with guest was cancelled, by default it does nothing */
+    default void onFileFailed(Connection connection, String fileName, String reason) {
+    }
+
+    /** Method called when outbound queue of the guest crosses its water marks, by default it does nothing */
+    default void onCongestion(Connection connection, int depth, int capacity, boolean congested) {
+    }
+
+    /** Method called when frame for the guest was dropped because his queue was full, by default it does nothing */
+    default void onDrop(Connection connection, long dropped) {
+    }
+}
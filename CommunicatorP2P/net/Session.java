@@ -0,0 +1,209 @@
+package CommunicatorP2P.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class is one connection run by the ConnectionEngine as a group of tasks.
+ * Tasks are forked by the session and never outlive it: when one task ends or fails or session is
+ * cancelled, all registered resources are closed and all task threads are interrupted,
+ * so blocked reads and writes end and every task stops. That's why the main task
+ * should do the reading itself, after forking other tasks.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see ConnectionEngine
+ * @see SessionTask
+ */
+public final class Session {
+
+    /** Name of the session, used for thread names */
+    private final String name;
+
+    /** Factory of task threads */
+    private final ThreadFactory threadFactory;
+
+    /** Engine which started the session */
+    private final ConnectionEngine engine;
+
+    /** Threads of running tasks */
+    private final List<Thread> threads = new ArrayList<>();
+
+    /** Resources closed on cancel, for example socket */
+    private final List<Closeable> resources = new ArrayList<>();
+
+    /** Actions run once when the last task is finished */
+    private final List<Runnable> terminationActions = new ArrayList<>();
+
+    /** Flag set when session is cancelled */
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    /** Number of tasks which are not finished yet */
+    private int running;
+
+    /** Flag set when the last task finished */
+    private boolean terminated;
+
+    /** Flag set when termination actions finished, after it the session has no effect on its owner */
+    private boolean actionsDone;
+
+    /** Thread which runs termination actions */
+    private Thread terminatingThread;
+
+    /** First failure of any task, null if none */
+    private volatile Throwable failure;
+
+    Session(String name, ThreadFactory threadFactory, ConnectionEngine engine) {
+        this.name = name;
+        this.threadFactory = threadFactory;
+        this.engine = engine;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Method starts task on new thread of this session. Task is not started if session is cancelled. */
+    public synchronized void fork(String taskName, SessionTask task) {
+        if (cancelled.get()) { return; }
+        Thread thread = threadFactory.newThread(() -> runTask(task));
+        thread.setName(name + "-" + taskName);
+        threads.add(thread);
+        running++;
+        thread.start();
+    }
+
+    /** Method registers resource closed when session is cancelled. When session is already cancelled, it is closed at once. */
+    public void addResource(Closeable resource) {
+        synchronized (this) {
+            if (!cancelled.get()) {
+                resources.add(resource);
+                return;
+            }
+        }
+        closeQuietly(resource);
+    }
+
+    /** Method registers action run once when all tasks are finished, it is run by the last task thread */
+    public void onTermination(Runnable action) {
+        synchronized (this) {
+            if (!terminated) {
+                terminationActions.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /** Method returns first failure of any task, null if none */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Method cancels the session: it closes resources and interrupts all tasks.
+     * It can be called many times and from any thread, it doesn't wait.
+     */
+    public void cancel() {
+        if (!cancelled.compareAndSet(false, true)) { return; }
+        List<Closeable> toClose;
+        List<Thread> toInterrupt;
+        synchronized (this) {
+            toClose = new ArrayList<>(resources);
+            toInterrupt = new ArrayList<>(threads);
+        }
+        for (Closeable resource : toClose) { closeQuietly(resource); }
+        for (Thread thread : toInterrupt) {
+            if (thread != Thread.currentThread()) { thread.interrupt(); }
+        }
+    }
+
+    /** Method cancels the session because of given failure, for example timeout found by other thread */
+    public void fail(Throwable cause) {
+        synchronized (this) {
+            if (!cancelled.get() && failure == null) { failure = cause; }
+        }
+        cancel();
+    }
+
+    /**
+     * Method waits until all tasks and termination actions are finished, so owner can start next session
+     * without its state being cleared by actions of this one. It returns false if time passed before.
+     * Termination action which waits for its own session doesn't wait.
+     */
+    public synchronized boolean awaitTermination(long millis) throws InterruptedException {
+        if (terminatingThread == Thread.currentThread()) { return true; }
+        long deadline = System.currentTimeMillis() + millis;
+        while (!actionsDone) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) { return false; }
+            wait(left);
+        }
+        return true;
+    }
+
+    /** Method cancels the session and waits until all tasks are finished */
+    public boolean cancelAndAwait(long millis) {
+        cancel();
+        try {
+            return awaitTermination(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Body of every task thread */
+    private void runTask(SessionTask task) {
+        try {
+            task.run(this);
+        } catch (Throwable e) {
+            if (!cancelled.get() && failure == null) { failure = e; }
+        } finally {
+            // end of one task ends the whole session
+            cancel();
+            taskFinished();
+        }
+    }
+
+    /** Method counts finished task, the last one runs termination actions */
+    private void taskFinished() {
+        List<Runnable> actions;
+        synchronized (this) {
+            threads.remove(Thread.currentThread());
+            if (--running > 0) { return; }
+            engine.sessionTerminated(this);
+            terminated = true;
+            terminatingThread = Thread.currentThread();
+            actions = new ArrayList<>(terminationActions);
+        }
+        for (Runnable action : actions) {
+            try {
+                action.run();
+            } catch (Exception e) {
+                System.out.println("Termination action error: " + e);
+            }
+        }
+        synchronized (this) {
+            actionsDone = true;
+            terminatingThread = null;
+            notifyAll();
+        }
+    }
+
+    private static void closeQuietly(Closeable resource) {
+        try {
+            resource.close();
+        } catch (IOException e) {
+            System.out.println("Session resource closing error: " + e);
+        }
+    }
+}
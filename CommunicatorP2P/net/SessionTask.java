@@ -0,0 +1,18 @@
+package CommunicatorP2P.net;
+
+/**
+ * This interface is one task of a Session, for example handshake, reader or writer.
+ * Task is run on its own thread, it should stop when the thread is interrupted
+ * or when channels of the session are closed.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see Session
+ * @see ConnectionEngine
+ */
+@FunctionalInterface
+public interface SessionTask {
+
+    /** Method runs the task, exception of one task cancels the whole session */
+    void run(Session session) throws Exception;
+}
@@ -0,0 +1,310 @@
+package CommunicatorP2P.net;
+
+import CommunicatorP2P.metrics.Metrics;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * This class is a TLS transport built on SSLEngine. It works with blocking socket of ChatClient
+ * and with non-blocking socket served by IoLoop, so TLS doesn't need thread per connection.
+ * Handshake is driven by reads and writes: reading may need to write handshake records and
+ * writing may need to wait for records of peer, which is reported by awaitsPeer.
+ * Blocking client calls handshake before first frame instead.
+ * <p>
+ * Buffers for encrypted and decrypted records are taken from BufferPool of TlsContext
+ * and are given back when channel is closed. Reading and writing have separate locks,
+ * so reader and writer threads of ChatClient can work at once.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see TlsContext
+ * @see Transport
+ */
+public class TlsChannel implements Transport {
+
+    /** Array used to wrap handshake records, when there is no data */
+    private static final ByteBuffer[] NO_DATA = new ByteBuffer[0];
+
+    /** Socket of the connection */
+    private final SocketChannel channel;
+
+    /** Engine which encrypts and decrypts records */
+    private final SSLEngine engine;
+
+    /** Pool of buffers */
+    private final BufferPool pool;
+
+    /** Encrypted bytes read from socket, in write mode */
+    private final ByteBuffer netIn;
+
+    /** Decrypted bytes not yet read by user, in write mode */
+    private final ByteBuffer appIn;
+
+    /** Encrypted bytes not yet written to socket, in read mode */
+    private final ByteBuffer netOut;
+
+    /** Lock of netIn and appIn */
+    private final Object readLock = new Object();
+
+    /** Lock of netOut */
+    private final Object writeLock = new Object();
+
+    /** Time when handshake started */
+    private final long startNanos = System.nanoTime();
+
+    /** True when peer closed TLS or socket */
+    private boolean inboundDone;
+
+    /** True when channel is closed and buffers are given back */
+    private volatile boolean closed;
+
+    TlsChannel(SocketChannel channel, SSLEngine engine, BufferPool pool) throws SSLException {
+        int needed = Math.max(engine.getSession().getPacketBufferSize(), engine.getSession().getApplicationBufferSize());
+        if (pool.getBufferSize() < needed) { throw new SSLException("Buffers of the pool are too small: " + needed); }
+        this.channel = channel;
+        this.engine = engine;
+        this.pool = pool;
+        this.netIn = pool.acquire();
+        this.appIn = pool.acquire();
+        this.netOut = pool.acquire();
+        this.netOut.flip();
+    }
+
+    /** Method returns engine of this channel, for example to check its session */
+    public SSLEngine getEngine() {
+        return engine;
+    }
+
+    /** Method makes whole handshake on blocking socket, it is used by client before first frame */
+    public void handshake() throws IOException {
+        engine.beginHandshake();
+        while (!isHandshakeDone()) {
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                runTasks();
+            } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                write(NO_DATA, 0, 0);
+            } else {
+                synchronized (readLock) {
+                    checkOpen();
+                    if (unwrapStep() < 0) { throw new SSLException("Connection closed during handshake"); }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer destination) throws IOException {
+        synchronized (readLock) {
+            checkOpen();
+            int total = 0;
+            while (true) {
+                total += drain(destination);
+                if (!destination.hasRemaining()) { return total; }
+                if (inboundDone) { return total > 0 ? total : -1; }
+                // don't wait for socket when some bytes are ready
+                if (total > 0 && netIn.position() == 0) { return total; }
+                int step = unwrapStep();
+                if (step == 0) { return total; }
+            }
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer source) throws IOException {
+        return (int) write(new ByteBuffer[] {source}, 0, 1);
+    }
+
+    @Override
+    public long write(ByteBuffer[] sources) throws IOException {
+        return write(sources, 0, sources.length);
+    }
+
+    /**
+     * Method encrypts bytes of the sources and writes records to the socket.
+     * It returns number of consumed bytes, records which socket didn't take are kept
+     * and written by next write or flush.
+     */
+    @Override
+    public long write(ByteBuffer[] sources, int offset, int length) throws IOException {
+        synchronized (writeLock) {
+            checkOpen();
+            long consumed = 0;
+            while (flush()) {
+                SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+                if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runTasks();
+                    continue;
+                }
+                if (status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) { break; }
+                if (isHandshakeDone() && !hasRemaining(sources, offset, length)) { break; }
+                netOut.compact();
+                SSLEngineResult result;
+                try {
+                    result = engine.wrap(sources, offset, length, netOut);
+                } finally {
+                    netOut.flip();
+                }
+                consumed += result.bytesConsumed();
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) { throw new ClosedChannelException(); }
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) { handshakeFinished(); }
+            }
+            return consumed;
+        }
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        synchronized (writeLock) {
+            while (netOut.hasRemaining()) {
+                int written = channel.write(netOut);
+                if (written == 0) { return false; }
+                Metrics.BYTES_OUT.add(written);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public boolean hasPendingOutput() {
+        synchronized (writeLock) {
+            return !closed && netOut.hasRemaining();
+        }
+    }
+
+    @Override
+    public boolean awaitsPeer() {
+        return engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    /** Method sends close_notify if socket takes it at once, closes socket and gives buffers back */
+    @Override
+    public void close() throws IOException {
+        if (closed) { return; }
+        synchronized (writeLock) {
+            if (!closed && channel.isOpen()) {
+                engine.closeOutbound();
+                try {
+                    write(NO_DATA, 0, 0);
+                } catch (IOException e) {
+                    // peer may be gone already
+                }
+            }
+        }
+        // socket is closed first, so reader blocked on it leaves read lock
+        channel.close();
+        synchronized (readLock) {
+            synchronized (writeLock) {
+                if (closed) { return; }
+                closed = true;
+                pool.release(netIn);
+                pool.release(appIn);
+                pool.release(netOut);
+            }
+        }
+    }
+
+    /**
+     * Method unwraps records which are in netIn, reading socket when whole record is not there.
+     * It returns -1 when peer closed connection, 0 when socket has no more bytes and 1 after progress.
+     */
+    private int unwrapStep() throws IOException {
+        netIn.flip();
+        SSLEngineResult result;
+        try {
+            result = engine.unwrap(netIn, appIn);
+        } finally {
+            netIn.compact();
+        }
+        handshakeStatus(result.getHandshakeStatus());
+        switch (result.getStatus()) {
+            case CLOSED:
+                inboundDone = true;
+                return -1;
+            case BUFFER_OVERFLOW:
+                if (appIn.position() == 0) { throw new SSLException("Application buffer too small"); }
+                return 1;
+            case BUFFER_UNDERFLOW:
+                if (!netIn.hasRemaining()) { throw new SSLException("Record too big: " + netIn.capacity()); }
+                int read = channel.read(netIn);
+                if (read < 0) {
+                    inboundDone = true;
+                    return -1;
+                }
+                Metrics.BYTES_IN.add(read);
+                return read == 0 ? 0 : 1;
+            default:
+                return 1;
+        }
+    }
+
+    /** Method reacts on handshake status returned by engine */
+    private void handshakeStatus(SSLEngineResult.HandshakeStatus status) throws IOException {
+        switch (status) {
+            case NEED_TASK:
+                runTasks();
+                break;
+            case NEED_WRAP:
+                // for example answer of server during handshake, it is written by reading thread
+                write(NO_DATA, 0, 0);
+                break;
+            case FINISHED:
+                handshakeFinished();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void handshakeFinished() {
+        Metrics.TLS_HANDSHAKE_MICROS.record(Metrics.microsSince(startNanos));
+    }
+
+    /** Method runs tasks of the engine, for example certificate checking, in current thread */
+    private void runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    /** Method moves decrypted bytes to the destination */
+    private int drain(ByteBuffer destination) {
+        if (appIn.position() == 0) { return 0; }
+        appIn.flip();
+        int count = Math.min(appIn.remaining(), destination.remaining());
+        ByteBuffer part = appIn.duplicate();
+        part.limit(part.position() + count);
+        destination.put(part);
+        appIn.position(appIn.position() + count);
+        appIn.compact();
+        return count;
+    }
+
+    private boolean isHandshakeDone() {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING || status == SSLEngineResult.HandshakeStatus.FINISHED;
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (closed) { throw new ClosedChannelException(); }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] sources, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (sources[i].hasRemaining()) { return true; }
+        }
+        return false;
+    }
+}
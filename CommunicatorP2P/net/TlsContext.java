@@ -0,0 +1,129 @@
+package CommunicatorP2P.net;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * This class keeps TLS configuration shared by all connections of the program: SSLContext,
+ * its session caches and pool of buffers. One context has to be used for all connections,
+ * because reconnecting client resumes its session from cache of the context and skips
+ * full handshake.
+ * <p>
+ * Host and guest may use one self-signed keystore, which is key and trust store at once:
+ * <pre>
+ * keytool -genkeypair -alias communicator -keyalg EC -groupname secp256r1 -validity 365 \
+ *         -dname CN=communicator -storetype PKCS12 -keystore communicator.p12 -storepass changeit
+ * </pre>
+ * and start with -DcommunicatorP2P.tls.keystore=communicator.p12 -DcommunicatorP2P.tls.password=changeit
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see TlsChannel
+ */
+public class TlsContext {
+
+    /** System property with path of the keystore, TLS is off when it is not set */
+    public static final String KEYSTORE_PROPERTY = "communicatorP2P.tls.keystore";
+
+    /** System property with password of the keystore */
+    public static final String PASSWORD_PROPERTY = "communicatorP2P.tls.password";
+
+    /** How long sessions can be resumed, in seconds */
+    private static final int SESSION_TIMEOUT = 24 * 60 * 60;
+
+    /** Max number of cached sessions */
+    private static final int SESSION_CACHE_SIZE = 10_000;
+
+    /** Max number of free buffers kept in pool */
+    private static final int POOLED_BUFFERS = 1024;
+
+    /** Context created from system properties, null until first call of configured */
+    private static volatile TlsContext configured;
+
+    /** SSL context of all connections */
+    private final SSLContext context;
+
+    /** Buffers for records of all connections */
+    private final BufferPool buffers;
+
+    /** Constructor of TLS configuration based on ready SSLContext */
+    public TlsContext(SSLContext context) {
+        this.context = context;
+        context.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT);
+        context.getClientSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+        context.getServerSessionContext().setSessionTimeout(SESSION_TIMEOUT);
+        context.getServerSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+        SSLEngine sample = context.createSSLEngine();
+        int bufferSize = Math.max(sample.getSession().getPacketBufferSize(), sample.getSession().getApplicationBufferSize());
+        this.buffers = new BufferPool(bufferSize, POOLED_BUFFERS);
+    }
+
+    /**
+     * Method creates configuration from PKCS12 keystore, which is used as key store and trust store.
+     * Peers trust only certificates from this keystore.
+     */
+    public static TlsContext fromKeyStore(Path path, char[] password) throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(path)) {
+            keyStore.load(in, password);
+        }
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(keyStore, password);
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(keyStore);
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+        return new TlsContext(context);
+    }
+
+    /**
+     * Method returns configuration from system properties, the same object for every call,
+     * or null if keystore property is not set.
+     */
+    public static TlsContext configured() throws IOException, GeneralSecurityException {
+        String keyStore = System.getProperty(KEYSTORE_PROPERTY);
+        if (keyStore == null) { return null; }
+        synchronized (TlsContext.class) {
+            if (configured == null) {
+                configured = fromKeyStore(Paths.get(keyStore), System.getProperty(PASSWORD_PROPERTY, "").toCharArray());
+            }
+            return configured;
+        }
+    }
+
+    public SSLContext getContext() {
+        return context;
+    }
+
+    public BufferPool getBuffers() {
+        return buffers;
+    }
+
+    /** Method creates server side TLS channel of accepted socket */
+    public TlsChannel serverChannel(SocketChannel channel) throws IOException {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setNeedClientAuth(true);
+        return new TlsChannel(channel, engine, buffers);
+    }
+
+    /**
+     * Method creates client side TLS channel of connected socket.
+     * Host and port are keys of session cache, so next connection to the same host resumes the session.
+     */
+    public TlsChannel clientChannel(SocketChannel channel, String host, int portNumber) throws IOException {
+        SSLEngine engine = context.createSSLEngine(host, portNumber);
+        engine.setUseClientMode(true);
+        return new TlsChannel(channel, engine, buffers);
+    }
+}
@@ -0,0 +1,44 @@
+package CommunicatorP2P.net;
+
+import java.io.IOException;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * This interface is a byte stream of one connection, plain socket or TLS.
+ * Connection reads and writes only through it, so encryption is invisible for frames above.
+ * Transport may keep bytes which were accepted by write but not yet sent, for example
+ * encrypted records, and it may need data from peer before it can write, during TLS handshake.
+ * Files are written by transferFrom, which plain transport passes to the kernel without copying.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see PlainTransport
+ * @see TlsChannel
+ */
+public interface Transport extends ByteChannel, GatheringByteChannel {
+
+    /** Method writes bytes kept by transport. It returns true if nothing is left. */
+    default boolean flush() throws IOException {
+        return true;
+    }
+
+    /** Method returns true if transport keeps bytes which are not yet written to the socket */
+    default boolean hasPendingOutput() {
+        return false;
+    }
+
+    /**
+     * Method writes up to count bytes of the file, starting at given position, and returns number of written bytes.
+     * By default FileChannel copies them through a buffer into write method, so encrypting transport sees them.
+     */
+    default long transferFrom(FileChannel file, long position, long count) throws IOException {
+        return file.transferTo(position, count, this);
+    }
+
+    /** Method returns true if transport can't write until bytes from peer are read */
+    default boolean awaitsPeer() {
+        return false;
+    }
+}
@@ -0,0 +1,154 @@
+package CommunicatorP2P.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * This class creates and reads datagrams of LAN discovery, which are sent to multicast group.
+ * Guest sends QUERY when it starts looking, host answers with ANNOUNCE and repeats it from time to time.
+ * One ANNOUNCE carries all hosts of one program, so many windows cost one datagram. Datagram looks like:
+ * <pre>
+ * int    magic   - MAGIC, other datagrams in the group are ignored
+ * byte   version - Handshake.PROTOCOL_VERSION
+ * byte   kind    - QUERY or ANNOUNCE
+ * byte   count   - number of entries, 0 in QUERY
+ * entries:
+ *   short  port
+ *   byte   capabilities - bit mask of TLS, COMPRESSION and FILES
+ *   byte   nickLength
+ *   byte[] nickName
+ * </pre>
+ * Address of the host is source address of the datagram.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see CommunicatorP2P.net.PeerDiscovery
+ */
+public final class DiscoveryFrame {
+
+    /** First bytes of every discovery datagram: "CP2P" */
+    public static final int MAGIC = 0x43503250;
+
+    /** Kind of datagram which asks hosts to announce themselves */
+    public static final byte QUERY = 1;
+
+    /** Kind of datagram with hosts of one program */
+    public static final byte ANNOUNCE = 2;
+
+    /** Capability bit: host uses TLS */
+    public static final int TLS = 1;
+
+    /** Capability bit: host compresses long messages */
+    public static final int COMPRESSION = 2;
+
+    /** Capability bit: host receives files */
+    public static final int FILES = 4;
+
+    /** Max size of datagram, it fits in one Ethernet packet */
+    public static final int MAX_DATAGRAM_SIZE = 1200;
+
+    /** Size of datagram header */
+    private static final int HEADER_SIZE = 4 + 1 + 1 + 1;
+
+    /** Size of entry before nickName */
+    private static final int ENTRY_HEADER_SIZE = 2 + 1 + 1;
+
+    private DiscoveryFrame() {
+    }
+
+    /** One host in ANNOUNCE datagram */
+    public static final class Entry {
+
+        /** Host nickName */
+        public final String nickName;
+
+        /** Port on which host listens */
+        public final int port;
+
+        /** Bit mask of capabilities */
+        public final int capabilities;
+
+        public Entry(String nickName, int port, int capabilities) {
+            this.nickName = nickName;
+            this.port = port;
+            this.capabilities = capabilities;
+        }
+    }
+
+    /** Method encodes QUERY datagram into the buffer, which is ready for sending after it */
+    public static void query(ByteBuffer datagram) {
+        datagram.clear();
+        header(datagram, QUERY, 0);
+        datagram.flip();
+    }
+
+    /**
+     * Method encodes ANNOUNCE datagram with entries from given index, as many as fit in one datagram.
+     * Buffer is ready for sending after it. It returns index of the first entry which didn't fit.
+     */
+    public static int announce(ByteBuffer datagram, List<Entry> entries, int from) {
+        datagram.clear();
+        int countIndex = HEADER_SIZE - 1;
+        header(datagram, ANNOUNCE, 0);
+        int index = from;
+        while (index < entries.size() && index - from < 255) {
+            Entry entry = entries.get(index);
+            byte[] nick = entry.nickName.getBytes(StandardCharsets.UTF_8);
+            if (datagram.remaining() < ENTRY_HEADER_SIZE + nick.length) { break; }
+            datagram.putShort((short) entry.port);
+            datagram.put((byte) entry.capabilities);
+            datagram.put((byte) nick.length);
+            datagram.put(nick);
+            index++;
+        }
+        datagram.put(countIndex, (byte) (index - from));
+        datagram.flip();
+        return index;
+    }
+
+    /** Method writes datagram header */
+    private static void header(ByteBuffer datagram, byte kind, int count) {
+        datagram.putInt(MAGIC);
+        datagram.put(Handshake.PROTOCOL_VERSION);
+        datagram.put(kind);
+        datagram.put((byte) count);
+    }
+
+    /**
+     * Method returns kind of received datagram, which has to be in read mode.
+     * It returns 0 for datagrams of other programs or other protocol versions, they should be ignored.
+     */
+    public static byte readKind(ByteBuffer datagram) {
+        if (datagram.remaining() < HEADER_SIZE) { return 0; }
+        int start = datagram.position();
+        if (datagram.getInt(start) != MAGIC || datagram.get(start + 4) != Handshake.PROTOCOL_VERSION) { return 0; }
+        byte kind = datagram.get(start + 5);
+        return kind == QUERY || kind == ANNOUNCE ? kind : 0;
+    }
+
+    /**
+     * Method reads entries of ANNOUNCE datagram, checked by readKind, and adds them to the list.
+     * Entries with incorrect nickName or port are skipped, as datagram comes from anybody in the network.
+     */
+    public static void readEntries(ByteBuffer datagram, List<Entry> entries) throws ProtocolException {
+        int position = datagram.position() + HEADER_SIZE;
+        int count = datagram.get(datagram.position() + HEADER_SIZE - 1) & 0xFF;
+        for (int i = 0; i < count; i++) {
+            if (datagram.limit() - position < ENTRY_HEADER_SIZE) { throw new ProtocolException("Announcement too short"); }
+            int port = datagram.getShort(position) & 0xFFFF;
+            int capabilities = datagram.get(position + 2) & 0xFF;
+            int nickLength = datagram.get(position + 3) & 0xFF;
+            position += ENTRY_HEADER_SIZE;
+            if (datagram.limit() - position < nickLength) { throw new ProtocolException("Announcement too short"); }
+            byte[] nick = new byte[nickLength];
+            for (int j = 0; j < nickLength; j++) { nick[j] = datagram.get(position + j); }
+            position += nickLength;
+            String nickName = new String(nick, StandardCharsets.UTF_8);
+            if (port > 0 && Validation.isValidNick(nickName)) {
+                entries.add(new Entry(nickName, port, capabilities));
+            }
+        }
+    }
+}
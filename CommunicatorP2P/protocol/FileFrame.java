@@ -0,0 +1,119 @@
+package CommunicatorP2P.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class creates and reads frames of file transfer. Payloads look like:
+ * <pre>
+ * FILE_OFFER:  long transferId | long size | byte[] name
+ * FILE_ACCEPT: long transferId | long offset - receiver wants bytes from offset, offset equal to size confirms whole file
+ * FILE_CHUNK:  long transferId | long offset | int crc32 | byte[] data
+ * FILE_CANCEL: long transferId | byte[] reason
+ * </pre>
+ * Texts are UTF-8. File frames are not numbered, their sequence is 0: lost chunks are requested
+ * again by FILE_ACCEPT with offset of the first missing byte, also after reconnection.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FrameType
+ */
+public final class FileFrame {
+
+    /** Max number of file bytes in one chunk */
+    public static final int CHUNK_SIZE = 32 * 1024;
+
+    /** Max size of file name in bytes */
+    public static final int MAX_NAME_SIZE = 255;
+
+    /** Size of chunk fields before data */
+    private static final int CHUNK_FIELDS_SIZE = 8 + 8 + 4;
+
+    private FileFrame() {
+    }
+
+    /** Method encodes FILE_OFFER frame */
+    public static ByteBuffer offer(long transferId, long size, String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > MAX_NAME_SIZE) { throw new IllegalArgumentException("File name too long: " + name); }
+        ByteBuffer payload = ByteBuffer.allocate(16 + nameBytes.length);
+        payload.putLong(transferId).putLong(size).put(nameBytes);
+        return FrameEncoder.encode(FrameType.FILE_OFFER, 0, payload.array());
+    }
+
+    /** Method encodes FILE_ACCEPT frame */
+    public static ByteBuffer accept(long transferId, long offset) {
+        ByteBuffer payload = ByteBuffer.allocate(16);
+        payload.putLong(transferId).putLong(offset);
+        return FrameEncoder.encode(FrameType.FILE_ACCEPT, 0, payload.array());
+    }
+
+    /** Method encodes FILE_CANCEL frame */
+    public static ByteBuffer cancel(long transferId, String reason) {
+        byte[] reasonBytes = reason.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(8 + reasonBytes.length);
+        payload.putLong(transferId).put(reasonBytes);
+        return FrameEncoder.encode(FrameType.FILE_CANCEL, 0, payload.array());
+    }
+
+    /**
+     * Method encodes beginning of FILE_CHUNK frame, without data. Length field counts data,
+     * so data written just after this buffer completes the frame.
+     */
+    public static ByteBuffer chunkHeader(long transferId, long offset, int checksum, int dataLength) {
+        if (dataLength > CHUNK_SIZE) { throw new IllegalArgumentException("Chunk too long: " + dataLength); }
+        ByteBuffer buffer = ByteBuffer.allocate(FrameEncoder.LENGTH_SIZE + FrameEncoder.HEADER_SIZE + CHUNK_FIELDS_SIZE);
+        buffer.putInt(FrameEncoder.HEADER_SIZE + CHUNK_FIELDS_SIZE + dataLength);
+        buffer.put(FrameType.FILE_CHUNK);
+        buffer.putInt(0);
+        buffer.putLong(transferId).putLong(offset).putInt(checksum);
+        buffer.flip();
+        return buffer;
+    }
+
+    /** Method reads transfer id from current file frame */
+    public static long readTransferId(FrameDecoder decoder) throws ProtocolException {
+        checkLength(decoder, 8);
+        return decoder.payloadLong(0);
+    }
+
+    /** Method reads file size from current FILE_OFFER frame, or offset from FILE_ACCEPT and FILE_CHUNK frame */
+    public static long readOffset(FrameDecoder decoder) throws ProtocolException {
+        checkLength(decoder, 16);
+        long value = decoder.payloadLong(8);
+        if (value < 0) { throw new ProtocolException("Negative " + FrameType.name(decoder.type()) + " offset: " + value); }
+        return value;
+    }
+
+    /** Method reads file name from current FILE_OFFER frame */
+    public static String readName(FrameDecoder decoder) throws ProtocolException {
+        checkLength(decoder, 16);
+        if (decoder.payloadLength() - 16 > MAX_NAME_SIZE) { throw new ProtocolException("File name too long"); }
+        return decoder.payloadText(16);
+    }
+
+    /** Method reads checksum from current FILE_CHUNK frame */
+    public static int readChecksum(FrameDecoder decoder) throws ProtocolException {
+        checkLength(decoder, CHUNK_FIELDS_SIZE);
+        return decoder.payloadInt(16);
+    }
+
+    /** Method returns view of data of current FILE_CHUNK frame, valid until next frame is read */
+    public static ByteBuffer readData(FrameDecoder decoder) throws ProtocolException {
+        checkLength(decoder, CHUNK_FIELDS_SIZE);
+        return decoder.payloadView(CHUNK_FIELDS_SIZE);
+    }
+
+    /** Method reads reason from current FILE_CANCEL frame */
+    public static String readReason(FrameDecoder decoder) throws ProtocolException {
+        checkLength(decoder, 8);
+        return decoder.payloadText(8);
+    }
+
+    private static void checkLength(FrameDecoder decoder, int minimum) throws ProtocolException {
+        if (decoder.payloadLength() < minimum) {
+            throw new ProtocolException(FrameType.name(decoder.type()) + " too short: " + decoder.payloadLength());
+        }
+    }
+}
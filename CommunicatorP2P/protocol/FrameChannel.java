@@ -0,0 +1,128 @@
+package CommunicatorP2P.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+
+/**
+ * This class reads and writes frames on blocking channel. It is used by Guest.
+ * Reading is done by one thread, writing may be called from another one.
+ * Messages may be also only encoded here and written later by OutboundWriter.
+ * Own read buffer is small, frame which doesn't fit into it, like file chunk, is read into buffer
+ * borrowed from FramePool, which is given back when the frame was handled.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FrameDecoder
+ * @see FrameEncoder
+ */
+public class FrameChannel {
+
+    /** Blocking channel of the connection */
+    private final ByteChannel channel;
+
+    /** Size of own read buffer, it has place for many usual messages */
+    static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    /** Own read buffer of the channel */
+    private final ByteBuffer smallBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /** Bytes read from channel, in read mode between calls, own buffer or borrowed one */
+    private ByteBuffer readBuffer = smallBuffer;
+
+    /** Frame of FramePool borrowed for big frame, null when own buffer is used */
+    private PooledFrame bigFrame;
+
+    /** Decoder pointing at last read frame */
+    private final FrameDecoder decoder = new FrameDecoder();
+
+    /** Text of last read message, reused for every message */
+    private final MessageText text = new MessageText();
+
+    /** Codec of messages, chosen after handshake */
+    private volatile MessageCodec codec = MessageCodec.RAW;
+
+    /** Sequence number of next sent message */
+    private int nextSequence = 1;
+
+    public FrameChannel(ByteChannel channel) {
+        this.channel = channel;
+        this.readBuffer.flip();
+    }
+
+    /**
+     * Method blocks until next frame is read. Returned decoder points at this frame
+     * until next call of this method.
+     */
+    public FrameDecoder readFrame() throws IOException {
+        shrink();
+        while (!decoder.next(readBuffer)) {
+            readBuffer.compact();
+            if (!readBuffer.hasRemaining()) { grow(); }
+            int read = channel.read(readBuffer);
+            readBuffer.flip();
+            if (read < 0) { throw new EOFException("Connection closed"); }
+        }
+        return decoder;
+    }
+
+    /** Method moves started frame, which doesn't fit into own buffer, to buffer borrowed from FramePool */
+    private void grow() {
+        bigFrame = FramePool.SHARED.acquire(FrameEncoder.MAX_FRAME_SIZE);
+        ByteBuffer big = bigFrame.buffer();
+        smallBuffer.flip();
+        big.put(smallBuffer);
+        readBuffer = big;
+    }
+
+    /** Method gives borrowed buffer back when the rest of read bytes fits into own buffer again */
+    private void shrink() {
+        if (bigFrame == null || readBuffer.remaining() > smallBuffer.capacity()) { return; }
+        smallBuffer.clear();
+        smallBuffer.put(readBuffer);
+        smallBuffer.flip();
+        readBuffer = smallBuffer;
+        bigFrame.release();
+        bigFrame = null;
+    }
+
+    /** Method sets codec negotiated in handshake */
+    public void setCodec(MessageCodec codec) {
+        this.codec = codec;
+    }
+
+    public MessageCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Method returns text of MESSAGE frame returned by readFrame, decompressed if needed.
+     * Text is reused, it is valid until next message text is decoded.
+     */
+    public MessageText messageText(FrameDecoder frame) throws IOException {
+        return codec.decodeText(frame, text);
+    }
+
+    /** Method writes encoded frame */
+    public synchronized void write(ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+    }
+
+    /** Method writes MESSAGE frame with next sequence number */
+    public synchronized void writeMessage(CharSequence text) throws IOException {
+        PooledFrame frame = encodeMessage(text);
+        try {
+            write(frame.buffer());
+        } finally {
+            frame.release();
+        }
+    }
+
+    /** Method encodes MESSAGE frame with next sequence number, without writing it. Caller has to release the frame. */
+    public synchronized PooledFrame encodeMessage(CharSequence text) {
+        return codec.encodeMessage(nextSequence++, text);
+    }
+}
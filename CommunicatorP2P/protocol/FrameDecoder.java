@@ -0,0 +1,137 @@
+package CommunicatorP2P.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class decodes frames of the communicator protocol directly from a ByteBuffer.
+ * It does not copy bytes: after next() returns true, decoder points at the frame
+ * inside the buffer and payload is decoded only when someone asks for it.
+ * The frame stays valid until the buffer is compacted or overwritten.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FrameEncoder
+ * @see FrameType
+ */
+public final class FrameDecoder {
+
+    /** Buffer with current frame */
+    private ByteBuffer buffer;
+
+    /** Type of current frame, with COMPRESSED flag */
+    private byte type;
+
+    /** Sequence number of current frame */
+    private int sequence;
+
+    /** Absolute index of payload in the buffer */
+    private int payloadOffset;
+
+    /** Length of payload */
+    private int payloadLength;
+
+    /** View of the buffer reused for payload views, it is created again only when buffer changes */
+    private ByteBuffer view;
+
+    /** Buffer of which view was created */
+    private ByteBuffer viewSource;
+
+    /**
+     * Method looks for next full frame in the buffer, which has to be in read mode.
+     * When frame is complete, buffer position is moved after it and true is returned.
+     * When more bytes are needed, buffer is not changed and false is returned.
+     */
+    public boolean next(ByteBuffer buffer) throws ProtocolException {
+        int start = buffer.position();
+        if (buffer.limit() - start < FrameEncoder.LENGTH_SIZE) { return false; }
+        int length = buffer.getInt(start);
+        if (length < FrameEncoder.HEADER_SIZE || length > FrameEncoder.HEADER_SIZE + FrameEncoder.MAX_PAYLOAD_SIZE) {
+            throw new ProtocolException("Incorrect frame length: " + length);
+        }
+        if (buffer.limit() - start - FrameEncoder.LENGTH_SIZE < length) { return false; }
+        int headerStart = start + FrameEncoder.LENGTH_SIZE;
+        this.buffer = buffer;
+        this.type = buffer.get(headerStart);
+        this.sequence = buffer.getInt(headerStart + 1);
+        this.payloadOffset = headerStart + FrameEncoder.HEADER_SIZE;
+        this.payloadLength = length - FrameEncoder.HEADER_SIZE;
+        buffer.position(payloadOffset + payloadLength);
+        return true;
+    }
+
+    /** Method returns type of current frame, without COMPRESSED flag */
+    public byte type() {
+        return (byte) (type & ~FrameType.COMPRESSED);
+    }
+
+    /** Method returns true if payload of current frame is compressed */
+    public boolean isCompressed() {
+        return (type & FrameType.COMPRESSED) != 0;
+    }
+
+    /** Method returns sequence number of current frame */
+    public int sequence() {
+        return sequence;
+    }
+
+    /** Method returns length of current frame payload */
+    public int payloadLength() {
+        return payloadLength;
+    }
+
+    /** Method returns byte of payload at given index */
+    public byte payloadByte(int index) {
+        return buffer.get(payloadOffset + index);
+    }
+
+    /** Method returns big endian int of payload at given index */
+    public int payloadInt(int index) {
+        return buffer.getInt(payloadOffset + index);
+    }
+
+    /** Method copies part of payload, from given index to the end, into the array */
+    public void copyPayload(int from, byte[] target) {
+        payloadView(from).get(target, 0, payloadLength - from);
+    }
+
+    /**
+     * Method returns view of payload from given index to the end, it is valid until next frame is read.
+     * The same view object is returned for next frames of the same buffer, so reading costs no allocation.
+     */
+    public ByteBuffer payloadView(int from) {
+        if (viewSource != buffer) {
+            view = buffer.duplicate();
+            viewSource = buffer;
+        }
+        view.limit(payloadOffset + payloadLength).position(payloadOffset + from);
+        return view;
+    }
+
+    /** Method returns big endian long of payload at given index */
+    public long payloadLong(int index) {
+        return buffer.getLong(payloadOffset + index);
+    }
+
+    /** Method decodes payload from given index to the end as UTF-8 text */
+    public String payloadText(int from) {
+        return payloadText(from, payloadLength - from);
+    }
+
+    /** Method decodes given part of payload as UTF-8 text */
+    public String payloadText(int from, int length) {
+        int offset = payloadOffset + from;
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + offset, length, StandardCharsets.UTF_8);
+        }
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length).position(offset);
+        return StandardCharsets.UTF_8.decode(view).toString();
+    }
+
+    /** Method decodes whole payload as UTF-8 text */
+    public String payloadText() {
+        return payloadText(0);
+    }
+}
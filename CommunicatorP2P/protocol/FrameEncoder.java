@@ -0,0 +1,109 @@
+package CommunicatorP2P.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class encodes frames of the communicator protocol.
+ * Every frame looks like:
+ * <pre>
+ * int  length   - number of bytes after this field
+ * byte type     - one of FrameType constants
+ * int  sequence - number of frame in one direction of connection
+ * byte[] payload
+ * </pre>
+ * All numbers are big endian, text payload is UTF-8.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FrameDecoder
+ * @see FrameType
+ */
+public final class FrameEncoder {
+
+    /** Size of length field */
+    public static final int LENGTH_SIZE = 4;
+
+    /** Size of header counted by length field: type and sequence */
+    public static final int HEADER_SIZE = 1 + 4;
+
+    /** Max size of payload, bigger frames are treated as protocol error */
+    public static final int MAX_PAYLOAD_SIZE = 64 * 1024;
+
+    /** Max size of whole frame, together with length field */
+    public static final int MAX_FRAME_SIZE = LENGTH_SIZE + HEADER_SIZE + MAX_PAYLOAD_SIZE;
+
+    private FrameEncoder() {
+    }
+
+    /** Method encodes text frame into new buffer, ready for writing */
+    public static ByteBuffer encode(byte type, int sequence, String text) {
+        return encode(type, sequence, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Method encodes frame with given payload into new buffer, ready for writing */
+    public static ByteBuffer encode(byte type, int sequence, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(LENGTH_SIZE + HEADER_SIZE + payload.length);
+        encode(buffer, type, sequence, payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    /** Method returns number of bytes of text in UTF-8, unpaired surrogate is counted as replaced by '?' */
+    public static int utf8Length(CharSequence text) {
+        int length = 0;
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Method writes text in UTF-8 at position of the destination buffer, without temporary array.
+     * Unpaired surrogate is written as '?', like String.getBytes does.
+     */
+    public static void putUtf8(ByteBuffer destination, CharSequence text) {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                destination.put((byte) c);
+            } else if (c < 0x800) {
+                destination.put((byte) (0xC0 | c >> 6));
+                destination.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                destination.put((byte) (0xF0 | codePoint >> 18));
+                destination.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                destination.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                destination.put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                destination.put((byte) '?');
+            } else {
+                destination.put((byte) (0xE0 | c >> 12));
+                destination.put((byte) (0x80 | c >> 6 & 0x3F));
+                destination.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    /** Method writes frame at position of the destination buffer */
+    public static void encode(ByteBuffer destination, byte type, int sequence, byte[] payload) {
+        if (payload.length > MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Payload too long: " + payload.length);
+        }
+        destination.putInt(HEADER_SIZE + payload.length);
+        destination.put(type);
+        destination.putInt(sequence);
+        destination.put(payload);
+    }
+}
@@ -0,0 +1,106 @@
+package CommunicatorP2P.protocol;
+
+import CommunicatorP2P.metrics.Metrics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class is a pool of direct buffers for encoded frames, shared by all connections.
+ * Buffers have size classes from MIN_SIZE to the biggest frame, each class twice bigger than the previous one,
+ * and are handed out inside PooledFrame objects, which are reused together with them.
+ * So flow of messages allocates nothing once the pool is warm, and writing a direct buffer
+ * to socket needs no copy.
+ * <p>
+ * Free frames of a class are kept in an array guarded by lock of the class, so giving a frame back
+ * allocates no queue node. Every class keeps at most MAX_POOLED_BYTES of free buffers,
+ * frames above that are left for garbage collector.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see PooledFrame
+ * @see MessageCodec
+ */
+public final class FramePool {
+
+    /** Pool used by codecs of all connections */
+    public static final FramePool SHARED = new FramePool();
+
+    /** Size of the smallest buffer, it has place for usual chat message */
+    static final int MIN_SIZE = 256;
+
+    /** Max number of bytes in free buffers of one size class */
+    private static final int MAX_POOLED_BYTES = 1024 * 1024;
+
+    /** Free frames of every size class */
+    private final PooledFrame[][] free;
+
+    /** Number of free frames of every size class, guarded by lock of the class array */
+    private final int[] freeCount;
+
+    private FramePool() {
+        int classes = sizeClass(FrameEncoder.MAX_FRAME_SIZE) + 1;
+        this.free = new PooledFrame[classes][];
+        this.freeCount = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            free[i] = new PooledFrame[Math.max(16, MAX_POOLED_BYTES / classSize(i))];
+        }
+    }
+
+    /** Method returns index of the smallest size class which has place for given number of bytes */
+    private static int sizeClass(int size) {
+        if (size <= MIN_SIZE) { return 0; }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+    }
+
+    /** Method returns capacity of buffers of given size class */
+    private static int classSize(int sizeClass) {
+        return MIN_SIZE << sizeClass;
+    }
+
+    /**
+     * Method returns frame with cleared buffer of at least given capacity and one reference, which belongs to caller.
+     * @throws IllegalArgumentException if size is bigger than the biggest frame
+     */
+    public PooledFrame acquire(int size) {
+        if (size > FrameEncoder.MAX_FRAME_SIZE) { throw new IllegalArgumentException("Frame too long: " + size); }
+        int sizeClass = sizeClass(size);
+        PooledFrame[] frames = free[sizeClass];
+        PooledFrame frame = null;
+        synchronized (frames) {
+            int count = freeCount[sizeClass];
+            if (count > 0) {
+                frame = frames[--count];
+                frames[count] = null;
+                freeCount[sizeClass] = count;
+            }
+        }
+        if (frame == null) {
+            frame = new PooledFrame(this, sizeClass, ByteBuffer.allocateDirect(classSize(sizeClass)));
+            Metrics.FRAMES_ALLOCATED.increment();
+        }
+        frame.acquired();
+        return frame;
+    }
+
+    /** Called by frame released by its last owner */
+    void recycle(PooledFrame frame) {
+        int sizeClass = frame.sizeClass();
+        PooledFrame[] frames = free[sizeClass];
+        synchronized (frames) {
+            int count = freeCount[sizeClass];
+            if (count < frames.length) {
+                frames[count] = frame;
+                freeCount[sizeClass] = count + 1;
+            }
+        }
+    }
+
+    /** Method returns number of free frames in all size classes */
+    public int getFreeCount() {
+        int total = 0;
+        for (int i = 0; i < free.length; i++) {
+            synchronized (free[i]) { total += freeCount[i]; }
+        }
+        return total;
+    }
+}
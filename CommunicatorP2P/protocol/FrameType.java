@@ -0,0 +1,107 @@
+package CommunicatorP2P.protocol;
+
+/**
+ * This class contains types of frames used by the communicator protocol.
+ * Type is sent as one byte just after frame length.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FrameEncoder
+ * @see FrameDecoder
+ */
+public final class FrameType {
+
+    /** Handshake frame, payload is protocol version byte and nickName */
+    public static final byte HELLO = 1;
+
+    /** Chat message frame, payload is UTF-8 text, it may contain many lines */
+    public static final byte MESSAGE = 2;
+
+    /** Latency probe, payload is 8 bytes of sender System.nanoTime */
+    public static final byte PING = 3;
+
+    /** Answer for PING, payload is copied from PING */
+    public static final byte PONG = 4;
+
+    /** Subscription to room, payload is room name */
+    public static final byte JOIN = 5;
+
+    /** End of subscription to room, payload is room name */
+    public static final byte LEAVE = 6;
+
+    /** Message published in room, payload is described in RoomFrame */
+    public static final byte ROOM_MESSAGE = 7;
+
+    /** Cumulative acknowledgement, payload is int sequence of the last received message */
+    public static final byte ACK = 8;
+
+    /** Offer of file, payload is described in FileFrame */
+    public static final byte FILE_OFFER = 9;
+
+    /** Request of file bytes from given offset, it also confirms received file */
+    public static final byte FILE_ACCEPT = 10;
+
+    /** Part of file with its checksum */
+    public static final byte FILE_CHUNK = 11;
+
+    /** End of file transfer before it was finished, sent by any side */
+    public static final byte FILE_CANCEL = 12;
+
+    /** Message relayed from outbox of the host, payload is described in RelayFrame */
+    public static final byte RELAY = 13;
+
+    /** Confirmation of relayed messages, payload is long id of the last one received without gap */
+    public static final byte RELAY_ACK = 14;
+
+    /** Signal that user of the peer is typing, payload is empty */
+    public static final byte TYPING = 15;
+
+    /** Cumulative delivery and read receipt, payload is described in SignalFrame */
+    public static final byte RECEIPT = 16;
+
+    /** Flag added to type of frame with compressed payload, see MessageCodec */
+    public static final byte COMPRESSED = (byte) 0x80;
+
+    /** The last type known by this version of the protocol */
+    private static final byte LAST_TYPE = RECEIPT;
+
+    private FrameType() {
+    }
+
+    /** Method returns true if type belongs to file transfer */
+    public static boolean isFileTransfer(byte type) {
+        return type >= FILE_OFFER && type <= FILE_CANCEL;
+    }
+
+    /**
+     * Method returns true if frame is a control frame of newer version of the protocol, which can be skipped:
+     * its type is not known and it is not numbered, so peer doesn't wait for its acknowledgement.
+     */
+    public static boolean isUnknownControl(byte type, int sequence) {
+        return type > LAST_TYPE && sequence == 0;
+    }
+
+    /** Method returns name of the type, used only in logs */
+    public static String name(byte type) {
+        if ((type & COMPRESSED) != 0) { return name((byte) (type & ~COMPRESSED)) + "+COMPRESSED"; }
+        switch (type) {
+            case HELLO: return "HELLO";
+            case MESSAGE: return "MESSAGE";
+            case PING: return "PING";
+            case PONG: return "PONG";
+            case JOIN: return "JOIN";
+            case LEAVE: return "LEAVE";
+            case ROOM_MESSAGE: return "ROOM_MESSAGE";
+            case ACK: return "ACK";
+            case FILE_OFFER: return "FILE_OFFER";
+            case FILE_ACCEPT: return "FILE_ACCEPT";
+            case FILE_CHUNK: return "FILE_CHUNK";
+            case FILE_CANCEL: return "FILE_CANCEL";
+            case RELAY: return "RELAY";
+            case RELAY_ACK: return "RELAY_ACK";
+            case TYPING: return "TYPING";
+            case RECEIPT: return "RECEIPT";
+            default: return "UNKNOWN(" + type + ")";
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package CommunicatorP2P.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class creates and reads HELLO frames, which are exchanged just after connection.
+ * Guest sends HELLO first, host answers with its own. Payload looks like:
+ * <pre>
+ * byte   version
+ * byte   codecs       - bit mask of MessageCodec constants
+ * long   token        - token of resumed PeerSession, 0 for new one; host sends token of the session
+ * int    lastReceived - sequence of the last message received in this session
+ * byte[] nickName
+ * </pre>
+ * Both sides choose codec from the two masks in the same way, so no more frames are needed.
+ * HELLO comes from untrusted peer, so nickName is checked by Validation rules on raw bytes,
+ * before any text is created.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FrameType
+ */
+public final class Handshake {
+
+    /**
+     * Version of the protocol, peers with different version are disconnected.
+     * It changes with every new frame type, so no peer gets frame it doesn't know.
+     */
+    public static final byte PROTOCOL_VERSION = 8;
+
+    /** Size of payload before nickName */
+    private static final int HEADER_SIZE = 1 + 1 + 8 + 4;
+
+    private Handshake() {
+    }
+
+    /** Method encodes HELLO frame of new session */
+    public static ByteBuffer hello(String nickName) {
+        return hello(nickName, 0, 0);
+    }
+
+    /** Method encodes HELLO frame with given nickName, session state and all codecs supported by this side */
+    public static ByteBuffer hello(String nickName, long token, int lastReceived) {
+        byte[] nick = nickName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(HEADER_SIZE + nick.length);
+        payload.put(PROTOCOL_VERSION);
+        payload.put((byte) MessageCodec.SUPPORTED);
+        payload.putLong(token);
+        payload.putInt(lastReceived);
+        payload.put(nick);
+        return FrameEncoder.encode(FrameType.HELLO, 0, payload.array());
+    }
+
+    /**
+     * Method reads nickName from current frame of the decoder.
+     * It throws ProtocolException when frame is not HELLO, version is different or nickName is incorrect.
+     */
+    public static String readHello(FrameDecoder decoder) throws ProtocolException {
+        if (decoder.type() != FrameType.HELLO) {
+            throw new ProtocolException("Expected HELLO, got " + FrameType.name(decoder.type()));
+        }
+        if (decoder.payloadLength() < HEADER_SIZE + 1) {
+            throw new ProtocolException("Empty nickName");
+        }
+        byte version = decoder.payloadByte(0);
+        if (version != PROTOCOL_VERSION) {
+            throw new ProtocolException("Unsupported protocol version: " + version);
+        }
+        int nickLength = decoder.payloadLength() - HEADER_SIZE;
+        if (nickLength > Validation.MAX_NICK_LENGTH) {
+            throw new ProtocolException("NickName too long: " + nickLength);
+        }
+        for (int i = HEADER_SIZE; i < decoder.payloadLength(); i++) {
+            if (!Validation.isWordChar(decoder.payloadByte(i))) { throw new ProtocolException("Incorrect nickName"); }
+        }
+        return decoder.payloadText(HEADER_SIZE);
+    }
+
+    /** Method reads codecs mask from current HELLO frame, which was checked by readHello */
+    public static int readCodecs(FrameDecoder decoder) {
+        return decoder.payloadByte(1) & 0xFF;
+    }
+
+    /** Method reads session token from current HELLO frame, which was checked by readHello */
+    public static long readToken(FrameDecoder decoder) {
+        return decoder.payloadLong(2);
+    }
+
+    /** Method reads sequence of the last received message from current HELLO frame, which was checked by readHello */
+    public static int readLastReceived(FrameDecoder decoder) {
+        return decoder.payloadInt(10);
+    }
+}
@@ -0,0 +1,216 @@
+package CommunicatorP2P.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class encodes and decodes MESSAGE frames of one connection with codec chosen in handshake.
+ * Texts shorter than COMPRESSION_THRESHOLD and texts which don't get smaller are sent raw.
+ * Compressed frame has COMPRESSED flag in its type and payload:
+ * <pre>
+ * int    textLength - length of UTF-8 text after decompression
+ * byte[] deflated text, compressed with DICTIONARY
+ * </pre>
+ * Deflater, Inflater and their arrays are created at first long message and reused for
+ * next ones, so short chats never pay for them. Raw messages are encoded straight into
+ * pooled frames and decoded into reusable MessageText, so they cost no allocation. Encoding and decoding may run in two threads,
+ * but each of them has to be called by one thread at once.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see Handshake
+ * @see FrameType
+ */
+public class MessageCodec implements AutoCloseable {
+
+    /** Bit of Deflate codec with preset dictionary */
+    public static final int DEFLATE = 1;
+
+    /** Codecs supported by this program, compression can be disabled by -DcommunicatorP2P.compression=false */
+    public static final int SUPPORTED = "false".equals(System.getProperty("communicatorP2P.compression")) ? 0 : DEFLATE;
+
+    /** Texts shorter than this number of bytes are never compressed */
+    public static final int COMPRESSION_THRESHOLD = 256;
+
+    /**
+     * Preset dictionary of Deflate, it helps with first bytes of every message.
+     * It is a part of the protocol, any change needs new codec bit.
+     */
+    static final byte[] DICTIONARY = ("http://https://www. .com .org .pl the and that have for not with you this but "
+            + "from they will would there their what about which when make can like time just know take people into "
+            + "year your good some could them see other than then now look only come its over think also back after "
+            + "use two how our work first well way even new want because any these give day most us is are was were "
+            + "been has had do does did I'm don't it's Thanks! thank you Hi Hello, please message server connection "
+            + "error exception at java. null line file logs ").getBytes(StandardCharsets.US_ASCII);
+
+    /** Codec which never compresses, used before handshake and when peers have no common codec */
+    public static final MessageCodec RAW = new MessageCodec(0);
+
+    /** Chosen codec: 0 or DEFLATE */
+    private final int codec;
+
+    /** Compressor of this connection, created at first long message */
+    private Deflater deflater;
+
+    /** Output of compressor */
+    private byte[] deflated;
+
+    /** True when native memory was released, next messages are sent raw */
+    private boolean closed;
+
+    /** Decompressor of this connection, created at first compressed frame */
+    private Inflater inflater;
+
+    /** Compressed payload copied from the frame */
+    private byte[] inflaterInput;
+
+    /** Output of decompressor */
+    private byte[] inflated;
+
+    /** Buffer view of inflated array, used for decoding into MessageText */
+    private ByteBuffer inflatedView;
+
+    private MessageCodec(int codec) {
+        this.codec = codec;
+    }
+
+    /** Method returns codec for connection with peer which sent given codecs mask in HELLO */
+    public static MessageCodec negotiate(int peerCodecs) {
+        return (SUPPORTED & peerCodecs & DEFLATE) != 0 ? new MessageCodec(DEFLATE) : RAW;
+    }
+
+    /** Method returns true if long messages are compressed */
+    public boolean isCompressing() {
+        return codec == DEFLATE;
+    }
+
+    /**
+     * Method encodes MESSAGE frame into frame from FramePool, compressed if it is long enough.
+     * Caller owns the only reference of the frame.
+     * @throws IllegalArgumentException if text is longer than max payload
+     */
+    public PooledFrame encodeMessage(int sequence, CharSequence text) {
+        int textLength = FrameEncoder.utf8Length(text);
+        if (textLength > FrameEncoder.MAX_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Payload too long: " + textLength);
+        }
+        if (codec != DEFLATE || textLength < COMPRESSION_THRESHOLD) {
+            PooledFrame frame = FramePool.SHARED.acquire(FrameEncoder.LENGTH_SIZE + FrameEncoder.HEADER_SIZE + textLength);
+            ByteBuffer buffer = frame.buffer();
+            buffer.putInt(FrameEncoder.HEADER_SIZE + textLength);
+            buffer.put(FrameType.MESSAGE);
+            buffer.putInt(sequence);
+            FrameEncoder.putUtf8(buffer, text);
+            buffer.flip();
+            return frame;
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            int length = closed ? -1 : deflate(bytes);
+            boolean compressed = length >= 0;
+            int payloadLength = compressed ? 4 + length : bytes.length;
+            PooledFrame frame = FramePool.SHARED.acquire(FrameEncoder.LENGTH_SIZE + FrameEncoder.HEADER_SIZE + payloadLength);
+            ByteBuffer buffer = frame.buffer();
+            buffer.putInt(FrameEncoder.HEADER_SIZE + payloadLength);
+            buffer.put(compressed ? (byte) (FrameType.MESSAGE | FrameType.COMPRESSED) : FrameType.MESSAGE);
+            buffer.putInt(sequence);
+            if (compressed) {
+                buffer.putInt(bytes.length);
+                buffer.put(deflated, 0, length);
+            } else {
+                buffer.put(bytes);
+            }
+            buffer.flip();
+            return frame;
+        }
+    }
+
+    /** Method returns text of current MESSAGE frame of the decoder, decompressed if needed */
+    public String decodeText(FrameDecoder decoder) throws ProtocolException {
+        if (!decoder.isCompressed()) { return decoder.payloadText(); }
+        return new String(inflated, 0, inflate(decoder), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Method decodes text of current MESSAGE frame of the decoder into reusable target, decompressed if needed.
+     * It returns the target, which is valid until next message is decoded into it.
+     */
+    public MessageText decodeText(FrameDecoder decoder, MessageText target) throws ProtocolException {
+        if (!decoder.isCompressed()) {
+            target.decode(decoder.payloadView(0));
+            return target;
+        }
+        int textLength = inflate(decoder);
+        inflatedView.limit(textLength).position(0);
+        target.decode(inflatedView);
+        return target;
+    }
+
+    /** Method decompresses payload of current frame into inflated array, it returns length of the text */
+    private int inflate(FrameDecoder decoder) throws ProtocolException {
+        if (codec != DEFLATE) { throw new ProtocolException("Compressed frame, but compression was not negotiated"); }
+        if (decoder.payloadLength() < 4) { throw new ProtocolException("Compressed frame without text length"); }
+        int textLength = decoder.payloadInt(0);
+        if (textLength < 0 || textLength > FrameEncoder.MAX_PAYLOAD_SIZE) {
+            throw new ProtocolException("Incorrect text length: " + textLength);
+        }
+        if (inflater == null) {
+            inflater = new Inflater();
+            inflaterInput = new byte[FrameEncoder.MAX_PAYLOAD_SIZE];
+            inflated = new byte[FrameEncoder.MAX_PAYLOAD_SIZE];
+            inflatedView = ByteBuffer.wrap(inflated);
+        }
+        int inputLength = decoder.payloadLength() - 4;
+        decoder.copyPayload(4, inflaterInput);
+        inflater.reset();
+        inflater.setInput(inflaterInput, 0, inputLength);
+        try {
+            int length = 0;
+            while (length < textLength) {
+                int count = inflater.inflate(inflated, length, textLength - length);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        inflater.setDictionary(DICTIONARY);
+                    } else if (inflater.finished() || inflater.needsInput()) {
+                        throw new ProtocolException("Compressed text too short");
+                    }
+                }
+                length += count;
+            }
+        } catch (DataFormatException e) {
+            throw new ProtocolException("Incorrect compressed text: " + e.getMessage());
+        }
+        return textLength;
+    }
+
+    /** Method compresses bytes into deflated array, it returns -1 if result is not smaller */
+    private int deflate(byte[] bytes) {
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+            deflated = new byte[FrameEncoder.MAX_PAYLOAD_SIZE];
+        }
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(bytes);
+        deflater.finish();
+        // compressed text and its length have to be smaller than raw text
+        int limit = bytes.length - 4;
+        int length = 0;
+        while (!deflater.finished() && length < limit) {
+            length += deflater.deflate(deflated, length, limit - length);
+        }
+        return deflater.finished() ? length : -1;
+    }
+
+    /** Method releases native memory of compressor and decompressor */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (deflater != null) { deflater.end(); }
+        if (inflater != null) { inflater.end(); }
+    }
+}
@@ -0,0 +1,66 @@
+package CommunicatorP2P.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class is a reusable text of received message. Every connection decodes its messages into one object,
+ * so listener gets text without any allocation. Text is valid only until next message of the connection
+ * is decoded, listener which keeps it has to call toString.
+ * Incorrect UTF-8 bytes are replaced, like in String constructor.
+ * It is not thread safe, it is used by reading thread of one connection.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see MessageCodec
+ */
+public final class MessageText implements CharSequence {
+
+    /** Initial number of chars, enough for usual chat message */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /** Decoder of this text, reused for every message */
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /** Chars of current message, in read mode */
+    private CharBuffer chars = CharBuffer.allocate(INITIAL_CAPACITY).flip();
+
+    /** Method decodes UTF-8 bytes from position to limit of the buffer, replacing previous text */
+    void decode(ByteBuffer bytes) {
+        // UTF-8 never gives more chars than bytes
+        if (chars.capacity() < bytes.remaining()) {
+            chars = CharBuffer.allocate(Math.max(bytes.remaining(), chars.capacity() * 2));
+        }
+        chars.clear();
+        decoder.reset();
+        decoder.decode(bytes, chars, true);
+        decoder.flush(chars);
+        chars.flip();
+    }
+
+    @Override
+    public int length() {
+        return chars.limit();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return chars.get(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return chars.subSequence(start, end);
+    }
+
+    /** Method returns copy of the text, which stays valid after next message */
+    @Override
+    public String toString() {
+        return chars.toString();
+    }
+}
@@ -0,0 +1,292 @@
+package CommunicatorP2P.protocol;
+
+import CommunicatorP2P.metrics.Metrics;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.function.Predicate;
+
+/**
+ * This class is a state of conversation with one peer, which survives reconnections.
+ * It is identified by token issued by host in HELLO. Every message gets next sequence number
+ * and is kept in RetransmitBuffer until peer acknowledges it with cumulative ACK frame.
+ * After reconnection both sides send in HELLO sequence of the last message they received,
+ * so only the unacknowledged tail is replayed. Duplicates are recognized by sequence numbers.
+ * <p>
+ * Messages sent while session has no connection are only kept and are sent after reconnection.
+ * Capacity of RetransmitBuffer is a window: when it is full of unacknowledged messages, new ones are dropped.
+ * <p>
+ * Session also keeps receipts: sequences of the last delivered and the last read message are sent to peer
+ * in one RECEIPT frame, flushed RECEIPT_DELAY after the first change or together with next own message,
+ * so busy conversation costs one small frame per delay and not one per message.
+ * Message frames come from FramePool, RetransmitBuffer and outbound queue hold one reference each.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see RetransmitBuffer
+ * @see Handshake
+ */
+public class PeerSession {
+
+    /** Default number of kept unacknowledged messages */
+    public static final int DEFAULT_RETRANSMIT_CAPACITY = 256;
+
+    /** Receiver sends ACK after this number of messages */
+    public static final int ACK_INTERVAL = 16;
+
+    /** Delay of receipt after the first change, receipts of messages received meanwhile are coalesced, in milliseconds */
+    public static final long RECEIPT_DELAY = 200;
+
+    /** Size of ACK payload: one int */
+    private static final int ACK_PAYLOAD_SIZE = 4;
+
+    /** Nickname of the peer */
+    private final String nickName;
+
+    /** Messages not acknowledged by peer */
+    private final RetransmitBuffer unacknowledged;
+
+    /** Token of the session, 0 until host issues it */
+    private long token;
+
+    /** Sequence number of next sent message */
+    private int nextSequence = 1;
+
+    /** Sequence number of the last received message */
+    private int lastReceived;
+
+    /** Number of received messages since last ACK */
+    private int receivedSinceAck;
+
+    /** Sequence of the last received message seen by user */
+    private int lastRead;
+
+    /** Delivered sequence of the last sent receipt, -1 forces next receipt */
+    private int receiptDelivered;
+
+    /** Read sequence of the last sent receipt */
+    private int receiptRead;
+
+    /** True while flush of receipt is scheduled */
+    private boolean receiptScheduled;
+
+    /** Sequence of the last own message received by peer */
+    private int peerDelivered;
+
+    /** Sequence of the last own message seen by user of the peer */
+    private int peerRead;
+
+    /** Output of current connection, null when session has no connection */
+    private Predicate<PooledFrame> output;
+
+    /** Codec of current connection */
+    private MessageCodec codec = MessageCodec.RAW;
+
+    /** Time when session lost its connection, 0 when it has one */
+    private long detachedAt = System.currentTimeMillis();
+
+    public PeerSession(long token, String nickName) {
+        this(token, nickName, DEFAULT_RETRANSMIT_CAPACITY);
+    }
+
+    public PeerSession(long token, String nickName, int retransmitCapacity) {
+        this.token = token;
+        this.nickName = nickName;
+        this.unacknowledged = new RetransmitBuffer(retransmitCapacity);
+    }
+
+    public synchronized long getToken() {
+        return token;
+    }
+
+    public String getNickName() {
+        return nickName;
+    }
+
+    /** Method returns sequence number of the last received message */
+    public synchronized int getLastReceived() {
+        return lastReceived;
+    }
+
+    /** Method returns time when session lost connection, 0 if it is connected */
+    public synchronized long getDetachedAt() {
+        return detachedAt;
+    }
+
+    /**
+     * Method starts new session with token issued by host, which didn't know the old one.
+     * Incoming numbering starts again, outgoing continues, so kept messages are still replayed.
+     */
+    public synchronized void restart(long newToken) {
+        this.token = newToken;
+        this.lastReceived = 0;
+        this.receivedSinceAck = 0;
+        this.lastRead = 0;
+        this.receiptDelivered = 0;
+        this.receiptRead = 0;
+    }
+
+    /**
+     * Method connects session to new connection. Messages acknowledged by peer in HELLO are forgotten,
+     * the rest is replayed to the output before any new message.
+     * @param output queue of the connection, it takes over reference of the frame and returns false if it was dropped
+     * @param codec codec of the connection
+     * @param peerLastReceived sequence of the last message which peer received
+     */
+    public synchronized void attach(Predicate<PooledFrame> output, MessageCodec codec, int peerLastReceived) {
+        unacknowledged.acknowledge(peerLastReceived);
+        for (PooledFrame frame : unacknowledged.unacknowledged()) {
+            output.test(frame);
+        }
+        this.output = output;
+        this.codec = codec;
+        this.detachedAt = 0;
+        // read state is not in HELLO, so changes made without connection are sent at once
+        sendReceipt();
+    }
+
+    /** Method disconnects session from output, if it is still its current one */
+    public synchronized void detach(Predicate<PooledFrame> oldOutput) {
+        if (output != oldOutput) { return; }
+        output = null;
+        detachedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Method encodes message with next sequence number and keeps it until it is acknowledged.
+     * Sequence number is used only if connection took the frame, or if there is no connection,
+     * then message waits for reconnection. It returns false if message was dropped,
+     * because connection was congested or too many messages wait for acknowledgement.
+     */
+    public synchronized boolean send(CharSequence text) {
+        if (unacknowledged.isFull()) {
+            Metrics.MESSAGES_DROPPED.increment();
+            return false;
+        }
+        PooledFrame frame = codec.encodeMessage(nextSequence, text);
+        unacknowledged.add(nextSequence, frame);
+        if (output != null && !output.test(withReceipt(frame))) {
+            // receipt could be dropped together with the message
+            receiptDelivered = -1;
+            unacknowledged.removeLast();
+            Metrics.MESSAGES_DROPPED.increment();
+            return false;
+        }
+        if (output != null && Ping.isSampled(nextSequence - 1)) { output.test(Ping.ping()); }
+        nextSequence++;
+        Metrics.MESSAGES_OUT.increment();
+        return true;
+    }
+
+    /** Method checks sequence of received message, it returns false for duplicate, which should be ignored */
+    public synchronized boolean accept(int sequence) {
+        if (sequence <= lastReceived) { return false; }
+        lastReceived = sequence;
+        receivedSinceAck++;
+        return true;
+    }
+
+    /** Method returns pooled ACK frame if enough messages were received since last one, otherwise null */
+    public synchronized PooledFrame ackIfNeeded() {
+        if (receivedSinceAck < ACK_INTERVAL) { return null; }
+        receivedSinceAck = 0;
+        PooledFrame frame = FramePool.SHARED.acquire(FrameEncoder.LENGTH_SIZE + FrameEncoder.HEADER_SIZE + ACK_PAYLOAD_SIZE);
+        ByteBuffer buffer = frame.buffer();
+        buffer.putInt(FrameEncoder.HEADER_SIZE + ACK_PAYLOAD_SIZE);
+        buffer.put(FrameType.ACK);
+        buffer.putInt(0);
+        buffer.putInt(lastReceived);
+        buffer.flip();
+        return frame;
+    }
+
+    /** Method forgets messages acknowledged by current ACK frame of the decoder */
+    public synchronized void acknowledged(FrameDecoder decoder) throws ProtocolException {
+        if (decoder.payloadLength() != ACK_PAYLOAD_SIZE) {
+            throw new ProtocolException("Incorrect ACK length: " + decoder.payloadLength());
+        }
+        unacknowledged.acknowledge(decoder.payloadInt(0));
+    }
+
+    /** Method marks all received messages as seen by user. It returns true if caller has to schedule flushReceipt. */
+    public synchronized boolean markRead() {
+        lastRead = lastReceived;
+        return needsReceipt();
+    }
+
+    /**
+     * Method returns true if receipt changed and its flush is not scheduled yet,
+     * then caller schedules flushReceipt after RECEIPT_DELAY.
+     */
+    public synchronized boolean needsReceipt() {
+        if (receiptScheduled || !receiptChanged()) { return false; }
+        receiptScheduled = true;
+        return true;
+    }
+
+    /** Method sends receipt if it changed since the last one, it is called by timer */
+    public synchronized void flushReceipt() {
+        receiptScheduled = false;
+        if (output != null) { sendReceipt(); }
+    }
+
+    /**
+     * Method reads RECEIPT which is current frame of the decoder, delivered messages are forgotten like after ACK.
+     * It returns true if receipt confirms for the first time that the last sent message was delivered or read.
+     */
+    public synchronized boolean receipt(FrameDecoder decoder) throws ProtocolException {
+        int delivered = SignalFrame.readDelivered(decoder);
+        int read = SignalFrame.readRead(decoder);
+        unacknowledged.acknowledge(delivered);
+        int lastSent = nextSequence - 1;
+        boolean wasDelivered = peerDelivered >= lastSent;
+        boolean wasRead = peerRead >= lastSent;
+        peerDelivered = Math.max(peerDelivered, delivered);
+        peerRead = Math.max(peerRead, read);
+        if (lastSent == 0) { return false; }
+        return (!wasDelivered && peerDelivered >= lastSent) || (!wasRead && peerRead >= lastSent);
+    }
+
+    /** Method returns true if user of the peer saw the last sent message */
+    public synchronized boolean isLastSentRead() {
+        return nextSequence > 1 && peerRead >= nextSequence - 1;
+    }
+
+    private boolean receiptChanged() {
+        return receiptDelivered != lastReceived || receiptRead != lastRead;
+    }
+
+    /**
+     * Method returns frame which sends the message, waiting receipt is put in front of it in the same buffer,
+     * so message doesn't cost second write. Receipt which doesn't fit is sent as separate frame.
+     */
+    private PooledFrame withReceipt(PooledFrame message) {
+        if (!receiptChanged()) { return message.retain(); }
+        PooledFrame both = SignalFrame.receiptWith(lastReceived, lastRead, message);
+        if (both == null) {
+            sendReceipt();
+            return message.retain();
+        }
+        receiptDelivered = lastReceived;
+        receiptRead = lastRead;
+        return both;
+    }
+
+    /** Method sends receipt to the output if it changed, dropped receipt is sent again with next change */
+    private void sendReceipt() {
+        if (!receiptChanged()) { return; }
+        receiptDelivered = lastReceived;
+        receiptRead = lastRead;
+        if (!output.test(SignalFrame.receipt(lastReceived, lastRead))) { receiptDelivered = -1; }
+    }
+
+    /** Method returns number of messages waiting for acknowledgement */
+    public synchronized int getUnacknowledgedCount() {
+        return unacknowledged.size();
+    }
+
+    /** Method releases kept frames when session ends for good, messages which were not acknowledged are lost */
+    public synchronized void close() {
+        unacknowledged.clear();
+    }
+}
@@ -0,0 +1,60 @@
+package CommunicatorP2P.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class creates and reads PING and PONG frames, which measure round trip of the connection.
+ * PING carries System.nanoTime of the sender, other side sends it back in PONG, so only sender clock is used.
+ * PING is queued just after sampled message, so round trip contains time spent in outbound queues.
+ * Frames are taken from FramePool, so sampling allocates nothing.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FrameType
+ */
+public final class Ping {
+
+    /** Every message with number divisible by this value is followed by PING */
+    public static final int SAMPLE_INTERVAL = 64;
+
+    /** Size of payload: one long */
+    private static final int PAYLOAD_SIZE = 8;
+
+    private Ping() {
+    }
+
+    /** Method returns true if message with given number, counted from 0, should be followed by PING */
+    public static boolean isSampled(long messageNumber) {
+        return messageNumber % SAMPLE_INTERVAL == 0;
+    }
+
+    /** Method encodes PING frame with current time, caller owns the returned frame */
+    public static PooledFrame ping() {
+        return encode(FrameType.PING, System.nanoTime());
+    }
+
+    /** Method encodes PONG answer for PING which is current frame of the decoder, caller owns the returned frame */
+    public static PooledFrame pong(FrameDecoder decoder) throws ProtocolException {
+        return encode(FrameType.PONG, readTimestamp(decoder));
+    }
+
+    /** Method reads timestamp from current PING or PONG frame of the decoder */
+    public static long readTimestamp(FrameDecoder decoder) throws ProtocolException {
+        if (decoder.payloadLength() != PAYLOAD_SIZE) {
+            throw new ProtocolException("Incorrect " + FrameType.name(decoder.type()) + " length: " + decoder.payloadLength());
+        }
+        return decoder.payloadLong(0);
+    }
+
+    private static PooledFrame encode(byte type, long timestamp) {
+        PooledFrame frame = FramePool.SHARED.acquire(FrameEncoder.LENGTH_SIZE + FrameEncoder.HEADER_SIZE + PAYLOAD_SIZE);
+        ByteBuffer buffer = frame.buffer();
+        buffer.putInt(FrameEncoder.HEADER_SIZE + PAYLOAD_SIZE);
+        buffer.put(type);
+        buffer.putInt(0);
+        buffer.putLong(timestamp);
+        buffer.flip();
+        return frame;
+    }
+}
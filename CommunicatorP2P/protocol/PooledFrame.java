@@ -0,0 +1,111 @@
+package CommunicatorP2P.protocol;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is an encoded frame with reference count, it goes from encoder through outbound queue to writer.
+ * Frames taken from FramePool live in direct buffers, which are given back to the pool when the last
+ * owner releases them. Every owner - outbound queue, writer, RetransmitBuffer - holds one reference
+ * and calls release exactly once, so message costs no allocation after the pool is warm.
+ * <p>
+ * Frames which only wrap ordinary buffers, like control frames, are not counted and garbage collector frees them.
+ * View of a frame has its own position and holds one reference of the frame, so one frame can be written
+ * by many connections at once.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FramePool
+ * @see RetransmitBuffer
+ */
+public final class PooledFrame {
+
+    /** Pool of the frame, null if frame is not pooled */
+    private final FramePool pool;
+
+    /** Size class of the buffer in the pool */
+    private final int sizeClass;
+
+    /** Bytes of the frame, from position to limit */
+    private final ByteBuffer buffer;
+
+    /** Frame whose bytes this view shares, null if it is not a view */
+    private final PooledFrame parent;
+
+    /** Number of owners, frame goes back to the pool when it drops to 0 */
+    private final AtomicInteger references = new AtomicInteger();
+
+    PooledFrame(FramePool pool, int sizeClass, ByteBuffer buffer) {
+        this(pool, sizeClass, buffer, null);
+    }
+
+    private PooledFrame(FramePool pool, int sizeClass, ByteBuffer buffer, PooledFrame parent) {
+        this.pool = pool;
+        this.sizeClass = sizeClass;
+        this.buffer = buffer;
+        this.parent = parent;
+    }
+
+    /** Method returns frame which is not pooled, for frames encoded into ordinary buffers */
+    public static PooledFrame wrap(ByteBuffer frame) {
+        return new PooledFrame(null, -1, frame);
+    }
+
+    /** Method returns bytes of the frame, writing moves their position */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    int sizeClass() {
+        return sizeClass;
+    }
+
+    /** Method returns true if buffer goes back to the pool when frame is released */
+    public boolean isPooled() {
+        return pool != null;
+    }
+
+    /** Called by pool when frame is given to new owner */
+    void acquired() {
+        buffer.clear();
+        references.set(1);
+    }
+
+    /** Method adds owner of the frame, it returns this frame */
+    public PooledFrame retain() {
+        if (pool == null) { return this; }
+        int count;
+        do {
+            count = references.get();
+            if (count <= 0) { throw new IllegalStateException("Frame was already released"); }
+        } while (!references.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    /** Method removes owner of the frame, last owner gives buffer back to the pool. Frame must not be used after it. */
+    public void release() {
+        if (parent != null) {
+            parent.release();
+        } else if (pool != null) {
+            int count = references.decrementAndGet();
+            if (count == 0) {
+                pool.recycle(this);
+            } else if (count < 0) {
+                references.incrementAndGet();
+                throw new IllegalStateException("Frame was already released");
+            }
+        }
+    }
+
+    /**
+     * Method returns view of the whole frame with its own position, which holds one reference of this frame.
+     * It is used when frame is written again, or by many connections.
+     */
+    public PooledFrame retainedView() {
+        PooledFrame owner = parent != null ? parent : this;
+        owner.retain();
+        ByteBuffer view = buffer.duplicate();
+        view.rewind();
+        return new PooledFrame(null, -1, view, owner);
+    }
+}
@@ -0,0 +1,95 @@
+package CommunicatorP2P.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class creates and reads frames of messages relayed from outbox of the host. Payloads look like:
+ * <pre>
+ * RELAY:     long id | long previousId | long timestamp | byte flags | byte[] text
+ * RELAY_ACK: long id - all relayed messages up to this id were received
+ * </pre>
+ * Host streams waiting messages in windows of RELAY frames. Every frame carries id of the previous frame
+ * of the stream, so guest finds frame dropped on the way and confirms only messages received without gap.
+ * FIRST flag starts new stream, LAST flag ends the window and asks guest for RELAY_ACK.
+ * Ids grow, so guest ignores message which it already got, when host delivers it again after crash.
+ * Text is UTF-8. Relay frames are not numbered, their sequence is 0.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FrameType
+ * @see CommunicatorP2P.store.Outbox
+ */
+public final class RelayFrame {
+
+    /** Flag of the first frame of the stream */
+    public static final byte FIRST = 1;
+
+    /** Flag of the last frame of the window */
+    public static final byte LAST = 2;
+
+    /** Size of fields before text */
+    private static final int FIELDS_SIZE = 8 + 8 + 8 + 1;
+
+    /** Max size of text in bytes */
+    public static final int MAX_TEXT_SIZE = FrameEncoder.MAX_PAYLOAD_SIZE - FIELDS_SIZE;
+
+    private RelayFrame() {
+    }
+
+    /**
+     * Method encodes RELAY frame.
+     * @throws IllegalArgumentException if text is longer than MAX_TEXT_SIZE
+     */
+    public static ByteBuffer message(long id, long previousId, long timestamp, byte flags, String text) {
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        if (textBytes.length > MAX_TEXT_SIZE) { throw new IllegalArgumentException("Text too long: " + textBytes.length); }
+        ByteBuffer payload = ByteBuffer.allocate(FIELDS_SIZE + textBytes.length);
+        payload.putLong(id).putLong(previousId).putLong(timestamp).put(flags).put(textBytes);
+        return FrameEncoder.encode(FrameType.RELAY, 0, payload.array());
+    }
+
+    /** Method encodes RELAY_ACK frame */
+    public static ByteBuffer ack(long id) {
+        ByteBuffer payload = ByteBuffer.allocate(8);
+        payload.putLong(id);
+        return FrameEncoder.encode(FrameType.RELAY_ACK, 0, payload.array());
+    }
+
+    /** Method reads id from current RELAY or RELAY_ACK frame */
+    public static long readId(FrameDecoder decoder) throws ProtocolException {
+        checkLength(decoder, 8);
+        return decoder.payloadLong(0);
+    }
+
+    /** Method reads id of previous frame of the stream from current RELAY frame */
+    public static long readPreviousId(FrameDecoder decoder) throws ProtocolException {
+        checkLength(decoder, FIELDS_SIZE);
+        return decoder.payloadLong(8);
+    }
+
+    /** Method reads time when message was queued from current RELAY frame */
+    public static long readTimestamp(FrameDecoder decoder) throws ProtocolException {
+        checkLength(decoder, FIELDS_SIZE);
+        return decoder.payloadLong(16);
+    }
+
+    /** Method reads flags from current RELAY frame */
+    public static byte readFlags(FrameDecoder decoder) throws ProtocolException {
+        checkLength(decoder, FIELDS_SIZE);
+        return decoder.payloadByte(24);
+    }
+
+    /** Method reads text from current RELAY frame */
+    public static String readText(FrameDecoder decoder) throws ProtocolException {
+        checkLength(decoder, FIELDS_SIZE);
+        return decoder.payloadText(FIELDS_SIZE);
+    }
+
+    private static void checkLength(FrameDecoder decoder, int minimum) throws ProtocolException {
+        if (decoder.payloadLength() < minimum) {
+            throw new ProtocolException(FrameType.name(decoder.type()) + " too short: " + decoder.payloadLength());
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package CommunicatorP2P.protocol;
+
+/**
+ * This class is the guest side of relay stream of one host. It checks that RELAY frames come without gap
+ * and remembers the biggest received id, so message delivered again is recognized.
+ * It keeps its state between connections, so messages delivered again after reconnection are ignored too.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see RelayFrame
+ */
+public final class RelayReceiver {
+
+    /** Id of the last message of current stream received without gap */
+    private long chain;
+
+    /** The biggest id of received message */
+    private long lastId;
+
+    /** Method checks RELAY frame, it returns true if message is new and should be shown */
+    public synchronized boolean accept(long id, long previousId, byte flags) {
+        if ((flags & RelayFrame.FIRST) != 0) { chain = previousId; }
+        // frame after gap is ignored, host sends it again
+        if (previousId != chain) { return false; }
+        chain = id;
+        if (id <= lastId) { return false; }
+        lastId = id;
+        return true;
+    }
+
+    /** Method returns id which guest confirms: the last message of current stream received without gap */
+    public synchronized long getAcknowledged() {
+        return chain;
+    }
+}
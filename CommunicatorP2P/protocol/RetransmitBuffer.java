@@ -0,0 +1,85 @@
+package CommunicatorP2P.protocol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a bounded ring of sent message frames which were not yet acknowledged by peer.
+ * Ring holds one reference of every kept frame, the same frame is given to outbound queue,
+ * so keeping it costs no copy. Acknowledged frames are released and may go back to FramePool.
+ * Owner must not add frames to full ring, so no unacknowledged frame is ever forgotten.
+ * It is not thread safe, PeerSession guards it.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see PeerSession
+ */
+public class RetransmitBuffer {
+
+    /** Sequence numbers of kept frames */
+    private final int[] sequences;
+
+    /** Kept frames, in the same order */
+    private final PooledFrame[] frames;
+
+    /** Index of the oldest frame */
+    private int head;
+
+    /** Number of kept frames */
+    private int size;
+
+    public RetransmitBuffer(int capacity) {
+        this.sequences = new int[capacity];
+        this.frames = new PooledFrame[capacity];
+    }
+
+    /** Method keeps frame with given sequence number, ring takes over one reference of the frame */
+    public void add(int sequence, PooledFrame frame) {
+        if (size == frames.length) { throw new IllegalStateException("Retransmit buffer is full"); }
+        int tail = (head + size) % frames.length;
+        sequences[tail] = sequence;
+        frames[tail] = frame;
+        size++;
+    }
+
+    /** Method forgets the newest frame, it is used when frame couldn't be queued */
+    public void removeLast() {
+        if (size == 0) { return; }
+        int tail = (head + size - 1) % frames.length;
+        frames[tail].release();
+        frames[tail] = null;
+        size--;
+    }
+
+    /** Method forgets all frames with sequence number up to given one */
+    public void acknowledge(int sequence) {
+        while (size > 0 && sequences[head] <= sequence) {
+            frames[head].release();
+            frames[head] = null;
+            head = (head + 1) % frames.length;
+            size--;
+        }
+    }
+
+    /** Method returns new views of all kept frames, oldest first, caller owns their references */
+    public List<PooledFrame> unacknowledged() {
+        List<PooledFrame> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            result.add(frames[(head + i) % frames.length].retainedView());
+        }
+        return result;
+    }
+
+    /** Method forgets all frames, it is used when session is not needed any more */
+    public void clear() {
+        acknowledge(Integer.MAX_VALUE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == frames.length;
+    }
+}
@@ -0,0 +1,106 @@
+package CommunicatorP2P.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class creates and reads frames of rooms: JOIN, LEAVE and ROOM_MESSAGE.
+ * JOIN and LEAVE payload is room name. ROOM_MESSAGE payload looks like:
+ * <pre>
+ * byte   roomLength
+ * byte[] room
+ * byte   senderLength - 0 in frames sent by guest, server puts there nickName of the author
+ * byte[] sender
+ * byte[] text
+ * </pre>
+ * All texts are UTF-8. Room frames are not numbered, their sequence is 0.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FrameType
+ */
+public final class RoomFrame {
+
+    /** Max size of room name and sender nickName in bytes */
+    public static final int MAX_NAME_SIZE = 255;
+
+    private RoomFrame() {
+    }
+
+    /** Method encodes JOIN frame */
+    public static ByteBuffer join(String room) {
+        return FrameEncoder.encode(FrameType.JOIN, 0, name(room));
+    }
+
+    /** Method encodes LEAVE frame */
+    public static ByteBuffer leave(String room) {
+        return FrameEncoder.encode(FrameType.LEAVE, 0, name(room));
+    }
+
+    /** Method encodes ROOM_MESSAGE frame, sender is empty in frames sent by guest */
+    public static ByteBuffer message(String room, String sender, String text) {
+        byte[] roomBytes = name(room);
+        byte[] senderBytes = name(sender);
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[2 + roomBytes.length + senderBytes.length + textBytes.length];
+        int position = put(payload, 0, roomBytes);
+        position = put(payload, position, senderBytes);
+        System.arraycopy(textBytes, 0, payload, position, textBytes.length);
+        return FrameEncoder.encode(FrameType.ROOM_MESSAGE, 0, payload);
+    }
+
+    /** Method reads room name from current JOIN, LEAVE or ROOM_MESSAGE frame */
+    public static String readRoom(FrameDecoder decoder) throws ProtocolException {
+        if (decoder.type() == FrameType.ROOM_MESSAGE) {
+            return decoder.payloadText(1, nameLength(decoder, 0));
+        }
+        if (decoder.payloadLength() == 0 || decoder.payloadLength() > MAX_NAME_SIZE) {
+            throw new ProtocolException("Incorrect room name length: " + decoder.payloadLength());
+        }
+        return decoder.payloadText();
+    }
+
+    /** Method reads sender nickName from current ROOM_MESSAGE frame */
+    public static String readSender(FrameDecoder decoder) throws ProtocolException {
+        int senderIndex = 1 + nameLength(decoder, 0);
+        return decoder.payloadText(senderIndex + 1, nameLength(decoder, senderIndex));
+    }
+
+    /** Method reads text from current ROOM_MESSAGE frame */
+    public static String readText(FrameDecoder decoder) throws ProtocolException {
+        int senderIndex = 1 + nameLength(decoder, 0);
+        return decoder.payloadText(senderIndex + 1 + nameLength(decoder, senderIndex));
+    }
+
+    /**
+     * Method checks that current ROOM_MESSAGE frame of guest still fits in frame when host passes it on
+     * with sender nickName instead of sender sent by guest. Otherwise it throws ProtocolException.
+     */
+    public static void checkForwardSize(FrameDecoder decoder, String sender) throws ProtocolException {
+        int senderIndex = 1 + nameLength(decoder, 0);
+        int size = decoder.payloadLength() - nameLength(decoder, senderIndex) + name(sender).length;
+        if (size > FrameEncoder.MAX_PAYLOAD_SIZE) { throw new ProtocolException("Room message too long: " + size); }
+    }
+
+    /** Method reads length of name at given index and checks that name fits in payload */
+    private static int nameLength(FrameDecoder decoder, int index) throws ProtocolException {
+        if (index >= decoder.payloadLength()) { throw new ProtocolException("Room frame too short"); }
+        int length = decoder.payloadByte(index) & 0xFF;
+        if (index + 1 + length > decoder.payloadLength()) { throw new ProtocolException("Room frame too short"); }
+        return length;
+    }
+
+    private static byte[] name(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_NAME_SIZE) { throw new IllegalArgumentException("Name too long: " + name); }
+        return bytes;
+    }
+
+    /** Method puts length and bytes of name, it returns index after them */
+    private static int put(byte[] payload, int position, byte[] name) {
+        payload[position] = (byte) name.length;
+        System.arraycopy(name, 0, payload, position + 1, name.length);
+        return position + 1 + name.length;
+    }
+}
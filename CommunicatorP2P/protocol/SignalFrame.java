@@ -0,0 +1,94 @@
+package CommunicatorP2P.protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class creates and reads control frames which tell sender what happens with its messages:
+ * <pre>
+ * TYPING:  empty payload - user of the peer is typing, indicator lasts few seconds or until next message
+ * RECEIPT: int delivered | int read - sequences of the last message received and the last one seen by user
+ * </pre>
+ * Receipt is cumulative, one frame covers all messages up to given sequences, so it is sent after a short delay
+ * for many messages at once, or just before next own message in the same write. Typing is sent at most once
+ * per few seconds while user is typing. Both frames are not numbered, their sequence is 0.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see FrameType
+ * @see PeerSession
+ */
+public final class SignalFrame {
+
+    /** Size of RECEIPT payload: two ints */
+    private static final int RECEIPT_PAYLOAD_SIZE = 8;
+
+    /** Size of whole RECEIPT frame, together with length field */
+    private static final int RECEIPT_FRAME_SIZE = FrameEncoder.LENGTH_SIZE + FrameEncoder.HEADER_SIZE + RECEIPT_PAYLOAD_SIZE;
+
+    private SignalFrame() {
+    }
+
+    /** Method encodes TYPING frame */
+    public static ByteBuffer typing() {
+        ByteBuffer buffer = ByteBuffer.allocate(FrameEncoder.LENGTH_SIZE + FrameEncoder.HEADER_SIZE);
+        buffer.putInt(FrameEncoder.HEADER_SIZE);
+        buffer.put(FrameType.TYPING);
+        buffer.putInt(0);
+        buffer.flip();
+        return buffer;
+    }
+
+    /** Method encodes RECEIPT frame in pooled buffer */
+    static PooledFrame receipt(int delivered, int read) {
+        PooledFrame frame = FramePool.SHARED.acquire(RECEIPT_FRAME_SIZE);
+        ByteBuffer buffer = frame.buffer();
+        putReceipt(buffer, delivered, read);
+        buffer.flip();
+        return frame;
+    }
+
+    /**
+     * Method encodes RECEIPT frame followed by bytes of encoded message in one pooled buffer, so both go
+     * in one write. It returns null if they don't fit in one buffer. Message frame is not released.
+     */
+    static PooledFrame receiptWith(int delivered, int read, PooledFrame message) {
+        ByteBuffer messageBytes = message.buffer();
+        if (RECEIPT_FRAME_SIZE + messageBytes.remaining() > FrameEncoder.MAX_FRAME_SIZE) { return null; }
+        PooledFrame frame = FramePool.SHARED.acquire(RECEIPT_FRAME_SIZE + messageBytes.remaining());
+        ByteBuffer buffer = frame.buffer();
+        putReceipt(buffer, delivered, read);
+        // message was not given to any output yet, so its position can be moved back instead of copying buffer object
+        int position = messageBytes.position();
+        buffer.put(messageBytes);
+        messageBytes.position(position);
+        buffer.flip();
+        return frame;
+    }
+
+    private static void putReceipt(ByteBuffer buffer, int delivered, int read) {
+        buffer.putInt(FrameEncoder.HEADER_SIZE + RECEIPT_PAYLOAD_SIZE);
+        buffer.put(FrameType.RECEIPT);
+        buffer.putInt(0);
+        buffer.putInt(delivered);
+        buffer.putInt(read);
+    }
+
+    /** Method reads sequence of the last delivered message from current RECEIPT frame */
+    public static int readDelivered(FrameDecoder decoder) throws ProtocolException {
+        checkReceipt(decoder);
+        return decoder.payloadInt(0);
+    }
+
+    /** Method reads sequence of the last read message from current RECEIPT frame */
+    public static int readRead(FrameDecoder decoder) throws ProtocolException {
+        checkReceipt(decoder);
+        return decoder.payloadInt(4);
+    }
+
+    private static void checkReceipt(FrameDecoder decoder) throws ProtocolException {
+        if (decoder.payloadLength() != RECEIPT_PAYLOAD_SIZE) {
+            throw new ProtocolException("Incorrect RECEIPT length: " + decoder.payloadLength());
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package CommunicatorP2P.protocol;
+
+/**
+ * This class checks data entered by user before connection and data sent by peers in handshake.
+ * It has no GUI dependencies, so the same rules are used by windows, headless programs and the server.
+ * Checks are hand written parsers over CharSequence, they never allocate, so host can check
+ * every HELLO at accept rate and user input can be checked at every key press.
+ * <p>
+ * Host of the guest may be IPv4 address, IPv6 address, in brackets or not, or host name,
+ * which is resolved later by HostResolver.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see Handshake
+ * @see CommunicatorP2P.net.HostResolver
+ */
+public final class Validation {
+
+    /** Max length of nickName */
+    public static final int MAX_NICK_LENGTH = 10;
+
+    /** Max length of room name */
+    public static final int MAX_ROOM_LENGTH = 32;
+
+    /** Max length of host name, without trailing dot */
+    private static final int MAX_HOST_NAME_LENGTH = 253;
+
+    /** Max length of one label of host name */
+    private static final int MAX_LABEL_LENGTH = 63;
+
+    /** Ports below this one are system ports, host can't listen on them */
+    private static final int FIRST_USER_PORT = 1024;
+
+    /** The biggest port number */
+    private static final int MAX_PORT = 65535;
+
+    private Validation() {
+    }
+
+    /** Method checks host entered by guest: IPv4 address, IPv6 address or host name like "localhost" */
+    public static boolean isValidHost(CharSequence host) {
+        return isValidIpv4(host) || isValidIpv6(host) || isValidHostName(host);
+    }
+
+    /** Method checks IP address of the host, IPv4 or IPv6 */
+    public static boolean isValidIp(CharSequence ip) {
+        return isValidIpv4(ip) || isValidIpv6(ip);
+    }
+
+    /** Method checks dotted IPv4 address, like 192.168.0.1, without leading zeros */
+    public static boolean isValidIpv4(CharSequence ip) {
+        return ipv4End(ip, 0, ip.length()) == ip.length();
+    }
+
+    /**
+     * Method checks IPv6 address, like ::1 or fe80::1%eth0. Address may be in brackets,
+     * may have zone after '%' and may end with IPv4 address.
+     */
+    public static boolean isValidIpv6(CharSequence ip) {
+        int start = 0;
+        int end = ip.length();
+        if (end > 0 && ip.charAt(0) == '[') {
+            if (ip.charAt(end - 1) != ']') { return false; }
+            start = 1;
+            end--;
+        }
+        for (int i = start; i < end; i++) {
+            if (ip.charAt(i) == '%') {
+                if (!isZone(ip, i + 1, end)) { return false; }
+                end = i;
+                break;
+            }
+        }
+        if (end - start < 2) { return false; }
+        int groups = 0;
+        boolean compressed = false;
+        int i = start;
+        if (ip.charAt(i) == ':') {
+            // address may start only with "::"
+            if (ip.charAt(i + 1) != ':') { return false; }
+            compressed = true;
+            i += 2;
+        }
+        while (i < end) {
+            int groupEnd = i;
+            while (groupEnd < end && groupEnd - i < 5 && isHexDigit(ip.charAt(groupEnd))) { groupEnd++; }
+            if (groupEnd < end && ip.charAt(groupEnd) == '.') {
+                // IPv4 tail takes place of two groups
+                if (ipv4End(ip, i, end) != end) { return false; }
+                groups += 2;
+                break;
+            }
+            if (groupEnd == i || groupEnd - i > 4) { return false; }
+            groups++;
+            if (groupEnd == end) { break; }
+            if (ip.charAt(groupEnd) != ':') { return false; }
+            i = groupEnd + 1;
+            if (i < end && ip.charAt(i) == ':') {
+                if (compressed) { return false; }
+                compressed = true;
+                i++;
+            } else if (i == end) {
+                // single colon at the end
+                return false;
+            }
+        }
+        return compressed ? groups <= 7 : groups == 8;
+    }
+
+    /**
+     * Method checks host name: labels of letters, digits and dashes separated by dots, which don't start
+     * or end with dash. The last label can't be only digits, so wrong IPv4 address is not a host name.
+     */
+    public static boolean isValidHostName(CharSequence host) {
+        int end = host.length();
+        if (end > 0 && host.charAt(end - 1) == '.') { end--; }
+        if (end == 0 || end > MAX_HOST_NAME_LENGTH) { return false; }
+        int labelStart = 0;
+        boolean digitsOnly = true;
+        for (int i = 0; i <= end; i++) {
+            char c = i < end ? host.charAt(i) : '.';
+            if (c == '.') {
+                int length = i - labelStart;
+                if (length == 0 || length > MAX_LABEL_LENGTH) { return false; }
+                if (host.charAt(labelStart) == '-' || host.charAt(i - 1) == '-') { return false; }
+                if (i == end && digitsOnly) { return false; }
+                labelStart = i + 1;
+                digitsOnly = true;
+            } else if (isAsciiLetter(c) || c == '-') {
+                digitsOnly = false;
+            } else if (!isDigit(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Method returns port number from 1 to 65535, or -1 if text is not such number */
+    public static int parsePort(CharSequence port) {
+        int length = port.length();
+        if (length == 0 || length > 5) { return -1; }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = port.charAt(i);
+            if (!isDigit(c)) { return -1; }
+            value = value * 10 + (c - '0');
+        }
+        return value >= 1 && value <= MAX_PORT ? value : -1;
+    }
+
+    /** Method checks port number entered by guest, from 1 to 65535 */
+    public static boolean isValidPort(CharSequence port) {
+        return parsePort(port) > 0;
+    }
+
+    /** Method checks port number on which host listens, it can't be system port */
+    public static boolean isValidServerPort(CharSequence port) {
+        return parsePort(port) >= FIRST_USER_PORT;
+    }
+
+    /** Method checks nickName: 1 to MAX_NICK_LENGTH letters, digits or underscores */
+    public static boolean isValidNick(CharSequence nick) {
+        int length = nick.length();
+        if (length == 0 || length > MAX_NICK_LENGTH) { return false; }
+        for (int i = 0; i < length; i++) {
+            if (!isWordChar(nick.charAt(i))) { return false; }
+        }
+        return true;
+    }
+
+    /** Method checks name of the room: 1 to MAX_ROOM_LENGTH letters, digits, underscores or dashes */
+    public static boolean isValidRoom(CharSequence room) {
+        int length = room.length();
+        if (length == 0 || length > MAX_ROOM_LENGTH) { return false; }
+        for (int i = 0; i < length; i++) {
+            char c = room.charAt(i);
+            if (!isWordChar(c) && c != '-') { return false; }
+        }
+        return true;
+    }
+
+    /** Method returns true for char allowed in nickName, it may be also a byte of UTF-8 text */
+    public static boolean isWordChar(int c) {
+        return isAsciiLetter(c) || isDigit(c) || c == '_';
+    }
+
+    /** Method returns index after IPv4 address which starts at given index, or -1 if there is no such address */
+    private static int ipv4End(CharSequence ip, int start, int end) {
+        int i = start;
+        for (int part = 0; part < 4; part++) {
+            if (part > 0) {
+                if (i >= end || ip.charAt(i) != '.') { return -1; }
+                i++;
+            }
+            int partStart = i;
+            int value = 0;
+            while (i < end && i - partStart < 3 && isDigit(ip.charAt(i))) {
+                value = value * 10 + (ip.charAt(i) - '0');
+                i++;
+            }
+            int length = i - partStart;
+            if (length == 0 || value > 255 || (length > 1 && ip.charAt(partStart) == '0')) { return -1; }
+        }
+        return i;
+    }
+
+    /** Method checks zone of IPv6 address, like eth0 or 3 */
+    private static boolean isZone(CharSequence ip, int start, int end) {
+        if (start >= end) { return false; }
+        for (int i = start; i < end; i++) {
+            char c = ip.charAt(i);
+            if (!isWordChar(c) && c != '-' && c != '.') { return false; }
+        }
+        return true;
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(int c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static boolean isAsciiLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,144 @@
+package CommunicatorP2P.store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * This class writes messages to another HistoryStore on its own thread.
+ * Appending only puts message into a queue and returns index it will get,
+ * so neither network threads nor FX thread wait for the disk.
+ * Reading of messages which are not written yet waits until writer thread reaches them.
+ * When writing fails, next messages would get other indexes in the store than these returned by append,
+ * so writer stops and history ends at the last written message: waiting readers, reading of later
+ * messages and next appends fail with IOException caused by the first error.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see HistoryStore
+ * @see MessageLog
+ */
+public class AsyncHistoryStore implements HistoryStore {
+
+    /** Max number of messages written in one batch */
+    private static final int BATCH_SIZE = 256;
+
+    /** Marker which stops writer thread */
+    private static final ChatMessage END = ChatMessage.info("");
+
+    /** Store where messages are written */
+    private final HistoryStore store;
+
+    /** Messages waiting for writing */
+    private final BlockingQueue<ChatMessage> pending = new LinkedBlockingQueue<>();
+
+    /** Writer thread */
+    private final Thread writer;
+
+    /** Number of appended messages, also these which are not written yet */
+    private long size;
+
+    /** Number of written messages, guarded by this */
+    private long written;
+
+    /** First error of writing, null if all messages were written, guarded by this */
+    private IOException failure;
+
+    public AsyncHistoryStore(HistoryStore store, String name) {
+        this.store = store;
+        this.size = store.size();
+        this.written = size;
+        this.writer = new Thread(this::writeLoop, name + "-history-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public synchronized long append(ChatMessage message) throws IOException {
+        if (failure != null) { throw new IOException("History writing failed", failure); }
+        pending.add(message);
+        return size++;
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public long firstIndex() {
+        return store.firstIndex();
+    }
+
+    @Override
+    public List<ChatMessage> read(long from, int count) throws IOException {
+        long to = from + count;
+        synchronized (this) {
+            to = Math.min(to, size);
+            try {
+                while (written < to && failure == null) { wait(); }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for history");
+            }
+            if (written < to) { throw new IOException("History writing failed at message " + written, failure); }
+        }
+        return store.read(from, (int) Math.max(0, to - from));
+    }
+
+    /** Method writes all queued messages and closes the store */
+    @Override
+    public void close() throws IOException {
+        pending.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        store.close();
+    }
+
+    /**
+     * Writer thread loop, it writes messages in batches. Only written messages are counted,
+     * after the first error queued messages are dropped until the store is closed.
+     */
+    private void writeLoop() {
+        List<ChatMessage> batch = new ArrayList<>(BATCH_SIZE);
+        IOException error = null;
+        try {
+            while (true) {
+                batch.add(pending.take());
+                pending.drainTo(batch, BATCH_SIZE - 1);
+                int count = 0;
+                boolean end = false;
+                for (ChatMessage message : batch) {
+                    if (message == END) {
+                        end = true;
+                        break;
+                    }
+                    if (error != null) { continue; }
+                    try {
+                        store.append(message);
+                        count++;
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+                synchronized (this) {
+                    written += count;
+                    if (error != null && failure == null) {
+                        failure = error;
+                        size = written;
+                    }
+                    notifyAll();
+                }
+                if (end) { return; }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            System.out.println("History writer interrupted");
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package CommunicatorP2P.store;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class is one entry of chat history: message of some user or information of the program.
+ * Objects are immutable, so they can be shared between threads, views and stores.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see MessageRing
+ * @see HistoryStore
+ */
+public final class ChatMessage {
+
+    /** Time of arrival in milliseconds since epoch */
+    private final long timestamp;
+
+    /** NickName of the author, null for information of the program */
+    private final String sender;
+
+    /** Text of the message, it may contain many lines */
+    private final String text;
+
+    public ChatMessage(long timestamp, String sender, String text) {
+        this.timestamp = timestamp;
+        this.sender = sender;
+        this.text = text;
+    }
+
+    /** Method creates message of given user with current time */
+    public static ChatMessage of(String sender, String text) {
+        return new ChatMessage(System.currentTimeMillis(), sender, text);
+    }
+
+    /** Method creates information of the program with current time */
+    public static ChatMessage info(String text) {
+        return new ChatMessage(System.currentTimeMillis(), null, text);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /** Method returns author nickName or null for information of the program */
+    public String getSender() {
+        return sender;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /** Method returns true for information of the program */
+    public boolean isInfo() {
+        return sender == null;
+    }
+
+    /**
+     * Method writes message at position of the buffer:
+     * long timestamp, int sender length (-1 for info), sender, int text length, text.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putLong(timestamp);
+        if (sender == null) {
+            buffer.putInt(-1);
+        } else {
+            byte[] senderBytes = sender.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(senderBytes.length);
+            buffer.put(senderBytes);
+        }
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(textBytes.length);
+        buffer.put(textBytes);
+    }
+
+    /** Method returns number of bytes written by writeTo method */
+    public int encodedSize() {
+        int size = 8 + 4 + 4 + utf8Length(text);
+        if (sender != null) { size += utf8Length(sender); }
+        return size;
+    }
+
+    /** Method reads message written by writeTo method from position of the buffer */
+    public static ChatMessage readFrom(ByteBuffer buffer) {
+        long timestamp = buffer.getLong();
+        int senderLength = buffer.getInt();
+        String sender = senderLength < 0 ? null : readString(buffer, senderLength);
+        String text = readString(buffer, buffer.getInt());
+        return new ChatMessage(timestamp, sender, text);
+    }
+
+    /** Method reads UTF-8 string of given length from position of the buffer */
+    private static String readString(ByteBuffer buffer, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Method counts UTF-8 bytes of the text without encoding it */
+    private static int utf8Length(String text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return sender == null ? text : sender + ": " + text;
+    }
+}
@@ -0,0 +1,32 @@
+package CommunicatorP2P.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * This interface is implemented by places where whole chat history is kept.
+ * Messages are numbered from 0 in order of appending, so views can read any page of them.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see ChatMessage
+ * @see TranscriptFile
+ * @see MessageLog
+ */
+public interface HistoryStore extends Closeable {
+
+    /** Method appends message at the end of history and returns its index */
+    long append(ChatMessage message) throws IOException;
+
+    /** Method returns number of messages in history, also these removed by compaction */
+    long size();
+
+    /** Method returns index of the oldest message which can be read */
+    default long firstIndex() {
+        return 0;
+    }
+
+    /** Method reads at most count messages starting from given index */
+    List<ChatMessage> read(long from, int count) throws IOException;
+}
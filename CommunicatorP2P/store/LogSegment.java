@@ -0,0 +1,211 @@
+package CommunicatorP2P.store;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * This class is one segment of the MessageLog: a memory-mapped log file and its offset index.
+ * Log file contains entries: int length and ChatMessage encoded by writeTo method.
+ * Index file contains int (offset + 1) of every entry, 0 marks the end of written entries.
+ * Files are mapped only when segment is used, so opening big history is cheap.
+ * It is not thread safe, MessageLog synchronizes access.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see MessageLog
+ */
+class LogSegment {
+
+    /** Suffix of log file */
+    static final String LOG_SUFFIX = ".log";
+
+    /** Suffix of index file */
+    static final String INDEX_SUFFIX = ".idx";
+
+    /** Smallest possible entry, it is used to count size of index file */
+    private static final int MIN_ENTRY_SIZE = 4 + 8 + 4 + 4;
+
+    /** Index in the whole log of the first entry of this segment */
+    private final long baseIndex;
+
+    /** Path of log file */
+    private final Path logPath;
+
+    /** Path of index file */
+    private final Path indexPath;
+
+    /** Size of log file */
+    private final int size;
+
+    /** Mapped log file, null if segment is not mapped */
+    private MappedByteBuffer log;
+
+    /** Mapped index file, null if segment is not mapped */
+    private MappedByteBuffer index;
+
+    /** Number of entries, -1 until it is counted */
+    private int count = -1;
+
+    /** Offset where next entry is written */
+    private int writePosition;
+
+    private LogSegment(Path directory, long baseIndex, int size) {
+        this.baseIndex = baseIndex;
+        this.logPath = directory.resolve(fileName(baseIndex) + LOG_SUFFIX);
+        this.indexPath = directory.resolve(fileName(baseIndex) + INDEX_SUFFIX);
+        this.size = size;
+    }
+
+    /** Method creates new empty segment files */
+    static LogSegment create(Path directory, long baseIndex, int size) throws IOException {
+        LogSegment segment = new LogSegment(directory, baseIndex, size);
+        segment.map(true);
+        segment.count = 0;
+        return segment;
+    }
+
+    /** Method returns segment of existing files, files are not mapped yet */
+    static LogSegment existing(Path directory, long baseIndex) throws IOException {
+        Path logPath = directory.resolve(fileName(baseIndex) + LOG_SUFFIX);
+        return new LogSegment(directory, baseIndex, (int) Files.size(logPath));
+    }
+
+    /** Method returns base index written in file name, or -1 if it is not a log file */
+    static long baseIndexOf(Path logFile) {
+        String name = logFile.getFileName().toString();
+        if (!name.endsWith(LOG_SUFFIX)) { return -1; }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Method returns file name without suffix, numbers have equal length to keep files sorted */
+    private static String fileName(long baseIndex) {
+        return String.format("%020d", baseIndex);
+    }
+
+    long getBaseIndex() {
+        return baseIndex;
+    }
+
+    /** Method returns number of bytes used on disk */
+    long diskSize() throws IOException {
+        return Files.size(logPath) + Files.size(indexPath);
+    }
+
+    /** Method returns time of last change of the segment */
+    long lastModified() throws IOException {
+        return Files.getLastModifiedTime(logPath).toMillis();
+    }
+
+    /** Method returns number of entries, it maps the segment when it is needed */
+    int count() throws IOException {
+        if (count < 0) {
+            map(false);
+            recover();
+        }
+        return count;
+    }
+
+    /** Method returns true when segment is mapped */
+    boolean isMapped() {
+        return log != null;
+    }
+
+    /**
+     * Method appends message at the end of segment.
+     * It returns false when there is no place for it, then segment has to be rolled.
+     */
+    boolean tryAppend(ChatMessage message, int encodedSize) throws IOException {
+        count();
+        if (writePosition + 4 + encodedSize > size || (count + 1) * 4 > index.capacity()) { return false; }
+        try {
+            log.position(writePosition);
+            log.putInt(encodedSize);
+            message.writeTo(log);
+        } catch (BufferOverflowException e) {
+            return false;
+        }
+        index.putInt(count * 4, writePosition + 1);
+        writePosition = log.position();
+        count++;
+        return true;
+    }
+
+    /** Method reads entries from local index from (inclusive) to local index to (exclusive) */
+    void read(int from, int to, List<ChatMessage> messages) throws IOException {
+        count();
+        // mapping could be released by MessageLog after segment was counted
+        map(false);
+        for (int i = from; i < to; i++) {
+            int offset = index.getInt(i * 4) - 1;
+            ByteBuffer view = log.duplicate();
+            view.position(offset + 4);
+            messages.add(ChatMessage.readFrom(view));
+        }
+    }
+
+    /** Method writes mapped changes to the disk */
+    void flush() {
+        if (log != null) {
+            log.force();
+            index.force();
+        }
+    }
+
+    /** Method flushes and drops mapping, it will be mapped again on next use */
+    void release() {
+        flush();
+        log = null;
+        index = null;
+    }
+
+    /** Method deletes files of the segment */
+    void delete() throws IOException {
+        log = null;
+        index = null;
+        Files.deleteIfExists(logPath);
+        Files.deleteIfExists(indexPath);
+    }
+
+    /** Method maps files, new files get their full size */
+    private void map(boolean create) throws IOException {
+        if (log != null) { return; }
+        int indexSize = (size / MIN_ENTRY_SIZE + 1) * 4;
+        try (FileChannel logChannel = FileChannel.open(logPath, options(create));
+             FileChannel indexChannel = FileChannel.open(indexPath, options(create))) {
+            log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize);
+        }
+    }
+
+    private static StandardOpenOption[] options(boolean create) {
+        if (create) {
+            return new StandardOpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW};
+        }
+        return new StandardOpenOption[] {StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE};
+    }
+
+    /** Method counts written entries using index, entries which were not fully written are ignored */
+    private void recover() {
+        count = 0;
+        writePosition = 0;
+        while ((count + 1) * 4 <= index.capacity()) {
+            int offset = index.getInt(count * 4) - 1;
+            if (offset < 0 || offset + 4 > size) { break; }
+            int length = log.getInt(offset);
+            if (length <= 0 || offset + 4 + length > size) { break; }
+            writePosition = offset + 4 + length;
+            count++;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package CommunicatorP2P.store;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class is a persistent, append-only chat history kept in memory-mapped segment files.
+ * New messages are appended to the last segment, when it is full new one is rolled.
+ * On opening only names of segments are read and the last one is mapped,
+ * older segments are mapped lazily when history is scrolled back to them.
+ * Segments older than max age or over max size of the log are removed by compact method.
+ * Directory is locked, so only one window can use it.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see LogSegment
+ * @see HistoryStore
+ * @see AsyncHistoryStore
+ */
+public class MessageLog implements HistoryStore {
+
+    /** Default size of one segment */
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /** Default max age of segment, older are removed */
+    public static final long DEFAULT_MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+    /** Default max size of all segments */
+    public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+    /** Max number of older segments mapped at the same time */
+    private static final int MAX_MAPPED_SEGMENTS = 4;
+
+    /** Directory of segments */
+    private final Path directory;
+
+    /** Size of new segments */
+    private final int segmentSize;
+
+    /** Max age of segment in milliseconds */
+    private final long maxAge;
+
+    /** Max size of all segments in bytes */
+    private final long maxSize;
+
+    /** Segments sorted by base index */
+    private final TreeMap<Long, LogSegment> segments = new TreeMap<>();
+
+    /** Older segments mapped for reading, the most recently used at the end */
+    private final Deque<LogSegment> mapped = new ArrayDeque<>();
+
+    /** Channel of lock file */
+    private final FileChannel lockChannel;
+
+    /** Lock of the directory */
+    private final FileLock lock;
+
+    /** Segment where new messages are appended */
+    private LogSegment active;
+
+    /** Method opens log with default settings */
+    public static MessageLog open(Path directory) throws IOException {
+        return new MessageLog(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_AGE, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Constructor opens or creates log in given directory.
+     * @param directory directory of segments, it is created if it doesn't exist
+     * @param segmentSize size of one segment file
+     * @param maxAge max age of segment in milliseconds
+     * @param maxSize max size of all segments in bytes
+     */
+    public MessageLog(Path directory, int segmentSize, long maxAge, long maxSize) throws IOException {
+        if (segmentSize < 1024) { throw new IllegalArgumentException("Segment too small: " + segmentSize); }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxAge = maxAge;
+        this.maxSize = maxSize;
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            this.lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lockChannel.close();
+            throw new IOException("History is used by another window: " + directory);
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("History is used by another program: " + directory);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + LogSegment.LOG_SUFFIX)) {
+            for (Path file : files) {
+                long baseIndex = LogSegment.baseIndexOf(file);
+                if (baseIndex >= 0) { segments.put(baseIndex, LogSegment.existing(directory, baseIndex)); }
+            }
+        }
+        if (segments.isEmpty()) {
+            roll(0);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+        compact();
+    }
+
+    @Override
+    public synchronized long append(ChatMessage message) throws IOException {
+        int encodedSize = message.encodedSize();
+        if (4 + encodedSize > segmentSize) { throw new IOException("Message too big for segment: " + encodedSize); }
+        if (!active.tryAppend(message, encodedSize)) {
+            roll(size());
+            compact();
+            if (!active.tryAppend(message, encodedSize)) { throw new IOException("Can't append message"); }
+        }
+        return size() - 1;
+    }
+
+    @Override
+    public synchronized long firstIndex() {
+        return segments.firstKey();
+    }
+
+    @Override
+    public synchronized long size() {
+        try {
+            return active.getBaseIndex() + active.count();
+        } catch (IOException e) {
+            return active.getBaseIndex();
+        }
+    }
+
+    @Override
+    public synchronized List<ChatMessage> read(long from, int count) throws IOException {
+        long to = Math.min(size(), from + count);
+        from = Math.max(from, firstIndex());
+        List<ChatMessage> messages = new ArrayList<>((int) Math.max(0, to - from));
+        while (from < to) {
+            Map.Entry<Long, LogSegment> entry = segments.floorEntry(from);
+            LogSegment segment = entry.getValue();
+            Long nextBase = segments.higherKey(entry.getKey());
+            long segmentEnd = nextBase != null ? nextBase : size();
+            long end = Math.min(to, segmentEnd);
+            use(segment);
+            segment.read((int) (from - segment.getBaseIndex()), (int) (end - segment.getBaseIndex()), messages);
+            from = end;
+        }
+        return messages;
+    }
+
+    /** Method removes segments which are older than max age or over max size, the active one is kept */
+    public synchronized void compact() throws IOException {
+        long now = System.currentTimeMillis();
+        long total = 0;
+        for (LogSegment segment : segments.values()) { total += segment.diskSize(); }
+        while (segments.size() > 1) {
+            LogSegment oldest = segments.firstEntry().getValue();
+            if (now - oldest.lastModified() <= maxAge && total <= maxSize) { break; }
+            total -= oldest.diskSize();
+            segments.pollFirstEntry();
+            mapped.remove(oldest);
+            oldest.delete();
+        }
+    }
+
+    /** Method writes mapped changes of the active segment to the disk */
+    public synchronized void flush() {
+        active.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (LogSegment segment : mapped) { segment.release(); }
+        mapped.clear();
+        active.release();
+        try {
+            lock.release();
+        } finally {
+            lockChannel.close();
+        }
+    }
+
+    /** Method starts new active segment with given base index */
+    private void roll(long baseIndex) throws IOException {
+        if (active != null) { active.flush(); }
+        LogSegment segment = LogSegment.create(directory, baseIndex, segmentSize);
+        segments.put(baseIndex, segment);
+        if (active != null && active.isMapped()) { keepMapped(active); }
+        active = segment;
+    }
+
+    /** Method marks segment as recently used, mapping of the least recently used one is released */
+    private void use(LogSegment segment) {
+        if (segment == active) { return; }
+        mapped.remove(segment);
+        keepMapped(segment);
+    }
+
+    private void keepMapped(LogSegment segment) {
+        mapped.addLast(segment);
+        while (mapped.size() > MAX_MAPPED_SEGMENTS) {
+            mapped.pollFirst().release();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package CommunicatorP2P.store;
+
+/**
+ * This class is a bounded ring buffer of messages.
+ * Messages can be added and removed on both ends and read by index, every operation is O(1).
+ * It is not thread safe.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see ChatMessage
+ */
+public class MessageRing {
+
+    /** Place for messages */
+    private final ChatMessage[] elements;
+
+    /** Index in elements of the first message */
+    private int head;
+
+    /** Number of messages */
+    private int size;
+
+    public MessageRing(int capacity) {
+        if (capacity < 1) { throw new IllegalArgumentException("Capacity has to be positive"); }
+        this.elements = new ChatMessage[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    public boolean isFull() {
+        return size == elements.length;
+    }
+
+    /** Method returns message at given index, 0 is the oldest one */
+    public ChatMessage get(int index) {
+        if (index < 0 || index >= size) { throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size); }
+        return elements[slot(index)];
+    }
+
+    /** Method adds message at the end, ring must not be full */
+    public void addLast(ChatMessage message) {
+        checkNotFull();
+        elements[slot(size)] = message;
+        size++;
+    }
+
+    /** Method adds message at the beginning, ring must not be full */
+    public void addFirst(ChatMessage message) {
+        checkNotFull();
+        head = (head - 1 + elements.length) % elements.length;
+        elements[head] = message;
+        size++;
+    }
+
+    /** Method removes and returns the first message */
+    public ChatMessage removeFirst() {
+        checkNotEmpty();
+        ChatMessage message = elements[head];
+        elements[head] = null;
+        head = (head + 1) % elements.length;
+        size--;
+        return message;
+    }
+
+    /** Method removes and returns the last message */
+    public ChatMessage removeLast() {
+        checkNotEmpty();
+        int last = slot(size - 1);
+        ChatMessage message = elements[last];
+        elements[last] = null;
+        size--;
+        return message;
+    }
+
+    /** Method removes all messages */
+    public void clear() {
+        while (size > 0) { removeLast(); }
+        head = 0;
+    }
+
+    /** Method converts logical index to index in elements */
+    private int slot(int index) {
+        return (head + index) % elements.length;
+    }
+
+    private void checkNotFull() {
+        if (isFull()) { throw new IllegalStateException("Ring is full"); }
+    }
+
+    private void checkNotEmpty() {
+        if (size == 0) { throw new IllegalStateException("Ring is empty"); }
+    }
+}
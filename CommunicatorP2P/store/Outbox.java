@@ -0,0 +1,379 @@
+package CommunicatorP2P.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * This class is a durable outbox of the host: messages for guests who are not connected wait here,
+ * also when the host program is closed, until guest connects and confirms them.
+ * Messages are appended to segment files, in memory only their places are kept, indexed by nickName of
+ * the recipient. Every message has id, which grows also between runs, so guest can recognize message
+ * delivered again after crash of the host.
+ * <p>
+ * Body of every record in segments looks like:
+ * <pre>
+ * byte   kind       - QUEUED or DELIVERED
+ * long   id         - id of message, in DELIVERED all messages of the recipient up to this id are confirmed
+ * byte   nickLength
+ * byte[] nickName   - recipient
+ * QUEUED only:
+ * long   timestamp
+ * byte[] text       - UTF-8
+ * </pre>
+ * Queued messages are forced to the disk before enqueue returns, confirmations are not, because message
+ * delivered again is only ignored by the guest. Segments are removed from the oldest one when all their messages
+ * are confirmed, few messages left in the oldest segment are copied to the active one first, so one guest who never
+ * comes back doesn't keep all segments. Guests whose messages are kept are listed in file "recipients".
+ * Directory is locked, so only one host can use it.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see OutboxSegment
+ * @see CommunicatorP2P.core.OutboxRelay
+ */
+public class Outbox implements AutoCloseable {
+
+    /** Default size of one segment */
+    public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    /** Max number of waiting messages of one recipient, next ones are refused */
+    public static final int MAX_PENDING = 10_000;
+
+    /** Kind of record of queued message */
+    private static final byte QUEUED = 1;
+
+    /** Kind of record of confirmation */
+    private static final byte DELIVERED = 2;
+
+    /** Name of file with recipients */
+    private static final String RECIPIENTS = "recipients";
+
+    /** Directory of segments */
+    private final Path directory;
+
+    /** Size after which new segment is started */
+    private final int segmentSize;
+
+    /** Segments sorted by base id */
+    private final TreeMap<Long, OutboxSegment> segments = new TreeMap<>();
+
+    /** Places of waiting messages by recipient and id */
+    private final Map<String, TreeMap<Long, Location>> pending = new HashMap<>();
+
+    /** Guests whose messages are kept when they are not connected */
+    private final Set<String> recipients = new TreeSet<>();
+
+    /** Channel of lock file */
+    private final FileChannel lockChannel;
+
+    /** Lock of the directory */
+    private final FileLock lock;
+
+    /** Segment where records are appended */
+    private OutboxSegment active;
+
+    /** Id of next message */
+    private long nextId;
+
+    /** Method opens outbox with default segment size */
+    public static Outbox open(Path directory) throws IOException {
+        return new Outbox(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor opens or creates outbox in given directory and reads places of waiting messages.
+     * @param directory directory of segments, it is created if it doesn't exist
+     * @param segmentSize size after which new segment is started
+     */
+    public Outbox(Path directory, int segmentSize) throws IOException {
+        if (segmentSize < 1024) { throw new IllegalArgumentException("Segment too small: " + segmentSize); }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        this.lockChannel = FileChannel.open(directory.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            this.lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lockChannel.close();
+            throw new IOException("Outbox is used by another window: " + directory);
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Outbox is used by another program: " + directory);
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + OutboxSegment.SUFFIX)) {
+            for (Path file : files) {
+                long baseId = OutboxSegment.baseIdOf(file);
+                if (baseId >= 0) { segments.put(baseId, OutboxSegment.existing(directory, baseId)); }
+            }
+        }
+        Path recipientsFile = directory.resolve(RECIPIENTS);
+        if (Files.exists(recipientsFile)) {
+            for (String line : Files.readAllLines(recipientsFile, StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) { recipients.add(line); }
+            }
+        }
+        if (segments.isEmpty()) {
+            // ids of new outbox are bigger than ids of removed one, so guests don't take new messages for old ones
+            nextId = System.currentTimeMillis() * 1000;
+            roll();
+        } else {
+            nextId = segments.lastKey();
+            for (OutboxSegment segment : segments.values()) { segment.replay(this::replayRecord); }
+            for (TreeMap<Long, Location> messages : pending.values()) {
+                for (Location location : messages.values()) { location.segment.addLiveBytes(location.size); }
+            }
+            pending.values().removeIf(Map::isEmpty);
+            active = segments.lastEntry().getValue();
+            compact();
+        }
+    }
+
+    /** Method adds record read from segment to the index */
+    private void replayRecord(OutboxSegment segment, long offset, ByteBuffer body) {
+        byte kind = body.get();
+        long id = body.getLong();
+        String nickName = readNick(body);
+        nextId = Math.max(nextId, id + 1);
+        if (kind == QUEUED) {
+            // message copied by compaction replaces its older copy
+            messagesOf(nickName).put(id, new Location(segment, offset, OutboxSegment.RECORD_HEADER_SIZE + body.limit()));
+        } else if (kind == DELIVERED) {
+            messagesOf(nickName).headMap(id, true).clear();
+        }
+    }
+
+    /** Method returns true if messages for guest are kept when he is not connected */
+    public synchronized boolean isRecipient(String nickName) {
+        return recipients.contains(nickName);
+    }
+
+    /** Method returns guests whose messages are kept */
+    public synchronized Set<String> getRecipients() {
+        return new TreeSet<>(recipients);
+    }
+
+    /** Method starts keeping messages for guest, it is called when guest connects first time */
+    public synchronized void addRecipient(String nickName) throws IOException {
+        if (!recipients.add(nickName)) { return; }
+        Path temporary = directory.resolve(RECIPIENTS + ".tmp");
+        Files.write(temporary, recipients, StandardCharsets.UTF_8);
+        Files.move(temporary, directory.resolve(RECIPIENTS), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Method queues message for one guest. It returns id of the message, or -1 if guest has too many waiting messages. */
+    public synchronized long enqueue(String nickName, String text) throws IOException {
+        long id = append(nickName, System.currentTimeMillis(), text);
+        if (id >= 0) { active.force(); }
+        return id;
+    }
+
+    /**
+     * Method queues the same message for many guests, all records are forced to the disk once.
+     * It returns number of guests for whom message was queued.
+     */
+    public synchronized int enqueue(Collection<String> nickNames, String text) throws IOException {
+        long now = System.currentTimeMillis();
+        int queued = 0;
+        for (String nickName : nickNames) {
+            if (append(nickName, now, text) >= 0) { queued++; }
+        }
+        if (queued > 0) { active.force(); }
+        return queued;
+    }
+
+    /**
+     * Method returns waiting messages of guest with id bigger than given one, at most max messages, oldest first.
+     * Texts are read from the disk.
+     */
+    public synchronized List<Message> pending(String nickName, long afterId, int max) throws IOException {
+        TreeMap<Long, Location> messages = pending.get(nickName);
+        List<Message> result = new ArrayList<>();
+        if (messages == null) { return result; }
+        for (Map.Entry<Long, Location> entry : messages.tailMap(afterId, false).entrySet()) {
+            if (result.size() >= max) { break; }
+            Location location = entry.getValue();
+            ByteBuffer body = location.segment.read(location.offset);
+            body.get();
+            body.getLong();
+            readNick(body);
+            long timestamp = body.getLong();
+            String text = StandardCharsets.UTF_8.decode(body).toString();
+            result.add(new Message(entry.getKey(), timestamp, text));
+        }
+        return result;
+    }
+
+    /** Method returns number of waiting messages of guest */
+    public synchronized int pendingCount(String nickName) {
+        TreeMap<Long, Location> messages = pending.get(nickName);
+        return messages == null ? 0 : messages.size();
+    }
+
+    /** Method confirms all messages of guest up to given id, they are not delivered again */
+    public synchronized void delivered(String nickName, long upToId) throws IOException {
+        TreeMap<Long, Location> messages = pending.get(nickName);
+        if (messages == null) { return; }
+        NavigableMap<Long, Location> confirmed = messages.headMap(upToId, true);
+        if (confirmed.isEmpty()) { return; }
+        for (Location location : confirmed.values()) { location.segment.addLiveBytes(-location.size); }
+        confirmed.clear();
+        if (messages.isEmpty()) { pending.remove(nickName); }
+        writeRecord(DELIVERED, upToId, nickName, 0, null);
+        compact();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            active.force();
+            for (OutboxSegment segment : segments.values()) { segment.close(); }
+        } finally {
+            try {
+                lock.release();
+            } finally {
+                lockChannel.close();
+            }
+        }
+    }
+
+    /** Method appends QUEUED record and adds it to the index, it returns id or -1 if guest has too many messages */
+    private long append(String nickName, long timestamp, String text) throws IOException {
+        TreeMap<Long, Location> messages = messagesOf(nickName);
+        if (messages.size() >= MAX_PENDING) { return -1; }
+        long id = nextId++;
+        Location location = writeRecord(QUEUED, id, nickName, timestamp, text);
+        messages.put(id, location);
+        location.segment.addLiveBytes(location.size);
+        return id;
+    }
+
+    /** Method encodes record and appends it to the active segment, which is rolled when it is full */
+    private Location writeRecord(byte kind, long id, String nickName, long timestamp, String text) throws IOException {
+        byte[] nick = nickName.getBytes(StandardCharsets.UTF_8);
+        byte[] textBytes = text != null ? text.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        ByteBuffer body = ByteBuffer.allocate(1 + 8 + 1 + nick.length + (kind == QUEUED ? 8 + textBytes.length : 0));
+        body.put(kind).putLong(id).put((byte) nick.length).put(nick);
+        if (kind == QUEUED) { body.putLong(timestamp).put(textBytes); }
+        body.flip();
+        return appendBody(body);
+    }
+
+    /** Method appends encoded body to the active segment */
+    private Location appendBody(ByteBuffer body) throws IOException {
+        int size = OutboxSegment.RECORD_HEADER_SIZE + body.remaining();
+        if (active.size() > 0 && active.size() + size > segmentSize) { roll(); }
+        return new Location(active, active.append(body), size);
+    }
+
+    /** Method starts new active segment */
+    private void roll() throws IOException {
+        long baseId = nextId;
+        if (active != null) {
+            active.force();
+            // confirmations may fill segment without new ids
+            baseId = Math.max(baseId, active.getBaseId() + 1);
+        }
+        nextId = baseId;
+        active = OutboxSegment.create(directory, baseId);
+        segments.put(baseId, active);
+    }
+
+    /**
+     * Method removes segments from the oldest one, while they have no waiting messages.
+     * Oldest segment with few waiting messages gets them copied to the active segment first.
+     * Only the oldest segment is removed, because confirmations in it refer only to it and to older segments.
+     */
+    private void compact() throws IOException {
+        while (segments.size() > 1) {
+            OutboxSegment oldest = segments.firstEntry().getValue();
+            if (oldest.getLiveBytes() > segmentSize / 4) { return; }
+            if (oldest.getLiveBytes() > 0) {
+                copyForward(oldest);
+                active.force();
+            }
+            segments.pollFirstEntry();
+            oldest.delete();
+        }
+    }
+
+    /** Method copies waiting messages of segment to the active one */
+    private void copyForward(OutboxSegment segment) throws IOException {
+        for (TreeMap<Long, Location> messages : pending.values()) {
+            for (Map.Entry<Long, Location> entry : messages.entrySet()) {
+                Location location = entry.getValue();
+                if (location.segment != segment) { continue; }
+                Location copy = appendBody(segment.read(location.offset));
+                segment.addLiveBytes(-location.size);
+                copy.segment.addLiveBytes(copy.size);
+                entry.setValue(copy);
+            }
+        }
+    }
+
+    private TreeMap<Long, Location> messagesOf(String nickName) {
+        return pending.computeIfAbsent(nickName, name -> new TreeMap<>());
+    }
+
+    private static String readNick(ByteBuffer body) {
+        byte[] nick = new byte[body.get() & 0xFF];
+        body.get(nick);
+        return new String(nick, StandardCharsets.UTF_8);
+    }
+
+    /** Place of queued message */
+    private static final class Location {
+
+        /** Segment of the record */
+        private final OutboxSegment segment;
+
+        /** Offset of the record in segment */
+        private final long offset;
+
+        /** Size of the record with its header */
+        private final int size;
+
+        Location(OutboxSegment segment, long offset, int size) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+    /** Waiting message read from the outbox */
+    public static final class Message {
+
+        /** Id of the message, it grows with every queued message */
+        public final long id;
+
+        /** Time when message was queued, in milliseconds since epoch */
+        public final long timestamp;
+
+        /** Text of the message */
+        public final String text;
+
+        public Message(long id, long timestamp, String text) {
+            this.id = id;
+            this.timestamp = timestamp;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package CommunicatorP2P.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * This class is one segment file of the Outbox. File contains records:
+ * <pre>
+ * int    length - length of body
+ * int    crc32  - checksum of body
+ * byte[] body   - described in Outbox
+ * </pre>
+ * Checksum finds record which was not fully written before crash, it and everything after it is cut off.
+ * Segment is written by FileChannel, not mapped, because outbox is small and every record is forced to the disk.
+ * It is not thread safe, Outbox synchronizes access.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see Outbox
+ */
+class OutboxSegment {
+
+    /** Suffix of segment file */
+    static final String SUFFIX = ".box";
+
+    /** Size of record fields before body */
+    static final int RECORD_HEADER_SIZE = 4 + 4;
+
+    /** Max size of record body */
+    private static final int MAX_BODY_SIZE = 1024 * 1024;
+
+    /** Id of the next message when segment was created, it is also name of the file */
+    private final long baseId;
+
+    /** Path of segment file */
+    private final Path path;
+
+    /** Open channel of the file */
+    private final FileChannel channel;
+
+    /** Offset where next record is written */
+    private long writePosition;
+
+    /** Number of bytes of records of not delivered messages in this segment */
+    private long liveBytes;
+
+    /** Checksum reused for every record */
+    private final CRC32 crc = new CRC32();
+
+    private OutboxSegment(Path directory, long baseId, boolean create) throws IOException {
+        this.baseId = baseId;
+        this.path = directory.resolve(String.format("%020d", baseId) + SUFFIX);
+        this.channel = create
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /** Method creates new empty segment */
+    static OutboxSegment create(Path directory, long baseId) throws IOException {
+        return new OutboxSegment(directory, baseId, true);
+    }
+
+    /** Method opens existing segment, records are read by replay */
+    static OutboxSegment existing(Path directory, long baseId) throws IOException {
+        return new OutboxSegment(directory, baseId, false);
+    }
+
+    /** Method returns base id written in file name, or -1 if it is not a segment file */
+    static long baseIdOf(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) { return -1; }
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    long getBaseId() {
+        return baseId;
+    }
+
+    /** Method returns number of written bytes */
+    long size() {
+        return writePosition;
+    }
+
+    long getLiveBytes() {
+        return liveBytes;
+    }
+
+    void addLiveBytes(long delta) {
+        liveBytes += delta;
+    }
+
+    /** Method appends record with given body, which is read from position to limit. It returns offset of the record. */
+    long append(ByteBuffer body) throws IOException {
+        long offset = writePosition;
+        crc.reset();
+        crc.update(body.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        header.putInt(body.remaining()).putInt((int) crc.getValue()).flip();
+        long position = offset;
+        while (header.hasRemaining() || body.hasRemaining()) {
+            position += channel.write(header.hasRemaining() ? header : body, position);
+        }
+        writePosition = position;
+        return offset;
+    }
+
+    /** Method writes appended records to the disk */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    /** Method reads body of record at given offset */
+    ByteBuffer read(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        readFully(header, offset);
+        ByteBuffer body = ByteBuffer.allocate(header.getInt(0));
+        readFully(body, offset + RECORD_HEADER_SIZE);
+        body.flip();
+        return body;
+    }
+
+    /**
+     * Method reads all records and gives their bodies to the visitor. Record with wrong length or checksum
+     * ends the segment, file is cut there, so next records are appended after the last correct one.
+     */
+    void replay(RecordVisitor visitor) throws IOException {
+        long fileSize = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (position + RECORD_HEADER_SIZE <= fileSize) {
+            header.clear();
+            readFully(header, position);
+            int length = header.getInt(0);
+            if (length <= 0 || length > MAX_BODY_SIZE || position + RECORD_HEADER_SIZE + length > fileSize) { break; }
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(body, position + RECORD_HEADER_SIZE);
+            body.flip();
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != header.getInt(4)) { break; }
+            visitor.visit(this, position, body);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        if (position < fileSize) {
+            System.out.println("Outbox segment " + path.getFileName() + " cut at " + position + " of " + fileSize);
+            channel.truncate(position);
+        }
+        writePosition = position;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) { throw new IOException("Outbox segment too short: " + path); }
+            position += read;
+        }
+    }
+
+    /** Method closes the file */
+    void close() throws IOException {
+        channel.close();
+    }
+
+    /** Method closes and deletes the file */
+    void delete() throws IOException {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    /** Receiver of records read by replay */
+    interface RecordVisitor {
+
+        /** Method gets body of record at given offset, it may keep the buffer */
+        void visit(OutboxSegment segment, long offset, ByteBuffer body) throws IOException;
+    }
+}
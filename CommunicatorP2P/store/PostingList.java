@@ -0,0 +1,155 @@
+package CommunicatorP2P.store;
+
+import java.util.Arrays;
+
+/**
+ * This class is a posting list of the SearchIndex: growing indexes of messages which contain one term.
+ * Indexes are kept in blocks of BLOCK_SIZE, the first index of every block is kept in array,
+ * others are written as variable length differences from the previous one, so common terms take
+ * one or two bytes per message. Cursor walks the list from the newest message to the oldest
+ * and skips whole blocks with binary search, so intersection of common and rare terms is cheap.
+ * It is not thread safe, SearchIndex synchronizes access.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see SearchIndex
+ */
+class PostingList {
+
+    /** Number of indexes in one block */
+    static final int BLOCK_SIZE = 128;
+
+    /** First index of every block */
+    private long[] firsts = new long[1];
+
+    /** Offset in data of differences of every block */
+    private int[] offsets = new int[1];
+
+    /** Differences of indexes written as variable length numbers */
+    private byte[] data = new byte[8];
+
+    /** Number of used bytes of data */
+    private int dataLength;
+
+    /** Number of blocks */
+    private int blocks;
+
+    /** Number of indexes */
+    private int size;
+
+    /** The last added index */
+    private long last = -1;
+
+    int size() {
+        return size;
+    }
+
+    /** Method adds index of message, it has to be bigger than the last one, equal one is ignored */
+    void add(long index) {
+        if (index <= last) { return; }
+        if (size % BLOCK_SIZE == 0) {
+            if (blocks == firsts.length) {
+                firsts = Arrays.copyOf(firsts, blocks * 2);
+                offsets = Arrays.copyOf(offsets, blocks * 2);
+            }
+            firsts[blocks] = index;
+            offsets[blocks] = dataLength;
+            blocks++;
+        } else {
+            writeDelta(index - last);
+        }
+        last = index;
+        size++;
+    }
+
+    /** Method returns new cursor which walks from the newest index to the oldest */
+    Cursor cursor() {
+        return new Cursor();
+    }
+
+    private void writeDelta(long delta) {
+        if (dataLength + 10 > data.length) { data = Arrays.copyOf(data, data.length * 2); }
+        while ((delta & ~0x7FL) != 0) {
+            data[dataLength++] = (byte) ((delta & 0x7F) | 0x80);
+            delta >>>= 7;
+        }
+        data[dataLength++] = (byte) delta;
+    }
+
+    /** Method decodes given block into values and returns number of its indexes */
+    private int decode(int block, long[] values) {
+        int count = block == blocks - 1 ? size - block * BLOCK_SIZE : BLOCK_SIZE;
+        long value = firsts[block];
+        values[0] = value;
+        int position = offsets[block];
+        for (int i = 1; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            value += delta;
+            values[i] = value;
+        }
+        return count;
+    }
+
+    /** Method returns the last block with first index not bigger than target, up to given block, or -1 */
+    private int floorBlock(long target, int highest) {
+        int low = 0;
+        int high = highest;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (firsts[middle] <= target) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    /** Cursor of the list, it moves only to older indexes */
+    class Cursor {
+
+        /** Decoded block */
+        private final long[] values = new long[BLOCK_SIZE];
+
+        /** Number of the decoded block, -1 before the first move */
+        private int block = -1;
+
+        /** Position in values of the current index */
+        private int position;
+
+        /**
+         * Method moves cursor to the biggest index not bigger than target and returns it, or -1 if there is no such index.
+         * Target must not be bigger than index returned before.
+         */
+        long advanceTo(long target) {
+            int limit = position;
+            if (block < 0 || target < values[0]) {
+                int found = floorBlock(target, block < 0 ? blocks - 1 : block - 1);
+                if (found < 0) { return -1; }
+                block = found;
+                limit = decode(found, values) - 1;
+            }
+            int low = 0;
+            int high = limit;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (values[middle] <= target) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            position = low;
+            return values[low];
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package CommunicatorP2P.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * This class is a full-text index of a HistoryStore kept in memory. For every word of messages and for every
+ * author there is a PostingList of indexes of messages, time of every message is kept in array of seconds.
+ * Index is built by its own thread: when it is opened the thread reads whole history in batches,
+ * later it reads messages appended to the store after update is called, so neither FX thread nor
+ * network threads tokenize anything. Query walks posting lists from the newest message, so the first
+ * page of results is ready after reading a few blocks, next pages are read only when they are needed.
+ * Messages removed by compaction of the store are not returned, they leave the index on next opening.
+ * Information of the program is not indexed.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see SearchQuery
+ * @see PostingList
+ * @see HistoryStore
+ */
+public class SearchIndex implements Closeable {
+
+    /** Max number of messages read from the store at once */
+    private static final int BATCH_SIZE = 512;
+
+    /** Longer words are not indexed, they are links or codes */
+    static final int MAX_TERM_LENGTH = 32;
+
+    /** Start of time of the seconds array, 2000-01-01 UTC */
+    private static final long EPOCH_SECONDS = 946_684_800L;
+
+    /** Seconds value of message which is not searchable */
+    private static final int NOT_INDEXED = Integer.MIN_VALUE;
+
+    /** Indexed store */
+    private final HistoryStore store;
+
+    /** Posting lists of lowered words */
+    private final Map<String, PostingList> terms = new HashMap<>();
+
+    /** Posting lists of lowered nickNames of authors */
+    private final Map<String, PostingList> senders = new HashMap<>();
+
+    /** Index of the first indexed message */
+    private final long base;
+
+    /** Time of every message since EPOCH_SECONDS, from base index */
+    private int[] seconds = new int[1024];
+
+    /** Index of the first message which is not indexed yet */
+    private long indexed;
+
+    /** Flag set when index is closed */
+    private boolean closed;
+
+    /** Indexer thread */
+    private final Thread indexer;
+
+    public SearchIndex(HistoryStore store, String name) {
+        this.store = store;
+        this.base = store.firstIndex();
+        this.indexed = base;
+        this.indexer = new Thread(this::indexLoop, name + "-search-indexer");
+        this.indexer.setDaemon(true);
+        this.indexer.start();
+    }
+
+    /** Method wakes indexer after messages were appended to the store. It can be called from any thread. */
+    public synchronized void update() {
+        notifyAll();
+    }
+
+    /** Method returns true when all messages of the store are indexed */
+    public synchronized boolean isUpToDate() {
+        return indexed >= store.size();
+    }
+
+    /** Method starts query, results are read by pages from returned Hits. Empty query finds nothing. */
+    public Hits search(SearchQuery query) {
+        long floor = Math.max(base, store.firstIndex());
+        synchronized (this) {
+            if (query.isEmpty()) { return new Hits(List.of(), query, floor, -1); }
+            List<PostingList> lists = new ArrayList<>();
+            for (String term : query.getTerms()) { lists.add(terms.get(term)); }
+            if (query.getSender() != null) { lists.add(senders.get(query.getSender())); }
+            if (lists.contains(null)) { return new Hits(List.of(), query, floor, -1); }
+            // the rarest term leads, others are only probed
+            lists.sort(Comparator.comparingInt(PostingList::size));
+            List<PostingList.Cursor> cursors = new ArrayList<>(lists.size());
+            for (PostingList list : lists) { cursors.add(list.cursor()); }
+            return new Hits(cursors, query, floor, indexed - 1);
+        }
+    }
+
+    /** Method stops indexer thread, store is not closed */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            indexer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Method splits text into lowered words of letters and digits */
+    static void tokenize(String text, List<String> tokens) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                if (i - start <= MAX_TERM_LENGTH) { tokens.add(lower(text.substring(start, i))); }
+                start = -1;
+            }
+        }
+    }
+
+    static String lower(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+
+    /** Indexer thread loop, it tokenizes batch without lock, so queries wait only while batch is added */
+    private void indexLoop() {
+        List<List<String>> words = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (true) {
+                long from;
+                synchronized (this) {
+                    while (!closed && indexed >= store.size()) { wait(); }
+                    if (closed) { return; }
+                    from = Math.max(indexed, store.firstIndex());
+                }
+                List<ChatMessage> messages = store.read(from, BATCH_SIZE);
+                if (messages.isEmpty()) { return; }
+                for (ChatMessage message : messages) {
+                    List<String> tokens = new ArrayList<>();
+                    if (!message.isInfo()) { tokenize(message.getText(), tokens); }
+                    words.add(tokens);
+                }
+                synchronized (this) {
+                    for (long index = indexed; index < from; index++) { setSeconds(index, NOT_INDEXED); }
+                    for (int i = 0; i < messages.size(); i++) {
+                        add(from + i, messages.get(i), words.get(i));
+                    }
+                    indexed = from + messages.size();
+                }
+                words.clear();
+            }
+        } catch (IOException e) {
+            System.out.println("Search indexing error: " + e);
+        } catch (InterruptedException e) {
+            System.out.println("Search indexer interrupted");
+        }
+    }
+
+    private void add(long index, ChatMessage message, List<String> tokens) {
+        if (message.isInfo()) {
+            setSeconds(index, NOT_INDEXED);
+            return;
+        }
+        long time = Math.max(0, message.getTimestamp() / 1000 - EPOCH_SECONDS);
+        setSeconds(index, (int) Math.min(Integer.MAX_VALUE, time));
+        for (String token : tokens) { terms.computeIfAbsent(token, term -> new PostingList()).add(index); }
+        senders.computeIfAbsent(lower(message.getSender()), sender -> new PostingList()).add(index);
+    }
+
+    private void setSeconds(long index, int value) {
+        int position = (int) (index - base);
+        if (position >= seconds.length) { seconds = Arrays.copyOf(seconds, Math.max(position + 1, seconds.length * 2)); }
+        seconds[position] = value;
+    }
+
+    /** Method checks time filter of query, it is called with lock */
+    private boolean inTime(long index, SearchQuery query) {
+        int value = seconds[(int) (index - base)];
+        if (value == NOT_INDEXED) { return false; }
+        long time = (value + EPOCH_SECONDS) * 1000;
+        return time >= query.getAfter() && time < query.getBefore();
+    }
+
+    /**
+     * This class is a running query: cursor over messages matching it, from the newest to the oldest.
+     * Messages appended after query was started are not found.
+     */
+    public final class Hits {
+
+        /** Cursors of posting lists, the shortest one first, empty if only time is filtered */
+        private final List<PostingList.Cursor> cursors;
+
+        /** Query of these results */
+        private final SearchQuery query;
+
+        /** Index of the oldest message which can be found */
+        private final long floor;
+
+        /** Biggest index which can be the next result */
+        private long position;
+
+        private Hits(List<PostingList.Cursor> cursors, SearchQuery query, long floor, long position) {
+            this.cursors = cursors;
+            this.query = query;
+            this.floor = floor;
+            this.position = position;
+        }
+
+        public SearchQuery getQuery() {
+            return query;
+        }
+
+        /** Method returns true if there are no more results */
+        public boolean isFinished() {
+            return position < floor;
+        }
+
+        /** Method returns indexes in the store of at most max next results, from the newest */
+        public long[] next(int max) {
+            long[] page = new long[max];
+            int count = 0;
+            synchronized (SearchIndex.this) {
+                while (count < max) {
+                    long index = nextIndex();
+                    if (index < 0) { break; }
+                    page[count++] = index;
+                }
+            }
+            return count == max ? page : Arrays.copyOf(page, count);
+        }
+
+        /** Method finds the next result with intersection of posting lists, or returns -1 */
+        private long nextIndex() {
+            while (position >= floor) {
+                long candidate = cursors.isEmpty() ? position : cursors.get(0).advanceTo(position);
+                boolean all = candidate >= floor;
+                for (int i = 1; i < cursors.size() && all; i++) {
+                    long found = cursors.get(i).advanceTo(candidate);
+                    if (found != candidate) {
+                        all = false;
+                        candidate = found;
+                    }
+                }
+                if (candidate < floor) {
+                    position = -1;
+                    return -1;
+                }
+                if (!all) {
+                    // other list has nothing between found and candidate, the leader jumps there
+                    position = candidate;
+                    continue;
+                }
+                position = candidate - 1;
+                if ((!query.hasTimeRange() && !cursors.isEmpty()) || inTime(candidate, query)) { return candidate; }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package CommunicatorP2P.store;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class is a parsed query of the SearchIndex. Query is a list of words separated by spaces,
+ * message matches when it contains all of them. Words can be also filters:
+ * <pre>
+ * from:nick         - message written by given user
+ * after:2026-10-18  - message written that day or later
+ * before:2026-10-18 - message written before that day
+ * </pre>
+ * Words are split and lowered by the same rules as indexed texts. Filter with wrong value is a normal word.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see SearchIndex
+ */
+public final class SearchQuery {
+
+    /** Terms which message must contain */
+    private final List<String> terms;
+
+    /** Lowered nickName of the author, null for any author */
+    private final String sender;
+
+    /** Lowest time of message in milliseconds */
+    private final long after;
+
+    /** Time in milliseconds before which message has to be written */
+    private final long before;
+
+    private SearchQuery(List<String> terms, String sender, long after, long before) {
+        this.terms = Collections.unmodifiableList(terms);
+        this.sender = sender;
+        this.after = after;
+        this.before = before;
+    }
+
+    /** Method parses text typed by user, dates are days of default time zone */
+    public static SearchQuery parse(String text) {
+        List<String> terms = new ArrayList<>();
+        String sender = null;
+        long after = Long.MIN_VALUE;
+        long before = Long.MAX_VALUE;
+        for (String word : text.trim().split("\\s+")) {
+            if (word.startsWith("from:") && word.length() > 5) {
+                sender = SearchIndex.lower(word.substring(5));
+                continue;
+            }
+            if (word.startsWith("after:")) {
+                long day = startOfDay(word.substring(6));
+                if (day != Long.MIN_VALUE) {
+                    after = day;
+                    continue;
+                }
+            }
+            if (word.startsWith("before:")) {
+                long day = startOfDay(word.substring(7));
+                if (day != Long.MIN_VALUE) {
+                    before = day;
+                    continue;
+                }
+            }
+            SearchIndex.tokenize(word, terms);
+        }
+        return new SearchQuery(terms, sender, after, before);
+    }
+
+    /** Method returns start of given day in milliseconds, or Long.MIN_VALUE if it is not a date */
+    private static long startOfDay(String date) {
+        try {
+            return LocalDate.parse(date).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    /** Method returns lowered nickName of the author, or null for any author */
+    public String getSender() {
+        return sender;
+    }
+
+    public long getAfter() {
+        return after;
+    }
+
+    public long getBefore() {
+        return before;
+    }
+
+    /** Method returns true if query has no words and no filters */
+    public boolean isEmpty() {
+        return terms.isEmpty() && sender == null && after == Long.MIN_VALUE && before == Long.MAX_VALUE;
+    }
+
+    /** Method returns true if query filters by time */
+    boolean hasTimeRange() {
+        return after != Long.MIN_VALUE || before != Long.MAX_VALUE;
+    }
+}
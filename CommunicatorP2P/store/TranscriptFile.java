@@ -0,0 +1,133 @@
+package CommunicatorP2P.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class keeps chat history of one window in two temporary files.
+ * Data file contains encoded messages one after another, index file contains
+ * 8 byte offset of every message, so any message is found without scanning.
+ * Files are deleted when the store is closed.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see HistoryStore
+ * @see ChatMessage
+ */
+public class TranscriptFile implements HistoryStore {
+
+    /** Size of one entry in index file */
+    private static final int INDEX_ENTRY_SIZE = 8;
+
+    /** Path of data file */
+    private final Path dataPath;
+
+    /** Path of index file */
+    private final Path indexPath;
+
+    /** Channel of data file */
+    private final FileChannel data;
+
+    /** Channel of index file */
+    private final FileChannel index;
+
+    /** Buffer reused for writing of one message */
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(1024);
+
+    /** Buffer reused for writing of one index entry */
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+
+    /** Number of messages */
+    private long size;
+
+    /** Offset where next message is written */
+    private long dataEnd;
+
+    /** Method creates store in new temporary files */
+    public static TranscriptFile createTemporary() throws IOException {
+        Path dataPath = Files.createTempFile("communicator-", ".dat");
+        Path indexPath = Files.createTempFile("communicator-", ".idx");
+        return new TranscriptFile(dataPath, indexPath);
+    }
+
+    private TranscriptFile(Path dataPath, Path indexPath) throws IOException {
+        this.dataPath = dataPath;
+        this.indexPath = indexPath;
+        this.data = FileChannel.open(dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.index = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public synchronized long append(ChatMessage message) throws IOException {
+        int length = message.encodedSize();
+        if (writeBuffer.capacity() < 4 + length) {
+            writeBuffer = ByteBuffer.allocate(Integer.highestOneBit(4 + length) << 1);
+        }
+        writeBuffer.clear();
+        writeBuffer.putInt(length);
+        message.writeTo(writeBuffer);
+        writeBuffer.flip();
+        long offset = dataEnd;
+        while (writeBuffer.hasRemaining()) {
+            dataEnd += data.write(writeBuffer, dataEnd);
+        }
+        indexBuffer.clear();
+        indexBuffer.putLong(offset).flip();
+        index.write(indexBuffer, size * INDEX_ENTRY_SIZE);
+        return size++;
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized List<ChatMessage> read(long from, int count) throws IOException {
+        long to = Math.min(size, from + count);
+        List<ChatMessage> messages = new ArrayList<>((int) Math.max(0, to - from));
+        if (from >= to) { return messages; }
+        long start = offsetOf(from);
+        long end = to == size ? dataEnd : offsetOf(to);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        while (buffer.hasRemaining()) {
+            if (data.read(buffer, start + buffer.position()) < 0) { throw new IOException("Transcript is truncated"); }
+        }
+        buffer.flip();
+        for (long i = from; i < to; i++) {
+            int length = buffer.getInt();
+            int next = buffer.position() + length;
+            messages.add(ChatMessage.readFrom(buffer));
+            buffer.position(next);
+        }
+        return messages;
+    }
+
+    /** Method reads offset of message with given index */
+    private long offsetOf(long messageIndex) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+        while (buffer.hasRemaining()) {
+            if (index.read(buffer, messageIndex * INDEX_ENTRY_SIZE + buffer.position()) < 0) {
+                throw new IOException("Index is truncated");
+            }
+        }
+        return buffer.getLong(0);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            data.close();
+            index.close();
+        } finally {
+            Files.deleteIfExists(dataPath);
+            Files.deleteIfExists(indexPath);
+        }
+    }
+}
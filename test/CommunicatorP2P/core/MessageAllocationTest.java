@@ -0,0 +1,131 @@
+package CommunicatorP2P.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * This class tests that flow of messages between ChatServer and ChatClient allocates almost nothing
+ * once it is warm. Server echoes every message of the guest, guest sends next message when echo comes,
+ * and bytes allocated by all threads are divided by number of messages.
+ * Frames, texts and read buffers are reused, what is left comes from JDK: ArrayBlockingQueue allocates
+ * node of its condition every time writer of the client waits for empty queue, and selector boxes
+ * descriptors bigger than 127. Allocation of virtual threads is not counted by JVM, so on Java with them
+ * the test checks only threads of the server.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see ChatServer
+ * @see ChatClient
+ */
+class MessageAllocationTest {
+
+    /** Max bytes allocated per message in steady state, without reuse it was more than 100 */
+    private static final double MAX_BYTES_PER_MESSAGE = 48;
+
+    /** Round trips before measuring, they warm JIT and pools up */
+    private static final long WARMUP = 50_000;
+
+    /** Measured round trips */
+    private static final long MEASURED = 50_000;
+
+    /** How long test waits for connection and for round trips, in milliseconds */
+    private static final long TIMEOUT = 60_000;
+
+    /** Text of every message */
+    private static final String TEXT = "Hi, are you coming to the lab today?";
+
+    @Test
+    void steadyStateMessagesAllocateAlmostNothing() throws Exception {
+        com.sun.management.ThreadMXBean threads = threadBean();
+        assumeTrue(threads != null, "JVM doesn't count allocated bytes");
+        int portNumber = freePort();
+        AtomicLong echoes = new AtomicLong();
+        AtomicReference<ChatServer> server = new AtomicReference<>();
+        AtomicReference<ChatClient> client = new AtomicReference<>();
+        server.set(new ChatServer(portNumber, "host", new Listener() {
+            @Override
+            public void onMessageText(String nickName, CharSequence text) {
+                server.get().send(nickName, text);
+            }
+        }));
+        client.set(new ChatClient("guest", new Listener() {
+            @Override
+            public void onMessageText(String nickName, CharSequence text) {
+                if (echoes.incrementAndGet() < WARMUP + MEASURED) { client.get().send(TEXT); }
+            }
+        }));
+        try (ChatServer host = server.get(); ChatClient guest = client.get()) {
+            host.start();
+            guest.connect("127.0.0.1", portNumber);
+            assertTrue(guest.awaitConnected(TIMEOUT), "guest not connected");
+            guest.send(TEXT);
+            awaitEchoes(echoes, WARMUP);
+            long echoesBefore = echoes.get();
+            long allocatedBefore = allocated(threads);
+            awaitEchoes(echoes, WARMUP + MEASURED);
+            long allocated = allocated(threads) - allocatedBefore;
+            double perMessage = (double) allocated / (2 * (echoes.get() - echoesBefore));
+            assertTrue(perMessage <= MAX_BYTES_PER_MESSAGE,
+                    String.format("%.1f B allocated per message, limit %.0f B", perMessage, MAX_BYTES_PER_MESSAGE));
+        }
+    }
+
+    /** Method waits until guest got given number of echoes */
+    private static void awaitEchoes(AtomicLong echoes, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (echoes.get() < count && System.currentTimeMillis() < deadline) { Thread.sleep(10); }
+        assertTrue(echoes.get() >= count, "only " + echoes.get() + " echoes of " + count);
+    }
+
+    /** Method returns bytes allocated by all live threads */
+    private static long allocated(com.sun.management.ThreadMXBean threads) {
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) { total += bytes; }
+        }
+        return total;
+    }
+
+    /** Method returns bean which counts allocated bytes, or null if JVM doesn't have it */
+    private static com.sun.management.ThreadMXBean threadBean() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) { return null; }
+        com.sun.management.ThreadMXBean hotspotBean = (com.sun.management.ThreadMXBean) bean;
+        if (!hotspotBean.isThreadAllocatedMemorySupported()) { return null; }
+        hotspotBean.setThreadAllocatedMemoryEnabled(true);
+        return hotspotBean;
+    }
+
+    /** Method returns port which is free now */
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /** Listener which ignores events other than messages */
+    private abstract static class Listener implements MessageListener {
+
+        @Override
+        public void onConnected(String nickName) {
+        }
+
+        @Override
+        public void onMessage(String nickName, String text) {
+            onMessageText(nickName, text);
+        }
+
+        @Override
+        public void onDisconnected(String nickName, Throwable cause) {
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package CommunicatorP2P.net;
+
+import CommunicatorP2P.core.ChatClient;
+import CommunicatorP2P.core.MessageListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLSession;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * This class tests TLS between SelectorServer and ChatClient with self-signed PKCS12 keystore
+ * generated by keytool of running Java. It checks that messages go both ways, that reconnecting client
+ * resumes TLS session instead of full handshake, and that all buffers go back to BufferPool when
+ * connections are closed.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see TlsContext
+ * @see TlsChannel
+ * @see BufferPool
+ */
+class TlsRoundTripTest {
+
+    /** Password of generated keystore */
+    private static final String PASSWORD = "changeit";
+
+    /** How long test waits for connection or message, in milliseconds */
+    private static final long TIMEOUT = 10_000;
+
+    /** Number of connections of the client, all after the first one should resume TLS session */
+    private static final int CONNECTIONS = 3;
+
+    /** Directory of generated keystore */
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("communicator-tls");
+    }
+
+    @AfterEach
+    void deleteDirectory() throws IOException {
+        for (File file : directory.toFile().listFiles()) { Files.delete(file.toPath()); }
+        Files.delete(directory);
+    }
+
+    /** Test connects client few times to TLS server and checks messages, resumption and buffers */
+    @Test
+    void messagesGoBothWaysAndSessionIsResumed() throws Exception {
+        Path keyStore = generateKeyStore(directory);
+        int portNumber = freePort();
+        TlsContext loaded = TlsContext.fromKeyStore(keyStore, PASSWORD.toCharArray());
+        List<TlsChannel> clientChannels = Collections.synchronizedList(new ArrayList<>());
+        // the same context for both sides, client channels are remembered to look at their sessions
+        TlsContext tls = new TlsContext(loaded.getContext()) {
+            @Override
+            public TlsChannel clientChannel(SocketChannel channel, String host, int portNumber) throws IOException {
+                TlsChannel created = super.clientChannel(channel, host, portNumber);
+                clientChannels.add(created);
+                return created;
+            }
+        };
+        BlockingQueue<String> hostInbox = new LinkedBlockingQueue<>();
+        BlockingQueue<String> guestInbox = new LinkedBlockingQueue<>();
+        SelectorServer server = new SelectorServer(portNumber, "host", 1, new ServerListener() {
+            @Override
+            public void onConnected(Connection connection) {
+            }
+
+            @Override
+            public void onMessage(Connection connection, String text) {
+                hostInbox.add(text);
+                connection.send("echo " + text);
+            }
+
+            @Override
+            public void onDisconnected(Connection connection) {
+            }
+        });
+        server.setTls(tls);
+        server.start();
+        try {
+            long firstCreated = 0;
+            for (int i = 0; i < CONNECTIONS; i++) {
+                ChatClient client = new ChatClient("guest", inbox(guestInbox));
+                client.setTls(tls);
+                client.connect("127.0.0.1", portNumber);
+                assertTrue(client.awaitConnected(TIMEOUT), "connection " + i + " not established");
+                assertTrue(client.send("hello " + i), "message " + i + " not sent");
+                assertEquals("hello " + i, hostInbox.poll(TIMEOUT, TimeUnit.MILLISECONDS), "host didn't get message " + i);
+                assertEquals("echo hello " + i, guestInbox.poll(TIMEOUT, TimeUnit.MILLISECONDS), "guest didn't get echo " + i);
+                assertEquals(i + 1, clientChannels.size(), "client didn't use TLS channel " + i);
+                SSLSession session = clientChannels.get(i).getEngine().getSession();
+                // resumed session keeps creation time of the session of full handshake
+                if (i == 0) {
+                    firstCreated = session.getCreationTime();
+                } else {
+                    assertEquals(firstCreated, session.getCreationTime(), "connection " + i + " made full handshake, session was not resumed");
+                }
+                client.close();
+                awaitNoConnections(server);
+                Thread.sleep(50);
+            }
+        } finally {
+            server.stop();
+        }
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (tls.getBuffers().getInUseCount() > 0 && System.currentTimeMillis() < deadline) { Thread.sleep(10); }
+        assertEquals(0, tls.getBuffers().getInUseCount(), "buffers not returned to BufferPool");
+    }
+
+    /** Method generates self-signed PKCS12 keystore, which is key and trust store at once */
+    private static Path generateKeyStore(Path directory) throws IOException, InterruptedException {
+        Path keyStore = directory.resolve("communicator.p12");
+        String keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString();
+        Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "communicator", "-keyalg", "EC",
+                "-groupname", "secp256r1", "-validity", "1", "-dname", "CN=communicator", "-storetype", "PKCS12",
+                "-keystore", keyStore.toString(), "-storepass", PASSWORD, "-keypass", PASSWORD)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        assertTrue(process.waitFor() == 0 && Files.exists(keyStore), "keytool failed");
+        return keyStore;
+    }
+
+    /** Method waits until server closed all connections, so their buffers were given back */
+    private static void awaitNoConnections(SelectorServer server) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (server.getOpenConnectionCount() > 0 && System.currentTimeMillis() < deadline) { Thread.sleep(10); }
+        assertEquals(0, server.getOpenConnectionCount(), "server didn't close connection of the client");
+    }
+
+    /** Method returns listener which puts messages into inbox */
+    private static MessageListener inbox(BlockingQueue<String> inbox) {
+        return new MessageListener() {
+            @Override
+            public void onConnected(String nickName) {
+            }
+
+            @Override
+            public void onMessage(String nickName, String text) {
+                inbox.add(text);
+            }
+
+            @Override
+            public void onDisconnected(String nickName, Throwable cause) {
+            }
+        };
+    }
+
+    /** Method returns port which is free now */
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package CommunicatorP2P.store;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * This class tests that AsyncHistoryStore counts only written messages,
+ * so readers never get messages from other indexes than append returned.
+ * <p>
+ * @author Piotr Klukowski
+ * @version 1.0
+ * @see AsyncHistoryStore
+ */
+class AsyncHistoryStoreTest {
+
+    @Test
+    void writtenMessagesAreReadAtTheirIndexes() throws IOException {
+        FailingStore store = new FailingStore(Integer.MAX_VALUE);
+        store.gate.countDown();
+        try (AsyncHistoryStore history = new AsyncHistoryStore(store, "test")) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(i, history.append(ChatMessage.of("guest", "m" + i)));
+            }
+            List<ChatMessage> page = history.read(4, 3);
+            assertEquals(3, page.size());
+            assertEquals("m4", page.get(0).getText());
+        }
+    }
+
+    @Test
+    void readerOfMessageAfterFailedWriteFails() throws Exception {
+        FailingStore store = new FailingStore(3);
+        try (AsyncHistoryStore history = new AsyncHistoryStore(store, "test")) {
+            for (int i = 0; i < 10; i++) {
+                history.append(ChatMessage.of("guest", "m" + i));
+            }
+            // reader waits for messages which are not written yet, then writing starts and fails
+            FutureTask<List<ChatMessage>> page = new FutureTask<>(() -> history.read(0, 10));
+            Thread reader = new Thread(page);
+            reader.start();
+            while (reader.getState() != Thread.State.WAITING) { Thread.sleep(1); }
+            store.gate.countDown();
+            ExecutionException error = assertThrows(ExecutionException.class, page::get);
+            assertSame(store.error, error.getCause().getCause());
+            assertEquals("m2", history.read(0, 3).get(2).getText());
+            assertEquals(3, history.size());
+            assertThrows(IOException.class, () -> history.append(ChatMessage.of("guest", "next")));
+        }
+        assertEquals(3, store.size());
+    }
+
+    /** Store in memory, which fails when given number of messages is written, the first write waits for gate */
+    private static final class FailingStore implements HistoryStore {
+
+        /** Number of messages which can be written */
+        private final int capacity;
+
+        /** Written messages */
+        private final List<ChatMessage> messages = new ArrayList<>();
+
+        /** Error thrown when store is full */
+        final IOException error = new IOException("Disk full");
+
+        /** Opened by test when writing can start */
+        final CountDownLatch gate = new CountDownLatch(1);
+
+        FailingStore(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Override
+        public long append(ChatMessage message) throws IOException {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+            return add(message);
+        }
+
+        /** Method adds message or throws error when store is full */
+        private synchronized long add(ChatMessage message) throws IOException {
+            if (messages.size() == capacity) { throw error; }
+            messages.add(message);
+            return messages.size() - 1;
+        }
+
+        @Override
+        public synchronized long size() {
+            return messages.size();
+        }
+
+        @Override
+        public synchronized List<ChatMessage> read(long from, int count) {
+            return new ArrayList<>(messages.subList((int) from, (int) Math.min(messages.size(), from + count)));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}